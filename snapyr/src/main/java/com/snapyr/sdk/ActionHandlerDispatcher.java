@@ -0,0 +1,203 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import com.snapyr.sdk.integrations.AliasPayload;
+import com.snapyr.sdk.integrations.BasePayload;
+import com.snapyr.sdk.integrations.GroupPayload;
+import com.snapyr.sdk.integrations.IdentifyPayload;
+import com.snapyr.sdk.integrations.ScreenPayload;
+import com.snapyr.sdk.integrations.TrackPayload;
+import com.snapyr.sdk.internal.Utils;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers payloads to the {@link SnapyrActionHandler}.
+ *
+ * <p>By default the handler is called synchronously on the analytics thread, before the payload
+ * is queued. With a capacity, callbacks are instead queued to a single thread of their own, so
+ * they're still delivered in event order but a slow handler no longer holds up recording. When the
+ * queue is full the {@link Snapyr.OverflowPolicy} decides which callback gives way. The client
+ * dispatches queued callbacks only once the payload has been serialized, so the handler thread
+ * never reads a payload the analytics thread is still writing out.
+ *
+ * <p>Queued callbacks report the time spent in them and the delay before they started to {@link
+ * Stats}. Synchronous callbacks are part of the analytics thread's own work, and aren't timed
+ * separately.
+ */
+class ActionHandlerDispatcher {
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final SnapyrActionHandler handler;
+    private final Stats stats;
+    /** Null when callbacks are delivered synchronously. */
+    private final ThreadPoolExecutor executor;
+
+    /** Delivers callbacks synchronously. */
+    ActionHandlerDispatcher(SnapyrActionHandler handler, Stats stats) {
+        this(handler, stats, 0, Snapyr.OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Delivers callbacks on a thread of their own, queueing up to {@code capacity} of them, or
+     * synchronously if {@code capacity} is zero.
+     */
+    ActionHandlerDispatcher(
+            SnapyrActionHandler handler,
+            Stats stats,
+            int capacity,
+            Snapyr.OverflowPolicy overflowPolicy) {
+        this.handler = handler;
+        this.stats = stats;
+        if (handler == null || capacity == 0) {
+            executor = null;
+        } else {
+            executor =
+                    new ThreadPoolExecutor(
+                            1,
+                            1,
+                            KEEP_ALIVE_SECONDS,
+                            TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<Runnable>(capacity),
+                            new Utils.AnalyticsThreadFactory(),
+                            rejectionHandler(overflowPolicy));
+            // Events come in bursts, so the thread isn't kept around while there are none.
+            executor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    private RejectedExecutionHandler rejectionHandler(Snapyr.OverflowPolicy overflowPolicy) {
+        switch (overflowPolicy) {
+            case DROP_NEWEST:
+                return new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        stats.dispatchActionHandlerDrop();
+                    }
+                };
+            case DROP_OLDEST:
+                return new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            return;
+                        }
+                        // Only the analytics thread adds callbacks, so this makes room for r.
+                        if (executor.getQueue().poll() != null) {
+                            stats.dispatchActionHandlerDrop();
+                        }
+                        executor.execute(r);
+                    }
+                };
+            case BLOCK:
+                return new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            return;
+                        }
+                        try {
+                            executor.getQueue().put(r);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(e);
+                        }
+                    }
+                };
+            default:
+                throw new AssertionError("Unknown overflow policy: " + overflowPolicy);
+        }
+    }
+
+    /**
+     * Returns true if callbacks are queued to a thread of their own. Such callbacks must only be
+     * dispatched once the payload has been queued.
+     */
+    boolean isAsync() {
+        return executor != null;
+    }
+
+    void dispatch(final BasePayload payload) {
+        if (handler == null) {
+            return;
+        }
+        if (executor == null) {
+            deliver(payload);
+            return;
+        }
+        final long dispatched = System.nanoTime();
+        executor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        long start = System.nanoTime();
+                        if (deliver(payload)) {
+                            stats.dispatchActionHandlerCallback(
+                                    System.nanoTime() - start, start - dispatched);
+                        }
+                    }
+                });
+    }
+
+    /** Returns false if the payload has no callback. */
+    private boolean deliver(BasePayload payload) {
+        switch (payload.type()) {
+            case alias:
+                handler.onAlias((AliasPayload) payload);
+                break;
+            case track:
+                handler.onTrack((TrackPayload) payload);
+                break;
+            case identify:
+                handler.onIdentify((IdentifyPayload) payload);
+                break;
+            case screen:
+                handler.onScreen((ScreenPayload) payload);
+                break;
+            case group:
+                handler.onGroup((GroupPayload) payload);
+                break;
+            default:
+                return false;
+        }
+        return true;
+    }
+
+    /** Returns the number of callbacks waiting to be delivered. */
+    int pendingCount() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /** Stops delivering callbacks; the ones already queued are still delivered. */
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
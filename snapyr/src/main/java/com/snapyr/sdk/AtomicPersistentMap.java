@@ -0,0 +1,229 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A thread safe, mutable map that holds the current version of a {@link PersistentMap}. Writes swap
+ * in a new version with a compare and set, so they cost O(log n) and never block readers, and
+ * {@link #snapshot()} returns the current version in O(1) without copying it.
+ *
+ * <p>Like {@link com.snapyr.sdk.internal.Utils.NullableConcurrentHashMap}, null keys and values are
+ * ignored rather than rejected.
+ */
+final class AtomicPersistentMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+    private final AtomicReference<PersistentMap<K, V>> current;
+    private Set<Entry<K, V>> entrySet;
+
+    AtomicPersistentMap() {
+        current = new AtomicReference<>(PersistentMap.<K, V>empty());
+    }
+
+    AtomicPersistentMap(Map<? extends K, ? extends V> map) {
+        this();
+        putAll(map);
+    }
+
+    /** Returns an immutable view of the current contents of this map. */
+    PersistentMap<K, V> snapshot() {
+        return current.get();
+    }
+
+    @Override
+    public int size() {
+        return current.get().size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return current.get().containsKey(key);
+    }
+
+    @Override
+    public V get(Object key) {
+        return current.get().get(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            return null;
+        }
+        while (true) {
+            PersistentMap<K, V> map = current.get();
+            if (current.compareAndSet(map, map.plus(key, value))) {
+                return map.get(key);
+            }
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> entries) {
+        while (true) {
+            PersistentMap<K, V> map = current.get();
+            PersistentMap<K, V> updated = map;
+            for (Entry<? extends K, ? extends V> entry : entries.entrySet()) {
+                K key = entry.getKey();
+                V value = entry.getValue();
+                if (key != null && value != null) {
+                    updated = updated.plus(key, value);
+                }
+            }
+            if (current.compareAndSet(map, updated)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        while (true) {
+            PersistentMap<K, V> map = current.get();
+            if (current.compareAndSet(map, map.minus(key))) {
+                return map.get(key);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        current.set(PersistentMap.<K, V>empty());
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        if (key == null || value == null) {
+            return null;
+        }
+        while (true) {
+            PersistentMap<K, V> map = current.get();
+            V existing = map.get(key);
+            if (existing != null || current.compareAndSet(map, map.plus(key, value))) {
+                return existing;
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        while (true) {
+            PersistentMap<K, V> map = current.get();
+            V existing = map.get(key);
+            if (existing == null || !existing.equals(value)) {
+                return false;
+            }
+            if (current.compareAndSet(map, map.minus(key))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (newValue == null) {
+            return false;
+        }
+        while (true) {
+            PersistentMap<K, V> map = current.get();
+            V existing = map.get(key);
+            if (existing == null || !existing.equals(oldValue)) {
+                return false;
+            }
+            if (current.compareAndSet(map, map.plus(key, newValue))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        if (value == null) {
+            return null;
+        }
+        while (true) {
+            PersistentMap<K, V> map = current.get();
+            V existing = map.get(key);
+            if (existing == null || current.compareAndSet(map, map.plus(key, value))) {
+                return existing;
+            }
+        }
+    }
+
+    /** Iterates over the version of the map that was current when iteration started. */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet =
+                    new AbstractSet<Entry<K, V>>() {
+                        @Override
+                        public int size() {
+                            return AtomicPersistentMap.this.size();
+                        }
+
+                        @Override
+                        public void clear() {
+                            AtomicPersistentMap.this.clear();
+                        }
+
+                        @Override
+                        public Iterator<Entry<K, V>> iterator() {
+                            final Iterator<Entry<K, V>> iterator =
+                                    current.get().entrySet().iterator();
+                            return new Iterator<Entry<K, V>>() {
+                                private Entry<K, V> last;
+
+                                @Override
+                                public boolean hasNext() {
+                                    return iterator.hasNext();
+                                }
+
+                                @Override
+                                public Entry<K, V> next() {
+                                    last = iterator.next();
+                                    return last;
+                                }
+
+                                @Override
+                                public void remove() {
+                                    if (last == null) {
+                                        throw new IllegalStateException();
+                                    }
+                                    AtomicPersistentMap.this.remove(last.getKey(), last.getValue());
+                                    last = null;
+                                }
+                            };
+                        }
+                    };
+        }
+        return entrySet;
+    }
+}
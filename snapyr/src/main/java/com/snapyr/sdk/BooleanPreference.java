@@ -29,6 +29,8 @@ public class BooleanPreference {
     private final SharedPreferences preferences;
     private final String key;
     private final boolean defaultValue;
+    // Read on every event, so kept in memory after the first read.
+    private volatile Boolean value;
 
     public BooleanPreference(SharedPreferences preferences, String key, boolean defaultValue) {
         this.preferences = preferences;
@@ -37,10 +39,16 @@ public class BooleanPreference {
     }
 
     public boolean get() {
-        return preferences.getBoolean(key, defaultValue);
+        Boolean current = value;
+        if (current == null) {
+            current = preferences.getBoolean(key, defaultValue);
+            value = current;
+        }
+        return current;
     }
 
     public void set(boolean value) {
+        this.value = value;
         preferences.edit().putBoolean(key, value).apply();
     }
 }
@@ -23,18 +23,11 @@
  */
 package com.snapyr.sdk;
 
-import android.util.JsonReader;
-import android.util.JsonToken;
-import android.util.JsonWriter;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -43,115 +36,31 @@ import java.util.Map;
  */
 public class Cartographer {
     static final Cartographer INSTANCE = new Builder().lenient(true).prettyPrint(false).build();
+    /**
+     * Reads project settings, which are large documents of which only a few numbers are ever
+     * read.
+     */
+    static final Cartographer SETTINGS =
+            new Builder().lenient(true).prettyPrint(false).lazyNumbers(true).build();
 
     private final boolean isLenient;
     private final boolean prettyPrint;
+    private final boolean lazyNumbers;
+    private final JsonEngine engine;
 
-    Cartographer(boolean isLenient, boolean prettyPrint) {
-        this.isLenient = isLenient;
-        this.prettyPrint = prettyPrint;
-    }
-
-    /** Reads the {@link JsonReader} into a {@link Map}. */
-    private static Map<String, Object> readerToMap(JsonReader reader) throws IOException {
-        Map<String, Object> map = new LinkedHashMap<String, Object>();
-        reader.beginObject();
-        while (reader.hasNext()) {
-            map.put(reader.nextName(), readValue(reader));
-        }
-        reader.endObject();
-        return map;
-    }
-
-    /** Reads the {@link JsonReader} into a {@link List}. */
-    private static List<Object> readerToList(JsonReader reader) throws IOException {
-        // todo: try to infer the type of the List?
-        List<Object> list = new ArrayList<Object>();
-        reader.beginArray();
-        while (reader.hasNext()) {
-            list.add(readValue(reader));
-        }
-        reader.endArray();
-        return list;
-    }
-
-    /** Reads the next value in the {@link JsonReader}. */
-    private static Object readValue(JsonReader reader) throws IOException {
-        JsonToken token = reader.peek();
-        switch (token) {
-            case BEGIN_OBJECT:
-                return readerToMap(reader);
-            case BEGIN_ARRAY:
-                return readerToList(reader);
-            case BOOLEAN:
-                return reader.nextBoolean();
-            case NULL:
-                reader.nextNull(); // consume the null token
-                return null;
-            case NUMBER:
-                return reader.nextDouble();
-            case STRING:
-                return reader.nextString();
-            default:
-                throw new IllegalStateException("Invalid token " + token);
-        }
-    }
-
-    /** Encode the given {@link Map} into the {@link JsonWriter}. */
-    private static void mapToWriter(Map<?, ?> map, JsonWriter writer) throws IOException {
-        writer.beginObject();
-        for (Map.Entry<?, ?> entry : map.entrySet()) {
-            writer.name(String.valueOf(entry.getKey()));
-            writeValue(entry.getValue(), writer);
-        }
-        writer.endObject();
-    }
-
-    /** Print the json representation of a List to the given writer. */
-    private static void listToWriter(List<?> list, JsonWriter writer) throws IOException {
-        writer.beginArray();
-        for (Object value : list) {
-            writeValue(value, writer);
-        }
-        writer.endArray();
-    }
-
-    // Decoding
-
-    /**
-     * Print the json representation of an array to the given writer. Primitive arrays cannot be
-     * cast to Object[], to this method accepts the raw object and uses {@link
-     * Array#getLength(Object)} and {@link Array#get(Object, int)} to read the array.
-     */
-    private static void arrayToWriter(Object array, JsonWriter writer) throws IOException {
-        writer.beginArray();
-        for (int i = 0, size = Array.getLength(array); i < size; i++) {
-            writeValue(Array.get(array, i), writer);
+    /** Returns a cartographer configured like this one that uses {@code engine} for json. */
+    Cartographer withEngine(JsonEngine engine) {
+        if (engine == this.engine) {
+            return this;
         }
-        writer.endArray();
+        return new Cartographer(isLenient, prettyPrint, lazyNumbers, engine);
     }
 
-    /**
-     * Writes the given {@link Object} to the {@link JsonWriter}.
-     *
-     * @throws IOException
-     */
-    private static void writeValue(Object value, JsonWriter writer) throws IOException {
-        if (value == null) {
-            writer.nullValue();
-        } else if (value instanceof Number) {
-            writer.value((Number) value);
-        } else if (value instanceof Boolean) {
-            writer.value((Boolean) value);
-        } else if (value instanceof List) {
-            listToWriter((List) value, writer);
-        } else if (value instanceof Map) {
-            mapToWriter((Map) value, writer);
-        } else if (value.getClass().isArray()) {
-            arrayToWriter(value, writer);
-        } else {
-            writer.value(String.valueOf(value));
-        }
+    Cartographer(boolean isLenient, boolean prettyPrint, boolean lazyNumbers, JsonEngine engine) {
+        this.isLenient = isLenient;
+        this.prettyPrint = prettyPrint;
+        this.lazyNumbers = lazyNumbers;
+        this.engine = engine;
     }
 
     /**
@@ -178,10 +87,8 @@ public class Cartographer {
         if (reader == null) {
             throw new IllegalArgumentException("reader == null");
         }
-        JsonReader jsonReader = new JsonReader(reader);
-        jsonReader.setLenient(isLenient);
         try {
-            return readerToMap(jsonReader);
+            return engine.readObject(reader, isLenient, lazyNumbers);
         } finally {
             reader.close();
         }
@@ -195,10 +102,9 @@ public class Cartographer {
         if (json.length() == 0) {
             throw new IllegalArgumentException("json empty");
         }
-        JsonReader reader = new JsonReader(new StringReader(json));
-        reader.setLenient(isLenient);
+        Reader reader = new StringReader(json);
         try {
-            return readValue(reader);
+            return engine.readValue(reader, isLenient, lazyNumbers);
         } finally {
             reader.close();
         }
@@ -231,15 +137,31 @@ public class Cartographer {
             throw new IllegalArgumentException("writer == null");
         }
 
-        JsonWriter jsonWriter = new JsonWriter(writer);
-        jsonWriter.setLenient(isLenient);
-        if (prettyPrint) {
-            jsonWriter.setIndent("  ");
-        }
         try {
-            mapToWriter(map, jsonWriter);
+            engine.write(map, writer, isLenient, prettyPrint);
         } finally {
-            jsonWriter.close();
+            writer.close();
+        }
+    }
+
+    /**
+     * Serializes the map into it's UTF-8 encoded json representation, appending it to the provided
+     * {@link Utf8JsonWriter}. This is the same json {@link #toJson(Map, Writer)} writes, without
+     * going through a {@link JsonEngine}.
+     */
+    void toJson(Map<?, ?> map, Utf8JsonWriter writer) {
+        if (map == null) {
+            throw new IllegalArgumentException("map == null");
+        }
+        if (writer == null) {
+            throw new IllegalArgumentException("writer == null");
+        }
+
+        if (prettyPrint) {
+            writer.writeRaw(toJson(map));
+        } else {
+            writer.setLenient(isLenient);
+            writer.writeMap(map);
         }
     }
 
@@ -247,12 +169,14 @@ public class Cartographer {
     public static class Builder {
         private boolean isLenient;
         private boolean prettyPrint;
+        private boolean lazyNumbers;
+        private JsonEngine engine;
 
         /**
          * Configure this parser to be be liberal in what it accepts. By default, this parser is
          * strict and only accepts JSON as specified by <a
          * href="http://www.ietf.org/rfc/rfc4627.txt">RFC 4627</a>. See {@link
-         * JsonReader#setLenient(boolean)} for more details.
+         * android.util.JsonReader#setLenient(boolean)} for more details.
          */
         public Builder lenient(boolean isLenient) {
             this.isLenient = isLenient;
@@ -268,8 +192,34 @@ public class Cartographer {
             return this;
         }
 
+        /**
+         * Configures Cartographer to decode numbers into holders that are only parsed once their
+         * value is read, for large documents where most numbers are never looked at. Otherwise
+         * numbers are decoded into a {@link Long} if they are integers that fit in a long, and a
+         * {@link Double} if not. This option only affects Json deserialization.
+         */
+        public Builder lazyNumbers(boolean lazyNumbers) {
+            this.lazyNumbers = lazyNumbers;
+            return this;
+        }
+
+        /**
+         * Configure the {@link JsonEngine} that reads and writes json. By default, {@link
+         * JsonEngine#ANDROID} is used.
+         */
+        public Builder engine(JsonEngine engine) {
+            if (engine == null) {
+                throw new IllegalArgumentException("engine == null");
+            }
+            this.engine = engine;
+            return this;
+        }
+
         public Cartographer build() {
-            return new Cartographer(isLenient, prettyPrint);
+            if (engine == null) {
+                engine = JsonEngine.ANDROID;
+            }
+            return new Cartographer(isLenient, prettyPrint, lazyNumbers, engine);
         }
     }
 }
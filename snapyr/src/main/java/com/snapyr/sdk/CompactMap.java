@@ -0,0 +1,355 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An insertion ordered {@link Map} for the small maps that make up most payloads. Keys, their hashes
+ * and values are kept in parallel arrays and looked up with a linear scan over the hashes, so a map
+ * costs four objects rather than one per entry as with a {@link java.util.LinkedHashMap}. Once a
+ * map holds more than {@link #LINEAR_SCAN_LIMIT} entries, an open addressing table with linear
+ * probing is built over the arrays to keep lookups constant time.
+ *
+ * <p>Permits null keys and values. Like the JDK maps, this class is not thread safe.
+ */
+final class CompactMap<K, V> extends AbstractMap<K, V> {
+
+    /** The largest map that is searched with a linear scan, rather than through an index. */
+    static final int LINEAR_SCAN_LIMIT = 16;
+
+    private static final int DEFAULT_CAPACITY = 8;
+    private static final Object[] EMPTY = new Object[0];
+    private static final int[] EMPTY_HASHES = new int[0];
+
+    private Object[] keys;
+    private int[] hashes;
+    private Object[] values;
+    private int size;
+    /**
+     * Maps hashes to positions in the arrays, plus one so that zero marks an empty slot. Null until
+     * the map outgrows {@link #LINEAR_SCAN_LIMIT}.
+     */
+    private int[] index;
+
+    private int modCount;
+    private Set<Entry<K, V>> entrySet;
+
+    CompactMap() {
+        keys = EMPTY;
+        hashes = EMPTY_HASHES;
+        values = EMPTY;
+    }
+
+    CompactMap(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity < 0: " + initialCapacity);
+        }
+        keys = initialCapacity == 0 ? EMPTY : new Object[initialCapacity];
+        hashes = initialCapacity == 0 ? EMPTY_HASHES : new int[initialCapacity];
+        values = initialCapacity == 0 ? EMPTY : new Object[initialCapacity];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key, hash(key)) >= 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        int i = indexOf(key, hash(key));
+        //noinspection unchecked
+        return i < 0 ? null : (V) values[i];
+    }
+
+    @Override
+    public V put(K key, V value) {
+        int hash = hash(key);
+        int i = indexOf(key, hash);
+        if (i >= 0) {
+            //noinspection unchecked
+            V previous = (V) values[i];
+            values[i] = value;
+            return previous;
+        }
+        if (size == keys.length) {
+            grow(size + 1);
+        }
+        keys[size] = key;
+        hashes[size] = hash;
+        values[size] = value;
+        size++;
+        modCount++;
+        if (index != null) {
+            if (size * 2 > index.length) {
+                rebuildIndex();
+            } else {
+                insert(index, hash, size);
+            }
+        } else if (size > LINEAR_SCAN_LIMIT) {
+            rebuildIndex();
+        }
+        return null;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        if (size + map.size() > keys.length) {
+            grow(size + map.size());
+        }
+        super.putAll(map);
+    }
+
+    @Override
+    public V remove(Object key) {
+        int i = indexOf(key, hash(key));
+        if (i < 0) {
+            return null;
+        }
+        //noinspection unchecked
+        V previous = (V) values[i];
+        removeAt(i);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            keys[i] = null;
+            values[i] = null;
+        }
+        size = 0;
+        index = null;
+        modCount++;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    /** Returns the position of {@code key} in the arrays, or -1 if it isn't in the map. */
+    private int indexOf(Object key, int hash) {
+        if (index == null) {
+            for (int i = 0; i < size; i++) {
+                if (hashes[i] == hash && equal(key, keys[i])) return i;
+            }
+            return -1;
+        }
+        int mask = index.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int position = index[slot] - 1;
+            if (position < 0) {
+                return -1;
+            }
+            if (hashes[position] == hash && equal(key, keys[position])) {
+                return position;
+            }
+        }
+    }
+
+    private void removeAt(int i) {
+        int moved = size - i - 1;
+        if (moved > 0) {
+            System.arraycopy(keys, i + 1, keys, i, moved);
+            System.arraycopy(hashes, i + 1, hashes, i, moved);
+            System.arraycopy(values, i + 1, values, i, moved);
+        }
+        size--;
+        keys[size] = null;
+        values[size] = null;
+        modCount++;
+        // Removals shift the arrays, so the positions in the index are stale.
+        index = null;
+        if (size > LINEAR_SCAN_LIMIT) {
+            rebuildIndex();
+        }
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(keys.length * 2, DEFAULT_CAPACITY);
+        if (capacity < minCapacity) {
+            capacity = minCapacity;
+        }
+        Object[] newKeys = new Object[capacity];
+        int[] newHashes = new int[capacity];
+        Object[] newValues = new Object[capacity];
+        System.arraycopy(keys, 0, newKeys, 0, size);
+        System.arraycopy(hashes, 0, newHashes, 0, size);
+        System.arraycopy(values, 0, newValues, 0, size);
+        keys = newKeys;
+        hashes = newHashes;
+        values = newValues;
+    }
+
+    /** Builds an index with at most a 50% load factor. */
+    private void rebuildIndex() {
+        int capacity = Integer.highestOneBit(size * 4 - 1);
+        int[] newIndex = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            insert(newIndex, hashes[i], i + 1);
+        }
+        index = newIndex;
+    }
+
+    private static void insert(int[] index, int hash, int position) {
+        int mask = index.length - 1;
+        int slot = hash & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position;
+    }
+
+    /** Spreads the hash code so keys that differ only in their high bits don't collide. */
+    private static int hash(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            CompactMap.this.clear();
+        }
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new Iterator<Entry<K, V>>() {
+                private int next;
+                private int last = -1;
+                private int expectedModCount = modCount;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public Entry<K, V> next() {
+                    if (modCount != expectedModCount) {
+                        throw new ConcurrentModificationException();
+                    }
+                    if (next >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    last = next++;
+                    return new MapEntry(last);
+                }
+
+                @Override
+                public void remove() {
+                    if (last < 0) {
+                        throw new IllegalStateException();
+                    }
+                    if (modCount != expectedModCount) {
+                        throw new ConcurrentModificationException();
+                    }
+                    removeAt(last);
+                    next = last;
+                    last = -1;
+                    expectedModCount = modCount;
+                }
+            };
+        }
+    }
+
+    /** An entry that reads and writes through to the arrays. */
+    private final class MapEntry implements Entry<K, V> {
+
+        private final int position;
+
+        MapEntry(int position) {
+            this.position = position;
+        }
+
+        @Override
+        public K getKey() {
+            //noinspection unchecked
+            return (K) keys[position];
+        }
+
+        @Override
+        public V getValue() {
+            //noinspection unchecked
+            return (V) values[position];
+        }
+
+        @Override
+        public V setValue(V value) {
+            //noinspection unchecked
+            V previous = (V) values[position];
+            values[position] = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> other = (Entry<?, ?>) o;
+            return equal(getKey(), other.getKey()) && equal(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            K key = getKey();
+            V value = getValue();
+            return (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Configuration;
+import android.net.ConnectivityManager;
+import androidx.annotation.NonNull;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the values of a {@link SnapyrContext} that are queried from system services current.
+ * They're queried once when the context is populated, and then again only when the system reports
+ * that they changed: on connectivity changes for the network, on configuration changes for the
+ * screen and locale, and on time zone changes. Events read them from the context's snapshot, so
+ * they carry the current values without querying any service themselves.
+ */
+class ContextProviders extends BroadcastReceiver implements ComponentCallbacks {
+
+    /**
+     * Re-queries one value on the executor. Changes reported while a refresh is pending share it,
+     * since it reads the latest state anyway.
+     */
+    abstract class Provider implements Runnable {
+        private final AtomicBoolean pending = new AtomicBoolean();
+
+        abstract void update();
+
+        void refresh() {
+            if (pending.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            pending.set(false);
+            update();
+        }
+    }
+
+    private final Context context;
+    private final SnapyrContext snapyrContext;
+    private final Executor executor;
+
+    final Provider network =
+            new Provider() {
+                @Override
+                void update() {
+                    snapyrContext.putNetwork(context);
+                }
+            };
+    final Provider screen =
+            new Provider() {
+                @Override
+                void update() {
+                    snapyrContext.putScreen(context);
+                }
+            };
+    final Provider locale =
+            new Provider() {
+                @Override
+                void update() {
+                    snapyrContext.putLocale();
+                }
+            };
+    final Provider timezone =
+            new Provider() {
+                @Override
+                void update() {
+                    snapyrContext.putTimezone();
+                }
+            };
+
+    /** Refreshes are run on {@code executor}, in order with the events that read them. */
+    ContextProviders(Context context, SnapyrContext snapyrContext, Executor executor) {
+        this.context = context;
+        this.snapyrContext = snapyrContext;
+        this.executor = executor;
+    }
+
+    void register() {
+        IntentFilter filter = new IntentFilter();
+        //noinspection deprecation
+        filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        context.registerReceiver(this, filter);
+        context.registerComponentCallbacks(this);
+    }
+
+    void unregister() {
+        context.unregisterReceiver(this);
+        context.unregisterComponentCallbacks(this);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        //noinspection deprecation
+        if (ConnectivityManager.CONNECTIVITY_ACTION.equals(action)) {
+            network.refresh();
+        } else if (Intent.ACTION_TIMEZONE_CHANGED.equals(action)) {
+            timezone.refresh();
+        }
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        screen.refresh();
+        locale.refresh();
+    }
+
+    @Override
+    public void onLowMemory() {}
+}
@@ -27,18 +27,21 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 public abstract class Crypto {
-    public static Crypto none() {
-        return new Crypto() {
-            @Override
-            public InputStream decrypt(InputStream is) {
-                return is;
-            }
+    private static final Crypto NONE =
+            new Crypto() {
+                @Override
+                public InputStream decrypt(InputStream is) {
+                    return is;
+                }
+
+                @Override
+                public OutputStream encrypt(OutputStream os) {
+                    return os;
+                }
+            };
 
-            @Override
-            public OutputStream encrypt(OutputStream os) {
-                return os;
-            }
-        };
+    public static Crypto none() {
+        return NONE;
     }
 
     public abstract InputStream decrypt(InputStream is);
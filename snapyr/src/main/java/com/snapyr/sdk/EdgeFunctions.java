@@ -0,0 +1,335 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import android.os.Debug;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transformations configured in the {@code edgeFunction} section of the project settings, run on
+ * the properties of track events before they're recorded, so the ingest tier doesn't have to:
+ *
+ * <pre>
+ * "edgeFunction": {
+ *   "budgetMicros": 500,
+ *   "rules": [
+ *     { "op": "rename", "event": "Order Completed", "from": "total", "to": "revenue" },
+ *     { "op": "drop", "property": "debugInfo" },
+ *     { "op": "hash", "property": "email" },
+ *     { "op": "enrich", "property": "plan", "trait": "plan" }
+ *   ]
+ * }
+ * </pre>
+ *
+ * Rules without an {@code event} apply to every event. {@code hash} replaces a value with the hex
+ * SHA-256 of its string form, and {@code enrich} copies a trait of the current user into a
+ * property. Rules are compiled once per settings into an array of operations per event, in the
+ * order they're listed, and unknown or malformed rules are skipped.
+ *
+ * <p>Each event gets a budget of CPU time on the calling thread. {@code drop} and {@code hash}
+ * always run, since skipping one could leak the property it's meant to remove, and so does every
+ * operation before the last of them, since it may feed one. Once the budget is used up, the
+ * operations after that are skipped and the event is recorded as transformed so far. The time spent
+ * on each event, and whether it went over budget, is reported to {@link Stats}.
+ */
+class EdgeFunctions {
+
+    static final long DEFAULT_BUDGET_MICROS = 1000;
+
+    private static final String RULES_KEY = "rules";
+    private static final String BUDGET_KEY = "budgetMicros";
+    private static final String OP_KEY = "op";
+    private static final String EVENT_KEY = "event";
+    private static final String PROPERTY_KEY = "property";
+    private static final String FROM_KEY = "from";
+    private static final String TO_KEY = "to";
+    private static final String TRAIT_KEY = "trait";
+    private static final Operation[] NO_OPERATIONS = new Operation[0];
+
+    /** Leaves every event as is. */
+    static final EdgeFunctions EMPTY =
+            new EdgeFunctions(
+                    null,
+                    Collections.<String, Operation[]>emptyMap(),
+                    NO_OPERATIONS,
+                    TimeUnit.MICROSECONDS.toNanos(DEFAULT_BUDGET_MICROS));
+
+    /** The settings these functions were compiled from. */
+    final ProjectSettings settings;
+
+    private final Map<String, Operation[]> byEvent;
+    private final Operation[] allEvents;
+    private final long budgetNanos;
+
+    private EdgeFunctions(
+            ProjectSettings settings,
+            Map<String, Operation[]> byEvent,
+            Operation[] allEvents,
+            long budgetNanos) {
+        this.settings = settings;
+        this.byEvent = byEvent;
+        this.allEvents = allEvents;
+        this.budgetNanos = budgetNanos;
+    }
+
+    static EdgeFunctions compile(ProjectSettings settings) {
+        ValueMap config = settings == null ? null : settings.edgeFunctions();
+        Object rules = config == null ? null : config.get(RULES_KEY);
+        if (!(rules instanceof List)) {
+            return new EdgeFunctions(settings, EMPTY.byEvent, EMPTY.allEvents, EMPTY.budgetNanos);
+        }
+        long budgetNanos =
+                TimeUnit.MICROSECONDS.toNanos(
+                        Math.max(0, config.getLong(BUDGET_KEY, DEFAULT_BUDGET_MICROS)));
+
+        // Keep the listed order: rules for all events are merged into each event's chain.
+        List<String> events = new ArrayList<>();
+        List<String> ruleEvents = new ArrayList<>();
+        List<Operation> operations = new ArrayList<>();
+        for (Object rule : (List<?>) rules) {
+            if (!(rule instanceof Map)) {
+                continue;
+            }
+            ValueMap ruleMap = new ValueMap(cast(rule));
+            Operation operation = Operation.compile(ruleMap);
+            if (operation == null) {
+                continue;
+            }
+            String event = ruleMap.getString(EVENT_KEY);
+            if (event != null && !events.contains(event)) {
+                events.add(event);
+            }
+            ruleEvents.add(event);
+            operations.add(operation);
+        }
+
+        Map<String, Operation[]> byEvent = new HashMap<>();
+        for (String event : events) {
+            byEvent.put(event, chain(event, ruleEvents, operations));
+        }
+        return new EdgeFunctions(
+                settings, byEvent, chain(null, ruleEvents, operations), budgetNanos);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> cast(Object map) {
+        return (Map<String, Object>) map;
+    }
+
+    /** Returns the operations of the rules for {@code event} or for all events, in order. */
+    private static Operation[] chain(
+            String event, List<String> ruleEvents, List<Operation> operations) {
+        List<Operation> chain = new ArrayList<>();
+        for (int i = 0; i < operations.size(); i++) {
+            String ruleEvent = ruleEvents.get(i);
+            if (ruleEvent == null || ruleEvent.equals(event)) {
+                chain.add(operations.get(i));
+            }
+        }
+        return chain.toArray(NO_OPERATIONS);
+    }
+
+    /**
+     * Returns {@code properties} transformed for {@code event}, or the same instance if no rules
+     * apply to it. {@code properties} itself is never modified.
+     */
+    Properties apply(String event, Properties properties, Traits traits, Stats stats) {
+        Operation[] chain = byEvent.get(event);
+        if (chain == null) {
+            chain = allEvents;
+        }
+        if (chain.length == 0) {
+            return properties;
+        }
+        long start = cpuTimeNanos();
+        Properties transformed = new Properties(properties.size());
+        transformed.putAll(properties);
+        int required = lastRequired(chain);
+        boolean overBudget = false;
+        for (int i = 0; i < chain.length; i++) {
+            if (i > required && cpuTimeNanos() - start >= budgetNanos) {
+                overBudget = true;
+                break;
+            }
+            chain[i].apply(transformed, traits);
+        }
+        stats.dispatchEdgeFunctions(cpuTimeNanos() - start, overBudget);
+        return transformed;
+    }
+
+    /** Returns the index of the last operation in {@code chain} that must run, or -1. */
+    private static int lastRequired(Operation[] chain) {
+        for (int i = chain.length - 1; i >= 0; i--) {
+            if (chain[i].required()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** CPU time of the calling thread, so time it spends preempted isn't charged to the budget. */
+    private static long cpuTimeNanos() {
+        long nanos = Debug.threadCpuTimeNanos();
+        return nanos == -1 ? System.nanoTime() : nanos;
+    }
+
+    abstract static class Operation {
+
+        abstract void apply(Properties properties, Traits traits);
+
+        /** Returns true if this operation removes data, so it must run whatever the budget. */
+        boolean required() {
+            return false;
+        }
+
+        /** Returns the operation for {@code rule}, or null if the rule is malformed. */
+        static Operation compile(ValueMap rule) {
+            String op = rule.getString(OP_KEY);
+            String property = rule.getString(PROPERTY_KEY);
+            if ("rename".equals(op)) {
+                String from = rule.getString(FROM_KEY);
+                String to = rule.getString(TO_KEY);
+                return from == null || to == null ? null : new Rename(from, to);
+            } else if ("drop".equals(op)) {
+                return property == null ? null : new Drop(property);
+            } else if ("hash".equals(op)) {
+                return property == null ? null : Hash.create(property);
+            } else if ("enrich".equals(op)) {
+                String trait = rule.getString(TRAIT_KEY);
+                return property == null || trait == null ? null : new Enrich(property, trait);
+            }
+            return null;
+        }
+    }
+
+    static class Rename extends Operation {
+
+        private final String from;
+        private final String to;
+
+        Rename(String from, String to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        void apply(Properties properties, Traits traits) {
+            if (properties.containsKey(from)) {
+                properties.put(to, properties.remove(from));
+            }
+        }
+    }
+
+    static class Drop extends Operation {
+
+        private final String property;
+
+        Drop(String property) {
+            this.property = property;
+        }
+
+        @Override
+        boolean required() {
+            return true;
+        }
+
+        @Override
+        void apply(Properties properties, Traits traits) {
+            properties.remove(property);
+        }
+    }
+
+    static class Hash extends Operation {
+
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+        private final String property;
+        private final MessageDigest digest;
+
+        private Hash(String property, MessageDigest digest) {
+            this.property = property;
+            this.digest = digest;
+        }
+
+        static Hash create(String property) {
+            try {
+                return new Hash(property, MessageDigest.getInstance("SHA-256"));
+            } catch (NoSuchAlgorithmException e) {
+                return null; // Every Android version provides SHA-256.
+            }
+        }
+
+        @Override
+        boolean required() {
+            return true;
+        }
+
+        @Override
+        void apply(Properties properties, Traits traits) {
+            Object value = properties.get(property);
+            if (value == null) {
+                return;
+            }
+            byte[] hash;
+            // Events are usually transformed on the single analytics thread.
+            synchronized (digest) {
+                hash = digest.digest(String.valueOf(value).getBytes(UTF_8));
+            }
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+            }
+            properties.put(property, new String(hex));
+        }
+    }
+
+    static class Enrich extends Operation {
+
+        private final String property;
+        private final String trait;
+
+        Enrich(String property, String trait) {
+            this.property = property;
+            this.trait = trait;
+        }
+
+        @Override
+        void apply(Properties properties, Traits traits) {
+            Object value = traits == null ? null : traits.get(trait);
+            if (value != null) {
+                properties.put(property, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import java.util.Map;
+
+/**
+ * Suppresses events that repeat an event seen within a short window, such as a deep link tracked
+ * by more than one lifecycle callback for the same intent, or a burst of identical screen views
+ * from rapid activity transitions. Events are keyed by their type, name and properties.
+ *
+ * <p>Recently seen keys are kept in a small fixed-size open addressing table of 64 bit hashes, so
+ * checking an event doesn't allocate. When a key can't be placed the oldest entry in its probe
+ * sequence is evicted, which can only let a duplicate through, never suppress a distinct event
+ * (barring a 64 bit hash collision).
+ */
+class EventCoalescer {
+
+    private static final int CAPACITY = 64; // Must be a power of two.
+    private static final int MAX_PROBES = 4;
+
+    private final long windowNanos;
+    private final long[] keys = new long[CAPACITY];
+    private final long[] seenAt = new long[CAPACITY];
+    private final boolean[] occupied = new boolean[CAPACITY];
+
+    EventCoalescer(long windowMillis) {
+        this.windowNanos = windowMillis * 1000000L;
+    }
+
+    /** Returns true if coalescing is turned on. */
+    boolean isEnabled() {
+        return windowNanos > 0;
+    }
+
+    /**
+     * Returns true if an event with the same type, name and properties was seen within the
+     * window, and this one should be dropped. Otherwise the event is remembered.
+     */
+    boolean isDuplicate(String type, String name, Map<String, ?> properties) {
+        if (!isEnabled()) {
+            return false;
+        }
+        return isDuplicate(key(type, name, properties), System.nanoTime());
+    }
+
+    synchronized boolean isDuplicate(long key, long now) {
+        int index = (int) (key ^ (key >>> 32)) & (CAPACITY - 1);
+        int victim = index;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = (index + probe) & (CAPACITY - 1);
+            boolean live = occupied[slot] && now - seenAt[slot] < windowNanos;
+            if (live && keys[slot] == key) {
+                return true;
+            }
+            if (!live) {
+                victim = slot;
+                break;
+            }
+            if (seenAt[slot] - seenAt[victim] < 0) {
+                victim = slot;
+            }
+        }
+        keys[victim] = key;
+        seenAt[victim] = now;
+        occupied[victim] = true;
+        return false;
+    }
+
+    static long key(String type, String name, Map<String, ?> properties) {
+        long hash = 1125899906842597L; // Prime seed.
+        hash = 31 * hash + (type == null ? 0 : type.hashCode());
+        hash = 31 * hash + (name == null ? 0 : name.hashCode());
+        hash = hash * 0x9E3779B97F4A7C15L + (properties == null ? 0 : properties.hashCode());
+        // Mix the bits (the 64 bit finalizer from MurmurHash3), the slot is taken from the low bits.
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
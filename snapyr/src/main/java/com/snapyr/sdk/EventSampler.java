@@ -0,0 +1,157 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Decides which track events are recorded, before we spend any time building, serializing and
+ * uploading them. The rules come from the {@code sampling} section of the project settings, and
+ * are recompiled whenever the settings change:
+ *
+ * <pre>
+ * "sampling": {
+ *   "events": {
+ *     "Scrolled": { "sampleRate": 0.1 },
+ *     "Frame Rendered": { "sampleRate": 0.5, "limit": { "capacity": 20, "refillPerSecond": 2 } }
+ *   }
+ * }
+ * </pre>
+ *
+ * Events are first sampled at {@code sampleRate}, and the ones that are kept then take a token
+ * from the event's bucket if it has a {@code limit}. Events without rules are always recorded.
+ */
+class EventSampler {
+
+    /** Returned by {@link #sample(ProjectSettings, String)} for events that should be dropped. */
+    static final double DROP = 0;
+
+    private static final String EVENTS_KEY = "events";
+    private static final String SAMPLE_RATE_KEY = "sampleRate";
+    private static final String LIMIT_KEY = "limit";
+    private static final String CAPACITY_KEY = "capacity";
+    private static final String REFILL_PER_SECOND_KEY = "refillPerSecond";
+
+    private final Random random;
+    private ProjectSettings compiledFrom;
+    private Map<String, Rule> rules = new HashMap<>();
+
+    EventSampler() {
+        this(new Random());
+    }
+
+    EventSampler(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Returns the rate at which the given event was sampled, which is {@code 1} for events that
+     * aren't sampled, or {@link #DROP} if the event should not be recorded.
+     */
+    synchronized double sample(ProjectSettings settings, String event) {
+        if (settings != compiledFrom) {
+            rules = compile(settings);
+            compiledFrom = settings;
+        }
+        Rule rule = rules.get(event);
+        if (rule == null) {
+            return 1;
+        }
+        if (rule.sampleRate < 1 && random.nextDouble() >= rule.sampleRate) {
+            return DROP;
+        }
+        if (rule.bucket != null && !rule.bucket.tryAcquire(System.nanoTime())) {
+            return DROP;
+        }
+        return rule.sampleRate;
+    }
+
+    private static Map<String, Rule> compile(ProjectSettings settings) {
+        Map<String, Rule> rules = new HashMap<>();
+        ValueMap sampling = settings == null ? null : settings.sampling();
+        ValueMap events = sampling == null ? null : sampling.getValueMap(EVENTS_KEY);
+        if (events == null) {
+            return rules;
+        }
+        for (String event : events.keySet()) {
+            ValueMap config = events.getValueMap(event);
+            if (config == null) {
+                continue;
+            }
+            double sampleRate = Math.max(0, Math.min(1, config.getDouble(SAMPLE_RATE_KEY, 1)));
+            TokenBucket bucket = null;
+            ValueMap limit = config.getValueMap(LIMIT_KEY);
+            if (limit != null) {
+                bucket =
+                        new TokenBucket(
+                                limit.getDouble(CAPACITY_KEY, 1),
+                                limit.getDouble(REFILL_PER_SECOND_KEY, 0));
+            }
+            rules.put(event, new Rule(sampleRate, bucket));
+        }
+        return rules;
+    }
+
+    private static class Rule {
+
+        final double sampleRate;
+        final TokenBucket bucket;
+
+        Rule(double sampleRate, TokenBucket bucket) {
+            this.sampleRate = sampleRate;
+            this.bucket = bucket;
+        }
+    }
+
+    /** A token bucket that starts full, and refills continuously up to its capacity. */
+    static class TokenBucket {
+
+        private final double capacity;
+        private final double refillPerNano;
+        private double tokens;
+        private boolean started;
+        private long lastRefill;
+
+        TokenBucket(double capacity, double refillPerSecond) {
+            this.capacity = Math.max(1, capacity);
+            this.refillPerNano = Math.max(0, refillPerSecond) / 1e9;
+            this.tokens = this.capacity;
+        }
+
+        boolean tryAcquire(long nowNanos) {
+            if (started) {
+                tokens = Math.min(capacity, tokens + (nowNanos - lastRefill) * refillPerNano);
+            }
+            started = true;
+            lastRefill = nowNanos;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
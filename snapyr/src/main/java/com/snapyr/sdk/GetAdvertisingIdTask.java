@@ -25,28 +25,123 @@ package com.snapyr.sdk;
 
 import android.content.ContentResolver;
 import android.content.Context;
-import android.os.AsyncTask;
+import android.os.Handler;
 import android.provider.Settings.Secure;
 import android.util.Pair;
 import com.snapyr.sdk.integrations.Logger;
+import com.snapyr.sdk.internal.Utils;
+import java.io.IOException;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * An {@link AsyncTask} that fetches the advertising info and attaches it to the given {@link
- * SnapyrContext} instance.
+ * Fetches the advertising info and attaches it to the given {@link SnapyrContext} instance. The
+ * info is also stored, so that the next launch can attach it right away, before fetching it again.
+ * Events wait for a fetch for at most {@link #TIMEOUT_MILLIS}, and carry the stored info until it
+ * is done; a fetch that finishes later is still attached and stored.
  */
-class GetAdvertisingIdTask extends AsyncTask<Context, Void, Pair<String, Boolean>> {
+class GetAdvertisingIdTask implements Runnable {
 
+    static final String CACHE_KEY = "advertising-info";
+    static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final String ADVERTISING_ID_KEY = "advertisingId";
+    private static final String AD_TRACKING_ENABLED_KEY = "adTrackingEnabled";
+
+    private final Context context;
     private final SnapyrContext snapyrContext;
+    private final StateStore store;
     private final CountDownLatch latch;
     private final Logger logger;
+    /** Set once the fetch is done. */
+    private final AtomicBoolean finished = new AtomicBoolean();
 
-    GetAdvertisingIdTask(SnapyrContext snapyrContext, CountDownLatch latch, Logger logger) {
+    GetAdvertisingIdTask(
+            Context context,
+            SnapyrContext snapyrContext,
+            StateStore store,
+            CountDownLatch latch,
+            Logger logger) {
+        this.context = context;
         this.snapyrContext = snapyrContext;
+        this.store = store;
         this.latch = latch;
         this.logger = logger;
     }
 
+    /**
+     * Runs this task on {@code executor}, and stops events waiting for it on {@code timer} if it
+     * hasn't finished within {@link #TIMEOUT_MILLIS}.
+     */
+    void start(ExecutorService executor, Handler timer) {
+        executor.submit(this);
+        timer.postDelayed(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        timeOut();
+                    }
+                },
+                TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Stops events waiting for the fetch, unless it has already finished. They carry whatever info
+     * is attached until the fetch is done.
+     */
+    void timeOut() {
+        if (finished.get()) {
+            return;
+        }
+        logger.debug(
+                "Advertising ID was not fetched within %s ms, using the stored info until it is.",
+                TIMEOUT_MILLIS);
+        latch.countDown();
+    }
+
+    /**
+     * Attaches the advertising info stored by the last fetch to {@code snapyrContext}. Returns false
+     * if there is none.
+     */
+    static boolean attachCached(SnapyrContext snapyrContext, StateStore store, Logger logger) {
+        Map<String, Object> cached;
+        try {
+            String json = store.get(CACHE_KEY);
+            if (Utils.isNullOrEmpty(json)) {
+                return false;
+            }
+            cached = Cartographer.INSTANCE.fromJson(json);
+        } catch (IOException e) {
+            logger.error(e, "Unable to read cached advertising ID.");
+            return false;
+        }
+        Object adTrackingEnabled = cached.get(AD_TRACKING_ENABLED_KEY);
+        if (!(adTrackingEnabled instanceof Boolean)) {
+            return false;
+        }
+        return attach(
+                snapyrContext,
+                (String) cached.get(ADVERTISING_ID_KEY),
+                (Boolean) adTrackingEnabled,
+                logger);
+    }
+
+    private static boolean attach(
+            SnapyrContext snapyrContext,
+            String advertisingId,
+            boolean adTrackingEnabled,
+            Logger logger) {
+        SnapyrContext.Device device = snapyrContext.device();
+        if (device == null) {
+            logger.debug("Not collecting advertising ID because context.device is null.");
+            return false;
+        }
+        device.putAdvertisingInfo(advertisingId, adTrackingEnabled);
+        return true;
+    }
+
     private Pair<String, Boolean> getGooglePlayServicesAdvertisingID(Context context)
             throws Exception {
         Object advertisingInfo =
@@ -88,9 +183,7 @@ class GetAdvertisingIdTask extends AsyncTask<Context, Void, Pair<String, Boolean
         return Pair.create(advertisingId, true);
     }
 
-    @Override
-    protected Pair<String, Boolean> doInBackground(Context... contexts) {
-        final Context context = contexts[0];
+    private Pair<String, Boolean> fetch() {
         try {
             return getGooglePlayServicesAdvertisingID(context);
         } catch (Exception e) {
@@ -107,20 +200,25 @@ class GetAdvertisingIdTask extends AsyncTask<Context, Void, Pair<String, Boolean
     }
 
     @Override
-    protected void onPostExecute(Pair<String, Boolean> info) {
-        super.onPostExecute(info);
-
+    public void run() {
         try {
-            if (info == null) {
+            // Even after the timeout this is newer than the stored info, so it still replaces it.
+            Pair<String, Boolean> info = fetch();
+            if (info == null || !attach(snapyrContext, info.first, info.second, logger)) {
                 return;
             }
-            SnapyrContext.Device device = snapyrContext.device();
-            if (device == null) {
-                logger.debug("Not collecting advertising ID because context.device is null.");
-                return;
+            // Replaces the stored info, so a reset ID or newly limited ad tracking is picked up.
+            Map<String, Object> cached = Utils.createMap();
+            cached.put(ADVERTISING_ID_KEY, info.first);
+            cached.put(AD_TRACKING_ENABLED_KEY, info.second);
+            String json = Cartographer.INSTANCE.toJson(cached);
+            if (!json.equals(store.get(CACHE_KEY))) {
+                store.put(CACHE_KEY, json);
             }
-            device.putAdvertisingInfo(info.first, info.second);
+        } catch (IOException e) {
+            logger.error(e, "Unable to cache advertising ID.");
         } finally {
+            finished.set(true);
             latch.countDown();
         }
     }
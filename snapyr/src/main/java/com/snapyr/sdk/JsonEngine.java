@@ -0,0 +1,80 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Reads and writes json for a {@link Cartographer}. Engines decode json objects into {@link Map}s,
+ * arrays into {@link java.util.List}s, numbers with {@link LazyNumber#decode(String, boolean,
+ * boolean)} and strings, booleans and nulls into the matching java types. They must all produce
+ * exactly the same output for the same input.
+ *
+ * <p>{@link #ANDROID} is backed by {@link android.util.JsonReader} and {@link
+ * android.util.JsonWriter}, and is the reference the other engines are tested against. {@link
+ * #STREAMING} is a faster engine without any Android dependencies.
+ */
+public interface JsonEngine {
+
+    /** The engine backed by {@link android.util.JsonReader} and {@link android.util.JsonWriter}. */
+    JsonEngine ANDROID = new AndroidJsonEngine();
+
+    /** A streaming engine tuned for the payloads and settings the library reads and writes. */
+    JsonEngine STREAMING = new StreamingJsonEngine();
+
+    /**
+     * Reads a json object from the reader. The caller closes the reader.
+     *
+     * @param lenient Whether to accept the relaxed syntax of a lenient {@link
+     *     android.util.JsonReader}.
+     * @param lazyNumbers Whether numbers are decoded into a {@link LazyNumber}.
+     * @throws IllegalStateException if the json is not an object.
+     */
+    Map<String, Object> readObject(Reader reader, boolean lenient, boolean lazyNumbers)
+            throws IOException;
+
+    /**
+     * Reads a json value from the reader, which is a {@link Map}, {@link java.util.List}, {@link
+     * String}, {@link Number}, {@link Boolean} or null. The caller closes the reader.
+     *
+     * @param lenient Whether to accept the relaxed syntax of a lenient {@link
+     *     android.util.JsonReader}.
+     * @param lazyNumbers Whether numbers are decoded into a {@link LazyNumber}.
+     */
+    Object readValue(Reader reader, boolean lenient, boolean lazyNumbers) throws IOException;
+
+    /**
+     * Writes the map as a json object to the writer. Lists and arrays are written as json arrays,
+     * maps as objects, numbers and booleans as is and any other value as a string. The caller
+     * closes the writer.
+     *
+     * @param lenient Whether to write NaN and infinite numbers rather than reject them.
+     * @param prettyPrint Whether to indent the json with two spaces.
+     */
+    void write(Map<?, ?> map, Writer writer, boolean lenient, boolean prettyPrint)
+            throws IOException;
+}
@@ -0,0 +1,308 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import java.io.IOException;
+
+/**
+ * A minimal scanner that walks the structure of a JSON document without decoding it. It is used to
+ * locate values inside JSON we have already serialized ourselves, so they can be copied verbatim
+ * instead of being parsed and serialized again.
+ *
+ * <p>Names are returned raw, i.e. with escape sequences left intact.
+ */
+final class JsonScanner {
+
+    private final String json;
+    private int pos;
+
+    JsonScanner(String json) {
+        this(json, 0);
+    }
+
+    /** Creates a scanner that starts reading {@code json} at offset {@code pos}. */
+    JsonScanner(String json, int pos) {
+        this.json = json;
+        this.pos = pos;
+    }
+
+    /** The offset of the next character to be read. */
+    int position() {
+        return pos;
+    }
+
+    /** Consumes the opening brace of an object. */
+    void beginObject() throws IOException {
+        skipWhitespace();
+        expect('{');
+    }
+
+    /**
+     * Advances to the next member of the current object, consuming a separating comma. Returns
+     * false and consumes the closing brace if there are no more members.
+     */
+    boolean nextMember() throws IOException {
+        skipWhitespace();
+        char c = peek();
+        if (c == '}') {
+            pos++;
+            return false;
+        }
+        if (c == ',') {
+            pos++;
+            skipWhitespace();
+        }
+        if (peek() != '"') {
+            throw syntaxError("Expected name");
+        }
+        return true;
+    }
+
+    /** Reads the name of the current member, and the colon that follows it. */
+    String nextName() throws IOException {
+        int start = pos + 1;
+        skipString();
+        String name = json.substring(start, pos - 1);
+        skipWhitespace();
+        expect(':');
+        skipWhitespace();
+        return name;
+    }
+
+    /** Skips over the next value, including any nested objects or arrays. */
+    void skipValue() throws IOException {
+        skipWhitespace();
+        char c = peek();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = peek();
+                if (c == '"') {
+                    skipString();
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+                pos++;
+            } while (depth > 0);
+        } else {
+            // A number or a literal.
+            int start = pos;
+            while (pos < json.length() && !isDelimiter(json.charAt(pos))) {
+                pos++;
+            }
+            if (pos == start) {
+                throw syntaxError("Expected value");
+            }
+        }
+    }
+
+    /**
+     * Skips over the next value like {@link #skipValue()}, but checks that it is well formed all
+     * the way down: the separators of nested objects and arrays, escapes, numbers and literals.
+     */
+    void checkValue() throws IOException {
+        skipWhitespace();
+        switch (peek()) {
+            case '{':
+                pos++;
+                skipWhitespace();
+                if (!consume('}')) {
+                    do {
+                        skipWhitespace();
+                        checkString();
+                        skipWhitespace();
+                        expect(':');
+                        checkValue();
+                    } while (consume(','));
+                    expect('}');
+                }
+                break;
+            case '[':
+                pos++;
+                skipWhitespace();
+                if (!consume(']')) {
+                    do {
+                        checkValue();
+                    } while (consume(','));
+                    expect(']');
+                }
+                break;
+            case '"':
+                checkString();
+                break;
+            case 't':
+                checkLiteral("true");
+                break;
+            case 'f':
+                checkLiteral("false");
+                break;
+            case 'n':
+                checkLiteral("null");
+                break;
+            default:
+                checkNumber();
+                break;
+        }
+        skipWhitespace();
+    }
+
+    /** Checks that nothing but whitespace is left. */
+    void checkEnd() throws IOException {
+        skipWhitespace();
+        if (pos < json.length()) {
+            throw syntaxError("Unexpected trailing content");
+        }
+    }
+
+    private void checkString() throws IOException {
+        expect('"');
+        while (true) {
+            char c = peek();
+            pos++;
+            if (c == '"') {
+                return;
+            } else if (c < 0x20) {
+                throw syntaxError("Unescaped control character");
+            } else if (c == '\\') {
+                c = peek();
+                pos++;
+                if (c == 'u') {
+                    for (int i = 0; i < 4; i++) {
+                        if (Character.digit(peek(), 16) < 0) {
+                            throw syntaxError("Malformed unicode escape");
+                        }
+                        pos++;
+                    }
+                } else if ("\"\\/bfnrt".indexOf(c) < 0) {
+                    throw syntaxError("Malformed escape");
+                }
+            }
+        }
+    }
+
+    private void checkLiteral(String literal) throws IOException {
+        if (!json.startsWith(literal, pos)) {
+            throw syntaxError("Expected " + literal);
+        }
+        pos += literal.length();
+    }
+
+    private void checkNumber() throws IOException {
+        consume('-');
+        if (!consume('0')) {
+            checkDigits();
+        }
+        if (consume('.')) {
+            checkDigits();
+        }
+        if (consume('e') || consume('E')) {
+            if (!consume('+')) {
+                consume('-');
+            }
+            checkDigits();
+        }
+    }
+
+    private void checkDigits() throws IOException {
+        int start = pos;
+        while (pos < json.length() && json.charAt(pos) >= '0' && json.charAt(pos) <= '9') {
+            pos++;
+        }
+        if (pos == start) {
+            throw syntaxError("Expected digit");
+        }
+    }
+
+    /** Consumes {@code c} if it is the next character. */
+    private boolean consume(char c) {
+        if (pos < json.length() && json.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipString() throws IOException {
+        expect('"');
+        while (true) {
+            char c = peek();
+            pos++;
+            if (c == '\\') {
+                pos++;
+            } else if (c == '"') {
+                return;
+            }
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private static boolean isDelimiter(char c) {
+        switch (c) {
+            case ',':
+            case '}':
+            case ']':
+            case ':':
+            case ' ':
+            case '\n':
+            case '\r':
+            case '\t':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private char peek() throws IOException {
+        if (pos >= json.length()) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return json.charAt(pos);
+    }
+
+    private void expect(char c) throws IOException {
+        if (peek() != c) {
+            throw syntaxError("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at offset " + pos);
+    }
+}
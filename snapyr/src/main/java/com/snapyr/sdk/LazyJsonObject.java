@@ -0,0 +1,265 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A read-only view of a json object that decodes its members on first access. The object is
+ * scanned once up front to index where each member's value starts and ends; nested objects become
+ * lazy views themselves, so only the parts of a document that are actually read are ever decoded.
+ * Arrays are decoded in full into {@link java.util.ArrayList}s, and numbers into {@link
+ * LazyNumber}s.
+ *
+ * <p>Decoded values are published through an {@link AtomicReferenceArray}, so the view can be read
+ * from any thread without locking. Two threads racing on the same member may both decode it, but
+ * they will observe the same instance afterwards.
+ *
+ * <p>If a name appears more than once, the last value wins, as with {@link
+ * JsonEngine#readObject}.
+ */
+final class LazyJsonObject extends AbstractMap<String, Object> {
+
+    /** Marks a member that decoded to null, so it isn't mistaken for one yet to be decoded. */
+    private static final Object NULL = new Object();
+
+    private final String json;
+    private final String[] names;
+    private final int[] starts;
+    private final int[] ends;
+    private final Map<String, Integer> index;
+    private final AtomicReferenceArray<Object> values;
+    private Set<Entry<String, Object>> entrySet;
+
+    /** Indexes the members of the object starting at {@code start}. */
+    private LazyJsonObject(String json, int start) throws IOException {
+        JsonScanner scanner = new JsonScanner(json, start);
+        scanner.beginObject();
+        Map<String, Integer> index = new HashMap<>();
+        String[] names = new String[8];
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        int size = 0;
+        while (scanner.nextMember()) {
+            String name = unescape(scanner.nextName());
+            int valueStart = scanner.position();
+            scanner.skipValue();
+            int valueEnd = scanner.position();
+
+            Integer slot = index.get(name);
+            if (slot != null) {
+                starts[slot] = valueStart;
+                ends[slot] = valueEnd;
+                continue;
+            }
+            if (size == names.length) {
+                names = copyOf(names, size * 2);
+                starts = copyOf(starts, size * 2);
+                ends = copyOf(ends, size * 2);
+            }
+            index.put(name, size);
+            names[size] = name;
+            starts[size] = valueStart;
+            ends[size] = valueEnd;
+            size++;
+        }
+
+        this.json = json;
+        this.names = copyOf(names, size);
+        this.starts = starts;
+        this.ends = ends;
+        this.index = index;
+        this.values = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Returns a lazy view of the json object in {@code json}.
+     *
+     * @throws IOException if the top level of {@code json} isn't a well formed object. Nested
+     *     values are only checked once they are decoded.
+     */
+    static Map<String, Object> parse(String json) throws IOException {
+        return new LazyJsonObject(json, 0);
+    }
+
+    /**
+     * Returns a lazy view of the json object in {@code json}, after checking that the whole
+     * document is well formed, so decoding a member later can't fail. The check doesn't decode
+     * anything, so it's much cheaper than parsing the document up front.
+     *
+     * @throws IOException if any part of {@code json} isn't well formed.
+     */
+    static Map<String, Object> parseChecked(String json) throws IOException {
+        JsonScanner scanner = new JsonScanner(json);
+        scanner.checkValue();
+        scanner.checkEnd();
+        return parse(json);
+    }
+
+    @Override
+    public Object get(Object key) {
+        Integer slot = index.get(key);
+        return slot == null ? null : value(slot);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    /** Returns the value in {@code slot}, decoding it if no thread has done so yet. */
+    private Object value(int slot) {
+        Object value = values.get(slot);
+        if (value == null) {
+            Object decoded = decode(starts[slot], ends[slot]);
+            value = decoded == null ? NULL : decoded;
+            if (!values.compareAndSet(slot, null, value)) {
+                value = values.get(slot);
+            }
+        }
+        return value == NULL ? null : value;
+    }
+
+    private Object decode(int start, int end) {
+        try {
+            switch (json.charAt(start)) {
+                case '{':
+                    return new LazyJsonObject(json, start);
+                case '"':
+                    if (!hasEscapes(start, end)) {
+                        return json.substring(start + 1, end - 1);
+                    }
+                    break;
+                case 't':
+                    if (matches(start, end, "true")) return Boolean.TRUE;
+                    break;
+                case 'f':
+                    if (matches(start, end, "false")) return Boolean.FALSE;
+                    break;
+                case 'n':
+                    if (matches(start, end, "null")) return null;
+                    break;
+                default:
+                    break;
+            }
+            // Arrays, escaped strings, numbers and anything unusual go through the engine.
+            return JsonEngine.STREAMING.readValue(
+                    new StringReader(json.substring(start, end)), true, true);
+        } catch (IOException e) {
+            throw new IllegalStateException("Malformed json at offset " + start, e);
+        }
+    }
+
+    private boolean hasEscapes(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (json.charAt(i) == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matches(int start, int end, String literal) {
+        return end - start == literal.length() && json.startsWith(literal, start);
+    }
+
+    /** Decodes a raw member name as returned by {@link JsonScanner#nextName()}. */
+    private static String unescape(String name) throws IOException {
+        if (name.indexOf('\\') < 0) {
+            return name;
+        }
+        return (String)
+                JsonEngine.STREAMING.readValue(new StringReader('"' + name + '"'), true, false);
+    }
+
+    private static String[] copyOf(String[] array, int length) {
+        String[] copy = new String[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private class EntrySet extends AbstractSet<Entry<String, Object>> {
+
+        @Override
+        public int size() {
+            return names.length;
+        }
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            return new Iterator<Entry<String, Object>>() {
+                private int slot;
+
+                @Override
+                public boolean hasNext() {
+                    return slot < names.length;
+                }
+
+                @Override
+                public Entry<String, Object> next() {
+                    if (slot >= names.length) {
+                        throw new NoSuchElementException();
+                    }
+                    Entry<String, Object> entry =
+                            new SimpleImmutableEntry<>(names[slot], value(slot));
+                    slot++;
+                    return entry;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
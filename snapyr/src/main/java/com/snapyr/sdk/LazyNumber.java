@@ -0,0 +1,138 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+/**
+ * A json number that is only parsed the first time its value is read. Documents like the project
+ * settings hold many numbers that are never looked at, and this skips parsing and boxing them.
+ *
+ * <p>The value is a {@link Long} if the literal is an integer that fits in a long, and a {@link
+ * Double} otherwise, see {@link #parse(String)}. {@link #toString()} returns the literal as read,
+ * so writing the number back out doesn't change it.
+ *
+ * <p>Two lazy numbers are equal if their values are, and a lazy number equals the {@link Long} or
+ * {@link Double} of its value, so a decoded map equals one built from boxed values. The reverse
+ * isn't true and can't be made so, a {@link Long} never equals a lazy number: compare with the
+ * decoded value on the left, or convert it with {@link #longValue()} or {@link #doubleValue()}
+ * first. The same goes for the maps that hold them. Other {@link Number}s, like an {@link Integer},
+ * are never equal to a lazy number, just as they're never equal to a {@link Long}.
+ */
+final class LazyNumber extends Number {
+
+    private final String literal;
+    private Number value; // Benign race, the parsed value is immutable.
+
+    LazyNumber(String literal) {
+        this.literal = literal;
+    }
+
+    /**
+     * Parses a json number literal, as a {@link Long} if it is an integer that fits in a long and
+     * as a {@link Double} otherwise. Unlike a double, a long keeps every digit of large IDs and
+     * timestamps.
+     */
+    static Number parse(String literal) {
+        int length = literal.length();
+        boolean integral = length > 0;
+        for (int i = 0; i < length && integral; i++) {
+            char c = literal.charAt(i);
+            integral = (c >= '0' && c <= '9') || (c == '-' && i == 0 && length > 1);
+        }
+        // Up to 18 digits always fit in a long, only longer literals can overflow.
+        if (integral && length <= 18) {
+            return Long.parseLong(literal);
+        } else if (integral) {
+            try {
+                return Long.parseLong(literal);
+            } catch (NumberFormatException ignored) {
+                // Larger than a long, fall back to a double like other numbers.
+            }
+        }
+        return Double.parseDouble(literal);
+    }
+
+    /**
+     * Decodes a json number literal read by a {@link JsonEngine}, either now or lazily. Like a
+     * strict {@link android.util.JsonReader}, infinities are rejected unless lenient, but only
+     * when parsing right away.
+     */
+    static Number decode(String literal, boolean lenient, boolean lazy) {
+        if (lazy) {
+            return new LazyNumber(literal);
+        }
+        Number value = parse(literal);
+        if (!lenient && value instanceof Double && ((Double) value).isInfinite()) {
+            throw new NumberFormatException("JSON forbids NaN and infinities: " + literal);
+        }
+        return value;
+    }
+
+    /** Returns the parsed value, a {@link Long} or a {@link Double}. */
+    Number value() {
+        Number value = this.value;
+        if (value == null) {
+            value = parse(literal);
+            this.value = value;
+        }
+        return value;
+    }
+
+    @Override
+    public int intValue() {
+        return value().intValue();
+    }
+
+    @Override
+    public long longValue() {
+        return value().longValue();
+    }
+
+    @Override
+    public float floatValue() {
+        return value().floatValue();
+    }
+
+    @Override
+    public double doubleValue() {
+        return value().doubleValue();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof LazyNumber) {
+            return value().equals(((LazyNumber) o).value());
+        }
+        return value().equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return value().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return literal;
+    }
+}
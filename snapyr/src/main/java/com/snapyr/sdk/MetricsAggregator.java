@@ -0,0 +1,241 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Aggregates high frequency numeric signals in memory, so they can be sent as a single summary
+ * event per window instead of one event per sample. Recording never blocks: every metric is backed
+ * by atomics, and each metric takes constant memory no matter how many samples it records.
+ *
+ * <p>A window is closed by {@link #drain()}, which atomically swaps in an empty window. A sample
+ * recorded concurrently with the swap may land in the window that was just drained, and be lost.
+ */
+class MetricsAggregator {
+
+    /** Upper bounds of the histogram buckets. The last bucket collects everything larger. */
+    static final double[] HISTOGRAM_BOUNDS = {
+        1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000
+    };
+    /** Limits the number of distinct metrics per window, so memory stays bounded. */
+    static final int MAX_METRICS = 100;
+
+    private static final String COUNTERS_KEY = "counters";
+    private static final String GAUGES_KEY = "gauges";
+    private static final String HISTOGRAMS_KEY = "histograms";
+    private static final String WINDOW_KEY = "windowMillis";
+
+    private final AtomicReference<Window> window =
+            new AtomicReference<>(new Window(System.currentTimeMillis()));
+
+    /** Adds {@code delta} to the counter with the given name. */
+    void increment(String name, long delta) {
+        Window current = window.get();
+        AtomicLong counter = current.metric(current.counters, name, Factory.ATOMIC_LONG);
+        if (counter != null) {
+            counter.addAndGet(delta);
+        }
+    }
+
+    /** Sets the gauge with the given name, the last value in a window is reported. */
+    void gauge(String name, double value) {
+        Window current = window.get();
+        AtomicLong gauge = current.metric(current.gauges, name, Factory.ATOMIC_LONG);
+        if (gauge != null) {
+            gauge.set(Double.doubleToRawLongBits(value));
+        }
+    }
+
+    /** Records a sample in the histogram with the given name. */
+    void record(String name, double value) {
+        Window current = window.get();
+        Histogram histogram = current.metric(current.histograms, name, Factory.HISTOGRAM);
+        if (histogram != null) {
+            histogram.record(value);
+        }
+    }
+
+    /**
+     * Closes the current window and returns its summary, or null if nothing was recorded in it.
+     */
+    Properties drain() {
+        long now = System.currentTimeMillis();
+        Window closed = window.getAndSet(new Window(now));
+        if (closed.size.get() == 0) {
+            return null;
+        }
+
+        Properties summary = new Properties();
+        summary.put(WINDOW_KEY, now - closed.startMillis);
+        if (!closed.counters.isEmpty()) {
+            Map<String, Object> counters = new LinkedHashMap<>();
+            for (Map.Entry<String, AtomicLong> entry : closed.counters.entrySet()) {
+                counters.put(entry.getKey(), entry.getValue().get());
+            }
+            summary.put(COUNTERS_KEY, counters);
+        }
+        if (!closed.gauges.isEmpty()) {
+            Map<String, Object> gauges = new LinkedHashMap<>();
+            for (Map.Entry<String, AtomicLong> entry : closed.gauges.entrySet()) {
+                gauges.put(entry.getKey(), Double.longBitsToDouble(entry.getValue().get()));
+            }
+            summary.put(GAUGES_KEY, gauges);
+        }
+        if (!closed.histograms.isEmpty()) {
+            Map<String, Object> histograms = new LinkedHashMap<>();
+            for (Map.Entry<String, Histogram> entry : closed.histograms.entrySet()) {
+                histograms.put(entry.getKey(), entry.getValue().toMap());
+            }
+            summary.put(HISTOGRAMS_KEY, histograms);
+        }
+        return summary;
+    }
+
+    private interface Factory<T> {
+
+        Factory<AtomicLong> ATOMIC_LONG =
+                new Factory<AtomicLong>() {
+                    @Override
+                    public AtomicLong create() {
+                        return new AtomicLong();
+                    }
+                };
+
+        Factory<Histogram> HISTOGRAM =
+                new Factory<Histogram>() {
+                    @Override
+                    public Histogram create() {
+                        return new Histogram();
+                    }
+                };
+
+        T create();
+    }
+
+    private static class Window {
+
+        final long startMillis;
+        final AtomicLong size = new AtomicLong();
+        final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+        final ConcurrentMap<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+        final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+        Window(long startMillis) {
+            this.startMillis = startMillis;
+        }
+
+        /** Returns the metric with the given name, or null if there are too many metrics. */
+        <T> T metric(ConcurrentMap<String, T> metrics, String name, Factory<T> factory) {
+            T metric = metrics.get(name);
+            if (metric != null) {
+                return metric;
+            }
+            if (size.incrementAndGet() > MAX_METRICS) {
+                size.decrementAndGet();
+                return null;
+            }
+            T created = factory.create();
+            metric = metrics.putIfAbsent(name, created);
+            if (metric != null) {
+                size.decrementAndGet(); // Lost the race to create it.
+                return metric;
+            }
+            return created;
+        }
+    }
+
+    /** A histogram with the fixed buckets in {@link #HISTOGRAM_BOUNDS}. */
+    static class Histogram {
+
+        private static final String COUNT_KEY = "count";
+        private static final String SUM_KEY = "sum";
+        private static final String MIN_KEY = "min";
+        private static final String MAX_KEY = "max";
+        private static final String BOUNDS_KEY = "bounds";
+        private static final String BUCKETS_KEY = "buckets";
+
+        final AtomicLongArray buckets = new AtomicLongArray(HISTOGRAM_BOUNDS.length + 1);
+        final AtomicLong count = new AtomicLong();
+        // Doubles are stored as their raw long bits.
+        final AtomicLong sum = new AtomicLong(Double.doubleToRawLongBits(0));
+        final AtomicLong min = new AtomicLong(Double.doubleToRawLongBits(Double.MAX_VALUE));
+        final AtomicLong max = new AtomicLong(Double.doubleToRawLongBits(-Double.MAX_VALUE));
+
+        void record(double value) {
+            buckets.incrementAndGet(bucketIndex(value));
+            count.incrementAndGet();
+            long current;
+            do {
+                current = sum.get();
+            } while (!sum.compareAndSet(
+                    current,
+                    Double.doubleToRawLongBits(Double.longBitsToDouble(current) + value)));
+            do {
+                current = min.get();
+            } while (value < Double.longBitsToDouble(current)
+                    && !min.compareAndSet(current, Double.doubleToRawLongBits(value)));
+            do {
+                current = max.get();
+            } while (value > Double.longBitsToDouble(current)
+                    && !max.compareAndSet(current, Double.doubleToRawLongBits(value)));
+        }
+
+        static int bucketIndex(double value) {
+            for (int i = 0; i < HISTOGRAM_BOUNDS.length; i++) {
+                if (value <= HISTOGRAM_BOUNDS[i]) {
+                    return i;
+                }
+            }
+            return HISTOGRAM_BOUNDS.length;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put(COUNT_KEY, count.get());
+            map.put(SUM_KEY, Double.longBitsToDouble(sum.get()));
+            map.put(MIN_KEY, Double.longBitsToDouble(min.get()));
+            map.put(MAX_KEY, Double.longBitsToDouble(max.get()));
+            List<Double> bounds = new ArrayList<>(HISTOGRAM_BOUNDS.length);
+            for (double bound : HISTOGRAM_BOUNDS) {
+                bounds.add(bound);
+            }
+            map.put(BOUNDS_KEY, bounds);
+            List<Long> counts = new ArrayList<>(buckets.length());
+            for (int i = 0; i < buckets.length(); i++) {
+                counts.add(buckets.get(i));
+            }
+            map.put(BUCKETS_KEY, counts);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.snapyr.sdk.integrations.BasePayload;
+
+/**
+ * Source middleware sees every payload after it is built and before it is queued for upload. It
+ * can inspect the payload, replace it with a modified copy, or drop it.
+ *
+ * <p>Middleware runs on the analytics thread and is timed: the time spent in each one shows up in
+ * {@link StatsSnapshot#integrationOperationDurationByIntegration} under the name it was added
+ * with, and middleware that is repeatedly slower than the budget set with {@link
+ * Snapyr.Builder#sourceMiddlewareBudget(long, java.util.concurrent.TimeUnit)} is skipped from then
+ * on. Middleware that throws is skipped for that event only, which carries on unchanged.
+ *
+ * @see Snapyr.Builder#useSourceMiddleware(String, Middleware)
+ */
+public interface Middleware {
+
+    /**
+     * Returns the payload to continue with, which may be {@code payload} itself or a modified
+     * copy, or null to drop it.
+     */
+    @Nullable
+    BasePayload intercept(@NonNull BasePayload payload);
+}
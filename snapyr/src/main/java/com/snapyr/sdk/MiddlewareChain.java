@@ -0,0 +1,139 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import com.snapyr.sdk.integrations.BasePayload;
+import com.snapyr.sdk.integrations.Logger;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the source {@link Middleware} in the order it was added, timing each one. Durations are
+ * reported to {@link Stats#dispatchIntegrationOperation(String, long)} in nanoseconds, keyed by
+ * the middleware's name, and summed in microseconds so that calls shorter than a millisecond still
+ * add up.
+ *
+ * <p>A middleware that throws is skipped for that event, which carries on through the rest of the
+ * chain unchanged. The failure is logged and counted in {@link StatsSnapshot#middlewareErrorCount}.
+ *
+ * <p>A middleware that exceeds the budget {@link #MAX_STRIKES} calls in a row is skipped for the
+ * rest of the session, so one slow customer callback can't hold up every event. Calls in a row are
+ * used rather than a single call, so that a GC pause doesn't turn off middleware that might be
+ * scrubbing data.
+ */
+class MiddlewareChain {
+
+    static final long DEFAULT_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    static final int MAX_STRIKES = 3;
+
+    static final MiddlewareChain EMPTY =
+            new MiddlewareChain(
+                    Collections.<String, Middleware>emptyMap(),
+                    DEFAULT_BUDGET_NANOS,
+                    null,
+                    null);
+
+    private final Stage[] stages;
+    private final long budgetNanos;
+    private final Stats stats;
+    private final Logger logger;
+
+    MiddlewareChain(
+            Map<String, Middleware> middleware, long budgetNanos, Stats stats, Logger logger) {
+        this.stages = new Stage[middleware.size()];
+        int i = 0;
+        for (Map.Entry<String, Middleware> entry : middleware.entrySet()) {
+            stages[i++] = new Stage(entry.getKey(), entry.getValue());
+        }
+        this.budgetNanos = budgetNanos;
+        this.stats = stats;
+        this.logger = logger;
+    }
+
+    /** Returns the payload after all middleware ran, or null if one of them dropped it. */
+    BasePayload run(BasePayload payload) {
+        for (Stage stage : stages) {
+            if (stage.disabled) {
+                continue;
+            }
+            long start = System.nanoTime();
+            BasePayload result;
+            try {
+                result = stage.middleware.intercept(payload);
+            } catch (RuntimeException e) {
+                result = payload;
+                stats.dispatchMiddlewareError();
+                logger.error(e, "Middleware %s failed, skipping it for %s.", stage.name, payload);
+            }
+            long duration = System.nanoTime() - start;
+            stats.dispatchIntegrationOperation(stage.name, duration);
+            if (duration > budgetNanos) {
+                stage.strikes++;
+                if (stage.strikes >= MAX_STRIKES) {
+                    stage.disabled = true;
+                    logger.error(
+                            null,
+                            "Skipping middleware %s from now on, it took longer than %sus %s"
+                                    + " times in a row.",
+                            stage.name,
+                            TimeUnit.NANOSECONDS.toMicros(budgetNanos),
+                            MAX_STRIKES);
+                }
+            } else {
+                stage.strikes = 0;
+            }
+            if (result == null) {
+                logger.verbose("Middleware %s dropped %s.", stage.name, payload);
+                return null;
+            }
+            payload = result;
+        }
+        return payload;
+    }
+
+    /** Returns true if the middleware with the given name is skipped. */
+    boolean isDisabled(String name) {
+        for (Stage stage : stages) {
+            if (stage.name.equals(name)) {
+                return stage.disabled;
+            }
+        }
+        return false;
+    }
+
+    private static class Stage {
+
+        final String name;
+        final Middleware middleware;
+        // Only touched by the analytics thread, apart from isDisabled() in tests.
+        int strikes;
+        volatile boolean disabled;
+
+        Stage(String name, Middleware middleware) {
+            this.name = name;
+            this.middleware = middleware;
+        }
+    }
+}
@@ -0,0 +1,523 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable map that is updated by creating new versions of it. Versions share all of their
+ * structure except for the path to the changed entry, so {@link #plus(Object, Object)} and {@link
+ * #minus(Object)} cost O(log n) rather than the O(n) of copying a map, and old versions stay valid
+ * and unchanged.
+ *
+ * <p>This is a hash array mapped trie in the compressed (CHAMP) layout: each node holds a bitmap of
+ * the entries stored inline and one of its sub-nodes, indexed by 5 bits of the key's hash per
+ * level. Keys whose hashes are identical end up in a collision node at the bottom of the trie.
+ *
+ * <p>Iteration order is unspecified. Permits null keys and values. Use {@link AtomicPersistentMap}
+ * for a mutable map backed by versions of this map.
+ */
+final class PersistentMap<K, V> extends AbstractMap<K, V> {
+
+    private static final PersistentMap<Object, Object> EMPTY =
+            new PersistentMap<>(BitmapNode.EMPTY, 0);
+
+    /** Returned by lookups when there is no entry for the key, since values may be null. */
+    private static final Object NOT_FOUND = new Object();
+
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int HASH_BITS = 32;
+    /** The deepest a trie can be: one level per 5 bits of the hash, plus a collision node. */
+    private static final int MAX_DEPTH = (HASH_BITS + BITS_PER_LEVEL - 1) / BITS_PER_LEVEL + 1;
+
+    private final Node root;
+    private final int size;
+    private Set<Entry<K, V>> entrySet;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    static <K, V> PersistentMap<K, V> empty() {
+        //noinspection unchecked
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return root.find(key, hash(key), 0) != NOT_FOUND;
+    }
+
+    @Override
+    public V get(Object key) {
+        Object value = root.find(key, hash(key), 0);
+        //noinspection unchecked
+        return value == NOT_FOUND ? null : (V) value;
+    }
+
+    /** Returns a version of this map with {@code key} mapped to {@code value}. */
+    PersistentMap<K, V> plus(K key, V value) {
+        Change change = new Change();
+        Node newRoot = root.put(key, value, hash(key), 0, change);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentMap<>(newRoot, change.added ? size + 1 : size);
+    }
+
+    /** Returns a version of this map with all the entries of {@code map} added to it. */
+    PersistentMap<K, V> plusAll(Map<? extends K, ? extends V> map) {
+        Change change = new Change();
+        Node newRoot = root;
+        int newSize = size;
+        for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            K key = entry.getKey();
+            change.added = false;
+            newRoot = newRoot.put(key, entry.getValue(), hash(key), 0, change);
+            if (change.added) {
+                newSize++;
+            }
+        }
+        return newRoot == root ? this : new PersistentMap<K, V>(newRoot, newSize);
+    }
+
+    /** Returns a version of this map without an entry for {@code key}. */
+    PersistentMap<K, V> minus(Object key) {
+        Node newRoot = root.remove(key, hash(key), 0);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentMap<>(newRoot, size - 1);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet =
+                    new AbstractSet<Entry<K, V>>() {
+                        @Override
+                        public int size() {
+                            return size;
+                        }
+
+                        @Override
+                        public Iterator<Entry<K, V>> iterator() {
+                            return new EntryIterator<>(root);
+                        }
+                    };
+        }
+        return entrySet;
+    }
+
+    private static int hash(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & 31);
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+    /** Records whether a put added a new entry, rather than replacing an existing one. */
+    private static final class Change {
+        boolean added;
+    }
+
+    private abstract static class Node {
+
+        /** Returns the value for {@code key}, or {@link #NOT_FOUND}. */
+        abstract Object find(Object key, int hash, int shift);
+
+        /** Returns this node if the entry is already present, or an updated copy otherwise. */
+        abstract Node put(Object key, Object value, int hash, int shift, Change change);
+
+        /** Returns this node if there is no entry for the key, or an updated copy otherwise. */
+        abstract Node remove(Object key, int hash, int shift);
+
+        /** The number of entries stored inline in this node. */
+        abstract int payloadArity();
+
+        /** The number of sub-nodes of this node. */
+        abstract int nodeArity();
+
+        abstract Object key(int index);
+
+        abstract Object value(int index);
+
+        abstract Node node(int index);
+    }
+
+    /**
+     * A node with up to 32 children. Inline entries are stored as key/value pairs from the start
+     * of {@link #content}, and sub-nodes in reverse from its end.
+     */
+    private static final class BitmapNode extends Node {
+
+        static final BitmapNode EMPTY = new BitmapNode(0, 0, new Object[0]);
+
+        final int dataMap;
+        final int nodeMap;
+        final Object[] content;
+
+        BitmapNode(int dataMap, int nodeMap, Object[] content) {
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.content = content;
+        }
+
+        @Override
+        Object find(Object key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = 2 * dataIndex(bit);
+                return equal(key, content[i]) ? content[i + 1] : NOT_FOUND;
+            }
+            if ((nodeMap & bit) != 0) {
+                return nodeAt(bit).find(key, hash, shift + BITS_PER_LEVEL);
+            }
+            return NOT_FOUND;
+        }
+
+        @Override
+        Node put(Object key, Object value, int hash, int shift, Change change) {
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = 2 * dataIndex(bit);
+                Object existingKey = content[i];
+                if (equal(key, existingKey)) {
+                    if (content[i + 1] == value) {
+                        return this;
+                    }
+                    Object[] newContent = content.clone();
+                    newContent[i + 1] = value;
+                    return new BitmapNode(dataMap, nodeMap, newContent);
+                }
+                change.added = true;
+                Node node =
+                        merge(
+                                existingKey,
+                                content[i + 1],
+                                hash(existingKey),
+                                key,
+                                value,
+                                hash,
+                                shift + BITS_PER_LEVEL);
+                return migrateToNode(bit, node);
+            }
+            if ((nodeMap & bit) != 0) {
+                Node node = nodeAt(bit);
+                Node newNode = node.put(key, value, hash, shift + BITS_PER_LEVEL, change);
+                return newNode == node ? this : withNode(bit, newNode);
+            }
+            change.added = true;
+            return withEntry(bit, key, value);
+        }
+
+        @Override
+        Node remove(Object key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = 2 * dataIndex(bit);
+                if (!equal(key, content[i])) {
+                    return this;
+                }
+                Object[] newContent = new Object[content.length - 2];
+                System.arraycopy(content, 0, newContent, 0, i);
+                System.arraycopy(content, i + 2, newContent, i, content.length - i - 2);
+                return new BitmapNode(dataMap ^ bit, nodeMap, newContent);
+            }
+            if ((nodeMap & bit) != 0) {
+                Node node = nodeAt(bit);
+                Node newNode = node.remove(key, hash, shift + BITS_PER_LEVEL);
+                if (newNode == node) {
+                    return this;
+                }
+                if (newNode.nodeArity() == 0 && newNode.payloadArity() == 1) {
+                    // Keep the trie canonical: a single entry is stored inline, not in a node.
+                    return migrateToInline(bit, newNode.key(0), newNode.value(0));
+                }
+                return withNode(bit, newNode);
+            }
+            return this;
+        }
+
+        @Override
+        int payloadArity() {
+            return Integer.bitCount(dataMap);
+        }
+
+        @Override
+        int nodeArity() {
+            return Integer.bitCount(nodeMap);
+        }
+
+        @Override
+        Object key(int index) {
+            return content[2 * index];
+        }
+
+        @Override
+        Object value(int index) {
+            return content[2 * index + 1];
+        }
+
+        @Override
+        Node node(int index) {
+            return (Node) content[content.length - 1 - index];
+        }
+
+        private int dataIndex(int bit) {
+            return Integer.bitCount(dataMap & (bit - 1));
+        }
+
+        private int nodeIndex(int bit) {
+            return Integer.bitCount(nodeMap & (bit - 1));
+        }
+
+        private Node nodeAt(int bit) {
+            return node(nodeIndex(bit));
+        }
+
+        private BitmapNode withNode(int bit, Node node) {
+            Object[] newContent = content.clone();
+            newContent[content.length - 1 - nodeIndex(bit)] = node;
+            return new BitmapNode(dataMap, nodeMap, newContent);
+        }
+
+        private BitmapNode withEntry(int bit, Object key, Object value) {
+            int i = 2 * dataIndex(bit);
+            Object[] newContent = new Object[content.length + 2];
+            System.arraycopy(content, 0, newContent, 0, i);
+            newContent[i] = key;
+            newContent[i + 1] = value;
+            System.arraycopy(content, i, newContent, i + 2, content.length - i);
+            return new BitmapNode(dataMap | bit, nodeMap, newContent);
+        }
+
+        /** Replaces the inline entry at {@code bit} with {@code node}. */
+        private BitmapNode migrateToNode(int bit, Node node) {
+            int oldIndex = 2 * dataIndex(bit);
+            int newIndex = content.length - 2 - nodeIndex(bit);
+            Object[] newContent = new Object[content.length - 1];
+            System.arraycopy(content, 0, newContent, 0, oldIndex);
+            System.arraycopy(content, oldIndex + 2, newContent, oldIndex, newIndex - oldIndex);
+            newContent[newIndex] = node;
+            System.arraycopy(
+                    content, newIndex + 2, newContent, newIndex + 1, content.length - newIndex - 2);
+            return new BitmapNode(dataMap ^ bit, nodeMap | bit, newContent);
+        }
+
+        /** Replaces the node at {@code bit} with an inline entry. */
+        private BitmapNode migrateToInline(int bit, Object key, Object value) {
+            int oldIndex = content.length - 1 - nodeIndex(bit);
+            int newIndex = 2 * dataIndex(bit);
+            Object[] newContent = new Object[content.length + 1];
+            System.arraycopy(content, 0, newContent, 0, newIndex);
+            newContent[newIndex] = key;
+            newContent[newIndex + 1] = value;
+            System.arraycopy(content, newIndex, newContent, newIndex + 2, oldIndex - newIndex);
+            System.arraycopy(
+                    content, oldIndex + 1, newContent, oldIndex + 2, content.length - oldIndex - 1);
+            return new BitmapNode(dataMap | bit, nodeMap ^ bit, newContent);
+        }
+    }
+
+    /** Holds entries whose keys have the same hash, once all of the hash bits are used up. */
+    private static final class CollisionNode extends Node {
+
+        final Object[] content;
+
+        CollisionNode(Object[] content) {
+            this.content = content;
+        }
+
+        @Override
+        Object find(Object key, int hash, int shift) {
+            for (int i = 0; i < content.length; i += 2) {
+                if (equal(key, content[i])) {
+                    return content[i + 1];
+                }
+            }
+            return NOT_FOUND;
+        }
+
+        @Override
+        Node put(Object key, Object value, int hash, int shift, Change change) {
+            for (int i = 0; i < content.length; i += 2) {
+                if (equal(key, content[i])) {
+                    if (content[i + 1] == value) {
+                        return this;
+                    }
+                    Object[] newContent = content.clone();
+                    newContent[i + 1] = value;
+                    return new CollisionNode(newContent);
+                }
+            }
+            change.added = true;
+            Object[] newContent = new Object[content.length + 2];
+            System.arraycopy(content, 0, newContent, 0, content.length);
+            newContent[content.length] = key;
+            newContent[content.length + 1] = value;
+            return new CollisionNode(newContent);
+        }
+
+        @Override
+        Node remove(Object key, int hash, int shift) {
+            for (int i = 0; i < content.length; i += 2) {
+                if (equal(key, content[i])) {
+                    if (content.length == 4) {
+                        // The remaining entry is moved inline by the parent.
+                        int other = i == 0 ? 2 : 0;
+                        return new BitmapNode(
+                                bit(hash, 0), 0, new Object[] {content[other], content[other + 1]});
+                    }
+                    Object[] newContent = new Object[content.length - 2];
+                    System.arraycopy(content, 0, newContent, 0, i);
+                    System.arraycopy(content, i + 2, newContent, i, content.length - i - 2);
+                    return new CollisionNode(newContent);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        int payloadArity() {
+            return content.length / 2;
+        }
+
+        @Override
+        int nodeArity() {
+            return 0;
+        }
+
+        @Override
+        Object key(int index) {
+            return content[2 * index];
+        }
+
+        @Override
+        Object value(int index) {
+            return content[2 * index + 1];
+        }
+
+        @Override
+        Node node(int index) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    /** Creates the smallest node that holds two entries whose hashes agree up to {@code shift}. */
+    private static Node merge(
+            Object key1, Object value1, int hash1, Object key2, Object value2, int hash2, int shift) {
+        if (shift >= HASH_BITS) {
+            return new CollisionNode(new Object[] {key1, value1, key2, value2});
+        }
+        int bit1 = bit(hash1, shift);
+        int bit2 = bit(hash2, shift);
+        if (bit1 == bit2) {
+            Node node = merge(key1, value1, hash1, key2, value2, hash2, shift + BITS_PER_LEVEL);
+            return new BitmapNode(0, bit1, new Object[] {node});
+        }
+        Object[] content =
+                (bit1 >>> 1) < (bit2 >>> 1)
+                        ? new Object[] {key1, value1, key2, value2}
+                        : new Object[] {key2, value2, key1, value1};
+        return new BitmapNode(bit1 | bit2, 0, content);
+    }
+
+    /** Walks the trie depth first, visiting the inline entries of a node before its sub-nodes. */
+    private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+
+        private final Node[] nodes = new Node[MAX_DEPTH];
+        private final int[] nextEntry = new int[MAX_DEPTH];
+        private final int[] nextNode = new int[MAX_DEPTH];
+        private int depth;
+
+        EntryIterator(Node root) {
+            nodes[0] = root;
+            advance();
+        }
+
+        /** Moves to the next node with an entry left to visit, or sets depth to -1 if none. */
+        private void advance() {
+            while (depth >= 0) {
+                Node node = nodes[depth];
+                if (nextEntry[depth] < node.payloadArity()) {
+                    return;
+                }
+                if (nextNode[depth] < node.nodeArity()) {
+                    Node child = node.node(nextNode[depth]++);
+                    depth++;
+                    nodes[depth] = child;
+                    nextEntry[depth] = 0;
+                    nextNode[depth] = 0;
+                } else {
+                    nodes[depth] = null;
+                    depth--;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth >= 0;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (depth < 0) {
+                throw new NoSuchElementException();
+            }
+            Node node = nodes[depth];
+            int i = nextEntry[depth]++;
+            //noinspection unchecked
+            Entry<K, V> entry = new SimpleImmutableEntry<>((K) node.key(i), (V) node.value(i));
+            advance();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Holds calls made to a client before its background initialization is done, so they can be
+ * replayed in the order they were made once it is. Calls capture their timestamp when they are
+ * made, so replaying them later doesn't change when they happened.
+ *
+ * <p>Capturing a call only claims a slot with an atomic increment, so callers never block each
+ * other or the initializing thread. The buffer is bounded: calls made once it is full are dropped,
+ * and counted by {@link #drain()}.
+ */
+class PreInitBuffer {
+
+    /** Once closed, claims that raced with {@link #drain()} return negative indices. */
+    private static final int CLOSED = Integer.MIN_VALUE;
+
+    private final AtomicReferenceArray<Runnable> calls;
+    private final AtomicInteger next = new AtomicInteger();
+    /** Set by {@link #drain()}, so calls made after it don't claim slots at all. */
+    private volatile boolean closed;
+
+    PreInitBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than zero.");
+        }
+        this.calls = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Captures {@code call} to be replayed by {@link #drain()}. Returns false if the buffer has
+     * already been drained, in which case the caller should run it as usual.
+     */
+    boolean offer(Runnable call) {
+        if (closed) {
+            return false;
+        }
+        int index = next.getAndIncrement();
+        if (index < 0) {
+            return false;
+        }
+        if (index < calls.length()) {
+            calls.set(index, call);
+        }
+        return true;
+    }
+
+    /**
+     * Stops capturing calls, and runs the ones captured so far in the order they were made. Returns
+     * the number of calls that were dropped because the buffer was full.
+     */
+    int drain() {
+        closed = true;
+        int end = next.getAndSet(CLOSED);
+        int count = Math.min(end, calls.length());
+        for (int i = 0; i < count; i++) {
+            Runnable call;
+            // The slot may have been claimed, but not yet filled in.
+            while ((call = calls.get(i)) == null) {
+                Thread.yield();
+            }
+            calls.set(i, null);
+            try {
+                call.run();
+            } catch (RuntimeException ignored) {
+                // Same as a call submitted to the analytics executor, which doesn't stop others.
+            }
+        }
+        return Math.max(0, end - calls.length());
+    }
+}
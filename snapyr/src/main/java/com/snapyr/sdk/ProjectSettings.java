@@ -27,6 +27,7 @@ import static java.util.Collections.unmodifiableMap;
 
 import android.content.Context;
 import com.snapyr.sdk.internal.Private;
+import java.io.IOException;
 import java.util.Map;
 
 class ProjectSettings extends ValueMap {
@@ -36,6 +37,10 @@ class ProjectSettings extends ValueMap {
     private static final String INTEGRATIONS_KEY = "integrations";
     private static final String TRACKING_PLAN_KEY = "track";
     private static final String EDGE_FUNCTIONS_KEY = "edgeFunction";
+    private static final String CAPABILITIES_KEY = "capabilities";
+    private static final String SAMPLING_KEY = "sampling";
+    /** The server accepts batches with a top-level context shared by all of their payloads. */
+    static final String SHARED_BATCH_CONTEXT_CAPABILITY = "sharedBatchContext";
 
     @Private
     ProjectSettings(Map<String, Object> map) {
@@ -71,6 +76,17 @@ class ProjectSettings extends ValueMap {
         return getValueMap(EDGE_FUNCTIONS_KEY);
     }
 
+    /** Sample rates and rate limits for track events, see {@link EventSampler}. */
+    ValueMap sampling() {
+        return getValueMap(SAMPLING_KEY);
+    }
+
+    /** Returns true if the server advertises support for the given capability. */
+    boolean hasCapability(String capability) {
+        ValueMap capabilities = getValueMap(CAPABILITIES_KEY);
+        return capabilities != null && capabilities.getBoolean(capability, false);
+    }
+
     static class Cache extends ValueMap.Cache<ProjectSettings> {
 
         // todo: remove. This is legacy behaviour from before we started namespacing the entire
@@ -87,6 +103,21 @@ class ProjectSettings extends ValueMap {
                     ProjectSettings.class);
         }
 
+        /**
+         * Settings are read on every cold start, but usually only a few of their top-level members
+         * are ever used, so the cached json is decoded lazily as those members are accessed. It is
+         * checked in full first, so a corrupt cache is treated as empty and the settings are
+         * fetched again, rather than failing when a member is read.
+         */
+        @Override
+        ProjectSettings parse(String json) throws IOException {
+            try {
+                return new ProjectSettings(LazyJsonObject.parseChecked(json));
+            } catch (IOException e) {
+                return super.parse(json);
+            }
+        }
+
         @Override
         public ProjectSettings create(Map<String, Object> map) {
             return new ProjectSettings(map);
@@ -407,7 +407,7 @@ public class Properties extends ValueMap {
         }
 
         // For deserialization
-        private Product(Map<String, Object> map) {
+        Product(Map<String, Object> map) {
             super(map);
         }
 
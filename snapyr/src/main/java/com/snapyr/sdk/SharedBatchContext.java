@@ -0,0 +1,201 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pulls the {@code context} that payloads in a batch have in common up to the batch itself, so it
+ * is only sent once. The context of the first payload becomes the shared context, and every payload
+ * keeps only the top-level context entries that differ from it. Entries that are missing from a
+ * payload's context are sent as {@code null}.
+ *
+ * <p>Payloads are never decoded: members are compared and copied as raw JSON text, so numbers and
+ * strings are sent exactly as they were serialized.
+ */
+class SharedBatchContext {
+
+    private static final String CONTEXT_KEY = "context";
+    private static final String CONTEXT_MEMBER = "\"" + CONTEXT_KEY + "\":";
+
+    private Map<String, String> shared;
+    private long originalBytes;
+    private long reducedBytes;
+
+    /**
+     * Returns the payload without the parts of its context that are shared by the batch. Payloads
+     * that can't be scanned are returned as is.
+     */
+    String reduce(String payload) {
+        String reduced;
+        try {
+            reduced = reduceOrThrow(payload);
+        } catch (IOException e) {
+            reduced = payload;
+        }
+        originalBytes += utf8Length(payload);
+        reducedBytes += utf8Length(reduced);
+        return reduced;
+    }
+
+    private String reduceOrThrow(String payload) throws IOException {
+        JsonScanner scanner = new JsonScanner(payload);
+        scanner.beginObject();
+        StringBuilder out = new StringBuilder(payload.length()).append('{');
+        boolean needsComma = false;
+        boolean foundContext = false;
+        while (scanner.nextMember()) {
+            int memberStart = scanner.position();
+            String name = scanner.nextName();
+            int valueStart = scanner.position();
+            scanner.skipValue();
+            int valueEnd = scanner.position();
+
+            String member = null;
+            if (!foundContext && CONTEXT_KEY.equals(name) && payload.charAt(valueStart) == '{') {
+                foundContext = true;
+                String difference = difference(payload.substring(valueStart, valueEnd));
+                if (difference != null) {
+                    member = CONTEXT_MEMBER + difference;
+                }
+            } else {
+                member = payload.substring(memberStart, valueEnd);
+            }
+            if (member != null) {
+                if (needsComma) {
+                    out.append(',');
+                }
+                out.append(member);
+                needsComma = true;
+            }
+        }
+        return out.append('}').toString();
+    }
+
+    /**
+     * Returns the members of the given context that differ from the shared context, or null if
+     * there are none. The first context seen becomes the shared one.
+     */
+    private String difference(String context) throws IOException {
+        Map<String, String> members = members(context);
+        if (shared == null) {
+            shared = members;
+            return null;
+        }
+
+        StringBuilder difference = new StringBuilder();
+        for (Map.Entry<String, String> member : members.entrySet()) {
+            if (!member.getValue().equals(shared.get(member.getKey()))) {
+                appendMember(difference, member.getKey(), member.getValue());
+            }
+        }
+        for (String key : shared.keySet()) {
+            if (!members.containsKey(key)) {
+                appendMember(difference, key, "null");
+            }
+        }
+        if (difference.length() == 0) {
+            return null;
+        }
+        return difference.insert(0, '{').append('}').toString();
+    }
+
+    private static Map<String, String> members(String object) throws IOException {
+        Map<String, String> members = new LinkedHashMap<>();
+        JsonScanner scanner = new JsonScanner(object);
+        scanner.beginObject();
+        while (scanner.nextMember()) {
+            String name = scanner.nextName();
+            int valueStart = scanner.position();
+            scanner.skipValue();
+            members.put(name, object.substring(valueStart, scanner.position()));
+        }
+        return members;
+    }
+
+    private static void appendMember(StringBuilder builder, String name, String value) {
+        if (builder.length() > 0) {
+            builder.append(',');
+        }
+        builder.append('"').append(name).append("\":").append(value);
+    }
+
+    /** Returns true if none of the payloads so far had a context to share. */
+    boolean isEmpty() {
+        return shared == null;
+    }
+
+    /** Writes the shared context as a member of the batch object, including the leading comma. */
+    void writeTo(Writer writer) throws IOException {
+        writer.write(',');
+        writer.write(CONTEXT_MEMBER);
+        writer.write(sharedContextJson());
+    }
+
+    private String sharedContextJson() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> member : shared.entrySet()) {
+            appendMember(builder, member.getKey(), member.getValue());
+        }
+        return builder.insert(0, '{').append('}').toString();
+    }
+
+    /**
+     * The number of bytes saved by sharing the context, after accounting for the shared context
+     * itself.
+     */
+    long bytesSaved() {
+        long saved = originalBytes - reducedBytes;
+        if (shared != null) {
+            saved -= 1 + CONTEXT_MEMBER.length() + utf8Length(sharedContextJson());
+        }
+        return saved;
+    }
+
+    /** Returns the number of bytes needed to encode the given string as UTF-8. */
+    static int utf8Length(CharSequence s) {
+        int length = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < n
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++; // Unpaired surrogates are replaced with '?'.
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -49,6 +49,7 @@ import com.snapyr.sdk.integrations.BasePayload;
 import com.snapyr.sdk.integrations.GroupPayload;
 import com.snapyr.sdk.integrations.IdentifyPayload;
 import com.snapyr.sdk.integrations.Logger;
+import com.snapyr.sdk.integrations.MessageIdGenerator;
 import com.snapyr.sdk.integrations.ScreenPayload;
 import com.snapyr.sdk.integrations.TrackPayload;
 import com.snapyr.sdk.internal.NanoDate;
@@ -64,6 +65,8 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -100,6 +103,8 @@ public class Snapyr {
     private static final String VERSION_KEY = "version";
     private static final String BUILD_KEY = "build";
     private static final String TRAITS_KEY = "traits";
+    private static final String SAMPLE_RATE_KEY = "sampleRate";
+    static final String METRICS_SUMMARY_EVENT = "snapyr.metrics.summary";
     // Handler Logic.
     private static final long SETTINGS_REFRESH_INTERVAL = 1000 * 60 * 60 * 24; // 24 hours
     private static final long SETTINGS_RETRY_INTERVAL = 1000 * 60; // 1 minute
@@ -124,10 +129,14 @@ public class Snapyr {
     final int flushQueueSize;
     final long flushIntervalInMillis;
     @Private final boolean nanosecondTimestamps;
+    private final MessageIdGenerator messageIdGenerator;
+    private final MiddlewareChain sourceMiddleware;
+    private final ActionHandlerDispatcher handlerDispatcher;
     @Private final boolean useNewLifecycleMethods;
     private final Application application;
     private final Logger logger;
     private final ProjectSettings.Cache projectSettingsCache;
+    private final StatePersister statePersister;
     // Retrieving the advertising ID is asynchronous. This latch helps us wait to ensure the
     // advertising ID is ready.
     private final CountDownLatch advertisingIdLatch;
@@ -138,7 +147,28 @@ public class Snapyr {
     private SnapyrNotificationHandler notificationHandler;
     private String pushToken;
     private Map<String, PushTemplate> PushTemplates;
-    private final SnapyrWriteQueue sendQueue;
+    /** Created by {@link #initialize()}, which may run after the constructor returns. */
+    private volatile SnapyrWriteQueue sendQueue;
+    /** Kept here so settings fetched before {@link #sendQueue} exists still reach it. */
+    private volatile boolean shareBatchContext;
+    /** Captures calls made before initialization is done, null if it's done in the constructor. */
+    @Nullable private final PreInitBuffer preInitBuffer;
+    private final CountDownLatch initialized = new CountDownLatch(1);
+    private final ContextProviders contextProviders;
+    private final Runnable flushQueue =
+            new Runnable() {
+                @Override
+                public void run() {
+                    sendQueue.flush();
+                }
+            };
+    private final EventSampler eventSampler = new EventSampler();
+    private final EventCoalescer eventCoalescer;
+    /** The events and properties the settings allow, checked before a track event is built. */
+    private volatile TrackingPlan trackingPlan = TrackingPlan.EMPTY;
+    /** The property transformations in the settings, run on the track events that are kept. */
+    private volatile EdgeFunctions edgeFunctions = EdgeFunctions.EMPTY;
+    private final MetricsAggregator metrics = new MetricsAggregator();
 
     Snapyr(
             Application application,
@@ -167,7 +197,14 @@ public class Snapyr {
             @NonNull Lifecycle lifecycle,
             boolean nanosecondTimestamps,
             boolean useNewLifecycleMethods,
-            boolean enableSnapyrPushHandling) {
+            boolean enableSnapyrPushHandling,
+            long coalesceWindowInMillis,
+            MessageIdGenerator messageIdGenerator,
+            MiddlewareChain sourceMiddleware,
+            int actionHandlerCapacity,
+            OverflowPolicy actionHandlerOverflowPolicy,
+            StatePersister statePersister,
+            @Nullable PreInitBuffer preInitBuffer) {
         this.application = application;
         this.networkExecutor = networkExecutor;
         this.stats = stats;
@@ -179,6 +216,7 @@ public class Snapyr {
         this.client = client;
         this.cartographer = cartographer;
         this.projectSettingsCache = projectSettingsCache;
+        this.statePersister = statePersister;
         this.writeKey = writeKey;
         this.flushQueueSize = flushQueueSize;
         this.flushIntervalInMillis = flushIntervalInMillis;
@@ -190,22 +228,27 @@ public class Snapyr {
         this.nanosecondTimestamps = nanosecondTimestamps;
         this.useNewLifecycleMethods = useNewLifecycleMethods;
         this.actionHandler = actionHandler;
+        this.eventCoalescer = new EventCoalescer(coalesceWindowInMillis);
+        this.messageIdGenerator = messageIdGenerator;
+        this.sourceMiddleware = sourceMiddleware;
+        this.handlerDispatcher =
+                new ActionHandlerDispatcher(
+                        actionHandler, stats, actionHandlerCapacity, actionHandlerOverflowPolicy);
         this.PushTemplates = null;
-        this.sendQueue =
-                new SnapyrWriteQueue(
-                        application,
-                        client,
-                        cartographer,
-                        networkExecutor,
-                        stats,
-                        flushIntervalInMillis,
-                        flushQueueSize,
-                        getLogger(),
-                        crypto,
-                        null,
-                        actionHandler);
-
-        namespaceSharedPreferences();
+        this.contextProviders =
+                new ContextProviders(application, snapyrContext, analyticsExecutor);
+        this.preInitBuffer = preInitBuffer;
+        if (preInitBuffer == null) {
+            initialize();
+        } else {
+            analyticsExecutor.submit(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            initialize();
+                        }
+                    });
+        }
 
         analyticsExecutor.submit(
                 new Runnable() {
@@ -251,6 +294,20 @@ public class Snapyr {
                     }
                 });
 
+        if (preInitBuffer == null) {
+            initialized.countDown();
+        } else {
+            // Queued behind initialization and the settings refresh, like any call made after
+            // the constructor returns would be without the buffer.
+            analyticsExecutor.submit(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            replayPreInitCalls();
+                        }
+                    });
+        }
+
         logger.debug("Created analytics client for project with tag:%s.", tag);
 
         activityLifecycleCallback =
@@ -309,6 +366,63 @@ public class Snapyr {
         }
     }
 
+    /** Does the work that needs the disk before events can be processed. */
+    private void initialize() {
+        SnapyrWriteQueue sendQueue =
+                new SnapyrWriteQueue(
+                        application,
+                        client,
+                        cartographer,
+                        networkExecutor,
+                        stats,
+                        flushIntervalInMillis,
+                        flushQueueSize,
+                        getLogger(),
+                        crypto,
+                        null,
+                        actionHandler);
+        this.sendQueue = sendQueue;
+        // Published before reading the flag, so a concurrent refresh either sees the queue or
+        // leaves the flag for us to apply.
+        sendQueue.setShareBatchContext(shareBatchContext);
+
+        namespaceSharedPreferences();
+        contextProviders.register();
+
+        sendQueue.schedulePeriodic(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        emitMetricsSummary();
+                    }
+                });
+    }
+
+    private void replayPreInitCalls() {
+        int dropped = preInitBuffer.drain();
+        initialized.countDown();
+        if (dropped > 0) {
+            logger.info(
+                    "Dropped %s calls made before initialization finished, the buffer was full.",
+                    dropped);
+        }
+    }
+
+    /**
+     * Captures {@code call} if initialization isn't done yet, in which case it will run once it is.
+     * Returns false if the caller should run it now.
+     */
+    private boolean deferUntilInitialized(Runnable call) {
+        return preInitBuffer != null && preInitBuffer.offer(call);
+    }
+
+    /** Runs {@code call} on the analytics executor, once initialization is done. */
+    private void submit(Runnable call) {
+        if (!deferUntilInitialized(call)) {
+            analyticsExecutor.submit(call);
+        }
+    }
+
     /**
      * Return a reference to the global default {@link Snapyr} instance.
      *
@@ -396,12 +510,24 @@ public class Snapyr {
         ProjectSettings newSettings = getSettings(force);
         if (!isNullOrEmpty(newSettings)) {
             this.projectSettings = newSettings;
+            compileSettings();
+            setShareBatchContext(
+                    newSettings.hasCapability(ProjectSettings.SHARED_BATCH_CONTEXT_CAPABILITY));
             ValueMap metadata = projectSettings.getValueMap("metadata");
             snapyrContext.putSdkMeta(metadata);
             this.PushTemplates = PushTemplate.ParseTemplate(metadata);
         }
     }
 
+    /** Settings may be refreshed before {@link #initialize()} has created the queue. */
+    private void setShareBatchContext(boolean shareBatchContext) {
+        this.shareBatchContext = shareBatchContext;
+        SnapyrWriteQueue sendQueue = this.sendQueue;
+        if (sendQueue != null) {
+            sendQueue.setShareBatchContext(shareBatchContext);
+        }
+    }
+
     public SnapyrNotificationHandler getNotificationHandler() {
         return notificationHandler;
     }
@@ -506,7 +632,7 @@ public class Snapyr {
             throw new IllegalArgumentException("Either userId or some traits must be provided.");
         }
         NanoDate timestamp = new NanoDate();
-        analyticsExecutor.submit(
+        submit(
                 new Runnable() {
                     @Override
                     public void run() {
@@ -572,7 +698,7 @@ public class Snapyr {
             throw new IllegalArgumentException("groupId must not be null or empty.");
         }
         NanoDate timestamp = new NanoDate();
-        analyticsExecutor.submit(
+        submit(
                 new Runnable() {
                     @Override
                     public void run() {
@@ -662,7 +788,7 @@ public class Snapyr {
             throw new IllegalArgumentException("either category or name must be provided.");
         }
         NanoDate timestamp = new NanoDate();
-        analyticsExecutor.submit(
+        submit(
                 new Runnable() {
                     @Override
                     public void run() {
@@ -672,6 +798,9 @@ public class Snapyr {
                         } else {
                             finalProperties = properties;
                         }
+                        if (isCoalesced("screen", category + '/' + name, finalProperties)) {
+                            return;
+                        }
 
                         //noinspection deprecation
                         ScreenPayload.Builder builder =
@@ -725,16 +854,63 @@ public class Snapyr {
             throw new IllegalArgumentException("event must not be null or empty.");
         }
         NanoDate timestamp = new NanoDate();
-        analyticsExecutor.submit(
+        submit(
                 new Runnable() {
                     @Override
                     public void run() {
-                        final Properties finalProperties;
+                        Properties finalProperties;
                         if (properties == null) {
                             finalProperties = EMPTY_PROPERTIES;
                         } else {
                             finalProperties = properties;
                         }
+                        TrackingPlan.Rule rule = trackingPlan().ruleFor(event);
+                        if (!rule.enabled) {
+                            logger.verbose("Dropped %s: blocked by the tracking plan.", event);
+                            stats.dispatchTrackingPlanDrop(
+                                    true,
+                                    TrackingPlan.estimateSize(event)
+                                            + TrackingPlan.estimateSize(finalProperties));
+                            return;
+                        }
+                        Properties allowedProperties = rule.strip(finalProperties);
+                        if (allowedProperties != finalProperties) {
+                            stats.dispatchTrackingPlanDrop(
+                                    false,
+                                    TrackingPlan.estimateSize(finalProperties)
+                                            - TrackingPlan.estimateSize(allowedProperties));
+                            finalProperties = allowedProperties;
+                        }
+
+                        // Coalesce before sampling so duplicates don't use up the rate limit.
+                        if (isCoalesced("track", event, finalProperties)) {
+                            return;
+                        }
+
+                        double sampleRate = eventSampler.sample(projectSettings, event);
+                        if (sampleRate == EventSampler.DROP) {
+                            logger.verbose("Dropped %s: sampled out or rate limited.", event);
+                            return;
+                        }
+
+                        // Only transform the events that are kept. Our own summaries aren't the
+                        // app's properties.
+                        if (!METRICS_SUMMARY_EVENT.equals(event)) {
+                            finalProperties =
+                                    edgeFunctions()
+                                            .apply(
+                                                    event,
+                                                    finalProperties,
+                                                    snapyrContext.traits(),
+                                                    stats);
+                        }
+                        if (sampleRate < 1) {
+                            // Let the server re-weight the events that were kept.
+                            Properties sampledProperties = new Properties();
+                            sampledProperties.putAll(finalProperties);
+                            sampledProperties.putValue(SAMPLE_RATE_KEY, sampleRate);
+                            finalProperties = sampledProperties;
+                        }
 
                         TrackPayload.Builder builder =
                                 new TrackPayload.Builder()
@@ -746,6 +922,121 @@ public class Snapyr {
                 });
     }
 
+    /**
+     * Compiles the parts of the current settings that are checked for every event, unless they
+     * were compiled from these settings already. Each is swapped whole, so a reader sees either
+     * the old or the new one. Settings that were set without going through {@link
+     * #RefreshConfiguration(boolean)} are compiled on first use.
+     */
+    private void compileSettings() {
+        ProjectSettings settings = projectSettings;
+        if (trackingPlan.settings != settings) {
+            trackingPlan = TrackingPlan.compile(settings);
+        }
+        if (edgeFunctions.settings != settings) {
+            edgeFunctions = EdgeFunctions.compile(settings);
+        }
+    }
+
+    /** Returns the tracking plan compiled from the current settings. */
+    @Private
+    TrackingPlan trackingPlan() {
+        compileSettings();
+        return trackingPlan;
+    }
+
+    /** Returns the edge functions compiled from the current settings. */
+    @Private
+    EdgeFunctions edgeFunctions() {
+        compileSettings();
+        return edgeFunctions;
+    }
+
+    /**
+     * Returns true if an identical event was recorded within the coalescing window, in which case
+     * this one is dropped and counted in {@link StatsSnapshot#coalescedEventCount}.
+     */
+    @Private
+    boolean isCoalesced(String type, String name, Properties properties) {
+        if (!eventCoalescer.isDuplicate(type, name, properties)) {
+            return false;
+        }
+        logger.verbose("Dropped duplicate %s %s.", type, name);
+        stats.dispatchCoalescedEvent();
+        return true;
+    }
+
+    /** @see #increment(String, long) */
+    public void increment(@NonNull String name) {
+        increment(name, 1);
+    }
+
+    /**
+     * Adds {@code delta} to the counter with the given name. Counters, gauges and histograms are
+     * aggregated in memory and sent as a single summary event once per flush interval, which is
+     * much cheaper than tracking an event for every sample of a high frequency signal.
+     *
+     * @param name Name of the counter. Must not be null or empty.
+     * @param delta The amount to add to the counter.
+     */
+    public void increment(@NonNull String name, long delta) {
+        assertNotShutdown();
+        assertMetricName(name);
+        metrics.increment(name, delta);
+    }
+
+    /**
+     * Sets the gauge with the given name. The last value set during a flush interval is sent in
+     * the summary event.
+     *
+     * @param name Name of the gauge. Must not be null or empty.
+     * @param value The current value of the gauge.
+     * @see #increment(String, long)
+     */
+    public void gauge(@NonNull String name, double value) {
+        assertNotShutdown();
+        assertMetricName(name);
+        metrics.gauge(name, value);
+    }
+
+    /**
+     * Records a sample, such as a latency, in the histogram with the given name. The count, sum,
+     * min, max and bucket counts of the samples recorded during a flush interval are sent in the
+     * summary event.
+     *
+     * @param name Name of the histogram. Must not be null or empty.
+     * @param value The value of the sample.
+     * @see #increment(String, long)
+     */
+    public void histogram(@NonNull String name, double value) {
+        assertNotShutdown();
+        assertMetricName(name);
+        metrics.record(name, value);
+    }
+
+    private static void assertMetricName(String name) {
+        if (Utils.isNullOrEmpty(name)) {
+            throw new IllegalArgumentException("name must not be null or empty.");
+        }
+    }
+
+    /** Writes cached state that has changed to disk, without waiting for the debounce delay. */
+    void persistState() {
+        statePersister.flushAsync();
+    }
+
+    /** Tracks the metrics aggregated since the last summary, if any were recorded. */
+    @Private
+    void emitMetricsSummary() {
+        if (shutdown) {
+            return;
+        }
+        Properties summary = metrics.drain();
+        if (summary != null) {
+            track(METRICS_SUMMARY_EVENT, summary);
+        }
+    }
+
     /** @see #alias(String, Options) */
     public void alias(@NonNull AliasPayload payload) {
         alias(payload.userId(), null);
@@ -783,7 +1074,7 @@ public class Snapyr {
         }
 
         NanoDate timestamp = new NanoDate();
-        analyticsExecutor.submit(
+        submit(
                 new Runnable() {
                     @Override
                     public void run() {
@@ -821,15 +1112,13 @@ public class Snapyr {
             finalOptions = options;
         }
 
-        // Create a new working copy
-        SnapyrContext contextCopy = new SnapyrContext(new LinkedHashMap<>(snapyrContext.size()));
-        contextCopy.putAll(snapyrContext);
-        contextCopy.putAll(finalOptions.context());
-        contextCopy = contextCopy.unmodifiableCopy();
+        // Share the immutable snapshot of the current context, with the per-call context on top.
+        SnapyrContext contextCopy = snapyrContext.snapshot(finalOptions.context());
 
         builder.context(contextCopy);
         builder.anonymousId(contextCopy.traits().anonymousId());
         builder.nanosecondTimestamps(nanosecondTimestamps);
+        builder.messageIdGenerator(messageIdGenerator);
         String cachedUserId = contextCopy.traits().userId();
         if (!builder.isUserIdSet() && !Utils.isNullOrEmpty(cachedUserId)) {
             // userId is not set, retrieve from cached traits and set for payload
@@ -839,36 +1128,23 @@ public class Snapyr {
         if (optOut.get()) {
             return;
         }
+        payload = sourceMiddleware.run(payload);
+        if (payload == null) {
+            return;
+        }
 
-        dispatchToHandler(payload);
+        // Queued callbacks run alongside the analytics thread, so they only get the payload once
+        // it has been serialized.
+        boolean asyncHandler = handlerDispatcher.isAsync();
+        if (!asyncHandler) {
+            handlerDispatcher.dispatch(payload);
+        }
 
         logger.verbose("Created payload %s.", payload);
         this.sendQueue.performEnqueue(payload);
-    }
-
-    private void dispatchToHandler(BasePayload payload) {
-        if (actionHandler == null) {
-            return;
-        }
 
-        switch (payload.type()) {
-            case alias:
-                actionHandler.onAlias((AliasPayload) payload);
-                break;
-            case track:
-                actionHandler.onTrack((TrackPayload) payload);
-                break;
-            case identify:
-                actionHandler.onIdentify((IdentifyPayload) payload);
-                break;
-            case screen:
-                actionHandler.onScreen((ScreenPayload) payload);
-                break;
-            case group:
-                actionHandler.onGroup((GroupPayload) payload);
-                break;
-            default:
-                break;
+        if (asyncHandler) {
+            handlerDispatcher.dispatch(payload);
         }
     }
 
@@ -880,6 +1156,9 @@ public class Snapyr {
         if (shutdown) {
             throw new IllegalStateException("Cannot enqueue messages after client is shutdown.");
         }
+        if (deferUntilInitialized(flushQueue)) {
+            return;
+        }
         sendQueue.flush();
     }
 
@@ -950,9 +1229,18 @@ public class Snapyr {
         editor.remove(TRAITS_KEY + "-" + tag);
         editor.apply();
 
-        traitsCache.delete();
-        traitsCache.set(Traits.create());
-        snapyrContext.setTraits(traitsCache.get());
+        Runnable resetTraits =
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        traitsCache.delete();
+                        traitsCache.set(Traits.create());
+                        snapyrContext.setTraits(traitsCache.get());
+                    }
+                };
+        if (!deferUntilInitialized(resetTraits)) {
+            resetTraits.run();
+        }
     }
 
     /**
@@ -978,7 +1266,9 @@ public class Snapyr {
         }
 
         flush();
+        awaitInitialization();
         sendQueue.shutdown();
+        contextProviders.unregister();
 
         application.unregisterActivityLifecycleCallbacks(activityLifecycleCallback);
         application.unregisterActivityLifecycleCallbacks(notificationLifecycleCallbacks);
@@ -990,6 +1280,8 @@ public class Snapyr {
         // public,
         // we'll have to add a check similar to that of AnalyticsNetworkExecutorService below.
         analyticsExecutor.shutdown();
+        handlerDispatcher.shutdown();
+        statePersister.shutdown();
         if (networkExecutor instanceof Utils.AnalyticsNetworkExecutorService) {
             networkExecutor.shutdown();
         }
@@ -998,6 +1290,15 @@ public class Snapyr {
         shutdown = true;
     }
 
+    /** Waits for initialization to be done, which may still be running in the background. */
+    private void awaitInitialization() {
+        try {
+            initialized.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private void assertNotShutdown() {
         if (shutdown) {
             throw new IllegalStateException("Cannot enqueue messages after client is shutdown.");
@@ -1130,6 +1431,21 @@ public class Snapyr {
         }
     }
 
+    /**
+     * What happens to a callback for the {@link SnapyrActionHandler} when the queue of callbacks
+     * waiting to be delivered is full.
+     *
+     * @see Builder#asyncActionHandler(int, OverflowPolicy)
+     */
+    public enum OverflowPolicy {
+        /** Drop the new callback. */
+        DROP_NEWEST,
+        /** Drop the oldest queued callback to make room for the new one. */
+        DROP_OLDEST,
+        /** Wait for room in the queue, holding up the events recorded after this one. */
+        BLOCK
+    }
+
     /** Fluent API for creating {@link Snapyr} instances. */
     public static class Builder {
 
@@ -1138,6 +1454,7 @@ public class Snapyr {
         private boolean collectDeviceID = Utils.DEFAULT_COLLECT_DEVICE_ID;
         private int flushQueueSize = Utils.DEFAULT_FLUSH_QUEUE_SIZE;
         private long flushIntervalInMillis = Utils.DEFAULT_FLUSH_INTERVAL;
+        private long coalesceWindowInMillis = Utils.DEFAULT_COALESCE_WINDOW;
         private Options defaultOptions;
         private String tag;
         private LogLevel logLevel;
@@ -1145,11 +1462,18 @@ public class Snapyr {
         private ExecutorService executor;
         private ConnectionFactory connectionFactory;
         private SnapyrActionHandler actionHandler;
+        private int actionHandlerCapacity = 0;
+        private OverflowPolicy actionHandlerOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+        private int preInitCapacity = 0;
         private boolean trackApplicationLifecycleEvents = false;
         private boolean recordScreenViews = false;
         private boolean trackDeepLinks = false;
         private boolean snapyrPush = false;
         private boolean nanosecondTimestamps = false;
+        private JsonEngine jsonEngine = JsonEngine.ANDROID;
+        private MessageIdGenerator messageIdGenerator = MessageIdGenerator.TIME_ORDERED;
+        private final Map<String, Middleware> sourceMiddleware = new LinkedHashMap<>();
+        private long sourceMiddlewareBudgetInNanos = MiddlewareChain.DEFAULT_BUDGET_NANOS;
         private Crypto crypto;
         private ValueMap defaultProjectSettings = new ValueMap();
         private boolean useNewLifecycleMethods = true; // opt-out feature
@@ -1215,6 +1539,26 @@ public class Snapyr {
             return this;
         }
 
+        /**
+         * Set the window in which an event identical to one already recorded is dropped. Events are
+         * identical if they have the same type, name and properties, like a deep link reported by
+         * more than one lifecycle callback, or repeated screen views from rapid transitions. The
+         * window starts at the first occurrence. Coalescing is disabled by default, since a
+         * legitimate repeat within the window is dropped as well. Pass zero to record every event.
+         *
+         * @throws IllegalArgumentException if the window is less than zero.
+         */
+        public Builder coalesceDuplicateEvents(long window, TimeUnit timeUnit) {
+            if (timeUnit == null) {
+                throw new IllegalArgumentException("timeUnit must not be null.");
+            }
+            if (window < 0) {
+                throw new IllegalArgumentException("window must be greater than or equal to zero.");
+            }
+            this.coalesceWindowInMillis = timeUnit.toMillis(window);
+            return this;
+        }
+
         /**
          * Enable or disable collection of {@link android.provider.Settings.Secure#ANDROID_ID},
          * {@link android.os.Build#SERIAL} or the Telephony Identifier retrieved via
@@ -1357,6 +1701,70 @@ public class Snapyr {
             return this;
         }
 
+        /**
+         * Set the {@link JsonEngine} that writes payloads and reads cached state and project
+         * settings. Defaults to {@link JsonEngine#ANDROID}; {@link JsonEngine#STREAMING} is faster,
+         * and strictly opt-in.
+         */
+        public Builder jsonEngine(JsonEngine jsonEngine) {
+            if (jsonEngine == null) {
+                throw new IllegalArgumentException("jsonEngine must not be null.");
+            }
+            this.jsonEngine = jsonEngine;
+            return this;
+        }
+
+        /**
+         * Set the generator used to create message IDs for events that don't set one. Defaults to
+         * {@link MessageIdGenerator#TIME_ORDERED}; {@link MessageIdGenerator#RANDOM_UUID} restores
+         * the random IDs of earlier versions.
+         */
+        public Builder messageIdGenerator(MessageIdGenerator messageIdGenerator) {
+            if (messageIdGenerator == null) {
+                throw new IllegalArgumentException("messageIdGenerator must not be null.");
+            }
+            this.messageIdGenerator = messageIdGenerator;
+            return this;
+        }
+
+        /**
+         * Add a {@link Middleware} that sees every payload before it is queued, and can modify or
+         * drop it. Middleware runs in the order it was added, and the time spent in it is reported
+         * in {@link StatsSnapshot#integrationOperationDurationByIntegration} under {@code name}.
+         *
+         * @throws IllegalStateException if middleware with the same name was already added.
+         */
+        public Builder useSourceMiddleware(String name, Middleware middleware) {
+            if (Utils.isNullOrEmpty(name)) {
+                throw new IllegalArgumentException("name must not be null or empty.");
+            }
+            if (middleware == null) {
+                throw new IllegalArgumentException("middleware must not be null.");
+            }
+            if (sourceMiddleware.containsKey(name)) {
+                throw new IllegalStateException("Source middleware " + name + " already added.");
+            }
+            sourceMiddleware.put(name, middleware);
+            return this;
+        }
+
+        /**
+         * Set how long source middleware may take per payload. Middleware that goes over the
+         * budget three payloads in a row is skipped from then on. Defaults to 100 milliseconds.
+         *
+         * @throws IllegalArgumentException if the budget is less than or equal to zero.
+         */
+        public Builder sourceMiddlewareBudget(long budget, TimeUnit timeUnit) {
+            if (timeUnit == null) {
+                throw new IllegalArgumentException("timeUnit must not be null.");
+            }
+            if (budget <= 0) {
+                throw new IllegalArgumentException("budget must be greater than zero.");
+            }
+            this.sourceMiddlewareBudgetInNanos = timeUnit.toNanos(budget);
+            return this;
+        }
+
         /** Enable/Disable the use of the new Lifecycle Observer methods. Enabled by default. */
         public Builder experimentalUseNewLifecycleMethods(boolean useNewLifecycleMethods) {
             this.useNewLifecycleMethods = useNewLifecycleMethods;
@@ -1380,6 +1788,46 @@ public class Snapyr {
             return this;
         }
 
+        /**
+         * Deliver payloads to the {@link SnapyrActionHandler} on a thread of its own, in the order
+         * they were recorded, instead of synchronously before each payload is queued. At most
+         * {@code capacity} callbacks wait to be delivered, after which {@code overflowPolicy}
+         * applies.
+         *
+         * <p>Payloads are handed to the handler after they have been queued for upload, so they
+         * must be treated as read-only: unlike with synchronous callbacks, nothing the handler
+         * writes to them is uploaded.
+         *
+         * @throws IllegalArgumentException if the capacity is less than or equal to zero.
+         */
+        public Builder asyncActionHandler(int capacity, OverflowPolicy overflowPolicy) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity must be greater than zero.");
+            }
+            if (overflowPolicy == null) {
+                throw new IllegalArgumentException("overflowPolicy must not be null.");
+            }
+            this.actionHandlerCapacity = capacity;
+            this.actionHandlerOverflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * Let {@link #build()} return right away, and load the cached traits, query the device
+         * and open the disk queue on a background thread instead. Calls made to the client before
+         * that is done are held, with the time they were made, and replayed in order afterwards.
+         * At most {@code capacity} calls are held, further calls are dropped.
+         *
+         * @throws IllegalArgumentException if the capacity is less than or equal to zero.
+         */
+        public Builder initializeInBackground(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity must be greater than zero.");
+            }
+            this.preInitCapacity = capacity;
+            return this;
+        }
+
         /**
          * The executor on which payloads are dispatched asynchronously. This is not exposed
          * publicly.
@@ -1402,7 +1850,8 @@ public class Snapyr {
                 logLevel = LogLevel.NONE;
             }
             if (networkExecutor == null) {
-                networkExecutor = new Utils.AnalyticsNetworkExecutorService();
+                // Shared by all clients, so it isn't shut down with this one.
+                networkExecutor = SnapyrScheduler.shared().io();
             }
             if (connectionFactory == null) {
                 connectionFactory = new ConnectionFactory(snapyrEnvironment);
@@ -1412,11 +1861,12 @@ public class Snapyr {
             }
 
             final Stats stats = new Stats();
-            final Cartographer cartographer = Cartographer.INSTANCE;
+            final Cartographer cartographer = Cartographer.INSTANCE.withEngine(jsonEngine);
             final Client client = new Client(writeKey, connectionFactory);
 
             ProjectSettings.Cache projectSettingsCache =
-                    new ProjectSettings.Cache(application, cartographer, tag);
+                    new ProjectSettings.Cache(
+                            application, Cartographer.SETTINGS.withEngine(jsonEngine), tag);
 
             BooleanPreference optOut =
                     new BooleanPreference(
@@ -1424,23 +1874,71 @@ public class Snapyr {
                             OPT_OUT_PREFERENCE_KEY,
                             false);
 
-            Traits.Cache traitsCache = new Traits.Cache(application, cartographer, tag);
-            if (!traitsCache.isSet() || traitsCache.get() == null) {
-                Traits traits = Traits.create();
-                traitsCache.set(traits);
-            }
-
-            Logger logger = Logger.with(logLevel);
-            SnapyrContext snapyrContext =
-                    SnapyrContext.create(application, traitsCache.get(), collectDeviceID);
-            CountDownLatch advertisingIdLatch = new CountDownLatch(1);
-            snapyrContext.attachAdvertisingId(application, advertisingIdLatch, logger);
+            final Traits.Cache traitsCache = new Traits.Cache(application, cartographer, tag);
+            final Logger logger = Logger.with(logLevel);
+            final SnapyrContext snapyrContext = SnapyrContext.createEmpty();
+            final CountDownLatch advertisingIdLatch = new CountDownLatch(1);
+            final StateStore stateStore = new StateStore(application, tag);
+            // Only has a thread while the advertising ID is being fetched.
+            final ExecutorService advertisingIdExecutor =
+                    new ThreadPoolExecutor(
+                            0,
+                            1,
+                            30,
+                            TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(),
+                            new Utils.AnalyticsThreadFactory());
+            Runnable loadState =
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!traitsCache.isSet() || traitsCache.get() == null) {
+                                Traits traits = Traits.create();
+                                traitsCache.set(traits);
+                            }
+                            snapyrContext.populateLocal(traitsCache.get(), collectDeviceID);
+                            snapyrContext.attachAdvertisingId(
+                                    application,
+                                    stateStore,
+                                    advertisingIdExecutor,
+                                    advertisingIdLatch,
+                                    logger);
+                        }
+                    };
 
             ExecutorService executor = this.executor;
             if (executor == null) {
                 executor = Executors.newSingleThreadExecutor();
             }
 
+            PreInitBuffer preInitBuffer = null;
+            if (preInitCapacity > 0) {
+                // Runs first on the analytics executor, ahead of everything the client submits.
+                executor.submit(loadState);
+                preInitBuffer = new PreInitBuffer(preInitCapacity);
+            } else {
+                loadState.run();
+            }
+            // Binder calls to system services are kept off the calling thread, which is usually
+            // the main thread. They run next on the analytics executor, so every event sees them.
+            executor.submit(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            snapyrContext.putSystemValues(application, collectDeviceID);
+                        }
+                    });
+
+            // Seeded traits are written right away, later changes are coalesced.
+            SnapyrScheduler scheduler = SnapyrScheduler.shared();
+            StatePersister statePersister =
+                    new StatePersister(
+                            new Handler(scheduler.looper()),
+                            scheduler.io(),
+                            StatePersister.DEFAULT_DEBOUNCE_MILLIS);
+            traitsCache.persistWith(statePersister);
+            projectSettingsCache.persistWith(statePersister);
+
             Lifecycle lifecycle = ProcessLifecycleOwner.get().getLifecycle();
             return new Snapyr(
                     application,
@@ -1469,7 +1967,18 @@ public class Snapyr {
                     lifecycle,
                     nanosecondTimestamps,
                     useNewLifecycleMethods,
-                    snapyrPush);
+                    snapyrPush,
+                    coalesceWindowInMillis,
+                    messageIdGenerator,
+                    new MiddlewareChain(
+                            new LinkedHashMap<>(sourceMiddleware),
+                            sourceMiddlewareBudgetInNanos,
+                            stats,
+                            logger),
+                    actionHandlerCapacity,
+                    actionHandlerOverflowPolicy,
+                    statePersister,
+                    preInitBuffer);
         }
     }
 }
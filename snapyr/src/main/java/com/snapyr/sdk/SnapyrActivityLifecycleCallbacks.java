@@ -104,6 +104,8 @@ class SnapyrActivityLifecycleCallbacks
 
     @Override
     public void onStop(@NonNull LifecycleOwner owner) {
+        // The process may be killed once it's in the background.
+        snapyr.persistState();
         // App in background
         if (shouldTrackApplicationLifecycleEvents
                 && numberOfActivities.decrementAndGet() == 0
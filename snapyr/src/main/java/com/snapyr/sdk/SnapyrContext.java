@@ -29,6 +29,7 @@ import static android.content.Context.TELEPHONY_SERVICE;
 import static android.net.ConnectivityManager.TYPE_BLUETOOTH;
 import static android.net.ConnectivityManager.TYPE_MOBILE;
 import static android.net.ConnectivityManager.TYPE_WIFI;
+import static com.snapyr.sdk.ValueMap.isImmutable;
 import static java.util.Collections.unmodifiableMap;
 
 import android.annotation.SuppressLint;
@@ -38,19 +39,23 @@ import android.content.pm.PackageManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Build;
+import android.os.Handler;
 import android.telephony.TelephonyManager;
 import android.util.DisplayMetrics;
 import android.view.Display;
 import android.view.WindowManager;
 import com.snapyr.sdk.core.BuildConfig;
 import com.snapyr.sdk.integrations.Logger;
+import com.snapyr.sdk.internal.OverlayMap;
 import com.snapyr.sdk.internal.Private;
 import com.snapyr.sdk.internal.Utils;
-import java.util.LinkedHashMap;
+import java.util.Collection;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Context is a dictionary of free-form information about the state of the device. Context is
@@ -67,12 +72,19 @@ import java.util.concurrent.CountDownLatch;
  *
  * <p>AnalyticsContext is not persisted to disk, and is filled each time the app starts.
  *
- * <p>On the topic of the thread safety of traits, whilst this class utilises LinkedHashMap, writes
- * to this map only occur from within the handler thread. Meanwhile reads are served immutable
- * copies of traits mitigating the risk of data races with the exception of clients of this library
- * modifying nested data structures after passing them to this library. This concern could be
- * mitigated by deep rather than shallow copying (e.g. via de-serialiation and re-serialisation),
- * however this would contribute a performance penalty.
+ * <p>On the topic of the thread safety of traits, the context and the traits the library keeps are
+ * backed by an {@link AtomicPersistentMap}, and writes to them only occur from within the handler
+ * thread. Meanwhile reads are served immutable versions of traits mitigating the risk of data races
+ * with the exception of clients of this library modifying nested data structures after passing
+ * them to this library. This concern could be mitigated by deep rather than shallow copying (e.g.
+ * via de-serialiation and re-serialisation), however this would contribute a performance penalty.
+ *
+ * <p>Every mutation bumps a version counter. Events don't copy the context themselves, they share
+ * the immutable {@link #snapshot()} for the current version, which is only rebuilt after the
+ * context has changed. Changes to a {@link Campaign}, {@link Device}, {@link Location} or {@link
+ * Referrer} bump the version of the context they were put in too. The values the library fills in
+ * itself are unmodifiable; any other map or list put in directly is not tracked, and a snapshot
+ * holding one has {@link #NO_VERSION}.
  */
 public class SnapyrContext extends ValueMap {
 
@@ -117,9 +129,21 @@ public class SnapyrContext extends ValueMap {
     // Snapyr SDK Meta
     private static final String SDK_META_KEY = "sdkMeta";
 
+    /** The {@link #version()} of contexts whose contents aren't tracked by a version. */
+    static final long NO_VERSION = -1;
+
+    private final AtomicLong version = new AtomicLong();
+    private final boolean snapshot;
+    private volatile Snapshot latestSnapshot;
+
     // For deserialization and wrapping
     SnapyrContext(Map<String, Object> delegate) {
+        this(delegate, false);
+    }
+
+    private SnapyrContext(Map<String, Object> delegate, boolean snapshot) {
         super(delegate);
+        this.snapshot = snapshot;
     }
 
     /**
@@ -129,23 +153,53 @@ public class SnapyrContext extends ValueMap {
      */
     static synchronized SnapyrContext create(
             Context context, Traits traits, boolean collectDeviceId) {
-        SnapyrContext snapyrContext =
-                new SnapyrContext(new Utils.NullableConcurrentHashMap<String, Object>());
-        snapyrContext.putApp(context);
-        snapyrContext.setTraits(traits);
-        snapyrContext.putDevice(context, collectDeviceId);
-        snapyrContext.putLibrary();
-        snapyrContext.put(
-                LOCALE_KEY,
-                Locale.getDefault().getLanguage() + "-" + Locale.getDefault().getCountry());
-        snapyrContext.putNetwork(context);
-        snapyrContext.putOs();
-        snapyrContext.putScreen(context);
-        putUndefinedIfNull(snapyrContext, USER_AGENT_KEY, System.getProperty("http.agent"));
-        putUndefinedIfNull(snapyrContext, TIMEZONE_KEY, TimeZone.getDefault().getID());
+        SnapyrContext snapyrContext = createEmpty();
+        snapyrContext.populate(context, traits, collectDeviceId);
         return snapyrContext;
     }
 
+    /**
+     * Creates a context to be filled in later by {@link #populate}, or by {@link #populateLocal}
+     * and {@link #putSystemValues}.
+     */
+    static SnapyrContext createEmpty() {
+        return new SnapyrContext(new AtomicPersistentMap<String, Object>());
+    }
+
+    /** Fills in the app, device, network and other values queried from the system. */
+    void populate(Context context, Traits traits, boolean collectDeviceId) {
+        populateLocal(traits, collectDeviceId);
+        putSystemValues(context, collectDeviceId);
+    }
+
+    /**
+     * Fills in the values that are known in process, without asking any system service. Cheap
+     * enough for the main thread.
+     */
+    void populateLocal(Traits traits, boolean collectDeviceId) {
+        setTraits(traits);
+        putDevice(collectDeviceId);
+        putLibrary();
+        putLocale();
+        putOs();
+        putUndefinedIfNull(this, USER_AGENT_KEY, System.getProperty("http.agent"));
+        putTimezone();
+    }
+
+    /**
+     * Fills in the values that take binder calls to system services: the app, the device ID, the
+     * network and the screen. Must come after {@link #populateLocal}, and shouldn't run on the
+     * main thread.
+     */
+    void putSystemValues(Context context, boolean collectDeviceId) {
+        putApp(context);
+        if (collectDeviceId) {
+            putDeviceId(context);
+        }
+        putNetwork(context);
+        putScreen(context);
+    }
+
     static void putUndefinedIfNull(Map<String, Object> target, String key, CharSequence value) {
         if (Utils.isNullOrEmpty(value)) {
             target.put(key, "undefined");
@@ -154,12 +208,27 @@ public class SnapyrContext extends ValueMap {
         }
     }
 
-    void attachAdvertisingId(Context context, CountDownLatch latch, Logger logger) {
+    /**
+     * Attaches the advertising info stored by the last launch, and fetches the current info on
+     * {@code executor}. The latch is counted down once there is info to attach, or the fetch is
+     * done or has timed out.
+     */
+    void attachAdvertisingId(
+            Context context,
+            StateStore store,
+            ExecutorService executor,
+            CountDownLatch latch,
+            Logger logger) {
+        if (GetAdvertisingIdTask.attachCached(this, store, logger)) {
+            // Events carry the stored info until the fetch replaces it.
+            latch.countDown();
+        }
         // This is done as an extra step so we don't run into errors like this for testing
         // http://pastebin.com/gyWJKWiu.
         if (Utils.isOnClassPath("com.google.android.gms.ads.identifier.AdvertisingIdClient")) {
             // This needs to be done each time since the settings may have been updated.
-            new GetAdvertisingIdTask(this, latch, logger).execute(context);
+            new GetAdvertisingIdTask(context, this, store, latch, logger)
+                    .start(executor, new Handler(SnapyrScheduler.shared().looper()));
         } else {
             logger.debug(
                     "Not collecting advertising ID because "
@@ -169,16 +238,165 @@ public class SnapyrContext extends ValueMap {
         }
     }
 
+    /**
+     * Puts the value unless it's equal to the current one, so refreshing a value that didn't change
+     * doesn't invalidate the {@link #snapshot()}.
+     */
+    private void putIfChanged(String key, Object value) {
+        if (!value.equals(get(key))) {
+            put(key, value);
+        }
+    }
+
+    // The version is bumped after the change, so a snapshot taken in between is at the old
+    // version and gets rebuilt, rather than at the new version without the change.
+
+    @Override
+    public Object put(String key, Object value) {
+        adopt(value);
+        Object previous = super.put(key, value);
+        version.incrementAndGet();
+        return previous;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> map) {
+        for (Object value : map.values()) {
+            adopt(value);
+        }
+        super.putAll(map);
+        version.incrementAndGet();
+    }
+
+    @Override
+    public Object remove(Object key) {
+        Object previous = super.remove(key);
+        version.incrementAndGet();
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        version.incrementAndGet();
+    }
+
     @Override
     public SnapyrContext putValue(String key, Object value) {
-        super.putValue(key, value);
+        put(key, value);
         return this;
     }
 
-    /** Returns an unmodifiable shallow copy of the values in this map. */
+    @Override
+    public <T extends ValueMap> T getValueMap(String key, Class<T> clazz) {
+        T value = super.getValueMap(key, clazz);
+        adopt(value);
+        return value;
+    }
+
+    /** Makes changes to a nested value bump the version of this context. */
+    private void adopt(Object value) {
+        // Snapshots share their nested values with the context they were taken from.
+        if (!snapshot && value instanceof NestedValue) {
+            ((NestedValue) value).owner = this;
+        }
+    }
+
+    /**
+     * Returns an unmodifiable shallow copy of the values in this map. Contexts created by {@link
+     * #create(Context, Traits, boolean)} are persistent maps, so this doesn't copy them.
+     */
     public SnapyrContext unmodifiableCopy() {
-        LinkedHashMap<String, Object> map = new LinkedHashMap<>(this);
-        return new SnapyrContext(unmodifiableMap(map));
+        return copyAt(version.get());
+    }
+
+    private SnapyrContext copyAt(long version) {
+        SnapyrContext copy = new SnapyrContext(immutableCopy(), true);
+        // A snapshot's own values were checked when it was taken.
+        copy.version.set(snapshot || tracksValues() ? version : NO_VERSION);
+        return copy;
+    }
+
+    /** Returns true if every change to the values in this context bumps its version. */
+    private boolean tracksValues() {
+        for (Object value : values()) {
+            if (value instanceof NestedValue) {
+                if (((NestedValue) value).owner != this) {
+                    return false;
+                }
+            } else if (value instanceof ValueMap) {
+                if (!((ValueMap) value).isImmutable()) {
+                    return false;
+                }
+            } else if (value instanceof Map) {
+                if (!isImmutable((Map<?, ?>) value)) {
+                    return false;
+                }
+            } else if (value instanceof Collection
+                    || (value != null && value.getClass().isArray())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if this instance is an immutable snapshot created by {@link #snapshot()} or
+     * {@link #unmodifiableCopy()}, and can be shared without copying it.
+     */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * The current version of this context, which changes whenever the context is modified. A copy
+     * has the version of the context it was copied from, except for one with values layered on
+     * top by {@link #snapshot(Map)} or holding values that aren't tracked, which has {@link
+     * #NO_VERSION}.
+     */
+    long version() {
+        return version.get();
+    }
+
+    /** Marks this context as modified, after a change to one of its nested values. */
+    @Private
+    void invalidateSnapshot() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Returns an immutable shallow copy of this context. The copy is shared by all callers until
+     * this context is modified again.
+     */
+    SnapyrContext snapshot() {
+        if (snapshot) {
+            return this;
+        }
+        long currentVersion = version.get();
+        Snapshot latest = latestSnapshot;
+        if (latest != null && latest.version == currentVersion) {
+            return latest.context;
+        }
+        // A concurrent mutation bumps the version after we've read it, so the worst case is that
+        // this copy gets rebuilt on the next call.
+        SnapyrContext copy = copyAt(currentVersion);
+        latestSnapshot = new Snapshot(currentVersion, copy);
+        return copy;
+    }
+
+    /**
+     * Returns an immutable view of {@link #snapshot()} with the given values layered on top. The
+     * overlay is not copied, so it must not be modified afterwards.
+     */
+    SnapyrContext snapshot(Map<String, Object> overlay) {
+        SnapyrContext base = snapshot();
+        if (Utils.isNullOrEmpty(overlay)) {
+            return base;
+        }
+        SnapyrContext overlaid =
+                new SnapyrContext(new OverlayMap<>(base, unmodifiableMap(overlay)), true);
+        overlaid.version.set(NO_VERSION);
+        return overlaid;
     }
 
     /**
@@ -215,7 +433,7 @@ public class SnapyrContext extends ValueMap {
             putUndefinedIfNull(app, APP_VERSION_KEY, packageInfo.versionName);
             putUndefinedIfNull(app, APP_NAMESPACE_KEY, packageInfo.packageName);
             app.put(APP_BUILD_KEY, String.valueOf(packageInfo.versionCode));
-            put(APP_KEY, app);
+            put(APP_KEY, unmodifiableMap(app));
         } catch (PackageManager.NameNotFoundException e) {
             // ignore
         }
@@ -230,11 +448,15 @@ public class SnapyrContext extends ValueMap {
         return getValueMap(CAMPAIGN_KEY, Campaign.class);
     }
 
-    /** Fill this instance with device info from the provided {@link Context}. */
-    void putDevice(Context context, boolean collectDeviceID) {
+    /**
+     * Fill this instance with device info. The ID is the anonymous ID, unless the device ID is
+     * collected, in which case {@link #putDeviceId(Context)} fills it in.
+     */
+    void putDevice(boolean collectDeviceID) {
         Device device = new Device();
-        String identifier = collectDeviceID ? Utils.getDeviceId(context) : traits().anonymousId();
-        device.put(Device.DEVICE_ID_KEY, identifier);
+        if (!collectDeviceID) {
+            device.put(Device.DEVICE_ID_KEY, traits().anonymousId());
+        }
         device.put(Device.DEVICE_MANUFACTURER_KEY, Build.MANUFACTURER);
         device.put(Device.DEVICE_MODEL_KEY, Build.MODEL);
         device.put(Device.DEVICE_NAME_KEY, Build.DEVICE);
@@ -246,6 +468,14 @@ public class SnapyrContext extends ValueMap {
         return getValueMap(DEVICE_KEY, Device.class);
     }
 
+    /** Sets the ID of the device put by {@link #putDevice(boolean)} to the system's device ID. */
+    void putDeviceId(Context context) {
+        Device device = device();
+        if (device != null) {
+            device.put(Device.DEVICE_ID_KEY, Utils.getDeviceId(context));
+        }
+    }
+
     /** Set a device token. Convenience method for {@link Device#putDeviceToken(String)} */
     public SnapyrContext putDeviceToken(String token) {
         device().putDeviceToken(token);
@@ -257,7 +487,7 @@ public class SnapyrContext extends ValueMap {
         Map<String, Object> library = Utils.createMap();
         library.put(LIBRARY_NAME_KEY, "analytics-android");
         library.put(LIBRARY_VERSION_KEY, BuildConfig.VERSION_NAME);
-        put(LIBRARY_KEY, library);
+        put(LIBRARY_KEY, unmodifiableMap(library));
     }
 
     /** Set location information about the device. */
@@ -299,7 +529,19 @@ public class SnapyrContext extends ValueMap {
             network.put(NETWORK_CARRIER_KEY, "unknown");
         }
 
-        put(NETWORK_KEY, network);
+        putIfChanged(NETWORK_KEY, unmodifiableMap(network));
+    }
+
+    /** Fill this instance with the default locale. */
+    void putLocale() {
+        Locale locale = Locale.getDefault();
+        putIfChanged(LOCALE_KEY, locale.getLanguage() + "-" + locale.getCountry());
+    }
+
+    /** Fill this instance with the default time zone. */
+    void putTimezone() {
+        String timezone = TimeZone.getDefault().getID();
+        putIfChanged(TIMEZONE_KEY, Utils.isNullOrEmpty(timezone) ? "undefined" : timezone);
     }
 
     /** Fill this instance with operating system information. */
@@ -307,12 +549,13 @@ public class SnapyrContext extends ValueMap {
         Map<String, Object> os = Utils.createMap();
         os.put(OS_NAME_KEY, "Android");
         os.put(OS_VERSION_KEY, Build.VERSION.RELEASE);
-        put(OS_KEY, os);
+        put(OS_KEY, unmodifiableMap(os));
     }
 
     /** Set the SDK metadata retrieved from the SDK write key config endpoint. */
     void putSdkMeta(Map<String, Object> meta) {
-        put(SDK_META_KEY, meta);
+        // The settings are replaced rather than changed, so the metadata won't change under us.
+        put(SDK_META_KEY, meta == null ? null : unmodifiableMap(meta));
     }
 
     /** Set the referrer for this session. */
@@ -334,7 +577,7 @@ public class SnapyrContext extends ValueMap {
         screen.put(SCREEN_DENSITY_KEY, displayMetrics.density);
         screen.put(SCREEN_HEIGHT_KEY, displayMetrics.heightPixels);
         screen.put(SCREEN_WIDTH_KEY, displayMetrics.widthPixels);
-        put(SCREEN_KEY, screen);
+        putIfChanged(SCREEN_KEY, unmodifiableMap(screen));
     }
 
     /**
@@ -343,7 +586,7 @@ public class SnapyrContext extends ValueMap {
      *
      * @see <a href="https://support.google.com/analytics/answer/1033867?hl=en">UTM parameters</a>
      */
-    public static class Campaign extends ValueMap {
+    public static class Campaign extends NestedValue {
 
         private static final String CAMPAIGN_NAME_KEY = "name";
         private static final String CAMPAIGN_SOURCE_KEY = "source";
@@ -355,7 +598,7 @@ public class SnapyrContext extends ValueMap {
         public Campaign() {}
 
         // For deserialization
-        private Campaign(Map<String, Object> map) {
+        Campaign(Map<String, Object> map) {
             super(map);
         }
 
@@ -417,7 +660,7 @@ public class SnapyrContext extends ValueMap {
     }
 
     /** Information about the device. */
-    public static class Device extends ValueMap {
+    public static class Device extends NestedValue {
 
         @Private static final String DEVICE_ID_KEY = "id";
         @Private static final String DEVICE_MANUFACTURER_KEY = "manufacturer";
@@ -432,7 +675,7 @@ public class SnapyrContext extends ValueMap {
         Device() {}
 
         // For deserialization
-        private Device(Map<String, Object> map) {
+        Device(Map<String, Object> map) {
             super(map);
         }
 
@@ -446,6 +689,8 @@ public class SnapyrContext extends ValueMap {
         void putAdvertisingInfo(String advertisingId, boolean adTrackingEnabled) {
             if (adTrackingEnabled && !Utils.isNullOrEmpty(advertisingId)) {
                 put(DEVICE_ADVERTISING_ID_KEY, advertisingId);
+            } else {
+                remove(DEVICE_ADVERTISING_ID_KEY);
             }
             put(DEVICE_AD_TRACKING_ENABLED_KEY, adTrackingEnabled);
         }
@@ -457,7 +702,7 @@ public class SnapyrContext extends ValueMap {
     }
 
     /** Information about the location of the device. */
-    public static class Location extends ValueMap {
+    public static class Location extends NestedValue {
 
         private static final String LOCATION_LATITUDE_KEY = "latitude";
         private static final String LOCATION_LONGITUDE_KEY = "longitude";
@@ -467,7 +712,7 @@ public class SnapyrContext extends ValueMap {
         public Location() {}
 
         // For deserialization
-        private Location(Map<String, Object> map) {
+        Location(Map<String, Object> map) {
             super(map);
         }
 
@@ -506,7 +751,7 @@ public class SnapyrContext extends ValueMap {
     }
 
     /** Information about the referrer that resulted in the API call. */
-    public static class Referrer extends ValueMap {
+    public static class Referrer extends NestedValue {
 
         private static final String REFERRER_ID_KEY = "id";
         private static final String REFERRER_LINK_KEY = "link";
@@ -578,4 +823,70 @@ public class SnapyrContext extends ValueMap {
             return getString(REFERRER_URL_KEY);
         }
     }
+
+    /**
+     * A value nested in a context, which bumps the version of the context it was put in whenever
+     * it is changed.
+     */
+    abstract static class NestedValue extends ValueMap {
+
+        @Private volatile SnapyrContext owner;
+
+        NestedValue() {}
+
+        NestedValue(Map<String, Object> map) {
+            super(map);
+        }
+
+        private void changed() {
+            SnapyrContext owner = this.owner;
+            if (owner != null) {
+                owner.invalidateSnapshot();
+            }
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            Object previous = super.put(key, value);
+            changed();
+            return previous;
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ?> map) {
+            super.putAll(map);
+            changed();
+        }
+
+        @Override
+        public Object remove(Object key) {
+            Object previous = super.remove(key);
+            changed();
+            return previous;
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            changed();
+        }
+
+        @Override
+        public NestedValue putValue(String key, Object value) {
+            super.putValue(key, value);
+            changed();
+            return this;
+        }
+    }
+
+    private static final class Snapshot {
+
+        final long version;
+        final SnapyrContext context;
+
+        Snapshot(long version, SnapyrContext context) {
+            this.version = version;
+            this.context = context;
+        }
+    }
 }
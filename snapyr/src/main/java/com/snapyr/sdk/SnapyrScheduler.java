@@ -0,0 +1,150 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import com.snapyr.sdk.internal.Private;
+import com.snapyr.sdk.internal.Utils;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threads shared by all clients in the process: an event loop, on which the write queue's
+ * dispatcher, the stats and periodic tasks run in the order their messages are posted, and a small
+ * pool for network I/O such as uploads and settings downloads. Each client used to start its own
+ * threads for all of these.
+ *
+ * <p>The threads aren't stopped when a client shuts down, since other clients may still be using
+ * them. Clients remove their own messages and tasks instead.
+ */
+class SnapyrScheduler {
+
+    private static final String EVENT_LOOP_THREAD_NAME = Utils.THREAD_PREFIX + "EventLoop";
+    private static final int IO_THREAD_COUNT = 2;
+    private static final long IO_KEEP_ALIVE_SECONDS = 60;
+
+    private static SnapyrScheduler shared;
+
+    private final HandlerThread eventLoop;
+    private final Handler handler;
+    private final ThreadPoolExecutor io;
+
+    static synchronized SnapyrScheduler shared() {
+        if (shared == null) {
+            shared = new SnapyrScheduler();
+        }
+        return shared;
+    }
+
+    /**
+     * Stops the shared threads, so the next call to {@link #shared()} starts new ones. Only for
+     * tests, whose runners quit loopers between tests.
+     */
+    @Private
+    static synchronized void reset() {
+        if (shared != null) {
+            shared.eventLoop.quit();
+            shared.io.shutdownNow();
+            shared = null;
+        }
+    }
+
+    private SnapyrScheduler() {
+        eventLoop = new HandlerThread(EVENT_LOOP_THREAD_NAME, THREAD_PRIORITY_BACKGROUND);
+        eventLoop.start();
+        handler = new Handler(eventLoop.getLooper());
+        io =
+                new ThreadPoolExecutor(
+                        IO_THREAD_COUNT,
+                        IO_THREAD_COUNT,
+                        IO_KEEP_ALIVE_SECONDS,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new Utils.AnalyticsThreadFactory());
+        // Uploads are occasional, so the pool doesn't keep idle threads around.
+        io.allowCoreThreadTimeOut(true);
+    }
+
+    /** The looper of the event loop, for handlers whose messages should run on it. */
+    Looper looper() {
+        return eventLoop.getLooper();
+    }
+
+    /** The pool for network I/O. Must not be shut down. */
+    ExecutorService io() {
+        return io;
+    }
+
+    /**
+     * Runs {@code task} on the event loop after {@code initialDelayMillis}, and then every {@code
+     * periodMillis}, until the returned task is cancelled.
+     */
+    Periodic schedulePeriodic(Runnable task, long initialDelayMillis, long periodMillis) {
+        Periodic periodic = new Periodic(handler, task, periodMillis);
+        handler.postDelayed(periodic, initialDelayMillis);
+        return periodic;
+    }
+
+    static class Periodic implements Runnable {
+        private final Handler handler;
+        private final Runnable task;
+        private final long periodMillis;
+        private volatile boolean cancelled;
+
+        Periodic(Handler handler, Runnable task, long periodMillis) {
+            this.handler = handler;
+            this.task = task;
+            this.periodMillis = periodMillis;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // Like a scheduled executor, stops repeating the task rather than letting it take
+                // down the event loop.
+                cancelled = true;
+                return;
+            }
+            if (!cancelled) {
+                handler.postDelayed(this, periodMillis);
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            handler.removeCallbacks(this);
+        }
+    }
+}
@@ -23,11 +23,8 @@
  */
 package com.snapyr.sdk;
 
-import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
-
 import android.content.Context;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.util.JsonWriter;
@@ -49,10 +46,8 @@ import java.nio.charset.Charset;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 /** Entity that queues payloads on disks and uploads them periodically. */
 class SnapyrWriteQueue {
@@ -75,7 +70,6 @@ class SnapyrWriteQueue {
     @Private static final Charset UTF_8 = Charset.forName("UTF-8");
     static final String SNAPYR_KEY = "Snapyr";
 
-    private static final String SNAPYR_THREAD_NAME = Utils.THREAD_PREFIX + "SnapyrDispatcher";
     /**
      * We don't want to stop adding payloads to our disk queue when we're uploading payloads. So we
      * upload payloads on a network executor instead.
@@ -105,13 +99,22 @@ class SnapyrWriteQueue {
     private final int flushQueueSize;
     private final Stats stats;
     private final Handler handler;
-    private final HandlerThread snapyrThread;
     private final Logger logger;
     private final Cartographer cartographer;
     private final ExecutorService networkExecutor;
-    private final ScheduledExecutorService flushScheduler;
+    private final SnapyrScheduler scheduler;
+    /** Periodic tasks on the shared event loop, cancelled on shutdown. */
+    private final List<SnapyrScheduler.Periodic> periodicTasks = new CopyOnWriteArrayList<>();
+    private final long flushIntervalInMillis;
     private final SnapyrActionHandler actionHandler;
     private final Crypto crypto;
+    /** Reused to serialize payloads, only used on the snapyr thread. */
+    private final Utf8JsonWriter payloadWriter = new Utf8JsonWriter();
+    /**
+     * Whether batches are uploaded with their common context written once per batch, see {@link
+     * SharedBatchContext}. Only enabled when the project settings advertise support for it.
+     */
+    private volatile boolean shareBatchContext;
 
     SnapyrWriteQueue(
             Context context,
@@ -132,8 +135,8 @@ class SnapyrWriteQueue {
         this.logger = logger;
         this.cartographer = cartographer;
         this.flushQueueSize = flushQueueSize;
-        this.flushScheduler =
-                Executors.newScheduledThreadPool(1, new Utils.AnalyticsThreadFactory());
+        this.flushIntervalInMillis = flushIntervalInMillis;
+        this.scheduler = SnapyrScheduler.shared();
         this.actionHandler = actionHandler;
         this.crypto = crypto;
 
@@ -150,21 +153,19 @@ class SnapyrWriteQueue {
         }
         this.payloadQueue = payloadQueue;
 
-        snapyrThread = new HandlerThread(SNAPYR_THREAD_NAME, THREAD_PRIORITY_BACKGROUND);
-        snapyrThread.start();
-        handler = new SnapyrDispatcherHandler(snapyrThread.getLooper(), this);
+        handler = new SnapyrDispatcherHandler(scheduler.looper(), this);
 
         long initialDelay = payloadQueue.size() >= flushQueueSize ? 0L : flushIntervalInMillis;
-        flushScheduler.scheduleAtFixedRate(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        flush();
-                    }
-                },
-                initialDelay,
-                flushIntervalInMillis,
-                TimeUnit.MILLISECONDS);
+        periodicTasks.add(
+                scheduler.schedulePeriodic(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                flush();
+                            }
+                        },
+                        initialDelay,
+                        flushIntervalInMillis));
     }
 
     /**
@@ -188,14 +189,8 @@ class SnapyrWriteQueue {
         }
     }
 
-    void performEnqueue(BasePayload original) {
-        // Override any user provided values with anything that was bundled.
-        // e.g. If user did Mixpanel: true and it was bundled, this would correctly override it with
-        // false so that the server doesn't send that event as well.
-        ValueMap providedIntegrations = original.integrations();
-        // Make a copy of the payload so we don't mutate the original.
-        ValueMap payload = new ValueMap();
-        payload.putAll(original);
+    void performEnqueue(BasePayload payload) {
+        // Payloads are only read from here on, so they are serialized as is rather than copied.
         if (payloadQueue.size() >= MAX_QUEUE_SIZE) {
             synchronized (flushLock) {
                 // Double checked locking, the network executor could have removed payload from the
@@ -216,10 +211,18 @@ class SnapyrWriteQueue {
         }
 
         try {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            OutputStream cos = crypto.encrypt(bos);
-            cartographer.toJson(payload, new OutputStreamWriter(cos));
-            byte[] bytes = bos.toByteArray();
+            payloadWriter.reset();
+            cartographer.toJson(payload, payloadWriter);
+            byte[] bytes;
+            if (crypto == Crypto.none()) {
+                bytes = payloadWriter.toByteArray();
+            } else {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(payloadWriter.size());
+                OutputStream cos = crypto.encrypt(bos);
+                payloadWriter.writeTo(cos);
+                cos.close();
+                bytes = bos.toByteArray();
+            }
             if (bytes == null || bytes.length == 0 || bytes.length > MAX_PAYLOAD_SIZE) {
                 throw new IOException("Could not serialize payload " + payload);
             }
@@ -230,12 +233,23 @@ class SnapyrWriteQueue {
         }
 
         logger.verbose(
-                "Enqueued %s payload. %s elements in the queue.", original, payloadQueue.size());
+                "Enqueued %s payload. %s elements in the queue.", payload, payloadQueue.size());
         if (payloadQueue.size() >= flushQueueSize) {
             submitFlush();
         }
     }
 
+    /** Runs the given task on the flush scheduler once per flush interval. */
+    void schedulePeriodic(Runnable task) {
+        periodicTasks.add(
+                scheduler.schedulePeriodic(task, flushIntervalInMillis, flushIntervalInMillis));
+    }
+
+    /** Enables or disables writing the context shared by a batch only once. */
+    void setShareBatchContext(boolean shareBatchContext) {
+        this.shareBatchContext = shareBatchContext;
+    }
+
     /** Enqueues a flush message to the handler. */
     public void flush() {
         handler.sendMessage(handler.obtainMessage(SnapyrDispatcherHandler.REQUEST_FLUSH));
@@ -277,6 +291,7 @@ class SnapyrWriteQueue {
 
         logger.verbose("Uploading payloads in queue to Snapyr.");
         int payloadsUploaded = 0;
+        long contextBytesSaved = 0;
         Client.Connection connection = null;
         try {
             // Open a connection.
@@ -284,7 +299,7 @@ class SnapyrWriteQueue {
 
             // Write the payloads into the OutputStream.
             BatchPayloadWriter writer =
-                    new BatchPayloadWriter(connection.os) //
+                    new BatchPayloadWriter(connection.os, shareBatchContext) //
                             .beginObject() //
                             .beginBatchArray();
             PayloadWriter payloadWriter = new PayloadWriter(writer, crypto);
@@ -292,6 +307,7 @@ class SnapyrWriteQueue {
             writer.endBatchArray().endObject().close();
             // Don't use the result of QueueFiles#forEach, since we may not upload the last element.
             payloadsUploaded = payloadWriter.payloadCount;
+            contextBytesSaved = writer.sharedContextBytesSaved();
 
             // Upload the payloads.
             int responseCode = connection.connection.getResponseCode();
@@ -353,6 +369,10 @@ class SnapyrWriteQueue {
                 "Uploaded %s payloads. %s remain in the queue.",
                 payloadsUploaded, payloadQueue.size());
         stats.dispatchFlush(payloadsUploaded);
+        if (shareBatchContext) {
+            logger.verbose("Sharing the batch context saved %s bytes.", contextBytesSaved);
+            stats.dispatchSharedContextBatch(contextBytesSaved);
+        }
         if (payloadQueue.size() > 0) {
             performFlush(); // Flush any remaining items.
         }
@@ -401,8 +421,11 @@ class SnapyrWriteQueue {
     }
 
     void shutdown() {
-        flushScheduler.shutdownNow();
-        snapyrThread.quit();
+        for (SnapyrScheduler.Periodic task : periodicTasks) {
+            task.cancel();
+        }
+        // The event loop is shared, so only this queue's pending messages are dropped.
+        handler.removeCallbacksAndMessages(null);
         Utils.closeQuietly(payloadQueue);
     }
 
@@ -442,12 +465,21 @@ class SnapyrWriteQueue {
         /** Keep around for writing payloads as Strings. */
         private final BufferedWriter bufferedWriter;
 
+        /** Set if the context shared by all payloads should only be written once. */
+        @Nullable private final SharedBatchContext sharedContext;
+
         StringBuilder debugString = new StringBuilder();
         private boolean needsComma = false;
+        private final char[] sentAt = new char[Utils.ISO8601_MAX_LENGTH];
 
         BatchPayloadWriter(OutputStream stream) {
+            this(stream, false);
+        }
+
+        BatchPayloadWriter(OutputStream stream, boolean shareContext) {
             bufferedWriter = new BufferedWriter(new OutputStreamWriter(stream));
             jsonWriter = new JsonWriter(bufferedWriter);
+            sharedContext = shareContext ? new SharedBatchContext() : null;
         }
 
         public static void largeLog(String tag, String content) {
@@ -487,6 +519,9 @@ class SnapyrWriteQueue {
             } else {
                 needsComma = true;
             }
+            if (sharedContext != null) {
+                payload = sharedContext.reduce(payload);
+            }
             bufferedWriter.write(payload);
             if (DEBUG_MODE) {
                 debugString.append(payload);
@@ -502,9 +537,18 @@ class SnapyrWriteQueue {
             if (DEBUG_MODE) {
                 debugString.append("]");
             }
+            if (sharedContext != null && !sharedContext.isEmpty()) {
+                // Payloads only contain the parts of their context that differ from this one.
+                sharedContext.writeTo(bufferedWriter);
+            }
             return this;
         }
 
+        /** Returns the number of bytes saved by writing the shared context only once. */
+        long sharedContextBytesSaved() {
+            return sharedContext == null ? 0 : sharedContext.bytesSaved();
+        }
+
         BatchPayloadWriter endObject() throws IOException {
             /**
              * The sent timestamp is an ISO-8601-formatted string that, if present on a message, can
@@ -513,9 +557,14 @@ class SnapyrWriteQueue {
              * will be assumed to have occurred at the same time, and therefore the difference is
              * the local clock skew.
              */
-            jsonWriter.name("sentAt").value(Utils.toISO8601Date(new Date())).endObject();
+            int length = Utils.writeISO8601String(new Date(), sentAt, 0);
+            // The timestamp never needs escaping, so it skips the JsonWriter.
+            bufferedWriter.write(",\"sentAt\":\"");
+            bufferedWriter.write(sentAt, 0, length);
+            bufferedWriter.write('"');
+            jsonWriter.endObject();
             if (DEBUG_MODE) {
-                debugString.append(",\"sentAt\":\"" + Utils.toISO8601Date(new Date()) + "\"}");
+                debugString.append(",\"sentAt\":\"").append(sentAt, 0, length).append("\"}");
             }
             return this;
         }
@@ -0,0 +1,138 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import android.os.Handler;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalesces writes of state that is kept in memory, such as the cached traits and settings, to
+ * disk. Changing the state marks it dirty, and everything that is dirty is written once the
+ * debounce delay after the first change has passed, so a burst of {@code identify} calls
+ * serializes the traits once instead of once per call. {@link #flush()} writes pending state
+ * right away, for when the app goes to the background or the client shuts down.
+ *
+ * <p>Readers never wait for a write: the in-memory state is the source of truth, and disk is only
+ * read the first time the state is needed.
+ *
+ * <p>The persister has no threads of its own. The debounce delay is posted to a handler, usually
+ * on the shared {@link SnapyrScheduler} event loop, and the writes run on an executor such as its
+ * I/O pool.
+ */
+class StatePersister {
+
+    /** State that can be written to disk. */
+    interface Persistable {
+
+        /** Writes the current state. Called off the thread that changed it. */
+        void persist();
+    }
+
+    static final long DEFAULT_DEBOUNCE_MILLIS = 1000;
+
+    /** Writes state as soon as it changes, on the thread that changed it. */
+    static final StatePersister SYNCHRONOUS = new StatePersister(null, null, 0);
+
+    private final Handler handler;
+    private final Executor executor;
+    private final long debounceMillis;
+    private final Set<Persistable> dirty =
+            Collections.newSetFromMap(new ConcurrentHashMap<Persistable, Boolean>());
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean shutdown;
+    private final Runnable flush =
+            new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            };
+    private final Runnable debounced =
+            new Runnable() {
+                @Override
+                public void run() {
+                    flushAsync();
+                }
+            };
+
+    /**
+     * @param handler the handler the debounce delay is posted to
+     * @param executor runs the writes, it is shared and isn't shut down by {@link #shutdown()}
+     */
+    StatePersister(Handler handler, Executor executor, long debounceMillis) {
+        this.handler = handler;
+        this.executor = executor;
+        this.debounceMillis = debounceMillis;
+    }
+
+    /** Schedules {@code state} to be written, along with anything else that changed meanwhile. */
+    void markDirty(Persistable state) {
+        if (executor == null || shutdown) {
+            // After shutdown nothing else will write it.
+            state.persist();
+            return;
+        }
+        dirty.add(state);
+        if (scheduled.compareAndSet(false, true)) {
+            handler.postDelayed(debounced, debounceMillis);
+        }
+    }
+
+    /** Writes everything that is dirty, on the calling thread. */
+    void flush() {
+        // Cleared first, so that state marked dirty while writing schedules another flush.
+        scheduled.set(false);
+        for (Iterator<Persistable> iterator = dirty.iterator(); iterator.hasNext(); ) {
+            Persistable state = iterator.next();
+            iterator.remove();
+            state.persist();
+        }
+    }
+
+    /** Writes everything that is dirty without waiting for the debounce delay. */
+    void flushAsync() {
+        if (executor != null && !shutdown && !dirty.isEmpty()) {
+            try {
+                executor.execute(flush);
+            } catch (RejectedExecutionException e) {
+                flush();
+            }
+        }
+    }
+
+    /** Writes everything that is dirty, and stops scheduling writes. */
+    void shutdown() {
+        shutdown = true;
+        if (handler != null) {
+            handler.removeCallbacks(debounced);
+        }
+        flush();
+    }
+}
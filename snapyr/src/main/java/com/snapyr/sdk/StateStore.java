@@ -0,0 +1,132 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+import com.snapyr.sdk.internal.Utils;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Stores SDK state with one file per key, in a directory namespaced by the client's tag.
+ *
+ * <p>{@link android.content.SharedPreferences} parses its whole file the first time it's touched
+ * and rewrites it on every {@code apply()}, which gets expensive once it holds the cached traits
+ * and settings. Here a value is only read when it's asked for, and writing one value doesn't touch
+ * the others. Writes go to a temporary file which is synced and renamed over the old one, so a
+ * crash mid-write leaves the previous value in place.
+ */
+class StateStore {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Context context;
+    private final String name;
+    private volatile File directory;
+
+    StateStore(Context context, String tag) {
+        this.context = context;
+        this.name = "snapyr-state-" + tag;
+    }
+
+    /** Resolved on first use, since creating the directory touches the disk. */
+    private File directory() throws IOException {
+        File directory = this.directory;
+        if (directory == null) {
+            directory = context.getDir(name, Context.MODE_PRIVATE);
+            Utils.createDirectory(directory);
+            this.directory = directory;
+        }
+        return directory;
+    }
+
+    private File file(String key) throws IOException {
+        StringBuilder fileName = new StringBuilder(key.length());
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            boolean safe =
+                    (c >= 'a' && c <= 'z')
+                            || (c >= 'A' && c <= 'Z')
+                            || (c >= '0' && c <= '9')
+                            || c == '-'
+                            || c == '_';
+            fileName.append(safe ? c : '_');
+        }
+        return new File(directory(), fileName.toString());
+    }
+
+    /** Returns the value stored for {@code key}, or null if there is none. */
+    @Nullable
+    String get(String key) throws IOException {
+        File file = file(key);
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            byte[] data = new byte[(int) file.length()];
+            in.readFully(data);
+            return new String(data, UTF_8);
+        } finally {
+            Utils.closeQuietly(in);
+        }
+    }
+
+    /** Returns true if a value is stored for {@code key}, without reading it. */
+    boolean contains(String key) throws IOException {
+        return file(key).exists();
+    }
+
+    /** Replaces the value stored for {@code key}. */
+    void put(String key, String value) throws IOException {
+        File file = file(key);
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(value.getBytes(UTF_8));
+            out.getFD().sync();
+        } finally {
+            Utils.closeQuietly(out);
+        }
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+    void remove(String key) throws IOException {
+        //noinspection ResultOfMethodCallIgnored
+        file(key).delete();
+    }
+}
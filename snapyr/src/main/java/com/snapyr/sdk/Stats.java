@@ -23,40 +23,48 @@
  */
 package com.snapyr.sdk;
 
-import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
-
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Pair;
 import com.snapyr.sdk.internal.Private;
-import com.snapyr.sdk.internal.Utils;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 class Stats {
 
-    private static final String STATS_THREAD_NAME = Utils.THREAD_PREFIX + "Stats";
-
-    final HandlerThread statsThread;
     final StatsHandler handler;
 
     long flushCount;
     long flushEventCount;
     long integrationOperationCount;
-    long integrationOperationDuration;
-    Map<String, Long> integrationOperationDurationByIntegration = new HashMap<>();
+    // In microseconds, so middleware that takes less than a millisecond still adds up.
+    long integrationOperationDurationMicros;
+    Map<String, Long> integrationOperationDurationMicrosByIntegration = new HashMap<>();
+    long middlewareErrorCount;
+    long sharedContextBatchCount;
+    long sharedContextBytesSaved;
+    long coalescedEventCount;
+    long trackingPlanBlockedEventCount;
+    long trackingPlanDroppedBytes;
+    long actionHandlerCallbackCount;
+    // In microseconds, so callbacks shorter than a millisecond still add up.
+    long actionHandlerCallbackDurationMicros;
+    long actionHandlerCallbackDelayMicros;
+    long actionHandlerDroppedCount;
+    long edgeFunctionEventCount;
+    long edgeFunctionDurationMicros;
+    long edgeFunctionOverBudgetCount;
 
     Stats() {
-        statsThread = new HandlerThread(STATS_THREAD_NAME, THREAD_PRIORITY_BACKGROUND);
-        statsThread.start();
-        handler = new StatsHandler(statsThread.getLooper(), this);
+        handler = new StatsHandler(SnapyrScheduler.shared().looper(), this);
     }
 
     void shutdown() {
-        statsThread.quit();
+        // The event loop is shared, so only pending stats are dropped.
+        handler.removeCallbacksAndMessages(null);
     }
 
     void dispatchFlush(int eventCount) {
@@ -70,23 +78,112 @@ class Stats {
         flushEventCount += eventCount;
     }
 
-    void dispatchIntegrationOperation(String key, long duration) {
+    void dispatchIntegrationOperation(String key, long durationNanos) {
         handler.sendMessage(
                 handler //
                         .obtainMessage(
-                        StatsHandler.TRACK_INTEGRATION_OPERATION, new Pair<>(key, duration)));
+                        StatsHandler.TRACK_INTEGRATION_OPERATION,
+                        new Pair<>(key, TimeUnit.NANOSECONDS.toMicros(durationNanos))));
     }
 
-    void performIntegrationOperation(Pair<String, Long> durationForIntegration) {
+    void performIntegrationOperation(Pair<String, Long> durationMicrosForIntegration) {
         integrationOperationCount++;
-        integrationOperationDuration += durationForIntegration.second;
-        Long duration = integrationOperationDurationByIntegration.get(durationForIntegration.first);
+        integrationOperationDurationMicros += durationMicrosForIntegration.second;
+        Long duration =
+                integrationOperationDurationMicrosByIntegration.get(
+                        durationMicrosForIntegration.first);
         if (duration == null) {
-            integrationOperationDurationByIntegration.put(
-                    durationForIntegration.first, durationForIntegration.second);
+            integrationOperationDurationMicrosByIntegration.put(
+                    durationMicrosForIntegration.first, durationMicrosForIntegration.second);
         } else {
-            integrationOperationDurationByIntegration.put(
-                    durationForIntegration.first, duration + durationForIntegration.second);
+            integrationOperationDurationMicrosByIntegration.put(
+                    durationMicrosForIntegration.first,
+                    duration + durationMicrosForIntegration.second);
+        }
+    }
+
+    void dispatchMiddlewareError() {
+        handler.sendMessage(handler.obtainMessage(StatsHandler.TRACK_MIDDLEWARE_ERROR));
+    }
+
+    void performMiddlewareError() {
+        middlewareErrorCount++;
+    }
+
+    void dispatchSharedContextBatch(long bytesSaved) {
+        // Batches are smaller than 500KB, so the savings always fit in an int.
+        handler.sendMessage(
+                handler //
+                        .obtainMessage(StatsHandler.TRACK_SHARED_CONTEXT, (int) bytesSaved, 0));
+    }
+
+    void performSharedContextBatch(int bytesSaved) {
+        sharedContextBatchCount++;
+        sharedContextBytesSaved += bytesSaved;
+    }
+
+    void dispatchCoalescedEvent() {
+        handler.sendMessage(handler.obtainMessage(StatsHandler.TRACK_COALESCED_EVENT));
+    }
+
+    void performCoalescedEvent() {
+        coalescedEventCount++;
+    }
+
+    void dispatchTrackingPlanDrop(boolean blocked, int bytes) {
+        handler.sendMessage(
+                handler //
+                        .obtainMessage(StatsHandler.TRACK_PLAN_DROP, blocked ? 1 : 0, bytes));
+    }
+
+    void performTrackingPlanDrop(boolean blocked, int bytes) {
+        if (blocked) {
+            trackingPlanBlockedEventCount++;
+        }
+        trackingPlanDroppedBytes += bytes;
+    }
+
+    void dispatchActionHandlerCallback(long durationNanos, long delayNanos) {
+        handler.sendMessage(
+                handler //
+                        .obtainMessage(
+                        StatsHandler.TRACK_ACTION_HANDLER_CALLBACK,
+                        toMicros(durationNanos),
+                        toMicros(delayNanos)));
+    }
+
+    private static int toMicros(long nanos) {
+        return (int) Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), Integer.MAX_VALUE);
+    }
+
+    void performActionHandlerCallback(int durationMicros, int delayMicros) {
+        actionHandlerCallbackCount++;
+        actionHandlerCallbackDurationMicros += durationMicros;
+        actionHandlerCallbackDelayMicros += delayMicros;
+    }
+
+    void dispatchActionHandlerDrop() {
+        handler.sendMessage(handler.obtainMessage(StatsHandler.TRACK_ACTION_HANDLER_DROP));
+    }
+
+    void performActionHandlerDrop() {
+        actionHandlerDroppedCount++;
+    }
+
+    void dispatchEdgeFunctions(long cpuTimeNanos, boolean overBudget) {
+        handler.sendMessage(
+                handler //
+                        .obtainMessage(
+                        StatsHandler.TRACK_EDGE_FUNCTIONS,
+                        toMicros(cpuTimeNanos),
+                        overBudget ? 1 : 0));
+    }
+
+    void performEdgeFunctions(int durationMicros, boolean overBudget) {
+        edgeFunctionEventCount++;
+        edgeFunctionDurationMicros += durationMicros;
+        if (overBudget) {
+            edgeFunctionOverBudgetCount++;
         }
     }
 
@@ -96,14 +193,42 @@ class Stats {
                 flushCount,
                 flushEventCount,
                 integrationOperationCount,
-                integrationOperationDuration,
-                Collections.unmodifiableMap(integrationOperationDurationByIntegration));
+                TimeUnit.MICROSECONDS.toMillis(integrationOperationDurationMicros),
+                toMillis(integrationOperationDurationMicrosByIntegration),
+                sharedContextBatchCount,
+                sharedContextBytesSaved,
+                coalescedEventCount,
+                trackingPlanBlockedEventCount,
+                trackingPlanDroppedBytes,
+                actionHandlerCallbackCount,
+                TimeUnit.MICROSECONDS.toMillis(actionHandlerCallbackDurationMicros),
+                TimeUnit.MICROSECONDS.toMillis(actionHandlerCallbackDelayMicros),
+                actionHandlerDroppedCount,
+                edgeFunctionEventCount,
+                TimeUnit.MICROSECONDS.toMillis(edgeFunctionDurationMicros),
+                edgeFunctionOverBudgetCount,
+                middlewareErrorCount);
+    }
+
+    private static Map<String, Long> toMillis(Map<String, Long> durationsMicros) {
+        Map<String, Long> durations = new HashMap<>(durationsMicros.size());
+        for (Map.Entry<String, Long> entry : durationsMicros.entrySet()) {
+            durations.put(entry.getKey(), TimeUnit.MICROSECONDS.toMillis(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(durations);
     }
 
     private static class StatsHandler extends Handler {
 
         @Private static final int TRACK_FLUSH = 1;
         @Private static final int TRACK_INTEGRATION_OPERATION = 2;
+        @Private static final int TRACK_SHARED_CONTEXT = 3;
+        @Private static final int TRACK_COALESCED_EVENT = 4;
+        @Private static final int TRACK_PLAN_DROP = 5;
+        @Private static final int TRACK_ACTION_HANDLER_CALLBACK = 6;
+        @Private static final int TRACK_ACTION_HANDLER_DROP = 7;
+        @Private static final int TRACK_EDGE_FUNCTIONS = 8;
+        @Private static final int TRACK_MIDDLEWARE_ERROR = 9;
 
         private final Stats stats;
 
@@ -122,6 +247,27 @@ class Stats {
                     //noinspection unchecked
                     stats.performIntegrationOperation((Pair<String, Long>) msg.obj);
                     break;
+                case TRACK_SHARED_CONTEXT:
+                    stats.performSharedContextBatch(msg.arg1);
+                    break;
+                case TRACK_COALESCED_EVENT:
+                    stats.performCoalescedEvent();
+                    break;
+                case TRACK_PLAN_DROP:
+                    stats.performTrackingPlanDrop(msg.arg1 == 1, msg.arg2);
+                    break;
+                case TRACK_ACTION_HANDLER_CALLBACK:
+                    stats.performActionHandlerCallback(msg.arg1, msg.arg2);
+                    break;
+                case TRACK_ACTION_HANDLER_DROP:
+                    stats.performActionHandlerDrop();
+                    break;
+                case TRACK_EDGE_FUNCTIONS:
+                    stats.performEdgeFunctions(msg.arg1, msg.arg2 == 1);
+                    break;
+                case TRACK_MIDDLEWARE_ERROR:
+                    stats.performMiddlewareError();
+                    break;
                 default:
                     throw new AssertionError("Unknown Stats handler message: " + msg);
             }
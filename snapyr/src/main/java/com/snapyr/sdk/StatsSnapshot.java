@@ -51,6 +51,47 @@ public class StatsSnapshot {
     public final float integrationOperationAverageDuration;
     /** Total time to run operations, including lifecycle events and flushes, by integration. */
     public final Map<String, Long> integrationOperationDurationByIntegration;
+    /** Number of batches uploaded with their common context written once. */
+    public final long sharedContextBatchCount;
+    /** Total bytes saved by writing the common context of a batch once. */
+    public final long sharedContextBytesSaved;
+    /** Average bytes saved per batch by writing the common context of a batch once. */
+    public final float sharedContextAverageBytesSaved;
+    /** Number of events dropped for repeating an identical event within the coalescing window. */
+    public final long coalescedEventCount;
+    /** Number of track events blocked by the tracking plan. */
+    public final long trackingPlanBlockedEventCount;
+    /**
+     * Estimated bytes the tracking plan kept from being serialized and uploaded, from blocked
+     * events and stripped properties.
+     */
+    public final long trackingPlanDroppedBytes;
+    /**
+     * Number of payloads delivered to the {@link SnapyrActionHandler}. Only callbacks delivered
+     * asynchronously are counted and timed.
+     */
+    public final long actionHandlerCallbackCount;
+    /** Total time spent in {@link SnapyrActionHandler} callbacks, in milliseconds. */
+    public final long actionHandlerCallbackDuration;
+    /** Average time spent in a {@link SnapyrActionHandler} callback, in milliseconds. */
+    public final float actionHandlerCallbackAverageDuration;
+    /**
+     * Total time callbacks waited to be delivered to the {@link SnapyrActionHandler}, in
+     * milliseconds. Only non-zero when callbacks are delivered asynchronously.
+     */
+    public final long actionHandlerCallbackDelay;
+    /** Number of callbacks dropped because the asynchronous callback queue was full. */
+    public final long actionHandlerDroppedCount;
+    /** Number of track events transformed by edge functions. */
+    public final long edgeFunctionEventCount;
+    /** Total CPU time spent running edge functions, in milliseconds. */
+    public final long edgeFunctionDuration;
+    /** Average CPU time spent running edge functions on an event, in milliseconds. */
+    public final float edgeFunctionAverageDuration;
+    /** Number of events whose optional edge functions were cut short by the time budget. */
+    public final long edgeFunctionOverBudgetCount;
+    /** Number of times a source middleware threw, and was skipped for that event. */
+    public final long middlewareErrorCount;
 
     public StatsSnapshot(
             long timestamp,
@@ -59,6 +100,49 @@ public class StatsSnapshot {
             long integrationOperationCount,
             long integrationOperationDuration,
             Map<String, Long> integrationOperationDurationByIntegration) {
+        this(
+                timestamp,
+                flushCount,
+                flushEventCount,
+                integrationOperationCount,
+                integrationOperationDuration,
+                integrationOperationDurationByIntegration,
+                0,
+                0,
+                0,
+                0,
+                0,
+                0,
+                0,
+                0,
+                0,
+                0,
+                0,
+                0,
+                0);
+    }
+
+    /** Stats that are added later only grow this constructor, so it isn't part of the API. */
+    StatsSnapshot(
+            long timestamp,
+            long flushCount,
+            long flushEventCount,
+            long integrationOperationCount,
+            long integrationOperationDuration,
+            Map<String, Long> integrationOperationDurationByIntegration,
+            long sharedContextBatchCount,
+            long sharedContextBytesSaved,
+            long coalescedEventCount,
+            long trackingPlanBlockedEventCount,
+            long trackingPlanDroppedBytes,
+            long actionHandlerCallbackCount,
+            long actionHandlerCallbackDuration,
+            long actionHandlerCallbackDelay,
+            long actionHandlerDroppedCount,
+            long edgeFunctionEventCount,
+            long edgeFunctionDuration,
+            long edgeFunctionOverBudgetCount,
+            long middlewareErrorCount) {
         this.timestamp = timestamp;
         this.flushCount = flushCount;
         this.flushEventCount = flushEventCount;
@@ -69,6 +153,31 @@ public class StatsSnapshot {
                         ? 0
                         : ((float) integrationOperationDuration / integrationOperationCount);
         this.integrationOperationDurationByIntegration = integrationOperationDurationByIntegration;
+        this.sharedContextBatchCount = sharedContextBatchCount;
+        this.sharedContextBytesSaved = sharedContextBytesSaved;
+        this.sharedContextAverageBytesSaved =
+                (sharedContextBatchCount == 0)
+                        ? 0
+                        : ((float) sharedContextBytesSaved / sharedContextBatchCount);
+        this.coalescedEventCount = coalescedEventCount;
+        this.trackingPlanBlockedEventCount = trackingPlanBlockedEventCount;
+        this.trackingPlanDroppedBytes = trackingPlanDroppedBytes;
+        this.actionHandlerCallbackCount = actionHandlerCallbackCount;
+        this.actionHandlerCallbackDuration = actionHandlerCallbackDuration;
+        this.actionHandlerCallbackAverageDuration =
+                (actionHandlerCallbackCount == 0)
+                        ? 0
+                        : ((float) actionHandlerCallbackDuration / actionHandlerCallbackCount);
+        this.actionHandlerCallbackDelay = actionHandlerCallbackDelay;
+        this.actionHandlerDroppedCount = actionHandlerDroppedCount;
+        this.edgeFunctionEventCount = edgeFunctionEventCount;
+        this.edgeFunctionDuration = edgeFunctionDuration;
+        this.edgeFunctionAverageDuration =
+                (edgeFunctionEventCount == 0)
+                        ? 0
+                        : ((float) edgeFunctionDuration / edgeFunctionEventCount);
+        this.edgeFunctionOverBudgetCount = edgeFunctionOverBudgetCount;
+        this.middlewareErrorCount = middlewareErrorCount;
     }
 
     @Override
@@ -88,6 +197,38 @@ public class StatsSnapshot {
                 + integrationOperationAverageDuration
                 + ", integrationOperationDurationByIntegration="
                 + integrationOperationDurationByIntegration
+                + ", sharedContextBatchCount="
+                + sharedContextBatchCount
+                + ", sharedContextBytesSaved="
+                + sharedContextBytesSaved
+                + ", sharedContextAverageBytesSaved="
+                + sharedContextAverageBytesSaved
+                + ", coalescedEventCount="
+                + coalescedEventCount
+                + ", trackingPlanBlockedEventCount="
+                + trackingPlanBlockedEventCount
+                + ", trackingPlanDroppedBytes="
+                + trackingPlanDroppedBytes
+                + ", actionHandlerCallbackCount="
+                + actionHandlerCallbackCount
+                + ", actionHandlerCallbackDuration="
+                + actionHandlerCallbackDuration
+                + ", actionHandlerCallbackAverageDuration="
+                + actionHandlerCallbackAverageDuration
+                + ", actionHandlerCallbackDelay="
+                + actionHandlerCallbackDelay
+                + ", actionHandlerDroppedCount="
+                + actionHandlerDroppedCount
+                + ", edgeFunctionEventCount="
+                + edgeFunctionEventCount
+                + ", edgeFunctionDuration="
+                + edgeFunctionDuration
+                + ", edgeFunctionAverageDuration="
+                + edgeFunctionAverageDuration
+                + ", edgeFunctionOverBudgetCount="
+                + edgeFunctionOverBudgetCount
+                + ", middlewareErrorCount="
+                + middlewareErrorCount
                 + '}';
     }
 }
@@ -0,0 +1,675 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link JsonEngine} that reads and writes through its own char buffers, without the token
+ * state machines of {@link android.util.JsonReader} and {@link android.util.JsonWriter}. Names are
+ * deduplicated while reading since our documents repeat the same few keys, and primitive arrays
+ * are written without reflection.
+ *
+ * <p>In lenient mode it accepts unquoted and single quoted strings like a lenient {@link
+ * android.util.JsonReader}, but not its other extensions, such as comments, {@code =} and {@code
+ * ;} separators or implicit nulls in arrays. The library never writes those.
+ */
+final class StreamingJsonEngine implements JsonEngine {
+
+    @Override
+    public Map<String, Object> readObject(Reader reader, boolean lenient, boolean lazyNumbers)
+            throws IOException {
+        Parser parser = new Parser(reader, lenient, lazyNumbers);
+        int c = parser.beginDocument();
+        if (c != '{') {
+            throw parser.unexpected(c, "BEGIN_OBJECT");
+        }
+        return parser.readMap();
+    }
+
+    @Override
+    public Object readValue(Reader reader, boolean lenient, boolean lazyNumbers)
+            throws IOException {
+        Parser parser = new Parser(reader, lenient, lazyNumbers);
+        return parser.readValue(parser.beginDocument());
+    }
+
+    @Override
+    public void write(Map<?, ?> map, Writer writer, boolean lenient, boolean prettyPrint)
+            throws IOException {
+        Printer printer = new Printer(writer, lenient, prettyPrint);
+        printer.writeMap(map);
+        printer.flush();
+    }
+
+    /** Reads a single json document. */
+    private static final class Parser {
+
+        private static final int NAME_CACHE_SIZE = 64; // Must be a power of two.
+
+        private final Reader in;
+        private final boolean lenient;
+        private final boolean lazyNumbers;
+        private char[] buffer = new char[1024];
+        private int pos;
+        private int limit;
+        private final String[] names = new String[NAME_CACHE_SIZE];
+
+        Parser(Reader in, boolean lenient, boolean lazyNumbers) {
+            this.in = in;
+            this.lenient = lenient;
+            this.lazyNumbers = lazyNumbers;
+        }
+
+        /**
+         * Reads more input into the buffer, keeping the last {@code keep} chars before {@code pos}
+         * and everything after it. Returns false at the end of the input.
+         */
+        private boolean fill(int keep) throws IOException {
+            int start = pos - keep;
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, limit - start);
+                limit -= start;
+                pos -= start;
+            } else if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read <= 0) {
+                return false;
+            }
+            limit += read;
+            return true;
+        }
+
+        /** Consumes and returns the next char that isn't whitespace, or -1 at the end of input. */
+        int nextNonWhitespace() throws IOException {
+            while (pos < limit || fill(0)) {
+                char c = buffer[pos++];
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return c;
+                }
+            }
+            return -1;
+        }
+
+        /** Consumes and returns the first char of the document. */
+        int beginDocument() throws IOException {
+            int c = nextNonWhitespace();
+            if (!lenient && c != '{' && c != '[') {
+                throw syntaxError("Expected JSON document to start with '[' or '{'");
+            }
+            return c;
+        }
+
+        /** Reads the value that starts with the already consumed char {@code c}. */
+        Object readValue(int c) throws IOException {
+            switch (c) {
+                case '{':
+                    return readMap();
+                case '[':
+                    return readList();
+                case '"':
+                    return readString('"', false);
+                case '\'':
+                    if (lenient) {
+                        return readString('\'', false);
+                    }
+                    throw syntaxError("Use JsonReader.setLenient(true) to accept malformed JSON");
+                case -1:
+                    throw new EOFException("End of input");
+                default:
+                    return readLiteral();
+            }
+        }
+
+        /** Reads the members of an object, after its opening brace. */
+        Map<String, Object> readMap() throws IOException {
+            Map<String, Object> map = new LinkedHashMap<>();
+            int c = nextNonWhitespace();
+            if (c == '}') {
+                return map;
+            }
+            while (true) {
+                String name;
+                if (c == '"') {
+                    name = readString('"', true);
+                } else if (lenient && c == '\'') {
+                    name = readString('\'', true);
+                } else if (lenient && c != -1 && !isDelimiter((char) c)) {
+                    pos--; // Unquoted names start with the char that was just consumed.
+                    name = literal();
+                } else {
+                    throw syntaxError("Expected name");
+                }
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                map.put(name, readValue(nextNonWhitespace()));
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return map;
+                }
+                if (c != ',') {
+                    throw syntaxError("Unterminated object");
+                }
+                c = nextNonWhitespace();
+            }
+        }
+
+        /** Reads the elements of an array, after its opening bracket. */
+        List<Object> readList() throws IOException {
+            List<Object> list = new ArrayList<>();
+            int c = nextNonWhitespace();
+            if (c == ']') {
+                return list;
+            }
+            while (true) {
+                list.add(readValue(c));
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return list;
+                }
+                if (c != ',') {
+                    throw syntaxError("Unterminated array");
+                }
+                c = nextNonWhitespace();
+            }
+        }
+
+        /** Reads a string, after its opening quote. */
+        String readString(char quote, boolean isName) throws IOException {
+            StringBuilder builder = null;
+            int start = pos;
+            while (true) {
+                while (pos < limit) {
+                    char c = buffer[pos++];
+                    if (c == quote) {
+                        int length = pos - 1 - start;
+                        if (builder == null) {
+                            return isName ? name(start, length) : new String(buffer, start, length);
+                        }
+                        builder.append(buffer, start, length);
+                        return builder.toString();
+                    }
+                    if (c == '\\') {
+                        if (builder == null) {
+                            builder = new StringBuilder(Math.max(16, 2 * (pos - start)));
+                        }
+                        builder.append(buffer, start, pos - 1 - start);
+                        builder.append(readEscape());
+                        start = pos;
+                    }
+                }
+                if (builder == null) {
+                    builder = new StringBuilder(Math.max(16, 2 * (pos - start)));
+                }
+                builder.append(buffer, start, pos - start);
+                if (!fill(0)) {
+                    throw syntaxError("Unterminated string");
+                }
+                start = pos;
+            }
+        }
+
+        /** Returns the string in the buffer, reusing an earlier instance with the same chars. */
+        private String name(int start, int length) {
+            int hash = 0;
+            for (int i = start, end = start + length; i < end; i++) {
+                hash = 31 * hash + buffer[i];
+            }
+            int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+            String cached = names[slot];
+            if (cached != null && cached.length() == length && cached.hashCode() == hash) {
+                int i = 0;
+                while (i < length && cached.charAt(i) == buffer[start + i]) {
+                    i++;
+                }
+                if (i == length) {
+                    return cached;
+                }
+            }
+            String name = new String(buffer, start, length);
+            names[slot] = name;
+            return name;
+        }
+
+        /** Reads the char after a backslash in a string. */
+        private char readEscape() throws IOException {
+            if (pos == limit && !fill(0)) {
+                throw syntaxError("Unterminated escape sequence");
+            }
+            char escaped = buffer[pos++];
+            switch (escaped) {
+                case 'u':
+                    while (limit - pos < 4) {
+                        if (!fill(0)) {
+                            throw syntaxError("Unterminated escape sequence");
+                        }
+                    }
+                    int result = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(buffer[pos++], 16);
+                        if (digit == -1) {
+                            throw new NumberFormatException(
+                                    "\\u" + new String(buffer, pos - i - 1, 4));
+                        }
+                        result = (result << 4) | digit;
+                    }
+                    return (char) result;
+                case 't':
+                    return '\t';
+                case 'b':
+                    return '\b';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 'f':
+                    return '\f';
+                default:
+                    // Quotes, slashes and anything else escape themselves.
+                    return escaped;
+            }
+        }
+
+        /** Reads a literal, whose first char was just consumed. */
+        private Object readLiteral() throws IOException {
+            pos--;
+            String literal = literal();
+            if (literal.length() == 0) {
+                throw syntaxError("Expected value");
+            }
+            // Like JsonReader, these are case insensitive even when strict.
+            if (literal.equalsIgnoreCase("true")) {
+                return Boolean.TRUE;
+            }
+            if (literal.equalsIgnoreCase("false")) {
+                return Boolean.FALSE;
+            }
+            if (literal.equalsIgnoreCase("null")) {
+                return null;
+            }
+            if (isNumber(literal)) {
+                return LazyNumber.decode(literal, lenient, lazyNumbers);
+            }
+            if (lenient) {
+                return literal;
+            }
+            throw syntaxError("Use JsonReader.setLenient(true) to accept malformed JSON");
+        }
+
+        /** Reads chars up to the next delimiter. */
+        private String literal() throws IOException {
+            int start = pos;
+            while (true) {
+                while (pos < limit) {
+                    if (isDelimiter(buffer[pos])) {
+                        return new String(buffer, start, pos - start);
+                    }
+                    pos++;
+                }
+                int keep = pos - start;
+                if (!fill(keep)) {
+                    return new String(buffer, pos - keep, keep);
+                }
+                start = pos - keep;
+            }
+        }
+
+        private static boolean isDelimiter(char c) {
+            switch (c) {
+                case '/':
+                case '\\':
+                case ';':
+                case '#':
+                case '=':
+                case '{':
+                case '}':
+                case '[':
+                case ']':
+                case ':':
+                case ',':
+                case ' ':
+                case '\t':
+                case '\f':
+                case '\r':
+                case '\n':
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * Returns true if the literal is a number. This is the json grammar, except that like
+         * JsonReader it allows a decimal point without digits after it.
+         */
+        private static boolean isNumber(String literal) {
+            int i = 0;
+            int length = literal.length();
+            if (i < length && literal.charAt(i) == '-') {
+                i++;
+            }
+            if (i == length) {
+                return false;
+            }
+            if (literal.charAt(i) == '0') {
+                i++;
+            } else {
+                int digits = i;
+                while (i < length && isDigit(literal.charAt(i))) {
+                    i++;
+                }
+                if (i == digits) {
+                    return false;
+                }
+            }
+            if (i < length && literal.charAt(i) == '.') {
+                i++;
+                while (i < length && isDigit(literal.charAt(i))) {
+                    i++;
+                }
+            }
+            if (i < length && (literal.charAt(i) == 'e' || literal.charAt(i) == 'E')) {
+                i++;
+                if (i < length && (literal.charAt(i) == '+' || literal.charAt(i) == '-')) {
+                    i++;
+                }
+                int digits = i;
+                while (i < length && isDigit(literal.charAt(i))) {
+                    i++;
+                }
+                if (i == digits) {
+                    return false;
+                }
+            }
+            return i == length;
+        }
+
+        private static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+
+        IllegalStateException unexpected(int c, String expected) throws IOException {
+            if (c == -1) {
+                throw new EOFException("End of input");
+            }
+            return new IllegalStateException(
+                    "Expected " + expected + " but was '" + (char) c + "' at " + (pos - 1));
+        }
+
+        IOException syntaxError(String message) {
+            return new IOException(message + " at " + pos);
+        }
+    }
+
+    /** Writes a single json document. */
+    private static final class Printer {
+
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+        private final Writer out;
+        private final boolean lenient;
+        private final boolean prettyPrint;
+        private final char[] buffer = new char[1024];
+        private int count;
+        private int depth;
+
+        Printer(Writer out, boolean lenient, boolean prettyPrint) {
+            this.out = out;
+            this.lenient = lenient;
+            this.prettyPrint = prettyPrint;
+        }
+
+        void writeMap(Map<?, ?> map) throws IOException {
+            write('{');
+            depth++;
+            boolean empty = true;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!empty) {
+                    write(',');
+                }
+                empty = false;
+                newline();
+                writeString(String.valueOf(entry.getKey()));
+                write(':');
+                if (prettyPrint) {
+                    write(' ');
+                }
+                writeValue(entry.getValue());
+            }
+            depth--;
+            if (!empty) {
+                newline();
+            }
+            write('}');
+        }
+
+        private void beginElement(int index) throws IOException {
+            if (index > 0) {
+                write(',');
+            }
+            newline();
+        }
+
+        private void endArray(int size) throws IOException {
+            depth--;
+            if (size > 0) {
+                newline();
+            }
+            write(']');
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                write("null");
+            } else if (value instanceof String) {
+                writeString((String) value);
+            } else if (value instanceof Number) {
+                writeNumber((Number) value);
+            } else if (value instanceof Boolean) {
+                write((Boolean) value ? "true" : "false");
+            } else if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                write('[');
+                depth++;
+                int size = 0;
+                for (Object element : list) {
+                    beginElement(size++);
+                    writeValue(element);
+                }
+                endArray(size);
+            } else if (value instanceof Map) {
+                writeMap((Map<?, ?>) value);
+            } else if (value.getClass().isArray()) {
+                writeArray(value);
+            } else {
+                writeString(String.valueOf(value));
+            }
+        }
+
+        /** Writes arrays by their element type, rather than through {@link java.lang.reflect}. */
+        private void writeArray(Object array) throws IOException {
+            write('[');
+            depth++;
+            int size;
+            if (array instanceof Object[]) {
+                Object[] values = (Object[]) array;
+                size = values.length;
+                for (int i = 0; i < size; i++) {
+                    beginElement(i);
+                    writeValue(values[i]);
+                }
+            } else if (array instanceof int[]) {
+                int[] values = (int[]) array;
+                size = values.length;
+                for (int i = 0; i < size; i++) {
+                    beginElement(i);
+                    write(Integer.toString(values[i]));
+                }
+            } else if (array instanceof long[]) {
+                long[] values = (long[]) array;
+                size = values.length;
+                for (int i = 0; i < size; i++) {
+                    beginElement(i);
+                    write(Long.toString(values[i]));
+                }
+            } else if (array instanceof double[]) {
+                double[] values = (double[]) array;
+                size = values.length;
+                for (int i = 0; i < size; i++) {
+                    beginElement(i);
+                    writeNumber(values[i]);
+                }
+            } else if (array instanceof float[]) {
+                float[] values = (float[]) array;
+                size = values.length;
+                for (int i = 0; i < size; i++) {
+                    beginElement(i);
+                    writeNumber(values[i]);
+                }
+            } else if (array instanceof boolean[]) {
+                boolean[] values = (boolean[]) array;
+                size = values.length;
+                for (int i = 0; i < size; i++) {
+                    beginElement(i);
+                    write(values[i] ? "true" : "false");
+                }
+            } else if (array instanceof short[]) {
+                short[] values = (short[]) array;
+                size = values.length;
+                for (int i = 0; i < size; i++) {
+                    beginElement(i);
+                    write(Short.toString(values[i]));
+                }
+            } else if (array instanceof byte[]) {
+                byte[] values = (byte[]) array;
+                size = values.length;
+                for (int i = 0; i < size; i++) {
+                    beginElement(i);
+                    write(Byte.toString(values[i]));
+                }
+            } else {
+                char[] values = (char[]) array;
+                size = values.length;
+                for (int i = 0; i < size; i++) {
+                    beginElement(i);
+                    writeString(String.valueOf(values[i]));
+                }
+            }
+            endArray(size);
+        }
+
+        private void writeNumber(Number value) throws IOException {
+            String string = value.toString();
+            if (!lenient
+                    && (string.equals("-Infinity")
+                            || string.equals("Infinity")
+                            || string.equals("NaN"))) {
+                throw new IllegalArgumentException(
+                        "Numeric values must be finite, but was " + value);
+            }
+            write(string);
+        }
+
+        private void writeString(String value) throws IOException {
+            write('"');
+            for (int i = 0, length = value.length(); i < length; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                    write(c);
+                    continue;
+                }
+                write('\\');
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        write(c);
+                        break;
+                    case '\t':
+                        write('t');
+                        break;
+                    case '\b':
+                        write('b');
+                        break;
+                    case '\n':
+                        write('n');
+                        break;
+                    case '\r':
+                        write('r');
+                        break;
+                    case '\f':
+                        write('f');
+                        break;
+                    default:
+                        write('u');
+                        write(HEX[(c >> 12) & 0xf]);
+                        write(HEX[(c >> 8) & 0xf]);
+                        write(HEX[(c >> 4) & 0xf]);
+                        write(HEX[c & 0xf]);
+                        break;
+                }
+            }
+            write('"');
+        }
+
+        private void newline() throws IOException {
+            if (!prettyPrint) {
+                return;
+            }
+            write('\n');
+            for (int i = 0; i < depth; i++) {
+                write(' ');
+                write(' ');
+            }
+        }
+
+        private void write(char c) throws IOException {
+            if (count == buffer.length) {
+                flush();
+            }
+            buffer[count++] = c;
+        }
+
+        private void write(String s) throws IOException {
+            for (int i = 0, length = s.length(); i < length; i++) {
+                write(s.charAt(i));
+            }
+        }
+
+        void flush() throws IOException {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@code track} section of the project's tracking plan, compiled into a lookup from event name
+ * to what may be recorded for it:
+ *
+ * <pre>
+ * "plan": {
+ *   "track": {
+ *     "Order Completed": { "enabled": true, "properties": [ "orderId", "total" ] },
+ *     "Debug Menu Opened": { "enabled": false },
+ *     "__default": { "enabled": true }
+ *   }
+ * }
+ * </pre>
+ *
+ * Events with {@code "enabled": false} are blocked, and events with a {@code properties} list only
+ * keep the properties named in it. Events that aren't listed follow {@code __default}, and are
+ * recorded as is if there is no default either.
+ *
+ * <p>Plans are immutable, so a plan compiled from new settings can replace the old one without
+ * locking.
+ */
+class TrackingPlan {
+
+    static final String DEFAULT_EVENT_KEY = "__default";
+    private static final String ENABLED_KEY = "enabled";
+    private static final String PROPERTIES_KEY = "properties";
+
+    /** Records every event as is. */
+    static final TrackingPlan EMPTY =
+            new TrackingPlan(null, Collections.<String, Rule>emptyMap(), Rule.ALLOW);
+
+    /** The settings this plan was compiled from. */
+    final ProjectSettings settings;
+
+    private final Map<String, Rule> rules;
+    private final Rule defaultRule;
+
+    private TrackingPlan(ProjectSettings settings, Map<String, Rule> rules, Rule defaultRule) {
+        this.settings = settings;
+        this.rules = rules;
+        this.defaultRule = defaultRule;
+    }
+
+    static TrackingPlan compile(ProjectSettings settings) {
+        ValueMap plan = settings == null ? null : settings.trackingPlan();
+        if (plan == null || plan.isEmpty()) {
+            return new TrackingPlan(settings, EMPTY.rules, EMPTY.defaultRule);
+        }
+        Map<String, Rule> rules = new HashMap<>();
+        Rule defaultRule = Rule.ALLOW;
+        for (String event : plan.keySet()) {
+            ValueMap config = plan.getValueMap(event);
+            if (config == null) {
+                continue;
+            }
+            Rule rule = Rule.compile(config);
+            if (DEFAULT_EVENT_KEY.equals(event)) {
+                defaultRule = rule;
+            } else {
+                rules.put(event, rule);
+            }
+        }
+        return new TrackingPlan(settings, rules, defaultRule);
+    }
+
+    /** Returns the rule for {@code event}, never null. */
+    Rule ruleFor(String event) {
+        Rule rule = rules.get(event);
+        return rule == null ? defaultRule : rule;
+    }
+
+    /**
+     * Estimates the bytes {@code value} takes up once serialized, to count what the plan saved us
+     * without serializing what it dropped.
+     */
+    static int estimateSize(Object value) {
+        if (value == null) {
+            return 4;
+        }
+        if (value instanceof CharSequence) {
+            return ((CharSequence) value).length() + 2;
+        }
+        if (value instanceof Map) {
+            int size = 2;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                // The key's quotes and colon, and a comma.
+                size += String.valueOf(entry.getKey()).length() + 4;
+                size += estimateSize(entry.getValue());
+            }
+            return size;
+        }
+        if (value instanceof Collection) {
+            int size = 2;
+            for (Object element : (Collection<?>) value) {
+                size += estimateSize(element) + 1;
+            }
+            return size;
+        }
+        return String.valueOf(value).length();
+    }
+
+    static class Rule {
+
+        static final Rule ALLOW = new Rule(true, null);
+        static final Rule BLOCK = new Rule(false, null);
+
+        final boolean enabled;
+        /** The properties that are kept, or null to keep all of them. */
+        final Set<String> allowedProperties;
+
+        Rule(boolean enabled, Set<String> allowedProperties) {
+            this.enabled = enabled;
+            this.allowedProperties = allowedProperties;
+        }
+
+        static Rule compile(ValueMap config) {
+            if (!config.getBoolean(ENABLED_KEY, true)) {
+                return BLOCK;
+            }
+            Object properties = config.get(PROPERTIES_KEY);
+            if (!(properties instanceof List)) {
+                return ALLOW;
+            }
+            Set<String> allowed = new HashSet<>();
+            for (Object property : (List<?>) properties) {
+                if (property instanceof String) {
+                    allowed.add((String) property);
+                }
+            }
+            return new Rule(true, Collections.unmodifiableSet(allowed));
+        }
+
+        /**
+         * Returns {@code properties} without the ones this rule doesn't allow, or the same
+         * instance if all of them are allowed.
+         */
+        Properties strip(Properties properties) {
+            if (allowedProperties == null || allowedProperties.containsAll(properties.keySet())) {
+                return properties;
+            }
+            Properties stripped = new Properties();
+            for (Map.Entry<String, Object> property : properties.entrySet()) {
+                if (allowedProperties.contains(property.getKey())) {
+                    stripped.put(property.getKey(), property.getValue());
+                }
+            }
+            return stripped;
+        }
+    }
+}
@@ -23,14 +23,11 @@
  */
 package com.snapyr.sdk;
 
-import static java.util.Collections.unmodifiableMap;
-
 import android.content.Context;
 import com.snapyr.sdk.internal.Private;
 import com.snapyr.sdk.internal.Utils;
 import java.text.ParseException;
 import java.util.Date;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
 
@@ -88,14 +85,17 @@ public class Traits extends ValueMap {
      * thread, so this instance is thread safe.
      */
     static Traits create() {
-        Traits traits = new Traits(new Utils.NullableConcurrentHashMap<String, Object>());
+        Traits traits = new Traits(new AtomicPersistentMap<String, Object>());
         traits.putAnonymousId(UUID.randomUUID().toString());
         return traits;
     }
 
+    /**
+     * Returns an unmodifiable shallow copy of the values in this map. The traits the library keeps
+     * are persistent maps, so this doesn't copy them.
+     */
     public Traits unmodifiableCopy() {
-        LinkedHashMap<String, Object> map = new LinkedHashMap<>(this);
-        return new Traits(unmodifiableMap(map));
+        return new Traits(immutableCopy());
     }
 
     /**
@@ -414,7 +414,7 @@ public class Traits extends ValueMap {
         @Override
         public Traits create(Map<String, Object> map) {
             // Analytics client can be called on any thread, so this instance should be thread safe.
-            return new Traits(new Utils.NullableConcurrentHashMap<>(map));
+            return new Traits(new AtomicPersistentMap<>(map));
         }
     }
 }
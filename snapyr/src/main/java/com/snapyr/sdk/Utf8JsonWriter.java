@@ -0,0 +1,374 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk;
+
+import com.snapyr.sdk.internal.PayloadTimestamp;
+import com.snapyr.sdk.internal.Utils;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializes maps straight into a reusable buffer of UTF-8 encoded JSON, without the writers and
+ * intermediate chars of {@link android.util.JsonWriter}. Keys that appear in every payload are
+ * encoded once up front. The output is byte for byte what {@link Cartographer} writes through an
+ * {@link android.util.JsonWriter} and UTF-8 {@link java.io.OutputStreamWriter}, including its
+ * escaping and the replacement of unpaired surrogates with '?'.
+ *
+ * <p>The context of a payload is usually the {@link SnapyrContext#snapshot()} shared by every event
+ * since the context last changed, so the bytes of the last snapshot written are kept and copied
+ * into later payloads while its {@link SnapyrContext#version()} and contents are unchanged.
+ * Likewise the {@link PayloadTimestamp} of a payload is encoded straight into the buffer.
+ *
+ * <p>Instances are not thread safe, each thread should use its own writer and {@link #reset()} it
+ * between payloads.
+ */
+final class Utf8JsonWriter {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // Don't hold on to the buffer grown for an unusually large payload.
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    /** Encoded {@code "key":} prefixes for the keys of payloads and their contexts. */
+    private static final Map<String, byte[]> NAMES = new HashMap<>();
+
+    static {
+        String[] names = {
+            // BasePayload and its subclasses.
+            "type", "messageId", "channel", "context", "integrations", "timestamp", "userId",
+            "anonymousId", "event", "properties", "name", "category", "traits", "groupId",
+            "previousId",
+            // SnapyrContext.
+            "app", "device", "library", "locale", "network", "os", "screen", "timezone",
+            "userAgent", "instanceId", "version", "build", "namespace", "id", "manufacturer",
+            "model", "advertisingId", "adTrackingEnabled", "token", "carrier", "wifi", "bluetooth",
+            "cellular", "density", "width", "height"
+        };
+        Utf8JsonWriter writer = new Utf8JsonWriter();
+        for (String name : names) {
+            writer.reset();
+            writer.writeString(name);
+            writer.writeByte(':');
+            NAMES.put(name, writer.toByteArray());
+        }
+    }
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int count;
+    private final char[] timestamp = new char[Utils.ISO8601_MAX_LENGTH];
+    private boolean lenient;
+
+    private SnapyrContext cachedContext;
+    private long cachedContextVersion;
+    private byte[] cachedContextBytes;
+
+    /**
+     * Configure whether NaN and infinite numbers are written as is, or rejected with an {@link
+     * IllegalArgumentException} like a strict {@link android.util.JsonWriter} does. By default
+     * this writer is strict.
+     */
+    void setLenient(boolean lenient) {
+        if (this.lenient != lenient) {
+            invalidateContext();
+        }
+        this.lenient = lenient;
+    }
+
+    /** Forgets the serialized context, so the next one is written from scratch. */
+    void invalidateContext() {
+        cachedContext = null;
+        cachedContextBytes = null;
+    }
+
+    /** Discards everything written so far. */
+    void reset() {
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+        count = 0;
+    }
+
+    /** Returns the number of bytes written since the last {@link #reset()}. */
+    int size() {
+        return count;
+    }
+
+    /** Returns a copy of the bytes written since the last {@link #reset()}. */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, count);
+    }
+
+    /** Writes the bytes written since the last {@link #reset()} to the given stream. */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, count);
+    }
+
+    /** Appends the json representation of the map. */
+    void writeMap(Map<?, ?> map) {
+        writeByte('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!first) {
+                writeByte(',');
+            }
+            first = false;
+            writeName(String.valueOf(entry.getKey()));
+            writeValue(entry.getValue());
+        }
+        writeByte('}');
+    }
+
+    /** Appends the string as is, for json that was serialized elsewhere. */
+    void writeRaw(String json) {
+        writeUtf8(json, false);
+    }
+
+    private void writeName(String name) {
+        byte[] encoded = NAMES.get(name);
+        if (encoded != null) {
+            ensureCapacity(encoded.length);
+            System.arraycopy(encoded, 0, buffer, count, encoded.length);
+            count += encoded.length;
+        } else {
+            writeString(name);
+            writeByte(':');
+        }
+    }
+
+    private void writeValue(Object value) {
+        if (value == null) {
+            writeBytes(NULL);
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Number) {
+            writeNumber((Number) value);
+        } else if (value instanceof Boolean) {
+            writeBytes((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof List) {
+            writeByte('[');
+            List<?> list = (List<?>) value;
+            for (int i = 0, size = list.size(); i < size; i++) {
+                if (i > 0) {
+                    writeByte(',');
+                }
+                writeValue(list.get(i));
+            }
+            writeByte(']');
+        } else if (value instanceof SnapyrContext) {
+            writeContext((SnapyrContext) value);
+        } else if (value instanceof PayloadTimestamp) {
+            writeTimestamp((PayloadTimestamp) value);
+        } else if (value instanceof Map) {
+            writeMap((Map<?, ?>) value);
+        } else if (value.getClass().isArray()) {
+            writeByte('[');
+            for (int i = 0, size = Array.getLength(value); i < size; i++) {
+                if (i > 0) {
+                    writeByte(',');
+                }
+                writeValue(Array.get(value, i));
+            }
+            writeByte(']');
+        } else {
+            writeString(String.valueOf(value));
+        }
+    }
+
+    /**
+     * Writes the context, copying in its cached bytes if it is the same snapshot at the same
+     * version as last time. Only snapshots whose every change bumps the version are cached: the
+     * ones holding values the version doesn't track have {@link SnapyrContext#NO_VERSION}.
+     */
+    private void writeContext(SnapyrContext context) {
+        long version = context.version();
+        if (!context.isSnapshot() || version == SnapyrContext.NO_VERSION) {
+            writeMap(context);
+            return;
+        }
+        if (context == cachedContext && version == cachedContextVersion) {
+            writeBytes(cachedContextBytes);
+            return;
+        }
+        int start = count;
+        writeMap(context);
+        cachedContext = context;
+        cachedContextVersion = version;
+        cachedContextBytes = Arrays.copyOfRange(buffer, start, count);
+    }
+
+    /** Encodes the timestamp as an ISO-8601 json string, without formatting a string first. */
+    private void writeTimestamp(PayloadTimestamp value) {
+        int length = value.writeTo(timestamp, 0);
+        ensureCapacity(length + 2);
+        buffer[count++] = '"';
+        for (int i = 0; i < length; i++) {
+            buffer[count++] = (byte) timestamp[i];
+        }
+        buffer[count++] = '"';
+    }
+
+    private void writeNumber(Number value) {
+        if (value instanceof Integer || value instanceof Long) {
+            writeLong(value.longValue());
+            return;
+        }
+        String string = value.toString();
+        if (!lenient
+                && (string.equals("-Infinity")
+                        || string.equals("Infinity")
+                        || string.equals("NaN"))) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        writeUtf8(string, false);
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeUtf8(Long.toString(value), false);
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+            digits++;
+        }
+        for (int i = count + digits - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        count += digits;
+    }
+
+    private void writeString(String value) {
+        writeByte('"');
+        writeUtf8(value, true);
+        writeByte('"');
+    }
+
+    /** Encodes the string as UTF-8, escaping it for use in a json string if requested. */
+    private void writeUtf8(String value, boolean escape) {
+        int length = value.length();
+        // Escapes take up to 6 bytes per char, everything else up to 3.
+        ensureCapacity(length * (escape ? 6 : 3));
+        byte[] buffer = this.buffer;
+        int count = this.count;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (!escape || (c >= 0x20 && c != '"' && c != '\\')) {
+                    buffer[count++] = (byte) c;
+                    continue;
+                }
+                buffer[count++] = '\\';
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        buffer[count++] = (byte) c;
+                        break;
+                    case '\t':
+                        buffer[count++] = 't';
+                        break;
+                    case '\b':
+                        buffer[count++] = 'b';
+                        break;
+                    case '\n':
+                        buffer[count++] = 'n';
+                        break;
+                    case '\r':
+                        buffer[count++] = 'r';
+                        break;
+                    case '\f':
+                        buffer[count++] = 'f';
+                        break;
+                    default:
+                        count = writeUnicodeEscape(buffer, count, c);
+                        break;
+                }
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xc0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            } else if (escape && (c == '\u2028' || c == '\u2029')) {
+                buffer[count++] = '\\';
+                count = writeUnicodeEscape(buffer, count, c);
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                char low = i + 1 < length ? value.charAt(i + 1) : 0;
+                if (Character.isHighSurrogate(c) && Character.isLowSurrogate(low)) {
+                    int codePoint = Character.toCodePoint(c, low);
+                    buffer[count++] = (byte) (0xf0 | (codePoint >> 18));
+                    buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    buffer[count++] = (byte) (0x80 | (codePoint & 0x3f));
+                    i++;
+                } else {
+                    // Unpaired surrogates can't be encoded, replace them like the JDK encoder.
+                    buffer[count++] = '?';
+                }
+            } else {
+                buffer[count++] = (byte) (0xe0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        this.count = count;
+    }
+
+    /** Writes {@code uXXXX}, the caller writes the backslash. */
+    private static int writeUnicodeEscape(byte[] buffer, int count, char c) {
+        buffer[count++] = 'u';
+        buffer[count++] = HEX[(c >> 12) & 0xf];
+        buffer[count++] = HEX[(c >> 8) & 0xf];
+        buffer[count++] = HEX[(c >> 4) & 0xf];
+        buffer[count++] = HEX[c & 0xf];
+        return count;
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        buffer[count++] = (byte) c;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        int required = count + extra;
+        if (required > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+        }
+    }
+}
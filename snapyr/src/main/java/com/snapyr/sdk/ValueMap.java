@@ -30,11 +30,14 @@ import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.json.JSONObject;
 
 /**
@@ -48,17 +51,23 @@ import org.json.JSONObject;
  * <p>Although it lets you use custom objects for values, note that type information is lost during
  * serialization. You should use one of the coercion methods instead to get objects of a concrete
  * type.
+ *
+ * <p>Maps created without a delegate are backed by a {@link CompactMap}, which keeps insertion order
+ * like a {@link LinkedHashMap} with a much smaller footprint for the few keys most maps hold.
  */
 public class ValueMap implements Map<String, Object> {
 
+    private static final Class<?> UNMODIFIABLE_MAP_CLASS =
+            Collections.unmodifiableMap(Collections.emptyMap()).getClass();
+
     private final Map<String, Object> delegate;
 
     public ValueMap() {
-        delegate = new LinkedHashMap<>();
+        delegate = new CompactMap<>();
     }
 
     public ValueMap(int initialCapacity) {
-        delegate = new LinkedHashMap<>(initialCapacity);
+        delegate = new CompactMap<>(initialCapacity);
     }
 
     public ValueMap(Map<String, Object> map) {
@@ -69,18 +78,21 @@ public class ValueMap implements Map<String, Object> {
     }
 
     /**
-     * Uses reflection to create an instance of a subclass of {@link ValueMap}. The subclass
-     * <b>must</b> declare a map constructor.
+     * Creates an instance of a subclass of {@link ValueMap} around {@code map}. Subclasses in this
+     * library are created by a precompiled {@link Factory}; any other subclass is created by
+     * reflection, and <b>must</b> declare a map constructor.
      */
     static <T extends ValueMap> T createValueMap(Map map, Class<T> clazz) {
-        try {
-            Constructor<T> constructor = clazz.getDeclaredConstructor(Map.class);
-            constructor.setAccessible(true);
-            return constructor.newInstance(map);
-        } catch (Exception e) {
-            throw new AssertionError(
-                    "Could not create instance of " + clazz.getCanonicalName() + ".\n" + e);
-        }
+        //noinspection unchecked
+        return Factories.get(clazz).create((Map<String, Object>) map);
+    }
+
+    /**
+     * Registers the factory {@link #createValueMap(Map, Class)} uses for {@code clazz}, replacing
+     * any existing one.
+     */
+    static <T extends ValueMap> void registerFactory(Class<T> clazz, Factory<T> factory) {
+        Factories.FACTORIES.put(clazz, factory);
     }
 
     @Override
@@ -159,6 +171,34 @@ public class ValueMap implements Map<String, Object> {
         return delegate.toString();
     }
 
+    /**
+     * Returns an immutable shallow copy of the values in this map. If this map is backed by an
+     * {@link AtomicPersistentMap}, this is its current version and takes O(1); other maps are
+     * copied.
+     */
+    Map<String, Object> immutableCopy() {
+        if (delegate instanceof AtomicPersistentMap) {
+            return ((AtomicPersistentMap<String, Object>) delegate).snapshot();
+        }
+        if (delegate instanceof PersistentMap) {
+            return delegate;
+        }
+        return Collections.unmodifiableMap(new LinkedHashMap<>(this));
+    }
+
+    /**
+     * Returns true if this map is backed by one that can't be modified, such as an {@link
+     * #immutableCopy()}.
+     */
+    boolean isImmutable() {
+        return isImmutable(delegate);
+    }
+
+    /** Returns true if {@code map} is a persistent map or an unmodifiable view. */
+    static boolean isImmutable(Map<?, ?> map) {
+        return map instanceof PersistentMap || map.getClass() == UNMODIFIABLE_MAP_CLASS;
+    }
+
     /** Helper method to be able to chain put methods. */
     public ValueMap putValue(String key, Object value) {
         delegate.put(key, value);
@@ -323,7 +363,24 @@ public class ValueMap implements Map<String, Object> {
      */
     public <T extends ValueMap> T getValueMap(String key, Class<T> clazz) {
         Object value = get(key);
-        return coerceToValueMap(value, clazz);
+        T typedValue = coerceToValueMap(value, clazz);
+        if (typedValue != value && typedValue != null) {
+            cacheValueMap(key, value, typedValue);
+        }
+        return typedValue;
+    }
+
+    /**
+     * Replaces the map stored at {@code key} with the {@link ValueMap} that wraps it, so it is only
+     * wrapped once. This skips subclasses' overrides of {@link #put(String, Object)}, since the
+     * contents of the map don't change, and only happens for concurrent delegates: a read may race
+     * with other reads or writes, which only they can take safely.
+     */
+    private void cacheValueMap(String key, Object map, ValueMap typedValue) {
+        if (delegate instanceof ConcurrentMap) {
+            //noinspection unchecked
+            ((ConcurrentMap<String, Object>) delegate).replace(key, map, typedValue);
+        }
     }
 
     /**
@@ -378,38 +435,246 @@ public class ValueMap implements Map<String, Object> {
         return map;
     }
 
+    /** Creates a subclass of {@link ValueMap} around a map. */
+    interface Factory<T extends ValueMap> {
+        T create(Map<String, Object> map);
+    }
+
+    /**
+     * The factories {@link #createValueMap(Map, Class)} uses. Subclasses declared by the library
+     * are registered up front; any other subclass gets a factory that calls its map constructor by
+     * reflection, which is looked up once and then cached here.
+     */
+    private static final class Factories {
+
+        static final ConcurrentMap<Class<?>, Factory<?>> FACTORIES = new ConcurrentHashMap<>();
+
+        static {
+            FACTORIES.put(
+                    Traits.class,
+                    new Factory<Traits>() {
+                        @Override
+                        public Traits create(Map<String, Object> map) {
+                            return new Traits(map);
+                        }
+                    });
+            FACTORIES.put(
+                    Traits.Address.class,
+                    new Factory<Traits.Address>() {
+                        @Override
+                        public Traits.Address create(Map<String, Object> map) {
+                            return new Traits.Address(map);
+                        }
+                    });
+            FACTORIES.put(
+                    Properties.class,
+                    new Factory<Properties>() {
+                        @Override
+                        public Properties create(Map<String, Object> map) {
+                            return new Properties(map);
+                        }
+                    });
+            FACTORIES.put(
+                    Properties.Product.class,
+                    new Factory<Properties.Product>() {
+                        @Override
+                        public Properties.Product create(Map<String, Object> map) {
+                            return new Properties.Product(map);
+                        }
+                    });
+            FACTORIES.put(
+                    SnapyrContext.class,
+                    new Factory<SnapyrContext>() {
+                        @Override
+                        public SnapyrContext create(Map<String, Object> map) {
+                            return new SnapyrContext(map);
+                        }
+                    });
+            FACTORIES.put(
+                    SnapyrContext.Campaign.class,
+                    new Factory<SnapyrContext.Campaign>() {
+                        @Override
+                        public SnapyrContext.Campaign create(Map<String, Object> map) {
+                            return new SnapyrContext.Campaign(map);
+                        }
+                    });
+            FACTORIES.put(
+                    SnapyrContext.Device.class,
+                    new Factory<SnapyrContext.Device>() {
+                        @Override
+                        public SnapyrContext.Device create(Map<String, Object> map) {
+                            return new SnapyrContext.Device(map);
+                        }
+                    });
+            FACTORIES.put(
+                    SnapyrContext.Location.class,
+                    new Factory<SnapyrContext.Location>() {
+                        @Override
+                        public SnapyrContext.Location create(Map<String, Object> map) {
+                            return new SnapyrContext.Location(map);
+                        }
+                    });
+            FACTORIES.put(
+                    SnapyrContext.Referrer.class,
+                    new Factory<SnapyrContext.Referrer>() {
+                        @Override
+                        public SnapyrContext.Referrer create(Map<String, Object> map) {
+                            return new SnapyrContext.Referrer(map);
+                        }
+                    });
+            FACTORIES.put(
+                    SnapyrAction.class,
+                    new Factory<SnapyrAction>() {
+                        @Override
+                        public SnapyrAction create(Map<String, Object> map) {
+                            return new SnapyrAction(map);
+                        }
+                    });
+            FACTORIES.put(
+                    ProjectSettings.class,
+                    new Factory<ProjectSettings>() {
+                        @Override
+                        public ProjectSettings create(Map<String, Object> map) {
+                            return new ProjectSettings(map);
+                        }
+                    });
+        }
+
+        static <T extends ValueMap> Factory<T> get(Class<T> clazz) {
+            //noinspection unchecked
+            Factory<T> factory = (Factory<T>) FACTORIES.get(clazz);
+            if (factory == null) {
+                factory = new ReflectiveFactory<>(clazz);
+                FACTORIES.putIfAbsent(clazz, factory);
+            }
+            return factory;
+        }
+    }
+
+    /** Creates subclasses the library doesn't know about through their map constructor. */
+    private static final class ReflectiveFactory<T extends ValueMap> implements Factory<T> {
+
+        private final Class<T> clazz;
+        private final Constructor<T> constructor;
+        private final Exception error;
+
+        ReflectiveFactory(Class<T> clazz) {
+            this.clazz = clazz;
+            Constructor<T> constructor = null;
+            Exception error = null;
+            try {
+                constructor = clazz.getDeclaredConstructor(Map.class);
+                constructor.setAccessible(true);
+            } catch (Exception e) {
+                error = e;
+            }
+            this.constructor = constructor;
+            this.error = error;
+        }
+
+        @Override
+        public T create(Map<String, Object> map) {
+            Exception error = this.error;
+            if (error == null) {
+                try {
+                    return constructor.newInstance(map);
+                } catch (Exception e) {
+                    error = e;
+                }
+            }
+            throw new AssertionError(
+                    "Could not create instance of " + clazz.getCanonicalName() + ".\n" + error);
+        }
+    }
+
     /** A class to let you store arbitrary key - {@link ValueMap} pairs. */
-    static class Cache<T extends ValueMap> {
+    static class Cache<T extends ValueMap> implements StatePersister.Persistable {
+
+        private static final String MIGRATED_SUFFIX = "-migrated";
 
-        private final SharedPreferences preferences;
+        private final Context context;
+        private final String tag;
+        private final StateStore store;
         private final Cartographer cartographer;
         private final String key;
         private final Class<T> clazz;
-        private T value;
+        private volatile T value;
+        private volatile boolean loaded;
+        private volatile StatePersister persister = StatePersister.SYNCHRONOUS;
 
         Cache(Context context, Cartographer cartographer, String key, String tag, Class<T> clazz) {
+            this.context = context;
+            this.tag = tag;
+            this.store = new StateStore(context, tag);
             this.cartographer = cartographer;
-            this.preferences = Utils.getSnapyrSharedPreferences(context, tag);
             this.key = key;
             this.clazz = clazz;
         }
 
+        /** Writes changes through {@code persister} instead of as soon as they are made. */
+        void persistWith(StatePersister persister) {
+            this.persister = persister;
+        }
+
         T get() {
-            if (value == null) {
-                String json = preferences.getString(key, null);
-                if (Utils.isNullOrEmpty(json)) return null;
+            if (!loaded) {
+                load();
+            }
+            return value;
+        }
+
+        /**
+         * Reads the value from disk. Nothing stored counts as loaded, and so does a value that
+         * can't be parsed, so neither is read again on every call; only failing to read is retried.
+         */
+        private synchronized void load() {
+            if (loaded) return;
+            String json;
+            try {
+                json = store.get(key);
+                if (json == null) {
+                    json = migrate();
+                }
+            } catch (IOException ignored) {
+                return;
+            }
+            if (!Utils.isNullOrEmpty(json)) {
                 try {
-                    Map<String, Object> map = cartographer.fromJson(json);
-                    value = create(map);
+                    value = parse(json);
                 } catch (IOException ignored) {
-                    return null;
+                    // Treated as missing, until it is set again.
                 }
             }
-            return value;
+            loaded = true;
+        }
+
+        /**
+         * Moves the value from where earlier versions kept it, the client's shared preferences, into
+         * the state store. Opening the shared preferences parses all of them, so a marker records
+         * that this was done, and later cold starts without a value don't open them again.
+         */
+        private String migrate() throws IOException {
+            String marker = key + MIGRATED_SUFFIX;
+            if (store.contains(marker)) {
+                return null;
+            }
+            SharedPreferences preferences = Utils.getSnapyrSharedPreferences(context, tag);
+            String json = preferences.getString(key, null);
+            if (json != null) {
+                store.put(key, json);
+                preferences.edit().remove(key).apply();
+            }
+            store.put(marker, "");
+            return json;
         }
 
         boolean isSet() {
-            return preferences.contains(key);
+            return get() != null;
+        }
+
+        /** Creates the value from its cached json. */
+        T parse(String json) throws IOException {
+            return create(cartographer.fromJson(json));
         }
 
         T create(Map<String, Object> map) {
@@ -417,13 +682,33 @@ public class ValueMap implements Map<String, Object> {
         }
 
         void set(T value) {
-            this.value = value;
-            String json = cartographer.toJson(value);
-            preferences.edit().putString(key, json).apply();
+            synchronized (this) {
+                this.value = value;
+                loaded = true;
+            }
+            persister.markDirty(this);
         }
 
         void delete() {
-            preferences.edit().remove(key).apply();
+            synchronized (this) {
+                value = null;
+                loaded = true;
+            }
+            persister.markDirty(this);
+        }
+
+        @Override
+        public void persist() {
+            T current = value;
+            try {
+                if (current == null) {
+                    store.remove(key);
+                } else {
+                    store.put(key, cartographer.toJson(current));
+                }
+            } catch (IOException ignored) {
+                // The value is still in memory, and will be written with the next change.
+            }
         }
     }
 }
@@ -28,8 +28,6 @@ import static com.snapyr.sdk.internal.Utils.assertNotNullOrEmpty;
 import static com.snapyr.sdk.internal.Utils.immutableCopyOf;
 import static com.snapyr.sdk.internal.Utils.isNullOrEmpty;
 import static com.snapyr.sdk.internal.Utils.parseISO8601DateWithNanos;
-import static com.snapyr.sdk.internal.Utils.toISO8601NanoFormattedString;
-import static com.snapyr.sdk.internal.Utils.toISO8601String;
 
 import androidx.annotation.CheckResult;
 import androidx.annotation.NonNull;
@@ -37,11 +35,11 @@ import androidx.annotation.Nullable;
 import com.snapyr.sdk.SnapyrContext;
 import com.snapyr.sdk.ValueMap;
 import com.snapyr.sdk.internal.NanoDate;
+import com.snapyr.sdk.internal.PayloadTimestamp;
 import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.UUID;
 
 /**
  * A payload object that will be sent to the server. Clients will not decode instances of this
@@ -72,11 +70,7 @@ public abstract class BasePayload extends ValueMap {
         put(CHANNEL_KEY, Channel.mobile);
         put(TYPE_KEY, type);
         put(MESSAGE_ID, messageId);
-        if (nanosecondTimestamps) {
-            put(TIMESTAMP_KEY, toISO8601NanoFormattedString(timestamp));
-        } else {
-            put(TIMESTAMP_KEY, toISO8601String(timestamp));
-        }
+        put(TIMESTAMP_KEY, new PayloadTimestamp(timestamp, nanosecondTimestamps));
         put(CONTEXT_KEY, context);
         put(INTEGRATIONS_KEY, integrations);
         if (!isNullOrEmpty(userId)) {
@@ -126,6 +120,11 @@ public abstract class BasePayload extends ValueMap {
      */
     @Nullable
     public Date timestamp() {
+        Object value = get(TIMESTAMP_KEY);
+        if (value instanceof PayloadTimestamp) {
+            // Hand out a copy, the payload's own timestamp must not change.
+            return new NanoDate(((PayloadTimestamp) value).nanos());
+        }
         // It's unclear if this will ever be null. So we're being safe.
         String timestamp = getString(TIMESTAMP_KEY);
         if (isNullOrEmpty(timestamp)) {
@@ -191,15 +190,19 @@ public abstract class BasePayload extends ValueMap {
         private String userId;
         private String anonymousId;
         private boolean nanosecondTimestamps = false;
+        private MessageIdGenerator messageIdGenerator = MessageIdGenerator.TIME_ORDERED;
 
         Builder() {
             // Empty constructor.
         }
 
         Builder(BasePayload payload) {
-            String tsStr = payload.getString(TIMESTAMP_KEY);
-            if (tsStr != null
-                    && tsStr.length() > 24) { // [yyyy-MM-ddThh:mm:ss.sssZ] format without nanos
+            Object ts = payload.get(TIMESTAMP_KEY);
+            if (ts instanceof PayloadTimestamp) {
+                nanosecondTimestamps = ((PayloadTimestamp) ts).hasNanosecondPrecision();
+            } else if (ts != null
+                    && String.valueOf(ts).length()
+                            > 24) { // [yyyy-MM-ddThh:mm:ss.sssZ] format without nanos
                 nanosecondTimestamps = true;
             }
             messageId = payload.messageId();
@@ -252,7 +255,12 @@ public abstract class BasePayload extends ValueMap {
         @NonNull
         public B context(@NonNull Map<String, ?> context) {
             assertNotNull(context, "context");
-            this.context = Collections.unmodifiableMap(new LinkedHashMap<>(context));
+            if (context instanceof SnapyrContext && ((SnapyrContext) context).isSnapshot()) {
+                // Snapshots are immutable and can be shared between payloads.
+                this.context = (SnapyrContext) context;
+            } else {
+                this.context = Collections.unmodifiableMap(new LinkedHashMap<>(context));
+            }
             return self();
         }
 
@@ -341,6 +349,16 @@ public abstract class BasePayload extends ValueMap {
             return self();
         }
 
+        /**
+         * Set the generator used to create a message ID if none was provided. Defaults to {@link
+         * MessageIdGenerator#TIME_ORDERED}.
+         */
+        @NonNull
+        public B messageIdGenerator(@NonNull MessageIdGenerator messageIdGenerator) {
+            this.messageIdGenerator = assertNotNull(messageIdGenerator, "messageIdGenerator");
+            return self();
+        }
+
         abstract P realBuild(
                 @NonNull String messageId,
                 @NonNull Date timestamp,
@@ -366,7 +384,7 @@ public abstract class BasePayload extends ValueMap {
                             : immutableCopyOf(integrationsBuilder);
 
             if (isNullOrEmpty(messageId)) {
-                messageId = UUID.randomUUID().toString();
+                messageId = messageIdGenerator.generate();
             }
 
             if (timestamp == null) {
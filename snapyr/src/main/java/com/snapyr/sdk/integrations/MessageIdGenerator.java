@@ -0,0 +1,57 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk.integrations;
+
+import androidx.annotation.NonNull;
+import java.util.UUID;
+
+/**
+ * Creates the {@link BasePayload#messageId()} of payloads that weren't given one explicitly.
+ * Implementations are called from any thread that records events, so they must be thread safe and
+ * should avoid shared locks.
+ *
+ * @see com.snapyr.sdk.Snapyr.Builder#messageIdGenerator(MessageIdGenerator)
+ */
+public interface MessageIdGenerator {
+
+    /**
+     * The default. Creates UUIDv7-style IDs that sort by creation time, from randomness kept per
+     * thread.
+     */
+    MessageIdGenerator TIME_ORDERED = new TimeOrderedMessageIdGenerator();
+
+    /** Creates IDs with {@link UUID#randomUUID()}, the way message IDs used to be created. */
+    MessageIdGenerator RANDOM_UUID =
+            new MessageIdGenerator() {
+                @NonNull
+                @Override
+                public String generate() {
+                    return UUID.randomUUID().toString();
+                }
+            };
+
+    /** Returns a new, unique message ID. */
+    @NonNull
+    String generate();
+}
@@ -0,0 +1,105 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk.integrations;
+
+import androidx.annotation.NonNull;
+import java.security.SecureRandom;
+
+/**
+ * Creates IDs laid out like a version 7 UUID: 48 bits of Unix time in milliseconds, the version,
+ * 12 random bits, the variant and 62 more random bits. IDs created later sort after earlier ones,
+ * which keeps them close together in the server's indexes.
+ *
+ * <p>{@link java.util.UUID#randomUUID()} draws from a single {@link SecureRandom} that every
+ * thread contends on. Here each thread has its own SplitMix64 sequence instead, seeded once from
+ * a {@link SecureRandom}, and the ID is written straight into a per-thread char buffer.
+ */
+final class TimeOrderedMessageIdGenerator implements MessageIdGenerator {
+
+    static final int LENGTH = 36;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = 0x8000000000000000L;
+
+    private final SecureRandom seeds = new SecureRandom();
+    private final ThreadLocal<State> state =
+            new ThreadLocal<State>() {
+                @Override
+                protected State initialValue() {
+                    return new State(seeds.nextLong());
+                }
+            };
+
+    @NonNull
+    @Override
+    public String generate() {
+        return generate(System.currentTimeMillis());
+    }
+
+    String generate(long millis) {
+        State state = this.state.get();
+        long msb = (millis << 16) | VERSION | (state.next() >>> 52);
+        long lsb = VARIANT | (state.next() >>> 2);
+        return state.format(msb, lsb);
+    }
+
+    private static final class State {
+        final char[] chars = new char[LENGTH];
+        long seed;
+
+        State(long seed) {
+            this.seed = seed;
+        }
+
+        /** Steele, Lea and Flood's SplitMix64, which visits every 64 bit value once. */
+        long next() {
+            long z = (seed += 0x9e3779b97f4a7c15L);
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+
+        /** Writes the 8-4-4-4-12 hex form of the two halves. */
+        String format(long msb, long lsb) {
+            hex(msb >>> 32, 0, 8);
+            chars[8] = '-';
+            hex(msb >>> 16, 9, 4);
+            chars[13] = '-';
+            hex(msb, 14, 4);
+            chars[18] = '-';
+            hex(lsb >>> 48, 19, 4);
+            chars[23] = '-';
+            hex(lsb, 24, 12);
+            return new String(chars);
+        }
+
+        private void hex(long value, int offset, int digits) {
+            for (int i = offset + digits - 1; i >= offset; i--) {
+                chars[i] = HEX[(int) (value & 0xf)];
+                value >>>= 4;
+            }
+        }
+    }
+}
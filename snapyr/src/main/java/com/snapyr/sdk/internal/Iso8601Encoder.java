@@ -0,0 +1,293 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk.internal;
+
+import java.util.Date;
+
+/**
+ * Formats and parses the UTC timestamps we put on every payload without going through {@link
+ * java.util.Calendar}.
+ *
+ * <p>Events are stamped many times within the same second, so the {@code yyyy-MM-ddThh:mm:ss}
+ * prefix of the last second that was formatted is cached and only the fractional part is written
+ * for each call. Instants outside the years 1583 to 9999 are rare enough that they're handed to
+ * {@link Iso8601Utils}, which also handles the Julian calendar cutover the same way it always has.
+ */
+final class Iso8601Encoder {
+
+    /** Length of yyyy-MM-ddThh:mm:ss.sssZ. */
+    static final int LENGTH = 24;
+
+    /** Length of yyyy-MM-ddThh:mm:ss.fffffffffZ. */
+    static final int NANOS_LENGTH = 30;
+
+    /**
+     * Room needed by the callers' buffers, including the Calendar fallback for years with up to
+     * nine digits.
+     */
+    static final int MAX_LENGTH = NANOS_LENGTH + 5;
+
+    /** Returned by {@link #parseSecond(String)} for strings the fast path doesn't handle. */
+    static final long UNSUPPORTED = Long.MIN_VALUE;
+
+    private static final int PREFIX_LENGTH = 19;
+    private static final long SECONDS_PER_DAY = 86_400;
+    /** 1583-01-01T00:00:00Z, the first full year of the Gregorian calendar. */
+    private static final long MIN_SECOND = -12_212_553_600L;
+    /** 10000-01-01T00:00:00Z. */
+    private static final long MAX_SECOND = 253_402_300_800L;
+
+    /** The prefix of the last second that was formatted; replaced, never mutated. */
+    private static volatile Prefix cachedPrefix = new Prefix(0);
+
+    private Iso8601Encoder() {
+        throw new AssertionError("No instances");
+    }
+
+    /**
+     * Writes {@code date} as yyyy-MM-ddThh:mm:ss.sssZ into {@code buffer} starting at {@code
+     * offset}, and returns the number of chars written. The buffer must have room for {@link
+     * #MAX_LENGTH} chars.
+     */
+    static int encode(Date date, char[] buffer, int offset) {
+        long millis = date.getTime();
+        long second = floorDiv(millis, 1_000);
+        if (!supports(second)) {
+            return fallback(Iso8601Utils.formatCalendar(date), buffer, offset);
+        }
+        return encode(second, (int) (millis - second * 1_000), 3, buffer, offset);
+    }
+
+    /**
+     * Writes {@code date} as yyyy-MM-ddThh:mm:ss.fffffffffZ into {@code buffer} starting at {@code
+     * offset}, and returns the number of chars written. The buffer must have room for {@link
+     * #MAX_LENGTH} chars.
+     */
+    static int encodeNanos(Date date, char[] buffer, int offset) {
+        long second;
+        int nanoOfSecond;
+        if (date instanceof NanoDate) {
+            long nanos = ((NanoDate) date).nanos();
+            second = nanos / 1_000_000_000;
+            nanoOfSecond = (int) (nanos % 1_000_000_000);
+            if (nanos < 0) {
+                // Keep whatever the Calendar path has always produced for these.
+                second = UNSUPPORTED;
+            }
+        } else {
+            long millis = date.getTime();
+            second = floorDiv(millis, 1_000);
+            nanoOfSecond = (int) (millis - second * 1_000) * 1_000_000;
+        }
+        if (!supports(second)) {
+            return fallback(Iso8601Utils.formatNanosCalendar(date), buffer, offset);
+        }
+        return encode(second, nanoOfSecond, 9, buffer, offset);
+    }
+
+    /** Returns {@code date} formatted as yyyy-MM-ddThh:mm:ss.sssZ. */
+    static String format(Date date) {
+        char[] buffer = new char[MAX_LENGTH];
+        return new String(buffer, 0, encode(date, buffer, 0));
+    }
+
+    /** Returns {@code date} formatted as yyyy-MM-ddThh:mm:ss.fffffffffZ. */
+    static String formatNanos(Date date) {
+        char[] buffer = new char[MAX_LENGTH];
+        return new String(buffer, 0, encodeNanos(date, buffer, 0));
+    }
+
+    private static boolean supports(long second) {
+        return second >= MIN_SECOND && second < MAX_SECOND;
+    }
+
+    private static int fallback(String formatted, char[] buffer, int offset) {
+        formatted.getChars(0, formatted.length(), buffer, offset);
+        return formatted.length();
+    }
+
+    private static int encode(long second, int fraction, int digits, char[] buffer, int offset) {
+        Prefix prefix = cachedPrefix;
+        if (prefix.second != second) {
+            prefix = new Prefix(second);
+            cachedPrefix = prefix;
+        }
+        System.arraycopy(prefix.chars, 0, buffer, offset, PREFIX_LENGTH);
+        int end = offset + PREFIX_LENGTH + 1 + digits;
+        buffer[offset + PREFIX_LENGTH] = '.';
+        for (int i = end - 1; i > offset + PREFIX_LENGTH; i--) {
+            buffer[i] = (char) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        buffer[end] = 'Z';
+        return end + 1 - offset;
+    }
+
+    /**
+     * Returns the epoch second of a UTC timestamp in one of the forms we write ourselves:
+     * yyyy-MM-ddThh:mm:ssZ, yyyy-MM-ddThh:mm:ss.sssZ or yyyy-MM-ddThh:mm:ss.fffffffffZ. Returns
+     * {@link #UNSUPPORTED} for anything else, including leap seconds and invalid dates, which are
+     * left to the lenient parser.
+     */
+    static long parseSecond(String date) {
+        int length = date.length();
+        if (length != PREFIX_LENGTH + 1 && length != LENGTH && length != NANOS_LENGTH) {
+            return UNSUPPORTED;
+        }
+        if (date.charAt(4) != '-'
+                || date.charAt(7) != '-'
+                || date.charAt(10) != 'T'
+                || date.charAt(13) != ':'
+                || date.charAt(16) != ':'
+                || date.charAt(length - 1) != 'Z') {
+            return UNSUPPORTED;
+        }
+        if (length > PREFIX_LENGTH + 1) {
+            if (date.charAt(PREFIX_LENGTH) != '.'
+                    || digits(date, PREFIX_LENGTH + 1, length - 1) < 0) {
+                return UNSUPPORTED;
+            }
+        }
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 7);
+        int day = digits(date, 8, 10);
+        int hour = digits(date, 11, 13);
+        int minute = digits(date, 14, 16);
+        int second = digits(date, 17, 19);
+        if (year < 1583
+                || month < 1
+                || month > 12
+                || day < 1
+                || day > daysInMonth(year, month)
+                || hour < 0
+                || hour > 23
+                || minute < 0
+                || minute > 59
+                || second < 0
+                || second > 59) {
+            return UNSUPPORTED;
+        }
+        return daysFromCivil(year, month, day) * SECONDS_PER_DAY
+                + hour * 3_600
+                + minute * 60
+                + second;
+    }
+
+    /**
+     * Returns the fractional second of a string accepted by {@link #parseSecond(String)}, scaled
+     * to {@code precision} digits. Extra digits are truncated.
+     */
+    static int parseFraction(String date, int precision) {
+        int start = PREFIX_LENGTH + 1;
+        int end = date.length() - 1;
+        int fraction = 0;
+        for (int i = 0; i < precision; i++) {
+            int index = start + i;
+            fraction = fraction * 10 + (index < end ? date.charAt(index) - '0' : 0);
+        }
+        return fraction;
+    }
+
+    /** Returns the value of the decimal digits in {@code [start, end)}, or -1 for a non-digit. */
+    private static int digits(String s, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date, after Howard Hinnant's {@code
+     * days_from_civil}. Only valid for the positive years we support.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097L + dayOfEra - 719_468;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+
+    /** The yyyy-MM-ddThh:mm:ss chars of a single epoch second. */
+    private static final class Prefix {
+        final long second;
+        final char[] chars = new char[PREFIX_LENGTH];
+
+        Prefix(long second) {
+            this.second = second;
+            long days = floorDiv(second, SECONDS_PER_DAY);
+            int secondOfDay = (int) (second - days * SECONDS_PER_DAY);
+
+            // Howard Hinnant's civil_from_days, shifted so that years start in March.
+            long z = days + 719_468;
+            long era = z / 146_097; // z is never negative for the years we support.
+            int dayOfEra = (int) (z - era * 146_097);
+            int yearOfEra =
+                    (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+            int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+            int shiftedMonth = (5 * dayOfYear + 2) / 153;
+            int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+            int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+            int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+            put(year, 0, 4);
+            chars[4] = '-';
+            put(month, 5, 2);
+            chars[7] = '-';
+            put(day, 8, 2);
+            chars[10] = 'T';
+            put(secondOfDay / 3_600, 11, 2);
+            chars[13] = ':';
+            put(secondOfDay / 60 % 60, 14, 2);
+            chars[16] = ':';
+            put(secondOfDay % 60, 17, 2);
+        }
+
+        private void put(int value, int offset, int width) {
+            for (int i = offset + width - 1; i >= offset; i--) {
+                chars[i] = (char) ('0' + value % 10);
+                value /= 10;
+            }
+        }
+    }
+}
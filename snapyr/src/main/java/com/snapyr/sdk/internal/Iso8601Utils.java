@@ -69,6 +69,16 @@ final class Iso8601Utils {
 
     /** Returns {@code date} formatted as yyyy-MM-ddThh:mm:ss.sssZ */
     public static String format(Date date) {
+        return Iso8601Encoder.format(date);
+    }
+
+    /** Returns {@code date} formatted as yyyy-MM-ddThh:mm:ss.fffffffffZ */
+    public static String formatNanos(Date date) {
+        return Iso8601Encoder.formatNanos(date);
+    }
+
+    /** {@link #format(Date)} for dates {@link Iso8601Encoder} doesn't handle. */
+    static String formatCalendar(Date date) {
         Calendar calendar = new GregorianCalendar(TIMEZONE_Z, Locale.US);
         calendar.setTime(date);
 
@@ -92,8 +102,8 @@ final class Iso8601Utils {
         return formatted.toString();
     }
 
-    /** Returns {@code date} formatted as yyyy-MM-ddThh:mm:ss.fffffffffZ */
-    public static String formatNanos(Date date) {
+    /** {@link #formatNanos(Date)} for dates {@link Iso8601Encoder} doesn't handle. */
+    static String formatNanosCalendar(Date date) {
         Calendar calendar = new GregorianCalendar(TIMEZONE_Z, Locale.US);
         calendar.setTime(date);
 
@@ -116,7 +126,8 @@ final class Iso8601Utils {
             long nanos = ((NanoDate) date).nanos();
             padLong(formatted, nanos % 1_000_000_000, "fffffffff".length());
         } else {
-            padLong(formatted, calendar.get(Calendar.MILLISECOND), "fffffffff".length());
+            padInt(formatted, calendar.get(Calendar.MILLISECOND), "sss".length());
+            formatted.append("000000");
         }
         formatted.append('Z');
         return formatted.toString();
@@ -130,6 +141,10 @@ final class Iso8601Utils {
      * @return the parsed date
      */
     public static Date parse(String date) {
+        long second = Iso8601Encoder.parseSecond(date);
+        if (second != Iso8601Encoder.UNSUPPORTED) {
+            return new Date(second * 1_000 + Iso8601Encoder.parseFraction(date, 3));
+        }
         try {
             int offset = 0;
 
@@ -267,6 +282,10 @@ final class Iso8601Utils {
      * @return the parsed date
      */
     public static NanoDate parseWithNanos(String date) {
+        long second = Iso8601Encoder.parseSecond(date);
+        if (second != Iso8601Encoder.UNSUPPORTED) {
+            return new NanoDate(second * 1_000_000_000 + Iso8601Encoder.parseFraction(date, 9));
+        }
         try {
             int offset = 0;
 
@@ -465,18 +484,18 @@ final class Iso8601Utils {
     }
 
     /**
-     * Zero right pad a number to a specified length
+     * Zero pad a number to a specified length
      *
      * @param buffer buffer to use for padding
-     * @param value the integer value to pad if necessary.
+     * @param value the long value to pad if necessary.
      * @param length the length of the string we should zero pad
      */
     private static void padLong(StringBuilder buffer, long value, int length) {
         String strValue = Long.toString(value);
-        buffer.append(strValue);
         for (int i = length - strValue.length(); i > 0; i--) {
             buffer.append('0');
         }
+        buffer.append(strValue);
     }
 
     /**
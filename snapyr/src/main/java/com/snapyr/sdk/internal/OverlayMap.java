@@ -0,0 +1,145 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk.internal;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read-only {@link Map} view that layers one map over another. Lookups consult {@code overlay}
+ * first and fall back to {@code base}. Iteration yields the keys of {@code base} in order (with
+ * overridden values), followed by the keys that only exist in {@code overlay}, which matches the
+ * order of copying both maps into a {@link java.util.LinkedHashMap}.
+ *
+ * <p>Neither map is copied, so callers must only pass maps that won't be modified afterwards.
+ */
+public final class OverlayMap<K, V> extends AbstractMap<K, V> {
+
+    private final Map<K, V> base;
+    private final Map<K, V> overlay;
+    private Set<Entry<K, V>> entrySet;
+    private int size = -1;
+
+    public OverlayMap(Map<K, V> base, Map<K, V> overlay) {
+        this.base = base;
+        this.overlay = overlay;
+    }
+
+    @Override
+    public V get(Object key) {
+        if (overlay.containsKey(key)) {
+            return overlay.get(key);
+        }
+        return base.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return overlay.containsKey(key) || base.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        if (size < 0) {
+            int count = base.size();
+            for (K key : overlay.keySet()) {
+                if (!base.containsKey(key)) {
+                    count++;
+                }
+            }
+            size = count;
+        }
+        return size;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet =
+                    new AbstractSet<Entry<K, V>>() {
+                        @Override
+                        public Iterator<Entry<K, V>> iterator() {
+                            return new OverlayIterator();
+                        }
+
+                        @Override
+                        public int size() {
+                            return OverlayMap.this.size();
+                        }
+                    };
+        }
+        return entrySet;
+    }
+
+    private class OverlayIterator implements Iterator<Entry<K, V>> {
+
+        private final Iterator<Entry<K, V>> baseIterator = base.entrySet().iterator();
+        private final Iterator<Entry<K, V>> overlayIterator = overlay.entrySet().iterator();
+        private Entry<K, V> next;
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (baseIterator.hasNext()) {
+                Entry<K, V> entry = baseIterator.next();
+                K key = entry.getKey();
+                if (overlay.containsKey(key)) {
+                    next = new SimpleImmutableEntry<>(key, overlay.get(key));
+                } else {
+                    next = entry;
+                }
+                return true;
+            }
+            while (overlayIterator.hasNext()) {
+                Entry<K, V> entry = overlayIterator.next();
+                if (!base.containsKey(entry.getKey())) {
+                    next = entry;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<K, V> entry = next;
+            next = null;
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk.internal;
+
+import java.util.Date;
+
+/**
+ * The timestamp of a payload, kept as a date until the payload is serialized. It is written as an
+ * ISO-8601 string with millisecond or nanosecond precision, as payloads have always carried it:
+ * {@link #toString()} returns that string, and {@link #writeTo(char[], int)} writes it into a
+ * buffer without allocating. Must not be modified.
+ */
+public final class PayloadTimestamp extends NanoDate {
+
+    private final boolean nanosecondPrecision;
+
+    /** Creates the timestamp of {@code date}, truncated to milliseconds unless asked otherwise. */
+    public PayloadTimestamp(Date date, boolean nanosecondPrecision) {
+        super(
+                nanosecondPrecision && date instanceof NanoDate
+                        ? ((NanoDate) date).nanos()
+                        : date.getTime() * 1_000_000);
+        this.nanosecondPrecision = nanosecondPrecision;
+    }
+
+    /** Returns true if this timestamp is written with nanosecond rather than millisecond digits. */
+    public boolean hasNanosecondPrecision() {
+        return nanosecondPrecision;
+    }
+
+    /**
+     * Writes this timestamp into {@code buffer} starting at {@code offset}, and returns the number
+     * of chars written. The buffer must have room for {@link Utils#ISO8601_MAX_LENGTH} chars.
+     */
+    public int writeTo(char[] buffer, int offset) {
+        if (nanosecondPrecision) {
+            return Iso8601Encoder.encodeNanos(this, buffer, offset);
+        }
+        return Iso8601Encoder.encode(this, buffer, offset);
+    }
+
+    @Override
+    public String toString() {
+        if (nanosecondPrecision) {
+            return Iso8601Encoder.formatNanos(this);
+        }
+        return Iso8601Encoder.format(this);
+    }
+}
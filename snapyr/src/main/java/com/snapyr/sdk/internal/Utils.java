@@ -81,6 +81,9 @@ public final class Utils {
     public static final int DEFAULT_FLUSH_INTERVAL = 30 * 1000; // 30s
     public static final int DEFAULT_FLUSH_QUEUE_SIZE = 20;
     public static final boolean DEFAULT_COLLECT_DEVICE_ID = true;
+    public static final int DEFAULT_COALESCE_WINDOW = 0; // Disabled
+    /** Room needed for {@link #writeISO8601String(Date, char[], int)}. */
+    public static final int ISO8601_MAX_LENGTH = Iso8601Encoder.MAX_LENGTH;
 
     private Utils() {
         throw new AssertionError("No instances");
@@ -103,6 +106,15 @@ public final class Utils {
         return Iso8601Utils.format(date);
     }
 
+    /**
+     * Writes {@code date} formatted as yyyy-MM-ddThh:mm:ss.sssZ into {@code buffer} starting at
+     * {@code offset}, and returns the number of chars written. The buffer must have room for
+     * {@link #ISO8601_MAX_LENGTH} chars.
+     */
+    public static int writeISO8601String(Date date, char[] buffer, int offset) {
+        return Iso8601Encoder.encode(date, buffer, offset);
+    }
+
     /** Returns {@code date} formatted as yyyy-MM-ddThh:mm:ss.fffffffffZ */
     public static String toISO8601NanoFormattedString(Date date) {
         return Iso8601Utils.formatNanos(date);
@@ -451,8 +463,9 @@ public final class Utils {
      * JSONObject#NULL}, no wrapping is necessary. If the object is an array or {@link Collection},
      * returns an equivalent {@link JSONArray}. If the object is a {@link Map}, returns an
      * equivalent {@link JSONObject}. If the object is a primitive wrapper type or {@link String},
-     * returns the object. Otherwise returns the result of {@link Object#toString}. If wrapping
-     * fails, returns JSONObject.NULL.
+     * returns the object. If the object is any other {@link Number}, returns its value as a long if
+     * it is an integer, or as a double otherwise. Otherwise returns the result of {@link
+     * Object#toString}. If wrapping fails, returns JSONObject.NULL.
      */
     private static Object wrap(Object o) {
         if (o == null) {
@@ -490,6 +503,13 @@ public final class Utils {
                     || o instanceof String) {
                 return o;
             }
+            if (o instanceof Number) {
+                // Like the numbers decoded lazily from json, which would otherwise become strings.
+                Number number = (Number) o;
+                long longValue = number.longValue();
+                double doubleValue = number.doubleValue();
+                return longValue == doubleValue ? (Object) longValue : (Object) doubleValue;
+            }
             // Deviate from original implementation and return the String representation of the
             // object
             // regardless of package.
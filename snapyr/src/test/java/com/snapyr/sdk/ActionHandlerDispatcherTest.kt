@@ -0,0 +1,183 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.times
+import com.nhaarman.mockitokotlin2.verify
+import com.snapyr.sdk.integrations.AliasPayload
+import com.snapyr.sdk.integrations.GroupPayload
+import com.snapyr.sdk.integrations.IdentifyPayload
+import com.snapyr.sdk.integrations.ScreenPayload
+import com.snapyr.sdk.integrations.TrackPayload
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.anyLong
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class ActionHandlerDispatcherTest {
+
+    private val stats = mock<Stats>()
+
+    private fun track(event: String): TrackPayload {
+        return TrackPayload.Builder().event(event).userId("user").build()
+    }
+
+    /** Records the events it sees, after waiting for [gate] on the first one. */
+    private class RecordingHandler(val gate: CountDownLatch = CountDownLatch(0)) :
+        SnapyrActionHandler {
+
+        val events: MutableList<String> = Collections.synchronizedList(mutableListOf<String>())
+        val threads: MutableList<Thread> = Collections.synchronizedList(mutableListOf<Thread>())
+        val delivered = CountDownLatch(1)
+
+        override fun onTrack(payload: TrackPayload) {
+            gate.await()
+            events.add(payload.event())
+            threads.add(Thread.currentThread())
+            delivered.countDown()
+        }
+
+        override fun handleAction(action: SnapyrAction) {}
+        override fun onIdentify(payload: IdentifyPayload) {}
+        override fun onAlias(payload: AliasPayload) {}
+        override fun onScreen(payload: ScreenPayload) {}
+        override fun onGroup(payload: GroupPayload) {}
+    }
+
+    @Test
+    fun synchronousByDefault() {
+        val handler = RecordingHandler()
+        val dispatcher = ActionHandlerDispatcher(handler, stats)
+
+        dispatcher.dispatch(track("a"))
+
+        assertThat(handler.events).containsExactly("a")
+        assertThat(handler.threads).containsExactly(Thread.currentThread())
+        // Synchronous callbacks aren't timed, so there's nothing to post per event.
+        verify(stats, times(0)).dispatchActionHandlerCallback(anyLong(), anyLong())
+        assertThat(dispatcher.isAsync).isFalse()
+    }
+
+    @Test
+    fun asynchronousInOrder() {
+        val handler = RecordingHandler()
+        val dispatcher =
+            ActionHandlerDispatcher(handler, stats, 100, Snapyr.OverflowPolicy.BLOCK)
+
+        assertThat(dispatcher.isAsync).isTrue()
+        for (i in 0 until 50) {
+            dispatcher.dispatch(track("e$i"))
+        }
+        assertThat(handler.delivered.await(1, TimeUnit.SECONDS)).isTrue()
+        dispatcher.shutdown()
+        waitFor { handler.events.size == 50 }
+
+        assertThat(handler.events).isEqualTo((0 until 50).map { "e$it" })
+        assertThat(handler.threads).doesNotContain(Thread.currentThread())
+        verify(stats, times(50)).dispatchActionHandlerCallback(anyLong(), anyLong())
+    }
+
+    @Test
+    fun dropNewest() {
+        val gate = CountDownLatch(1)
+        val handler = RecordingHandler(gate)
+        val dispatcher =
+            ActionHandlerDispatcher(handler, stats, 2, Snapyr.OverflowPolicy.DROP_NEWEST)
+
+        dispatcher.dispatch(track("running"))
+        waitFor { dispatcher.pendingCount() == 0 }
+        for (event in listOf("a", "b", "c", "d")) {
+            dispatcher.dispatch(track(event))
+        }
+        gate.countDown()
+        waitFor { handler.events.size == 3 }
+
+        assertThat(handler.events).containsExactly("running", "a", "b")
+        verify(stats, times(2)).dispatchActionHandlerDrop()
+    }
+
+    @Test
+    fun dropOldest() {
+        val gate = CountDownLatch(1)
+        val handler = RecordingHandler(gate)
+        val dispatcher =
+            ActionHandlerDispatcher(handler, stats, 2, Snapyr.OverflowPolicy.DROP_OLDEST)
+
+        dispatcher.dispatch(track("running"))
+        waitFor { dispatcher.pendingCount() == 0 }
+        for (event in listOf("a", "b", "c", "d")) {
+            dispatcher.dispatch(track(event))
+        }
+        gate.countDown()
+        waitFor { handler.events.size == 3 }
+
+        assertThat(handler.events).containsExactly("running", "c", "d")
+        verify(stats, times(2)).dispatchActionHandlerDrop()
+    }
+
+    @Test
+    fun blockWaitsForRoom() {
+        val gate = CountDownLatch(1)
+        val handler = RecordingHandler(gate)
+        val dispatcher = ActionHandlerDispatcher(handler, stats, 1, Snapyr.OverflowPolicy.BLOCK)
+
+        dispatcher.dispatch(track("running"))
+        waitFor { dispatcher.pendingCount() == 0 }
+        dispatcher.dispatch(track("queued"))
+        val blocked = Thread { dispatcher.dispatch(track("blocked")) }
+        blocked.start()
+        blocked.join(100)
+        assertThat(blocked.isAlive).isTrue()
+
+        gate.countDown()
+        blocked.join(1000)
+        waitFor { handler.events.size == 3 }
+        assertThat(handler.events).containsExactly("running", "queued", "blocked")
+        verify(stats, times(0)).dispatchActionHandlerDrop()
+    }
+
+    @Test
+    fun withoutHandlerNothingHappens() {
+        val dispatcher = ActionHandlerDispatcher(null, stats, 1, Snapyr.OverflowPolicy.BLOCK)
+        dispatcher.dispatch(track("a"))
+        verify(stats, times(0)).dispatchActionHandlerCallback(anyLong(), anyLong())
+        verify(stats, times(0)).dispatchActionHandlerDrop()
+    }
+
+    private fun waitFor(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 2000
+        while (!condition()) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline)
+            Thread.sleep(1)
+        }
+    }
+}
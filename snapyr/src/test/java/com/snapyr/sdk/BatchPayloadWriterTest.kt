@@ -86,4 +86,52 @@ class BatchPayloadWriterTest {
             assertThat(exception).hasMessage("At least one payload must be provided.")
         }
     }
+
+    @Test
+    @Throws(IOException::class)
+    fun batchPayloadWriterSharesContext() {
+        val context = """{"os":{"name":"Android"},"locale":"en-US"}"""
+        val otherContext = """{"os":{"name":"Android"},"locale":"fr-FR"}"""
+        val byteArrayOutputStream = ByteArrayOutputStream()
+        val batchPayloadWriter = BatchPayloadWriter(byteArrayOutputStream, true)
+        batchPayloadWriter
+            .beginObject()
+            .beginBatchArray()
+            .emitPayloadObject("""{"type":"track","context":$context,"event":"a"}""")
+            .emitPayloadObject("""{"type":"track","context":$otherContext,"event":"b"}""")
+            .emitPayloadObject("""{"type":"track","context":{"locale":"en-US"},"event":"c"}""")
+            .emitPayloadObject("foobarbazqux")
+            .endBatchArray()
+            .endObject()
+            .close()
+
+        assertThat(byteArrayOutputStream.toString())
+            .contains(
+                "{\"batch\":[" +
+                    "{\"type\":\"track\",\"event\":\"a\"}," +
+                    "{\"type\":\"track\",\"context\":{\"locale\":\"fr-FR\"},\"event\":\"b\"}," +
+                    "{\"type\":\"track\",\"context\":{\"os\":null},\"event\":\"c\"}," +
+                    "foobarbazqux]," +
+                    "\"context\":{\"os\":{\"name\":\"Android\"},\"locale\":\"en-US\"}," +
+                    "\"sentAt\":\""
+            )
+        assertThat(batchPayloadWriter.sharedContextBytesSaved()).isEqualTo(31)
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun batchPayloadWriterWithoutContextToShare() {
+        val byteArrayOutputStream = ByteArrayOutputStream()
+        val batchPayloadWriter = BatchPayloadWriter(byteArrayOutputStream, true)
+        batchPayloadWriter
+            .beginObject()
+            .beginBatchArray()
+            .emitPayloadObject("{}")
+            .endBatchArray()
+            .endObject()
+            .close()
+
+        assertThat(byteArrayOutputStream.toString()).contains("{\"batch\":[{}],\"sentAt\":\"")
+        assertThat(batchPayloadWriter.sharedContextBytesSaved()).isZero()
+    }
 }
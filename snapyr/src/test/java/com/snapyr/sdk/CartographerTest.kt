@@ -34,17 +34,28 @@ import org.assertj.core.data.MapEntry
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
-import org.robolectric.RobolectricTestRunner
+import org.robolectric.ParameterizedRobolectricTestRunner
 import org.robolectric.annotation.Config
 
-@RunWith(RobolectricTestRunner::class)
+/** Runs against every [JsonEngine], so they are held to the same expectations. */
+@RunWith(ParameterizedRobolectricTestRunner::class)
 @Config(manifest = Config.NONE)
-class CartographerTest {
+class CartographerTest(@Suppress("unused") name: String, private val engine: JsonEngine) {
+    companion object {
+        @JvmStatic
+        @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+        fun engines(): List<Array<Any>> = listOf(
+            arrayOf("android", JsonEngine.ANDROID),
+            arrayOf("streaming", JsonEngine.STREAMING)
+        )
+    }
+
     lateinit var cartographer: Cartographer
 
     @Before
     fun setUp() {
-        cartographer = Cartographer.Builder().lenient(false).prettyPrint(true).build()
+        cartographer =
+            Cartographer.Builder().lenient(false).prettyPrint(true).engine(engine).build()
     }
 
     @Test
@@ -101,21 +112,72 @@ class CartographerTest {
 
         assertThat(map)
             .hasSize(9)
-            .contains(MapEntry.entry("byte", 32.0))
+            .contains(MapEntry.entry("byte", 32L))
             .contains(MapEntry.entry("boolean", true))
-            .contains(MapEntry.entry("short", 100.0))
-            .contains(MapEntry.entry("int", 1.0))
-            .contains(MapEntry.entry("long", 43.0))
+            .contains(MapEntry.entry("short", 100L))
+            .contains(MapEntry.entry("int", 1L))
+            .contains(MapEntry.entry("long", 43L))
             .contains(MapEntry.entry("float", 23.0))
             .contains(MapEntry.entry("double", Math.PI))
             .contains(MapEntry.entry("char", "a"))
             .contains(MapEntry.entry("String", "string"))
     }
 
+    @Test
+    @Throws(IOException::class)
+    fun decodesNumbersWithoutLosingPrecision() {
+        val json = """
+            |{
+            |  "id": 9007199254740993,
+            |  "timestamp": 1633046400123,
+            |  "negative": -9223372036854775808,
+            |  "huge": 12345678901234567890,
+            |  "decimal": 0.1,
+            |  "exponent": 1e2
+            |}
+            """.trimMargin()
+        val map = cartographer.fromJson(json)
+
+        assertThat(map)
+            .containsEntry("id", 9007199254740993L)
+            .containsEntry("timestamp", 1633046400123L)
+            .containsEntry("negative", Long.MIN_VALUE)
+            .containsEntry("huge", 1.2345678901234567E19)
+            .containsEntry("decimal", 0.1)
+            .containsEntry("exponent", 100.0)
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun decodesLazyNumbers() {
+        val lazy = Cartographer.Builder().lazyNumbers(true).engine(engine).build()
+        val json = """{"id":9007199254740993,"decimal":0.10,"list":[1]}"""
+        val map = lazy.fromJson(json)
+
+        assertThat(map["id"]).isInstanceOf(LazyNumber::class.java)
+        assertThat((map["id"] as Number).toLong()).isEqualTo(9007199254740993L)
+        assertThat((map["decimal"] as Number).toDouble()).isEqualTo(0.1)
+        assertThat(map["list"]).isEqualTo(listOf(1L))
+        // Literals are written back as they were read.
+        assertThat(lazy.toJson(map)).isEqualTo(json)
+    }
+
+    @Test
+    fun sharedInstancesDefaultToAndroidEngine() {
+        assertThat(Cartographer.INSTANCE.withEngine(JsonEngine.ANDROID))
+            .isSameAs(Cartographer.INSTANCE)
+        assertThat(Cartographer.SETTINGS.withEngine(JsonEngine.ANDROID))
+            .isSameAs(Cartographer.SETTINGS)
+
+        val settings = Cartographer.SETTINGS.withEngine(engine)
+        val json = "{\"plan\":{\"sampleRate\":0.5}}"
+        assertThat(settings.toJson(settings.fromJson(json))).isEqualTo(json)
+    }
+
     @Test
     @Throws(IOException::class)
     fun prettyPrintDisabled() {
-        val cartographer = Cartographer.Builder().prettyPrint(false).build()
+        val cartographer = Cartographer.Builder().prettyPrint(false).engine(engine).build()
         val map =
             ImmutableMap.builder<String, Any>()
                 .put(
@@ -0,0 +1,115 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import java.util.Random
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class CompactMapTest {
+
+    @Test
+    fun keepsInsertionOrder() {
+        val map = CompactMap<String, Any>()
+        map["b"] = 1
+        map["a"] = 2
+        map["c"] = 3
+        map["a"] = 4
+
+        assertThat(map.keys).containsExactly("b", "a", "c")
+        assertThat(map.values).containsExactly(1, 4, 3)
+        assertThat(map.toString()).isEqualTo("{b=1, a=4, c=3}")
+    }
+
+    @Test
+    fun permitsNullKeysAndValues() {
+        val map = CompactMap<String?, Any?>()
+        map[null] = "null key"
+        map["null value"] = null
+
+        assertThat(map[null]).isEqualTo("null key")
+        assertThat(map).containsKey("null value")
+        assertThat(map["null value"]).isNull()
+        assertThat(map.remove(null)).isEqualTo("null key")
+        assertThat(map).hasSize(1)
+    }
+
+    @Test
+    fun iteratorRemovesAndSetsValues() {
+        val map = CompactMap<String, Int>()
+        for (i in 0 until 40) {
+            map["key $i"] = i
+        }
+        val iterator = map.entries.iterator()
+        while (iterator.hasNext()) {
+            val entry = iterator.next()
+            if (entry.value % 2 == 0) {
+                iterator.remove()
+            } else {
+                entry.setValue(-entry.value)
+            }
+        }
+
+        assertThat(map).hasSize(20)
+        assertThat(map["key 0"]).isNull()
+        assertThat(map["key 39"]).isEqualTo(-39)
+        assertThat(map.keys.first()).isEqualTo("key 1")
+    }
+
+    @Test
+    fun behavesLikeLinkedHashMap() {
+        val random = Random(42)
+        for (round in 0 until 200) {
+            val compact = CompactMap<String?, Int?>()
+            val linked = LinkedHashMap<String?, Int?>()
+            // Vary the number of distinct keys so maps cross LINEAR_SCAN_LIMIT in both directions.
+            val keys = 1 + random.nextInt(4 * CompactMap.LINEAR_SCAN_LIMIT)
+            for (op in 0 until 200) {
+                val key = if (random.nextInt(20) == 0) null else "key " + random.nextInt(keys)
+                when (random.nextInt(4)) {
+                    0, 1 -> assertThat(compact.put(key, op)).isEqualTo(linked.put(key, op))
+                    2 -> assertThat(compact.remove(key)).isEqualTo(linked.remove(key))
+                    else -> assertThat(compact[key]).isEqualTo(linked[key])
+                }
+                assertThat(compact).isEqualTo(linked)
+                assertThat(compact.hashCode()).isEqualTo(linked.hashCode())
+                assertThat(compact.toString()).isEqualTo(linked.toString())
+            }
+        }
+    }
+
+    @Test
+    fun valueMapDefaultsToCompactMap() {
+        val properties = Properties().putValue("foo", "bar").putValue("baz", 1)
+
+        assertThat(properties).isEqualTo(linkedMapOf("foo" to "bar", "baz" to 1))
+        assertThat(Cartographer.INSTANCE.toJson(properties))
+            .isEqualTo("{\"foo\":\"bar\",\"baz\":1}")
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import android.content.Intent
+import android.content.res.Configuration
+import android.net.ConnectivityManager
+import java.util.Locale
+import java.util.TimeZone
+import java.util.concurrent.Executor
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class ContextProvidersTest {
+    private lateinit var context: SnapyrContext
+    private lateinit var providers: ContextProviders
+    private lateinit var defaultLocale: Locale
+    private lateinit var defaultTimeZone: TimeZone
+
+    @Before
+    fun setUp() {
+        defaultLocale = Locale.getDefault()
+        defaultTimeZone = TimeZone.getDefault()
+        context = SnapyrContext.create(RuntimeEnvironment.application, Traits.create(), false)
+        providers =
+            ContextProviders(RuntimeEnvironment.application, context, Executor { it.run() })
+    }
+
+    @After
+    fun tearDown() {
+        Locale.setDefault(defaultLocale)
+        TimeZone.setDefault(defaultTimeZone)
+    }
+
+    @Test
+    fun timezoneChangeRefreshesTimezone() {
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Auckland"))
+
+        providers.onReceive(
+            RuntimeEnvironment.application, Intent(Intent.ACTION_TIMEZONE_CHANGED)
+        )
+
+        assertThat(context.snapshot()).containsEntry("timezone", "Pacific/Auckland")
+    }
+
+    @Test
+    fun configurationChangeRefreshesLocale() {
+        Locale.setDefault(Locale.CANADA_FRENCH)
+
+        providers.onConfigurationChanged(Configuration())
+
+        assertThat(context.snapshot()).containsEntry("locale", "fr-CA")
+    }
+
+    @Test
+    fun unchangedValuesKeepSnapshot() {
+        val snapshot = context.snapshot()
+
+        providers.onConfigurationChanged(Configuration())
+        providers.onReceive(
+            RuntimeEnvironment.application, Intent(ConnectivityManager.CONNECTIVITY_ACTION)
+        )
+
+        assertThat(context.snapshot()).isSameAs(snapshot)
+    }
+
+    @Test
+    fun pendingRefreshIsShared() {
+        val tasks = mutableListOf<Runnable>()
+        providers =
+            ContextProviders(RuntimeEnvironment.application, context, Executor { tasks.add(it) })
+
+        providers.onReceive(
+            RuntimeEnvironment.application, Intent(ConnectivityManager.CONNECTIVITY_ACTION)
+        )
+        providers.onReceive(
+            RuntimeEnvironment.application, Intent(ConnectivityManager.CONNECTIVITY_ACTION)
+        )
+        assertThat(tasks).hasSize(1)
+
+        tasks.removeAt(0).run()
+        providers.onReceive(
+            RuntimeEnvironment.application, Intent(ConnectivityManager.CONNECTIVITY_ACTION)
+        )
+        assertThat(tasks).hasSize(1)
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import com.nhaarman.mockitokotlin2.eq
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.verifyNoMoreInteractions
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.anyLong
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class EdgeFunctionsTest {
+
+    private val stats = mock<Stats>()
+
+    companion object {
+        /** Generous enough for a cold JVM, so the budget doesn't cut these tests short. */
+        const val BUDGET = 10_000_000
+    }
+
+    private fun compile(json: String): EdgeFunctions {
+        return EdgeFunctions.compile(ProjectSettings.create(Cartographer.INSTANCE.fromJson(json)))
+    }
+
+    @Test
+    fun withoutRulesPropertiesAreUntouched() {
+        val properties = Properties().putValue("foo", "bar")
+        for (functions in listOf(
+            EdgeFunctions.compile(null),
+            compile("{}"),
+            compile("""{"edgeFunction":{"rules":[{"op":"unknown","property":"foo"}]}}""")
+        )) {
+            assertThat(functions.apply("foo", properties, null, stats)).isSameAs(properties)
+        }
+        // Nothing ran, so nothing was timed.
+        verifyNoMoreInteractions(stats)
+    }
+
+    @Test
+    fun operations() {
+        val functions = compile(
+            """
+            |{"edgeFunction":{"budgetMicros":$BUDGET,"rules":[
+            |  {"op":"rename","from":"total","to":"revenue"},
+            |  {"op":"drop","property":"debug"},
+            |  {"op":"hash","property":"email"},
+            |  {"op":"enrich","property":"plan","trait":"plan"},
+            |  {"op":"enrich","property":"missing","trait":"missing"}
+            |]}}
+            """.trimMargin()
+        )
+        val properties = Properties()
+            .putValue("total", 10)
+            .putValue("debug", true)
+            .putValue("email", "a@b.c")
+        val traits = Traits().putValue("plan", "pro")
+
+        val transformed = functions.apply("Order Completed", properties, traits, stats)
+
+        assertThat(transformed).containsOnlyKeys("revenue", "email", "plan")
+        assertThat(transformed)
+            .containsEntry("revenue", 10)
+            .containsEntry(
+                "email", "d648b243a3e817eaa3309e00e183483f2867baadf522099f0c2121770536b25a"
+            )
+            .containsEntry("plan", "pro")
+        // The original properties are left alone.
+        assertThat(properties).containsOnlyKeys("total", "debug", "email")
+    }
+
+    @Test
+    fun rulesAreScopedToEvents() {
+        val functions = compile(
+            """
+            |{"edgeFunction":{"budgetMicros":$BUDGET,"rules":[
+            |  {"op":"rename","event":"a","from":"x","to":"y"},
+            |  {"op":"rename","from":"y","to":"z"},
+            |  {"op":"drop","event":"b","property":"x"}
+            |]}}
+            """.trimMargin()
+        )
+        val properties = Properties().putValue("x", 1)
+
+        assertThat(functions.apply("a", properties, null, stats)).containsOnlyKeys("z")
+        assertThat(functions.apply("b", properties, null, stats)).isEmpty()
+        assertThat(functions.apply("c", properties, null, stats)).containsOnlyKeys("x")
+    }
+
+    @Test
+    fun budgetAndTiming() {
+        val functions = compile(
+            """
+            |{"edgeFunction":{"budgetMicros":0,"rules":[
+            |  {"op":"rename","from":"mail","to":"email"},
+            |  {"op":"hash","property":"email"},
+            |  {"op":"drop","property":"debug"},
+            |  {"op":"rename","from":"total","to":"revenue"},
+            |  {"op":"enrich","property":"plan","trait":"plan"}
+            |]}}
+            """.trimMargin()
+        )
+        val properties = Properties()
+            .putValue("mail", "a@b.c")
+            .putValue("debug", true)
+            .putValue("total", 10)
+
+        val transformed =
+            functions.apply("foo", properties, Traits().putValue("plan", "pro"), stats)
+
+        // Hash and drop, and the rename feeding the hash, run even though the budget is used
+        // up; the operations after them are skipped.
+        assertThat(transformed).containsOnlyKeys("email", "total")
+        assertThat(transformed).containsEntry(
+            "email", "d648b243a3e817eaa3309e00e183483f2867baadf522099f0c2121770536b25a"
+        )
+        verify(stats).dispatchEdgeFunctions(anyLong(), eq(true))
+    }
+}
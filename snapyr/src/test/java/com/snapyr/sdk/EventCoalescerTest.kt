@@ -0,0 +1,98 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class EventCoalescerTest {
+
+    private val window = 500 * 1000000L
+    private val coalescer = EventCoalescer(500)
+
+    @Test
+    fun duplicatesWithinWindowAreCoalesced() {
+        val key = EventCoalescer.key("track", "foo", Properties().putValue("a", 1))
+        assertThat(coalescer.isDuplicate(key, 0)).isFalse
+        assertThat(coalescer.isDuplicate(key, 1)).isTrue
+        assertThat(coalescer.isDuplicate(key, window - 1)).isTrue
+    }
+
+    @Test
+    fun windowStartsAtFirstOccurrence() {
+        val key = EventCoalescer.key("track", "foo", null)
+        assertThat(coalescer.isDuplicate(key, 0)).isFalse
+        assertThat(coalescer.isDuplicate(key, window / 2)).isTrue
+        // Repeats don't extend the window, so a steady stream is sampled once per window.
+        assertThat(coalescer.isDuplicate(key, window)).isFalse
+        assertThat(coalescer.isDuplicate(key, window + 1)).isTrue
+    }
+
+    @Test
+    fun distinctEventsAreKept() {
+        val keys = longArrayOf(
+            EventCoalescer.key("track", "foo", Properties().putValue("a", 1)),
+            EventCoalescer.key("track", "foo", Properties().putValue("a", 2)),
+            EventCoalescer.key("track", "bar", Properties().putValue("a", 1)),
+            EventCoalescer.key("screen", "foo", Properties().putValue("a", 1))
+        )
+        for (key in keys) {
+            assertThat(coalescer.isDuplicate(key, 0)).isFalse
+        }
+        assertThat(keys.distinct()).hasSize(keys.size)
+    }
+
+    @Test
+    fun keyIgnoresPropertyOrder() {
+        val a = Properties().putValue("a", 1).putValue("b", 2)
+        val b = Properties().putValue("b", 2).putValue("a", 1)
+        assertThat(EventCoalescer.key("track", "foo", a))
+            .isEqualTo(EventCoalescer.key("track", "foo", b))
+    }
+
+    @Test
+    fun fullTableEvictsOldestEntries() {
+        // Many more distinct events than slots, none of them may be reported as a duplicate.
+        for (i in 0 until 10000) {
+            val key = EventCoalescer.key("track", "event $i", null)
+            assertThat(coalescer.isDuplicate(key, i.toLong())).isFalse
+        }
+        // The most recent event is still remembered.
+        val last = EventCoalescer.key("track", "event 9999", null)
+        assertThat(coalescer.isDuplicate(last, 10000)).isTrue
+    }
+
+    @Test
+    fun zeroWindowDisablesCoalescing() {
+        val disabled = EventCoalescer(0)
+        assertThat(disabled.isEnabled).isFalse
+        assertThat(disabled.isDuplicate("track", "foo", null)).isFalse
+        assertThat(disabled.isDuplicate("track", "foo", null)).isFalse
+    }
+}
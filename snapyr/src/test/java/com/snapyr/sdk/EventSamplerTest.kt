@@ -0,0 +1,111 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import java.util.Random
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.data.Offset
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class EventSamplerTest {
+
+    private val sampler = EventSampler(Random(42))
+
+    private fun settings(json: String): ProjectSettings {
+        return ProjectSettings.create(Cartographer.INSTANCE.fromJson(json))
+    }
+
+    @Test
+    fun eventsWithoutRulesAreRecorded() {
+        assertThat(sampler.sample(null, "foo")).isEqualTo(1.0)
+        assertThat(sampler.sample(settings("{}"), "foo")).isEqualTo(1.0)
+        val settings = settings("""{"sampling":{"events":{"bar":{"sampleRate":0}}}}""")
+        assertThat(sampler.sample(settings, "foo")).isEqualTo(1.0)
+    }
+
+    @Test
+    fun sampleRate() {
+        val settings = settings("""{"sampling":{"events":{"foo":{"sampleRate":0.25}}}}""")
+
+        var kept = 0
+        for (i in 0 until 10000) {
+            val sampleRate = sampler.sample(settings, "foo")
+            if (sampleRate != EventSampler.DROP) {
+                assertThat(sampleRate).isEqualTo(0.25)
+                kept++
+            }
+        }
+        assertThat(kept.toDouble()).isCloseTo(2500.0, Offset.offset(250.0))
+    }
+
+    @Test
+    fun zeroSampleRateDropsEverything() {
+        val settings = settings("""{"sampling":{"events":{"foo":{"sampleRate":0}}}}""")
+
+        for (i in 0 until 100) {
+            assertThat(sampler.sample(settings, "foo")).isEqualTo(EventSampler.DROP)
+        }
+    }
+
+    @Test
+    fun rateLimit() {
+        val settings = settings(
+            """{"sampling":{"events":{"foo":{"limit":{"capacity":2,"refillPerSecond":0}}}}}"""
+        )
+
+        assertThat(sampler.sample(settings, "foo")).isEqualTo(1.0)
+        assertThat(sampler.sample(settings, "foo")).isEqualTo(1.0)
+        assertThat(sampler.sample(settings, "foo")).isEqualTo(EventSampler.DROP)
+        assertThat(sampler.sample(settings, "bar")).isEqualTo(1.0)
+    }
+
+    @Test
+    fun rulesAreUpdatedWithSettings() {
+        val dropAll = settings("""{"sampling":{"events":{"foo":{"sampleRate":0}}}}""")
+        assertThat(sampler.sample(dropAll, "foo")).isEqualTo(EventSampler.DROP)
+
+        val keepAll = settings("""{"sampling":{"events":{"foo":{"sampleRate":1}}}}""")
+        assertThat(sampler.sample(keepAll, "foo")).isEqualTo(1.0)
+    }
+
+    @Test
+    fun tokenBucketRefills() {
+        val bucket = EventSampler.TokenBucket(2.0, 1.0)
+
+        assertThat(bucket.tryAcquire(0)).isTrue()
+        assertThat(bucket.tryAcquire(0)).isTrue()
+        assertThat(bucket.tryAcquire(0)).isFalse()
+        assertThat(bucket.tryAcquire(500_000_000)).isFalse()
+        assertThat(bucket.tryAcquire(1_000_000_000)).isTrue()
+        // Never refills beyond its capacity.
+        assertThat(bucket.tryAcquire(10_000_000_000)).isTrue()
+        assertThat(bucket.tryAcquire(10_000_000_000)).isTrue()
+        assertThat(bucket.tryAcquire(10_000_000_000)).isFalse()
+    }
+}
@@ -29,6 +29,7 @@ import android.provider.Settings.Secure
 import com.snapyr.sdk.integrations.Logger
 import java.util.concurrent.CountDownLatch
 import org.assertj.core.api.Assertions.assertThat
+import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
@@ -38,6 +39,13 @@ import org.robolectric.annotation.Config
 @RunWith(RobolectricTestRunner::class)
 @Config(manifest = Config.NONE)
 class GetAdvertisingIdTest {
+    private lateinit var store: StateStore
+
+    @Before
+    fun setUp() {
+        store = StateStore(RuntimeEnvironment.application, "advertising-id-test")
+        store.remove(GetAdvertisingIdTask.CACHE_KEY)
+    }
 
     @Test
     @Throws(Exception::class)
@@ -47,9 +55,15 @@ class GetAdvertisingIdTest {
         val context: SnapyrContext =
             SnapyrContext.create(RuntimeEnvironment.application, traits, true)
         val task =
-            GetAdvertisingIdTask(context, latch, Logger.with(Snapyr.LogLevel.VERBOSE))
-        task.execute(RuntimeEnvironment.application)
-        latch.await()
+            GetAdvertisingIdTask(
+                RuntimeEnvironment.application,
+                context,
+                store,
+                latch,
+                Logger.with(Snapyr.LogLevel.VERBOSE)
+            )
+        task.run()
+        assertThat(latch.count).isEqualTo(0)
         assertThat(context.device()).doesNotContainKey("advertisingId")
     }
 
@@ -66,9 +80,11 @@ class GetAdvertisingIdTest {
             SnapyrContext.create(RuntimeEnvironment.application, traits, true)
 
         val task =
-            GetAdvertisingIdTask(analyticsContext, latch, Logger.with(Snapyr.LogLevel.VERBOSE))
-        task.execute(context)
-        latch.await()
+            GetAdvertisingIdTask(
+                context, analyticsContext, store, latch, Logger.with(Snapyr.LogLevel.VERBOSE)
+            )
+        task.run()
+        assertThat(latch.count).isEqualTo(0)
 
         assertThat(analyticsContext.device()).doesNotContainKey("advertisingId")
         assertThat(analyticsContext.device()).containsEntry("adTrackingEnabled", false)
@@ -89,12 +105,109 @@ class GetAdvertisingIdTest {
             SnapyrContext.create(RuntimeEnvironment.application, traits, true)
 
         val task =
-            GetAdvertisingIdTask(analyticsContext, latch, Logger.with(Snapyr.LogLevel.VERBOSE))
-        task.execute(context)
-        latch.await()
+            GetAdvertisingIdTask(
+                context, analyticsContext, store, latch, Logger.with(Snapyr.LogLevel.VERBOSE)
+            )
+        task.run()
+        assertThat(latch.count).isEqualTo(0)
 
         assertThat(analyticsContext.device())
             .containsEntry("advertisingId", "df07c7dc-cea7-4a89-b328-810ff5acb15d")
         assertThat(analyticsContext.device()).containsEntry("adTrackingEnabled", true)
     }
+
+    @Test
+    @Throws(Exception::class)
+    fun fetchedInfoIsAttachedOnNextLaunch() {
+        val contentResolver = RuntimeEnvironment.application.contentResolver
+        Secure.putInt(contentResolver, "limit_ad_tracking", 0)
+        Secure.putString(contentResolver, "advertising_id", "df07c7dc-cea7-4a89-b328-810ff5acb15d")
+        val logger = Logger.with(Snapyr.LogLevel.VERBOSE)
+        GetAdvertisingIdTask(
+            RuntimeEnvironment.application,
+            SnapyrContext.create(RuntimeEnvironment.application, Traits.create(), true),
+            store,
+            CountDownLatch(1),
+            logger
+        )
+            .run()
+
+        val nextLaunch =
+            SnapyrContext.create(RuntimeEnvironment.application, Traits.create(), true)
+        val snapshot = nextLaunch.snapshot()
+        assertThat(GetAdvertisingIdTask.attachCached(nextLaunch, store, logger)).isTrue
+
+        assertThat(nextLaunch.device())
+            .containsEntry("advertisingId", "df07c7dc-cea7-4a89-b328-810ff5acb15d")
+        assertThat(nextLaunch.device()).containsEntry("adTrackingEnabled", true)
+        assertThat(nextLaunch.snapshot()).isNotSameAs(snapshot)
+    }
+
+    @Test
+    @Throws(Exception::class)
+    fun limitingAdTrackingReplacesCachedId() {
+        val contentResolver = RuntimeEnvironment.application.contentResolver
+        val logger = Logger.with(Snapyr.LogLevel.VERBOSE)
+        val context = SnapyrContext.create(RuntimeEnvironment.application, Traits.create(), true)
+        Secure.putInt(contentResolver, "limit_ad_tracking", 0)
+        Secure.putString(contentResolver, "advertising_id", "df07c7dc-cea7-4a89-b328-810ff5acb15d")
+        GetAdvertisingIdTask(
+            RuntimeEnvironment.application, context, store, CountDownLatch(1), logger
+        )
+            .run()
+
+        Secure.putInt(contentResolver, "limit_ad_tracking", 1)
+        GetAdvertisingIdTask(
+            RuntimeEnvironment.application, context, store, CountDownLatch(1), logger
+        )
+            .run()
+
+        assertThat(context.device()).doesNotContainKey("advertisingId")
+        val nextLaunch =
+            SnapyrContext.create(RuntimeEnvironment.application, Traits.create(), true)
+        assertThat(GetAdvertisingIdTask.attachCached(nextLaunch, store, logger)).isTrue
+        assertThat(nextLaunch.device()).doesNotContainKey("advertisingId")
+        assertThat(nextLaunch.device()).containsEntry("adTrackingEnabled", false)
+    }
+
+    @Test
+    @Throws(Exception::class)
+    fun fetchFinishingAfterTimeoutIsStillAttached() {
+        val contentResolver = RuntimeEnvironment.application.contentResolver
+        Secure.putInt(contentResolver, "limit_ad_tracking", 0)
+        Secure.putString(contentResolver, "advertising_id", "df07c7dc-cea7-4a89-b328-810ff5acb15d")
+        val context = SnapyrContext.create(RuntimeEnvironment.application, Traits.create(), true)
+        val latch = CountDownLatch(1)
+        val task = GetAdvertisingIdTask(
+            RuntimeEnvironment.application,
+            context,
+            store,
+            latch,
+            Logger.with(Snapyr.LogLevel.VERBOSE)
+        )
+
+        task.timeOut()
+        assertThat(latch.count).isEqualTo(0)
+        assertThat(context.device()).doesNotContainKey("advertisingId")
+
+        // The fetch is still newer than the stored info.
+        task.run()
+        assertThat(context.device())
+            .containsEntry("advertisingId", "df07c7dc-cea7-4a89-b328-810ff5acb15d")
+        assertThat(store.get(GetAdvertisingIdTask.CACHE_KEY)).isNotNull()
+    }
+
+    @Test
+    @Throws(Exception::class)
+    fun nothingCached() {
+        val context = SnapyrContext.create(RuntimeEnvironment.application, Traits.create(), true)
+
+        assertThat(
+                GetAdvertisingIdTask.attachCached(
+                    context, store, Logger.with(Snapyr.LogLevel.VERBOSE)
+                )
+            )
+            .isFalse
+        assertThat(context.device()).doesNotContainKey("adTrackingEnabled")
+    }
 }
@@ -0,0 +1,181 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import java.io.FilterReader
+import java.io.Reader
+import java.io.StringReader
+import java.io.StringWriter
+import java.util.Date
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+/** Checks that [JsonEngine.STREAMING] reads and writes exactly like [JsonEngine.ANDROID]. */
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class JsonEngineTest {
+
+    private val documents = listOf(
+        "{}",
+        "[]",
+        """{"a":1,"b":-2.5,"c":1e3,"d":-0.0,"e":12345678901234567890,"f":1E-7}""",
+        """{"a":true,"b":false,"c":null,"d":"","e":[],"f":{}}""",
+        """ { "a" : [ 1 , [ 2 , { "b" : [ ] } ] ] , "c" : "d" } """,
+        """{"escapes":"\" \\ \/ \b \f \n \r \t ${"\u00e9"} ${"\u2028"} ${"\ud83d\ude00"} \q"}""",
+        """{"raw":"tab	newline
+ \u0000"}""",
+        """{"duplicate":1,"duplicate":2}""",
+        """[{"type":"track","event":"a"},{"type":"track","event":"b"}]""",
+        // Lenient syntax, rejected by strict readers.
+        """{'single':'quoted'}""",
+        """{unquoted:value,other:NaN}""",
+        """{"a":TRUE,"b":False,"c":NULL}""",
+        """{"a":01,"b":1.,"c":.5,"d":+1,"e":1e}""",
+        "\"top level string\"",
+        "42",
+        // Malformed in any mode.
+        "",
+        "{",
+        """{"a"}""",
+        """{"a":1,}""",
+        """{"a":1 "b":2}""",
+        """{"a":[1,2}""",
+        """{"a":"unterminated}""",
+        """{"a":"\u12"}"""
+    )
+
+    private fun read(engine: JsonEngine, json: String, lenient: Boolean, chunked: Boolean): Any? {
+        var reader: Reader = StringReader(json)
+        if (chunked) {
+            // Hand out a char at a time, so every token straddles a buffer refill.
+            reader = object : FilterReader(reader) {
+                override fun read(cbuf: CharArray, off: Int, len: Int): Int {
+                    return super.read(cbuf, off, minOf(len, 1))
+                }
+            }
+        }
+        return try {
+            engine.readValue(reader, lenient, false)
+        } catch (e: Exception) {
+            // Messages differ between engines, the kind of failure must not.
+            e is java.io.IOException || e is IllegalStateException || e is NumberFormatException
+        }
+    }
+
+    @Test
+    fun readsLikeAndroid() {
+        for (json in documents) {
+            for (lenient in listOf(true, false)) {
+                val expected = read(JsonEngine.ANDROID, json, lenient, false)
+                assertThat(read(JsonEngine.STREAMING, json, lenient, false))
+                    .describedAs("%s, lenient %s", json, lenient)
+                    .isEqualTo(expected)
+                assertThat(read(JsonEngine.STREAMING, json, lenient, true))
+                    .describedAs("%s, lenient %s, chunked", json, lenient)
+                    .isEqualTo(expected)
+            }
+        }
+    }
+
+    @Test
+    fun readsObjectsLikeAndroid() {
+        val json = """{"a":{"b":[1,"c",null]}}"""
+        assertThat(JsonEngine.STREAMING.readObject(StringReader(json), false, false))
+            .isEqualTo(JsonEngine.ANDROID.readObject(StringReader(json), false, false))
+    }
+
+    @Test
+    fun readsLargeDocuments() {
+        val json = StringBuilder("{")
+        for (i in 0 until 2000) {
+            if (i > 0) json.append(',')
+            json.append("\"key").append(i % 10).append(i).append("\":")
+            json.append("{\"name\":\"").append("x".repeat(i)).append("\",\"value\":").append(i)
+            json.append('}')
+        }
+        json.append('}')
+        val expected = JsonEngine.ANDROID.readObject(StringReader(json.toString()), false, false)
+        assertThat(JsonEngine.STREAMING.readObject(StringReader(json.toString()), false, false))
+            .isEqualTo(expected)
+    }
+
+    private fun write(engine: JsonEngine, map: Map<*, *>, prettyPrint: Boolean): String {
+        val writer = StringWriter()
+        engine.write(map, writer, true, prettyPrint)
+        return writer.toString()
+    }
+
+    @Test
+    fun writesLikeAndroid() {
+        val control = StringBuilder()
+        for (c in 0 until 0x20) {
+            control.append(c.toChar())
+        }
+        val map = linkedMapOf<String, Any?>(
+            "null" to null,
+            "boolean" to true,
+            "int" to Int.MIN_VALUE,
+            "long" to Long.MAX_VALUE,
+            "float" to 1.1f,
+            "double" to -1.0e-300,
+            "nan" to Double.NaN,
+            "infinity" to Float.POSITIVE_INFINITY,
+            "string" to "quote \" backslash \\ slash / \u2028 \u2029 \u00e9 \ud83d\ude00",
+            "control" to control.toString(),
+            "char" to 'c',
+            "object" to Date(0),
+            "empty list" to listOf<Any>(),
+            "empty map" to mapOf<String, Any>(),
+            "list" to listOf(1, listOf(2, listOf<Any>()), mapOf("a" to listOf(null))),
+            "objects" to arrayOf("a", null, 1),
+            "ints" to intArrayOf(1, -2),
+            "longs" to longArrayOf(Long.MIN_VALUE),
+            "doubles" to doubleArrayOf(0.1, Double.NEGATIVE_INFINITY),
+            "floats" to floatArrayOf(0.1f),
+            "booleans" to booleanArrayOf(true, false),
+            "shorts" to shortArrayOf(-1),
+            "bytes" to byteArrayOf(127),
+            "chars" to charArrayOf('a', '"'),
+            "empty array" to IntArray(0),
+            "nested" to mapOf("a" to mapOf("b" to mapOf<String, Any>()))
+        )
+        for (prettyPrint in listOf(true, false)) {
+            assertThat(write(JsonEngine.STREAMING, map, prettyPrint))
+                .isEqualTo(write(JsonEngine.ANDROID, map, prettyPrint))
+        }
+    }
+
+    @Test
+    fun writesLargeDocumentsLikeAndroid() {
+        val map = linkedMapOf<String, Any?>()
+        for (i in 0 until 1000) {
+            map["key$i"] = listOf("value".repeat(i % 50), i, mapOf("nested" to i * 0.5))
+        }
+        assertThat(write(JsonEngine.STREAMING, map, false))
+            .isEqualTo(write(JsonEngine.ANDROID, map, false))
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import java.io.IOException
+import java.io.StringReader
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class LazyJsonObjectTest {
+
+    private val json =
+        """
+        |{
+        |  "integrations": {"Snapyr": {"apiKey": "x", "flushAt": 20}},
+        |  "plan": {"track": {"Completed": {"enabled": false}}},
+        |  "metadata": {"pushTemplates": [{"id": "a", "actions": []}]},
+        |  "escaped": "a\"b\\c\u00e9",
+        |  "n\u0061me": "escaped name",
+        |  "number": 1.50,
+        |  "flag": true,
+        |  "missing": null,
+        |  "flag": false
+        |}
+        """.trimMargin()
+
+    @Test
+    fun equalsEagerlyDecodedObject() {
+        val lazy = LazyJsonObject.parse(json)
+        val eager = JsonEngine.STREAMING.readObject(StringReader(json), false, true)
+
+        assertThat(lazy).isEqualTo(eager)
+        assertThat(eager).isEqualTo(lazy)
+        assertThat(lazy.hashCode()).isEqualTo(eager.hashCode())
+        assertThat(lazy.keys).containsExactlyElementsOf(eager.keys)
+    }
+
+    @Test
+    fun decodesValues() {
+        val lazy = LazyJsonObject.parse(json)
+
+        assertThat(lazy).hasSize(8)
+        assertThat(lazy["escaped"]).isEqualTo("a\"b\\c\u00e9")
+        assertThat(lazy["name"]).isEqualTo("escaped name")
+        assertThat(lazy["number"]).isEqualTo(1.5)
+        assertThat(lazy["number"].toString()).isEqualTo("1.50")
+        assertThat(lazy["flag"]).isEqualTo(false)
+        assertThat(lazy).containsKey("missing")
+        assertThat(lazy["missing"]).isNull()
+        assertThat(lazy["unknown"]).isNull()
+    }
+
+    @Test
+    fun decodesNestedObjectsLazily() {
+        val lazy = LazyJsonObject.parse(json)
+
+        val integrations = lazy["integrations"]
+        assertThat(integrations).isInstanceOf(LazyJsonObject::class.java)
+        assertThat(lazy["integrations"]).isSameAs(integrations)
+        assertThat(ValueMap(lazy).getValueMap("integrations")!!.getValueMap("Snapyr"))
+            .isEqualTo(mapOf("apiKey" to "x", "flushAt" to 20L))
+    }
+
+    @Test
+    fun decodesArraysIntoArrayLists() {
+        val metadata = LazyJsonObject.parse(json)["metadata"] as Map<*, *>
+        val templates = metadata["pushTemplates"]
+
+        assertThat(templates).isInstanceOf(ArrayList::class.java)
+        assertThat(templates as List<*>)
+            .containsExactly(mapOf("id" to "a", "actions" to listOf<Any>()))
+    }
+
+    @Test(expected = UnsupportedOperationException::class)
+    fun isReadOnly() {
+        LazyJsonObject.parse(json)["foo"] = "bar"
+    }
+
+    @Test(expected = IOException::class)
+    fun rejectsMalformedObject() {
+        LazyJsonObject.parse("{\"a\":1")
+    }
+
+    @Test(expected = IOException::class)
+    fun parseCheckedRejectsMalformedNestedValues() {
+        LazyJsonObject.parseChecked("{\"a\":{\"b\":[1 2]}}")
+    }
+
+    @Test
+    fun concurrentReadsObserveSameValue() {
+        val lazy = LazyJsonObject.parse(json)
+        val executor = Executors.newFixedThreadPool(4)
+        val start = CountDownLatch(1)
+        val futures = ArrayList<Future<Any?>>()
+        for (i in 0 until 8) {
+            futures.add(
+                executor.submit<Any?> {
+                    start.await()
+                    lazy["plan"]
+                }
+            )
+        }
+        start.countDown()
+
+        val plan = futures[0].get(5, TimeUnit.SECONDS)
+        for (future in futures) {
+            assertThat(future.get(5, TimeUnit.SECONDS)).isSameAs(plan)
+        }
+        executor.shutdown()
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class LazyNumberTest {
+
+    @Test
+    fun parse() {
+        assertThat(LazyNumber.parse("0")).isEqualTo(0L)
+        assertThat(LazyNumber.parse("-42")).isEqualTo(-42L)
+        assertThat(LazyNumber.parse("9223372036854775807")).isEqualTo(Long.MAX_VALUE)
+        assertThat(LazyNumber.parse("9223372036854775808")).isEqualTo(9.223372036854775808E18)
+        assertThat(LazyNumber.parse("1.5")).isEqualTo(1.5)
+        assertThat(LazyNumber.parse("1e3")).isEqualTo(1000.0)
+        assertThat(LazyNumber.parse("1.")).isEqualTo(1.0)
+    }
+
+    @Test
+    fun lazyNumber() {
+        val number = LazyNumber("1633046400123")
+        assertThat(number.toString()).isEqualTo("1633046400123")
+        assertThat(number.toLong()).isEqualTo(1633046400123L)
+        assertThat(number.toInt()).isEqualTo(1633046400123L.toInt())
+        assertThat(number.toDouble()).isEqualTo(1.633046400123E12)
+        assertThat(number).isEqualTo(1633046400123L).isEqualTo(LazyNumber("1633046400123"))
+        assertThat(number.hashCode()).isEqualTo(1633046400123L.hashCode())
+        assertThat(LazyNumber("2.50")).isEqualTo(2.5).isNotEqualTo(LazyNumber("2"))
+    }
+
+    @Test
+    fun equalsIsOneWayWithOtherNumbers() {
+        val number = LazyNumber("42")
+        assertThat(number.equals(42L)).isTrue()
+        assertThat(42L.equals(number)).isFalse()
+        assertThat(number.equals(42)).isFalse()
+        // Maps holding them compare the same way.
+        assertThat(mapOf("a" to number)).isEqualTo(mapOf("a" to 42L))
+        assertThat(mapOf("a" to 42L)).isNotEqualTo(mapOf("a" to number))
+        assertThat(mapOf("a" to 42L)).isEqualTo(mapOf("a" to number.toLong()))
+    }
+
+    @Test(expected = NumberFormatException::class)
+    fun strictDecodeRejectsInfinity() {
+        LazyNumber.decode("1e400", false, false)
+    }
+
+    @Test
+    fun lenientDecodeAllowsInfinity() {
+        assertThat(LazyNumber.decode("1e400", true, false)).isEqualTo(Double.POSITIVE_INFINITY)
+    }
+
+    @Test
+    fun largeProjectSettingsDecodeTheSameLazily() {
+        val json = ProjectSettingsBenchmark.largeProjectSettings(10)
+        val eager = Cartographer.Builder().engine(JsonEngine.STREAMING).build()
+        val lazy = Cartographer.Builder().engine(JsonEngine.STREAMING).lazyNumbers(true).build()
+
+        val eagerSettings = ProjectSettings.create(eager.fromJson(json))
+        val lazySettings = ProjectSettings.create(lazy.fromJson(json))
+        assertThat(lazySettings.integrations().getValueMap("Integration 3"))
+            .isEqualTo(eagerSettings.integrations().getValueMap("Integration 3"))
+        assertThat(lazySettings.integrations().getValueMap("Integration 7").getLong("id", 0))
+            .isEqualTo(9007199254740993L + 7)
+    }
+}
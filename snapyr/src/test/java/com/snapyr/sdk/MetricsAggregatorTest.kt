@@ -0,0 +1,139 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class MetricsAggregatorTest {
+
+    private val metrics = MetricsAggregator()
+
+    @Test
+    fun emptyWindowHasNoSummary() {
+        assertThat(metrics.drain()).isNull()
+    }
+
+    @Test
+    fun counters() {
+        metrics.increment("frames.dropped", 1)
+        metrics.increment("frames.dropped", 4)
+        metrics.increment("scrolls", 1)
+
+        val summary = metrics.drain()!!
+        assertThat(summary.getValueMap("counters"))
+            .containsEntry("frames.dropped", 5L)
+            .containsEntry("scrolls", 1L)
+        assertThat(summary).containsKey("windowMillis")
+        assertThat(summary).doesNotContainKeys("gauges", "histograms")
+    }
+
+    @Test
+    fun gauges() {
+        metrics.gauge("memory", 10.0)
+        metrics.gauge("memory", 12.5)
+
+        val summary = metrics.drain()!!
+        assertThat(summary.getValueMap("gauges")).containsEntry("memory", 12.5)
+    }
+
+    @Test
+    fun histograms() {
+        metrics.record("latency", 0.5)
+        metrics.record("latency", 7.0)
+        metrics.record("latency", 20000.0)
+
+        val histogram = metrics.drain()!!.getValueMap("histograms").getValueMap("latency")
+        assertThat(histogram)
+            .containsEntry("count", 3L)
+            .containsEntry("sum", 20007.5)
+            .containsEntry("min", 0.5)
+            .containsEntry("max", 20000.0)
+        val buckets = histogram["buckets"] as List<*>
+        assertThat(buckets).hasSize(MetricsAggregator.HISTOGRAM_BOUNDS.size + 1)
+        assertThat(buckets[0]).isEqualTo(1L)
+        assertThat(buckets[3]).isEqualTo(1L)
+        assertThat(buckets[MetricsAggregator.HISTOGRAM_BOUNDS.size]).isEqualTo(1L)
+    }
+
+    @Test
+    fun bucketIndex() {
+        assertThat(MetricsAggregator.Histogram.bucketIndex(-1.0)).isEqualTo(0)
+        assertThat(MetricsAggregator.Histogram.bucketIndex(1.0)).isEqualTo(0)
+        assertThat(MetricsAggregator.Histogram.bucketIndex(1.1)).isEqualTo(1)
+        assertThat(MetricsAggregator.Histogram.bucketIndex(10000.0)).isEqualTo(12)
+        assertThat(MetricsAggregator.Histogram.bucketIndex(10001.0)).isEqualTo(13)
+    }
+
+    @Test
+    fun drainStartsNewWindow() {
+        metrics.increment("foo", 1)
+        assertThat(metrics.drain()).isNotNull
+        assertThat(metrics.drain()).isNull()
+
+        metrics.increment("foo", 2)
+        assertThat(metrics.drain()!!.getValueMap("counters")).containsEntry("foo", 2L)
+    }
+
+    @Test
+    fun numberOfMetricsIsBounded() {
+        for (i in 0 until MetricsAggregator.MAX_METRICS + 10) {
+            metrics.increment("counter$i", 1)
+        }
+
+        assertThat(metrics.drain()!!.getValueMap("counters"))
+            .hasSize(MetricsAggregator.MAX_METRICS)
+    }
+
+    @Test
+    fun concurrentRecording() {
+        val executor = Executors.newFixedThreadPool(4)
+        val latch = CountDownLatch(4)
+        for (thread in 0 until 4) {
+            executor.submit {
+                for (i in 0 until 10000) {
+                    metrics.increment("foo", 1)
+                    metrics.record("bar", 1.0)
+                }
+                latch.countDown()
+            }
+        }
+        assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue()
+        executor.shutdown()
+
+        val summary = metrics.drain()!!
+        assertThat(summary.getValueMap("counters")).containsEntry("foo", 40000L)
+        assertThat(summary.getValueMap("histograms").getValueMap("bar"))
+            .containsEntry("count", 40000L)
+            .containsEntry("sum", 40000.0)
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import com.nhaarman.mockitokotlin2.eq
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.times
+import com.nhaarman.mockitokotlin2.verify
+import com.snapyr.sdk.integrations.Logger
+import com.snapyr.sdk.integrations.TrackPayload
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.anyLong
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class MiddlewareChainTest {
+
+    private val stats = mock<Stats>()
+    private val logger = Logger.with(Snapyr.LogLevel.NONE)
+    private val payload = TrackPayload.Builder().event("foo").userId("bar").build()
+
+    private fun chain(
+        vararg middleware: Pair<String, Middleware>,
+        budgetNanos: Long = MiddlewareChain.DEFAULT_BUDGET_NANOS
+    ): MiddlewareChain {
+        return MiddlewareChain(linkedMapOf(*middleware), budgetNanos, stats, logger)
+    }
+
+    @Test
+    fun runsInOrder() {
+        val seen = mutableListOf<String>()
+        val renamed = TrackPayload.Builder().event("renamed").userId("bar").build()
+        val chain = chain(
+            "first" to Middleware { payload ->
+                seen.add("first:" + (payload as TrackPayload).event())
+                renamed
+            },
+            "second" to Middleware { payload ->
+                seen.add("second:" + (payload as TrackPayload).event())
+                payload
+            }
+        )
+
+        assertThat(chain.run(payload)).isSameAs(renamed)
+        assertThat(seen).containsExactly("first:foo", "second:renamed")
+        verify(stats).dispatchIntegrationOperation(eq("first"), anyLong())
+        verify(stats).dispatchIntegrationOperation(eq("second"), anyLong())
+    }
+
+    @Test
+    fun dropsPayload() {
+        var called = false
+        val chain = chain(
+            "drop" to Middleware { null },
+            "never" to Middleware { payload ->
+                called = true
+                payload
+            }
+        )
+
+        assertThat(chain.run(payload)).isNull()
+        assertThat(called).isFalse()
+    }
+
+    @Test
+    fun failingMiddlewareIsSkippedForThatEvent() {
+        var called = false
+        val chain = chain(
+            "failing" to Middleware { throw IllegalStateException("boom") },
+            "next" to Middleware { payload ->
+                called = true
+                payload
+            }
+        )
+
+        assertThat(chain.run(payload)).isSameAs(payload)
+        assertThat(called).isTrue()
+        assertThat(chain.isDisabled("failing")).isFalse()
+        verify(stats).dispatchMiddlewareError()
+        verify(stats).dispatchIntegrationOperation(eq("failing"), anyLong())
+    }
+
+    @Test
+    fun slowMiddlewareIsSkipped() {
+        var calls = 0
+        val slow = Middleware { payload ->
+            calls++
+            Thread.sleep(20)
+            payload
+        }
+        val chain = chain("slow" to slow, budgetNanos = 10_000_000)
+
+        for (i in 0 until MiddlewareChain.MAX_STRIKES) {
+            assertThat(chain.isDisabled("slow")).isFalse()
+            assertThat(chain.run(payload)).isSameAs(payload)
+        }
+        assertThat(chain.isDisabled("slow")).isTrue()
+        assertThat(chain.run(payload)).isSameAs(payload)
+        assertThat(calls).isEqualTo(MiddlewareChain.MAX_STRIKES)
+        verify(stats, times(MiddlewareChain.MAX_STRIKES))
+            .dispatchIntegrationOperation(eq("slow"), anyLong())
+    }
+
+    @Test
+    fun fastCallResetsStrikes() {
+        var slow = true
+        val middleware = Middleware { payload ->
+            if (slow) {
+                Thread.sleep(20)
+            }
+            payload
+        }
+        val chain = chain("flaky" to middleware, budgetNanos = 10_000_000)
+
+        for (i in 0 until MiddlewareChain.MAX_STRIKES * 2) {
+            slow = i % MiddlewareChain.MAX_STRIKES != 0
+            chain.run(payload)
+        }
+        assertThat(chain.isDisabled("flaky")).isFalse()
+    }
+
+    @Test
+    fun emptyChainReturnsPayload() {
+        assertThat(MiddlewareChain.EMPTY.run(payload)).isSameAs(payload)
+    }
+}
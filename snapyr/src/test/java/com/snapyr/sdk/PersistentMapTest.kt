@@ -0,0 +1,151 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import java.util.Random
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class PersistentMapTest {
+
+    /** A key with a chosen hash code, to force keys into the same branches of the trie. */
+    private data class Key(val id: Int, val hash: Int) {
+        override fun hashCode() = hash
+    }
+
+    @Test
+    fun versionsAreIndependent() {
+        val empty = PersistentMap.empty<String, Any>()
+        val first = empty.plus("foo", "bar")
+        val second = first.plus("qaz", 1).minus("foo")
+
+        assertThat(empty).isEmpty()
+        assertThat(first).isEqualTo(mapOf("foo" to "bar"))
+        assertThat(second).isEqualTo(mapOf("qaz" to 1))
+        assertThat(first.plus("foo", "bar")).isSameAs(first)
+        assertThat(first.minus("missing")).isSameAs(first)
+    }
+
+    @Test
+    fun permitsNullKeysAndValues() {
+        val map = PersistentMap.empty<String?, Any?>().plus(null, 1).plus("null", null)
+
+        assertThat(map).hasSize(2).containsEntry(null, 1).containsKey("null")
+        assertThat(map["null"]).isNull()
+        assertThat(map.minus(null)).hasSize(1)
+    }
+
+    @Test(expected = UnsupportedOperationException::class)
+    fun isImmutable() {
+        PersistentMap.empty<String, Any>().plus("foo", "bar")["qaz"] = 1
+    }
+
+    @Test
+    fun behavesLikeHashMap() {
+        val random = Random(42)
+        for (round in 0 until 100) {
+            var persistent = PersistentMap.empty<Key, Int>()
+            val hashMap = HashMap<Key, Int>()
+            val versions = ArrayList<Pair<PersistentMap<Key, Int>, Map<Key, Int>>>()
+            // Few distinct hashes make for deep tries and full hash collisions.
+            val hashes = if (round % 2 == 0) 4 else Int.MAX_VALUE
+            for (op in 0 until 300) {
+                val id = random.nextInt(200)
+                val key = Key(id, if (hashes == 4) (id % 4) * 0x10000001 else id * -0x61c88647)
+                when (random.nextInt(3)) {
+                    0, 1 -> {
+                        persistent = persistent.plus(key, op)
+                        hashMap[key] = op
+                    }
+                    else -> {
+                        persistent = persistent.minus(key)
+                        hashMap.remove(key)
+                    }
+                }
+                assertThat(persistent).isEqualTo(hashMap)
+                assertThat(persistent.hashCode()).isEqualTo(hashMap.hashCode())
+                if (op % 50 == 0) {
+                    versions.add(Pair(persistent, HashMap(hashMap)))
+                }
+            }
+            for ((version, copy) in versions) {
+                assertThat(version).isEqualTo(copy)
+            }
+        }
+    }
+
+    @Test
+    fun atomicMapSnapshots() {
+        val map = AtomicPersistentMap<String, Any>(mapOf("foo" to "bar"))
+        val snapshot = map.snapshot()
+        map["qaz"] = 1
+        map.remove("foo")
+
+        assertThat(snapshot).isEqualTo(mapOf("foo" to "bar"))
+        assertThat(map).isEqualTo(mapOf("qaz" to 1))
+        assertThat(map.snapshot()).isSameAs(map.snapshot())
+    }
+
+    @Test
+    fun atomicMapIgnoresNulls() {
+        val map = AtomicPersistentMap<String?, Any?>()
+        map[null] = 1
+        map["foo"] = null
+        map.putAll(mapOf("bar" to null, "qaz" to 1))
+
+        assertThat(map).isEqualTo(mapOf("qaz" to 1))
+    }
+
+    @Test
+    fun atomicMapConcurrentMapOperations() {
+        val map = AtomicPersistentMap<String, Any>()
+
+        assertThat(map.putIfAbsent("foo", 1)).isNull()
+        assertThat(map.putIfAbsent("foo", 2)).isEqualTo(1)
+        assertThat(map.replace("foo", 2, 3)).isFalse()
+        assertThat(map.replace("foo", 1, 3)).isTrue()
+        assertThat(map.replace("foo", 4)).isEqualTo(3)
+        assertThat(map.remove("foo", 3)).isFalse()
+        assertThat(map.remove("foo", 4)).isTrue()
+        assertThat(map).isEmpty()
+    }
+
+    @Test
+    fun atomicMapIteratorRemoves() {
+        val map = AtomicPersistentMap<String, Any>(mapOf("foo" to 1, "bar" to 2))
+        val iterator = map.entries.iterator()
+        while (iterator.hasNext()) {
+            if (iterator.next().key == "foo") {
+                iterator.remove()
+            }
+        }
+
+        assertThat(map).isEqualTo(mapOf("bar" to 2))
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class PreInitBufferTest {
+
+    @Test
+    fun replaysInOrder() {
+        val buffer = PreInitBuffer(10)
+        val calls = mutableListOf<Int>()
+        for (i in 0 until 5) {
+            assertThat(buffer.offer(Runnable { calls.add(i) })).isTrue
+        }
+        assertThat(calls).isEmpty()
+
+        assertThat(buffer.drain()).isEqualTo(0)
+
+        assertThat(calls).containsExactly(0, 1, 2, 3, 4)
+    }
+
+    @Test
+    fun dropsCallsOnceFull() {
+        val buffer = PreInitBuffer(2)
+        val calls = mutableListOf<Int>()
+        for (i in 0 until 5) {
+            assertThat(buffer.offer(Runnable { calls.add(i) })).isTrue
+        }
+
+        assertThat(buffer.drain()).isEqualTo(3)
+
+        assertThat(calls).containsExactly(0, 1)
+    }
+
+    @Test
+    fun rejectsCallsOnceDrained() {
+        val buffer = PreInitBuffer(2)
+        buffer.drain()
+
+        assertThat(buffer.offer(Runnable {})).isFalse
+    }
+
+    @Test
+    fun failingCallDoesNotStopReplay() {
+        val buffer = PreInitBuffer(2)
+        val calls = mutableListOf<Int>()
+        buffer.offer(Runnable { throw IllegalStateException() })
+        buffer.offer(Runnable { calls.add(1) })
+
+        buffer.drain()
+
+        assertThat(calls).containsExactly(1)
+    }
+
+    @Test
+    fun concurrentCallsKeepTheirOrder() {
+        val threads = 4
+        val perThread = 10_000
+        val buffer = PreInitBuffer(threads * perThread)
+        val calls = Collections.synchronizedList(mutableListOf<Pair<Int, Int>>())
+        val start = CountDownLatch(1)
+        val workers =
+            (0 until threads).map { thread ->
+                Thread {
+                    start.await()
+                    for (i in 0 until perThread) {
+                        buffer.offer(Runnable { calls.add(thread to i) })
+                    }
+                }
+            }
+        workers.forEach { it.start() }
+        start.countDown()
+        workers.forEach { it.join() }
+
+        assertThat(buffer.drain()).isEqualTo(0)
+
+        assertThat(calls).hasSize(threads * perThread)
+        for (thread in 0 until threads) {
+            assertThat(calls.filter { it.first == thread }.map { it.second })
+                .isEqualTo((0 until perThread).toList())
+        }
+    }
+}
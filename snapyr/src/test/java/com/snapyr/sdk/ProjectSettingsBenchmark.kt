@@ -0,0 +1,99 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import java.io.StringReader
+
+/**
+ * Compares ways of reading a large ProjectSettings document and one number from it: with numbers
+ * decoded right away, with [LazyNumber]s, and through the [LazyJsonObject] the settings cache
+ * uses. Not a unit test, since timings vary between machines; run [main] from the IDE or a plain
+ * JVM with the unit test classpath. Only the streaming engine is measured, the Android one needs
+ * a device.
+ */
+object ProjectSettingsBenchmark {
+
+    private const val INTEGRATIONS = 500
+    private const val WARMUP_ITERATIONS = 10_000
+    private const val ITERATIONS = 2_000
+    private const val ROUNDS = 15
+
+    private enum class Mode { EAGER, LAZY_NUMBERS, LAZY_OBJECT }
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val json = largeProjectSettings(INTEGRATIONS)
+        for (mode in Mode.values()) {
+            time(mode, json, WARMUP_ITERATIONS)
+        }
+        val results = Mode.values().associate { it to mutableListOf<Long>() }
+        for (round in 0 until ROUNDS) {
+            // Interleaved, so that noise from the machine hits every mode alike.
+            for (mode in Mode.values()) {
+                results.getValue(mode).add(time(mode, json, ITERATIONS))
+            }
+        }
+        println("${json.length} byte ProjectSettings, median of $ROUNDS rounds:")
+        for ((mode, nanos) in results) {
+            println(String.format("%-12s %d us/op", mode, nanos.sorted()[ROUNDS / 2] / 1000))
+        }
+    }
+
+    private fun time(mode: Mode, json: String, iterations: Int): Long {
+        var sink = 0L
+        val start = System.nanoTime()
+        for (i in 0 until iterations) {
+            val settings = when (mode) {
+                Mode.EAGER -> ProjectSettings.create(read(json, false))
+                Mode.LAZY_NUMBERS -> ProjectSettings.create(read(json, true))
+                Mode.LAZY_OBJECT -> ProjectSettings(LazyJsonObject.parseChecked(json))
+            }
+            sink += settings.integrations().getValueMap("Integration 1").getLong("id", 0)
+        }
+        val elapsed = System.nanoTime() - start
+        check(sink == iterations * (9007199254740993L + 1))
+        return elapsed / iterations
+    }
+
+    private fun read(json: String, lazyNumbers: Boolean): Map<String, Any> {
+        return JsonEngine.STREAMING.readObject(StringReader(json), true, lazyNumbers)
+    }
+
+    /** A settings document with [integrations] entries, also read by [LazyNumberTest]. */
+    fun largeProjectSettings(integrations: Int): String {
+        val json = StringBuilder()
+        json.append("{\"integrations\":{")
+        for (i in 0 until integrations) {
+            if (i > 0) json.append(',')
+            json.append("\"Integration ").append(i).append("\":{")
+            json.append("\"id\":").append(9007199254740993L + i).append(',')
+            json.append("\"sampleRate\":0.").append(i).append(',')
+            json.append("\"flushAt\":").append(i % 100).append(',')
+            json.append("\"limits\":[1,2.5,3e2,4,5,6,7,8,9,10],")
+            json.append("\"apiKey\":\"key").append(i).append("\"}")
+        }
+        json.append("}}")
+        return json.toString()
+    }
+}
@@ -29,6 +29,7 @@ import org.assertj.core.api.Assertions.fail
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
 import org.robolectric.annotation.Config
 
 @RunWith(RobolectricTestRunner::class)
@@ -82,4 +83,65 @@ class ProjectSettingsTest {
         } catch (ignored: UnsupportedOperationException) {
         }
     }
+
+    @Test
+    fun hasCapability() {
+        val capabilities = mapOf<String, Any>("sharedBatchContext" to true, "other" to false)
+        val projectSettings =
+            ProjectSettings.create(mutableMapOf<String, Any>("capabilities" to capabilities))
+
+        assertThat(projectSettings.hasCapability("sharedBatchContext")).isTrue()
+        assertThat(projectSettings.hasCapability("other")).isFalse()
+        assertThat(projectSettings.hasCapability("missing")).isFalse()
+        assertThat(ProjectSettings.create(mutableMapOf()).hasCapability("sharedBatchContext"))
+            .isFalse()
+    }
+
+    @Test
+    fun cachedSettingsAreDecodedLazily() {
+        val settings =
+            ProjectSettings.create(
+                mutableMapOf<String, Any>(
+                    "integrations" to mapOf("Snapyr" to mapOf("apiKey" to "x")),
+                    "plan" to mapOf("track" to mapOf("Completed" to mapOf("enabled" to false))),
+                    "metadata" to mapOf("pushTemplates" to listOf(mapOf("id" to "a")))
+                )
+            )
+        val cache =
+            ProjectSettings.Cache(
+                RuntimeEnvironment.application, Cartographer.SETTINGS, "lazy-settings-test"
+            )
+        cache.set(settings)
+
+        val cached =
+            ProjectSettings.Cache(
+                RuntimeEnvironment.application, Cartographer.SETTINGS, "lazy-settings-test"
+            )
+                .get()
+
+        assertThat(cached).isEqualTo(settings)
+        assertThat(cached.timestamp()).isEqualTo(settings.timestamp())
+        assertThat(cached.integrations()!!.getValueMap("Snapyr")!!.getString("apiKey"))
+            .isEqualTo("x")
+        assertThat(cached.trackingPlan()!!.getValueMap("Completed")!!.getBoolean("enabled", true))
+            .isFalse()
+        assertThat(cached.getValueMap("metadata")!!["pushTemplates"])
+            .isInstanceOf(ArrayList::class.java)
+        cache.delete()
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun corruptCachedSettingsAreIgnored() {
+        val tag = "corrupt-settings-test"
+        // The top level is well formed, so only a check of the nested values catches this.
+        val corrupt = """{"integrations":{},"plan":{"track":{"a":1]}}"""
+        StateStore(RuntimeEnvironment.application, tag).put("project-settings-plan-$tag", corrupt)
+
+        val cache =
+            ProjectSettings.Cache(RuntimeEnvironment.application, Cartographer.SETTINGS, tag)
+
+        assertThat(cache.get()).isNull()
+        cache.delete()
+    }
 }
@@ -52,6 +52,7 @@ class SnapyrBuilderTest {
 
     @Before
     fun setUp() {
+        SnapyrScheduler.reset()
         MockitoAnnotations.initMocks(this)
         context = TestUtils.mockApplication()
         whenever(context.applicationContext).thenReturn(context)
@@ -183,6 +184,74 @@ class SnapyrBuilderTest {
         }
     }
 
+    @Test
+    @Throws(Exception::class)
+    fun invalidSourceMiddlewareThrowsException() {
+        val middleware = Middleware { payload -> payload }
+        try {
+            Builder(context, "foo").useSourceMiddleware("", middleware)
+            fail("empty name should throw exception.")
+        } catch (expected: IllegalArgumentException) {
+            assertThat(expected).hasMessage("name must not be null or empty.")
+        }
+
+        try {
+            Builder(context, "foo")
+                .useSourceMiddleware("scrub", middleware)
+                .useSourceMiddleware("scrub", middleware)
+            fail("duplicate name should throw exception.")
+        } catch (expected: IllegalStateException) {
+            assertThat(expected).hasMessage("Source middleware scrub already added.")
+        }
+
+        try {
+            Builder(context, "foo").sourceMiddlewareBudget(0, TimeUnit.MILLISECONDS)
+            fail("budget <= 0 should throw exception.")
+        } catch (expected: IllegalArgumentException) {
+            assertThat(expected).hasMessage("budget must be greater than zero.")
+        }
+    }
+
+    @Test
+    @Throws(Exception::class)
+    fun invalidAsyncActionHandlerThrowsException() {
+        try {
+            Builder(context, "foo").asyncActionHandler(0, Snapyr.OverflowPolicy.BLOCK)
+            fail("capacity <= 0 should throw exception.")
+        } catch (expected: IllegalArgumentException) {
+            assertThat(expected).hasMessage("capacity must be greater than zero.")
+        }
+
+        try {
+            Builder(context, "foo").asyncActionHandler(1, null)
+            fail("null overflowPolicy should throw exception.")
+        } catch (expected: IllegalArgumentException) {
+            assertThat(expected).hasMessage("overflowPolicy must not be null.")
+        }
+    }
+
+    @Test
+    @Throws(Exception::class)
+    fun invalidPreInitCapacityThrowsException() {
+        try {
+            Builder(context, "foo").initializeInBackground(0)
+            fail("capacity <= 0 should throw exception.")
+        } catch (expected: IllegalArgumentException) {
+            assertThat(expected).hasMessage("capacity must be greater than zero.")
+        }
+    }
+
+    @Test
+    @Throws(Exception::class)
+    fun invalidJsonEngineThrowsException() {
+        try {
+            Builder(context, "foo").jsonEngine(null)
+            fail("null jsonEngine should throw exception.")
+        } catch (expected: IllegalArgumentException) {
+            assertThat(expected).hasMessage("jsonEngine must not be null.")
+        }
+    }
+
     @Test
     @Throws(Exception::class)
     fun invalidOptionsThrowsException() {
@@ -30,6 +30,7 @@ import com.google.common.collect.ImmutableMap
 import com.nhaarman.mockitokotlin2.whenever
 import com.snapyr.sdk.Utils.createContext
 import com.snapyr.sdk.core.BuildConfig
+import java.util.Collections
 import org.assertj.core.api.Assertions.assertThat
 import org.assertj.core.api.Assertions.fail
 import org.assertj.core.data.MapEntry
@@ -128,6 +129,25 @@ class SnapyrContextTest {
             .containsEntry("type", "android")
     }
 
+    @Test
+    fun systemValuesAreFilledInSeparately() {
+        context = SnapyrContext.createEmpty()
+        context.populateLocal(traits, true)
+        assertThat(context)
+            .doesNotContainKey("app")
+            .doesNotContainKey("network")
+            .doesNotContainKey("screen")
+        assertThat(context.device()).doesNotContainKey("id").containsEntry("type", "android")
+
+        context.putDeviceToken("token")
+        context.putSystemValues(RuntimeEnvironment.application, true)
+
+        assertThat(context).containsKeys("app", "network", "screen")
+        assertThat(context.device())
+            .containsEntry("id", "unknown")
+            .containsEntry("token", "token")
+    }
+
     @Test
     fun copyReturnsSameMappings() {
         val copy = context.unmodifiableCopy()
@@ -148,6 +168,87 @@ class SnapyrContextTest {
         }
     }
 
+    @Test
+    fun snapshotIsSharedUntilModified() {
+        val first = context.snapshot()
+        assertThat(first.isSnapshot).isTrue()
+        assertThat(context.snapshot()).isSameAs(first)
+
+        context.putValue("foo", "bar")
+        val second = context.snapshot()
+        assertThat(second).isNotSameAs(first).containsEntry("foo", "bar")
+        assertThat(first).doesNotContainKey("foo")
+        assertThat(context.snapshot()).isSameAs(second)
+    }
+
+    @Test
+    fun snapshotIsImmutable() {
+        val snapshot = context.snapshot()
+
+        try {
+            snapshot["foo"] = "bar"
+            fail("Inserting into snapshot should throw UnsupportedOperationException")
+        } catch (expected: UnsupportedOperationException) {
+        }
+    }
+
+    @Test
+    fun snapshotWithOverlay() {
+        context.putValue("foo", "bar").putValue("qaz", 1)
+        val overlay = LinkedHashMap<String, Any>()
+        overlay["qaz"] = 2
+        overlay["qux"] = true
+
+        val snapshot = context.snapshot(overlay)
+        assertThat(snapshot.keys).containsExactly("traits", "foo", "qaz", "qux")
+        assertThat(snapshot).hasSize(4)
+        assertThat(snapshot).containsEntry("qaz", 2).containsEntry("qux", true)
+        assertThat(context).containsEntry("qaz", 1).doesNotContainKey("qux")
+        assertThat(context.snapshot(emptyMap())).isSameAs(context.snapshot())
+    }
+
+    @Test
+    fun putDeviceTokenInvalidatesSnapshot() {
+        context = SnapyrContext.create(RuntimeEnvironment.application, traits, true)
+        val snapshot = context.snapshot()
+
+        context.putDeviceToken("token")
+        assertThat(context.snapshot()).isNotSameAs(snapshot)
+    }
+
+    @Test
+    fun changesToNestedValuesInvalidateSnapshot() {
+        val location = SnapyrContext.Location()
+        context.putLocation(location)
+        val snapshot = context.snapshot()
+        assertThat(snapshot.version()).isNotEqualTo(SnapyrContext.NO_VERSION)
+
+        location.putSpeed(88.0)
+        val second = context.snapshot()
+        assertThat(second).isNotSameAs(snapshot)
+
+        context.location().putLatitude(37.7672319)
+        assertThat(context.snapshot()).isNotSameAs(second)
+    }
+
+    @Test
+    fun snapshotWithUntrackedValuesHasNoVersion() {
+        context.putValue("custom", linkedMapOf("foo" to "bar"))
+        assertThat(context.snapshot().version()).isEqualTo(SnapyrContext.NO_VERSION)
+
+        context.putValue("custom", Collections.unmodifiableMap(linkedMapOf("foo" to "bar")))
+        assertThat(context.snapshot().version()).isNotEqualTo(SnapyrContext.NO_VERSION)
+
+        context.putValue("custom", arrayListOf("foo"))
+        assertThat(context.snapshot().version()).isEqualTo(SnapyrContext.NO_VERSION)
+    }
+
+    @Test
+    fun createdContextIsTracked() {
+        context = SnapyrContext.create(RuntimeEnvironment.application, traits, true)
+        assertThat(context.snapshot().version()).isNotEqualTo(SnapyrContext.NO_VERSION)
+    }
+
     @Test
     fun traitsAreCopied() {
         assertThat(context.traits()).isEqualTo(traits).isNotSameAs(traits)
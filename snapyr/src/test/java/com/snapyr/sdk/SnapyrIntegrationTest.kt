@@ -99,6 +99,7 @@ class snapyrQueueTest {
     @Before
     @Throws(IOException::class)
     fun setUp() {
+        SnapyrScheduler.reset()
         queueFile = QueueFile(File(folder.root, "queue-file"))
     }
 
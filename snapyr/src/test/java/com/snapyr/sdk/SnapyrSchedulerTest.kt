@@ -0,0 +1,112 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import android.os.Handler
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.never
+import com.nhaarman.mockitokotlin2.verify
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class SnapyrSchedulerTest {
+
+    @Before
+    fun setUp() {
+        SnapyrScheduler.reset()
+    }
+
+    @Test
+    fun sharedByClients() {
+        val scheduler = SnapyrScheduler.shared()
+
+        assertThat(SnapyrScheduler.shared()).isSameAs(scheduler)
+        assertThat(Stats().handler.looper).isSameAs(scheduler.looper())
+    }
+
+    @Test
+    fun resetStartsNewThreads() {
+        val scheduler = SnapyrScheduler.shared()
+
+        SnapyrScheduler.reset()
+
+        assertThat(scheduler.io().isShutdown).isTrue
+        assertThat(SnapyrScheduler.shared()).isNotSameAs(scheduler)
+    }
+
+    @Test
+    fun ioRunsTasks() {
+        val ran = CountDownLatch(2)
+
+        SnapyrScheduler.shared().io().execute { ran.countDown() }
+        SnapyrScheduler.shared().io().execute { ran.countDown() }
+
+        assertThat(ran.await(5, TimeUnit.SECONDS)).isTrue
+    }
+
+    @Test
+    fun periodicTaskIsRepeated() {
+        val handler = mock<Handler>()
+        var runs = 0
+        val periodic = SnapyrScheduler.Periodic(handler, Runnable { runs++ }, 100)
+
+        periodic.run()
+
+        assertThat(runs).isEqualTo(1)
+        verify(handler).postDelayed(periodic, 100)
+    }
+
+    @Test
+    fun cancelledTaskIsNotRun() {
+        val handler = mock<Handler>()
+        var runs = 0
+        val periodic = SnapyrScheduler.Periodic(handler, Runnable { runs++ }, 100)
+
+        periodic.cancel()
+        periodic.run()
+
+        assertThat(runs).isEqualTo(0)
+        verify(handler).removeCallbacks(periodic)
+        verify(handler, never()).postDelayed(periodic, 100)
+    }
+
+    @Test
+    fun failingTaskIsNotRepeated() {
+        val handler = mock<Handler>()
+        val periodic =
+            SnapyrScheduler.Periodic(handler, Runnable { throw IllegalStateException() }, 100)
+
+        periodic.run()
+
+        verify(handler, never()).postDelayed(periodic, 100)
+    }
+}
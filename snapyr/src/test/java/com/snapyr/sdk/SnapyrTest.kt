@@ -54,9 +54,11 @@ import com.snapyr.sdk.integrations.AliasPayload
 import com.snapyr.sdk.integrations.GroupPayload
 import com.snapyr.sdk.integrations.IdentifyPayload
 import com.snapyr.sdk.integrations.Logger
+import com.snapyr.sdk.integrations.MessageIdGenerator
 import com.snapyr.sdk.integrations.ScreenPayload
 import com.snapyr.sdk.integrations.TrackPayload
 import com.snapyr.sdk.internal.Utils.AnalyticsNetworkExecutorService
+import com.snapyr.sdk.internal.Utils.DEFAULT_COALESCE_WINDOW
 import com.snapyr.sdk.internal.Utils.DEFAULT_FLUSH_INTERVAL
 import com.snapyr.sdk.internal.Utils.DEFAULT_FLUSH_QUEUE_SIZE
 import com.snapyr.sdk.internal.Utils.isNullOrEmpty
@@ -65,6 +67,7 @@ import java.io.IOException
 import java.lang.Boolean.TRUE
 import java.util.concurrent.CountDownLatch
 import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 import java.util.concurrent.atomic.AtomicReference
 import org.assertj.core.api.Assertions.assertThat
 import org.assertj.core.api.Assertions.fail
@@ -77,6 +80,8 @@ import org.junit.Test
 import org.junit.runner.RunWith
 import org.mockito.ArgumentCaptor
 import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyBoolean
+import org.mockito.ArgumentMatchers.anyLong
 import org.mockito.ArgumentMatchers.eq
 import org.mockito.Mock
 import org.mockito.Mockito
@@ -133,7 +138,10 @@ open class SnapyrTest {
     @Mock
     private lateinit var actionHandler: SnapyrActionHandler
 
-    fun makeAnalytics(): Snapyr {
+    fun makeAnalytics(
+        coalesceWindowInMillis: Long = DEFAULT_COALESCE_WINDOW.toLong(),
+        preInitBuffer: PreInitBuffer? = null
+    ): Snapyr {
         return Snapyr(
             application,
             networkExecutor,
@@ -161,7 +169,14 @@ open class SnapyrTest {
             lifecycle,
             false,
             true,
-            false
+            false,
+            coalesceWindowInMillis,
+            MessageIdGenerator.TIME_ORDERED,
+            MiddlewareChain.EMPTY,
+            0,
+            Snapyr.OverflowPolicy.DROP_OLDEST,
+            StatePersister.SYNCHRONOUS,
+            preInitBuffer
         )
     }
 
@@ -169,6 +184,7 @@ open class SnapyrTest {
     @Throws(IOException::class, NameNotFoundException::class)
     fun setUp() {
         Snapyr.singleton = null // clear the singleton instance
+        SnapyrScheduler.reset()
 
         initMocks(this)
         defaultOptions = Options()
@@ -454,6 +470,158 @@ open class SnapyrTest {
         verifyNoMoreInteractions(actionHandler)
     }
 
+    @Test
+    @Throws(IOException::class)
+    fun sampledEvents() {
+        val analytics = makeAnalytics()
+        analytics.projectSettings = create(
+            Cartographer.INSTANCE.fromJson(
+                """
+                              |{
+                              |  "sampling": {
+                              |    "events": {
+                              |      "dropped": { "sampleRate": 0 },
+                              |      "limited": { "limit": { "capacity": 1 } },
+                              |      "sampled": { "sampleRate": 0.99999999 }
+                              |    }
+                              |  }
+                              |}
+                              """.trimMargin()
+            )
+        )
+
+        analytics.track("dropped")
+        analytics.track("limited")
+        analytics.track("limited")
+        analytics.track("sampled", Properties().putValue("foo", "bar"))
+        val payload = ArgumentCaptor.forClass(TrackPayload::class.java)
+        verify(actionHandler, Mockito.times(2)).onTrack(payload.capture())
+        assertThat(payload.allValues[0].event()).isEqualTo("limited")
+        assertThat(payload.allValues[0].properties()).doesNotContainKey("sampleRate")
+        assertThat(payload.allValues[1].event()).isEqualTo("sampled")
+        assertThat(payload.allValues[1].properties())
+            .containsEntry("foo", "bar")
+            .containsEntry("sampleRate", 0.99999999)
+        verifyNoMoreInteractions(actionHandler)
+    }
+
+    @Test
+    fun trackingPlan() {
+        val analytics = makeAnalytics()
+        analytics.projectSettings = create(
+            Cartographer.INSTANCE.fromJson(
+                """
+                              |{
+                              |  "plan": {
+                              |    "track": {
+                              |      "blocked": { "enabled": false },
+                              |      "stripped": { "properties": [ "kept" ] }
+                              |    }
+                              |  }
+                              |}
+                              """.trimMargin()
+            )
+        )
+
+        analytics.track("blocked", Properties().putValue("foo", "bar"))
+        analytics.track("stripped", Properties().putValue("kept", 1).putValue("secret", "s"))
+        analytics.track("unlisted", Properties().putValue("foo", "bar"))
+        val payload = ArgumentCaptor.forClass(TrackPayload::class.java)
+        verify(actionHandler, Mockito.times(2)).onTrack(payload.capture())
+        assertThat(payload.allValues[0].event()).isEqualTo("stripped")
+        assertThat(payload.allValues[0].properties())
+            .containsEntry("kept", 1)
+            .doesNotContainKey("secret")
+        assertThat(payload.allValues[1].event()).isEqualTo("unlisted")
+        assertThat(payload.allValues[1].properties()).containsEntry("foo", "bar")
+        // "blocked" and {"foo":"bar",}, then the "secret":"s", member.
+        verify(stats).dispatchTrackingPlanDrop(true, 9 + 14)
+        verify(stats).dispatchTrackingPlanDrop(false, 13)
+        verifyNoMoreInteractions(actionHandler)
+    }
+
+    @Test
+    fun coalescedEvents() {
+        val analytics = makeAnalytics(500)
+        analytics.track("Deep Link Opened", Properties().putValue("url", "app://a"))
+        analytics.track("Deep Link Opened", Properties().putValue("url", "app://a"))
+        analytics.track("Deep Link Opened", Properties().putValue("url", "app://b"))
+        analytics.screen("home")
+        analytics.screen("home")
+
+        val payload = ArgumentCaptor.forClass(TrackPayload::class.java)
+        verify(actionHandler, Mockito.times(2)).onTrack(payload.capture())
+        assertThat(payload.allValues[0].properties()).containsEntry("url", "app://a")
+        assertThat(payload.allValues[1].properties()).containsEntry("url", "app://b")
+        verify(actionHandler).onScreen(any())
+        verify(stats, Mockito.times(2)).dispatchCoalescedEvent()
+        verifyNoMoreInteractions(actionHandler)
+    }
+
+    @Test
+    fun edgeFunctionsOnlyRunOnKeptEvents() {
+        whenever(projectSettingsCache.get())
+            .thenReturn(
+                create(
+                    Cartographer.INSTANCE.fromJson(
+                        """{"edgeFunction":{"rules":[{"op":"hash","property":"email"}]}}"""
+                    )
+                )
+            )
+        val analytics = makeAnalytics(500)
+        analytics.track("Signed Up", Properties().putValue("email", "a@b.c"))
+        analytics.track("Signed Up", Properties().putValue("email", "a@b.c"))
+
+        val payload = ArgumentCaptor.forClass(TrackPayload::class.java)
+        verify(actionHandler).onTrack(payload.capture())
+        assertThat(payload.value.properties()).containsEntry(
+            "email", "d648b243a3e817eaa3309e00e183483f2867baadf522099f0c2121770536b25a"
+        )
+        // The duplicate was dropped before it was transformed.
+        verify(stats).dispatchCoalescedEvent()
+        verify(stats).dispatchEdgeFunctions(anyLong(), anyBoolean())
+    }
+
+    @Test
+    @Throws(Exception::class)
+    fun refreshConfigurationBeforeInitialization() {
+        // Hold initialization behind a task that hasn't finished yet.
+        val gate = CountDownLatch(1)
+        analyticsExecutor = Executors.newSingleThreadExecutor()
+        analyticsExecutor.execute { gate.await() }
+        val analytics = makeAnalytics(preInitBuffer = PreInitBuffer(10))
+
+        analytics.RefreshConfiguration(false)
+        assertThat(analytics.projectSettings).isNotNull
+
+        gate.countDown()
+        analytics.shutdown()
+        assertThat(analytics.shutdown).isTrue
+    }
+
+    @Test
+    fun metricsSummary() {
+        val analytics = makeAnalytics()
+        analytics.increment("scrolls")
+        analytics.increment("scrolls", 2)
+        analytics.gauge("memory", 64.0)
+        analytics.histogram("latency", 12.0)
+        verifyNoMoreInteractions(actionHandler)
+
+        analytics.emitMetricsSummary()
+        val payload = ArgumentCaptor.forClass(TrackPayload::class.java)
+        verify(actionHandler).onTrack(payload.capture())
+        assertThat(payload.value.event()).isEqualTo(Snapyr.METRICS_SUMMARY_EVENT)
+        val properties = payload.value.properties()
+        assertThat(properties.getValueMap("counters")).containsEntry("scrolls", 3L)
+        assertThat(properties.getValueMap("gauges")).containsEntry("memory", 64.0)
+        assertThat(properties.getValueMap("histograms")).containsKey("latency")
+
+        // Nothing is tracked for an empty window.
+        analytics.emitMetricsSummary()
+        verifyNoMoreInteractions(actionHandler)
+    }
+
     @Test
     @Throws(IOException::class)
     fun invalidAlias() {
@@ -677,7 +845,14 @@ open class SnapyrTest {
             lifecycle,
             false,
             true,
-            false
+            false,
+            DEFAULT_COALESCE_WINDOW.toLong(),
+            MessageIdGenerator.TIME_ORDERED,
+            MiddlewareChain.EMPTY,
+            0,
+            Snapyr.OverflowPolicy.DROP_OLDEST,
+            StatePersister.SYNCHRONOUS,
+            null
         )
 
         callback.get().onCreate(mockLifecycleOwner)
@@ -809,7 +984,14 @@ open class SnapyrTest {
             lifecycle,
             false,
             true,
-            false
+            false,
+            DEFAULT_COALESCE_WINDOW.toLong(),
+            MessageIdGenerator.TIME_ORDERED,
+            MiddlewareChain.EMPTY,
+            0,
+            Snapyr.OverflowPolicy.DROP_OLDEST,
+            StatePersister.SYNCHRONOUS,
+            null
         )
 
         val activity = Mockito.mock(Activity::class.java)
@@ -884,7 +1066,14 @@ open class SnapyrTest {
             lifecycle,
             false,
             true,
-            false
+            false,
+            DEFAULT_COALESCE_WINDOW.toLong(),
+            MessageIdGenerator.TIME_ORDERED,
+            MiddlewareChain.EMPTY,
+            0,
+            Snapyr.OverflowPolicy.DROP_OLDEST,
+            StatePersister.SYNCHRONOUS,
+            null
         )
         Snapyr.setSingletonInstance(analytics)
 
@@ -1288,7 +1477,14 @@ open class SnapyrTest {
             lifecycle,
             false,
             true,
-            false
+            false,
+            DEFAULT_COALESCE_WINDOW.toLong(),
+            MessageIdGenerator.TIME_ORDERED,
+            MiddlewareChain.EMPTY,
+            0,
+            Snapyr.OverflowPolicy.DROP_OLDEST,
+            StatePersister.SYNCHRONOUS,
+            null
         )
 
         assertThat(analytics.shutdown).isFalse
@@ -1359,7 +1555,14 @@ open class SnapyrTest {
             lifecycle,
             false,
             true,
-            false
+            false,
+            DEFAULT_COALESCE_WINDOW.toLong(),
+            MessageIdGenerator.TIME_ORDERED,
+            MiddlewareChain.EMPTY,
+            0,
+            Snapyr.OverflowPolicy.DROP_OLDEST,
+            StatePersister.SYNCHRONOUS,
+            null
         )
 
         assertThat(analytics.shutdown).isFalse
@@ -1430,7 +1633,14 @@ open class SnapyrTest {
             lifecycle,
             false,
             true,
-            false
+            false,
+            DEFAULT_COALESCE_WINDOW.toLong(),
+            MessageIdGenerator.TIME_ORDERED,
+            MiddlewareChain.EMPTY,
+            0,
+            Snapyr.OverflowPolicy.DROP_OLDEST,
+            StatePersister.SYNCHRONOUS,
+            null
         )
 
         assertThat(analytics.projectSettings).hasSize(3)
@@ -1474,7 +1684,14 @@ open class SnapyrTest {
             lifecycle,
             false,
             true,
-            false
+            false,
+            DEFAULT_COALESCE_WINDOW.toLong(),
+            MessageIdGenerator.TIME_ORDERED,
+            MiddlewareChain.EMPTY,
+            0,
+            Snapyr.OverflowPolicy.DROP_OLDEST,
+            StatePersister.SYNCHRONOUS,
+            null
         )
 
         assertThat(analytics.projectSettings).hasSize(3)
@@ -1529,7 +1746,14 @@ open class SnapyrTest {
             lifecycle,
             false,
             true,
-            false
+            false,
+            DEFAULT_COALESCE_WINDOW.toLong(),
+            MessageIdGenerator.TIME_ORDERED,
+            MiddlewareChain.EMPTY,
+            0,
+            Snapyr.OverflowPolicy.DROP_OLDEST,
+            StatePersister.SYNCHRONOUS,
+            null
         )
 
         assertThat(analytics.projectSettings).hasSize(3)
@@ -1587,13 +1811,20 @@ open class SnapyrTest {
             lifecycle,
             true,
             true,
-            false
+            false,
+            DEFAULT_COALESCE_WINDOW.toLong(),
+            MessageIdGenerator.TIME_ORDERED,
+            MiddlewareChain.EMPTY,
+            0,
+            Snapyr.OverflowPolicy.DROP_OLDEST,
+            StatePersister.SYNCHRONOUS,
+            null
         )
 
         analytics.track("event")
         val payload = ArgumentCaptor.forClass(TrackPayload::class.java)
         verify(actionHandler).onTrack(payload.capture())
-        val timestamp = payload.value["timestamp"] as String
+        val timestamp = payload.value.getString("timestamp")
         assertThat(timestamp).matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}.\\d{9}Z")
     }
 
@@ -1602,7 +1833,7 @@ open class SnapyrTest {
         makeAnalytics().track("event")
         val payload = ArgumentCaptor.forClass(TrackPayload::class.java)
         verify(actionHandler).onTrack(payload.capture())
-        val timestamp = payload.value["timestamp"] as String
+        val timestamp = payload.value.getString("timestamp")
         assertThat(timestamp).matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}.\\d{3}Z")
     }
 }
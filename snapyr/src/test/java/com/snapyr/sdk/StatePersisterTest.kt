@@ -0,0 +1,146 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import android.os.Handler
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.argumentCaptor
+import com.nhaarman.mockitokotlin2.eq
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.times
+import com.nhaarman.mockitokotlin2.verify
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class StatePersisterTest {
+    private val handler = mock<Handler>()
+    private val tasks = AtomicInteger()
+    private val executor = Executor { task ->
+        tasks.incrementAndGet()
+        task.run()
+    }
+
+    private class Counter : StatePersister.Persistable {
+        val writes = AtomicInteger()
+
+        override fun persist() {
+            writes.incrementAndGet()
+        }
+    }
+
+    @Test
+    fun synchronousPersistsImmediately() {
+        val state = Counter()
+
+        StatePersister.SYNCHRONOUS.markDirty(state)
+        StatePersister.SYNCHRONOUS.markDirty(state)
+
+        assertThat(state.writes.get()).isEqualTo(2)
+    }
+
+    @Test
+    fun coalescesChangesUntilFlushed() {
+        val persister = StatePersister(handler, executor, TimeUnit.HOURS.toMillis(1))
+        val traits = Counter()
+        val settings = Counter()
+
+        for (i in 0 until 100) {
+            persister.markDirty(traits)
+        }
+        persister.markDirty(settings)
+        assertThat(traits.writes.get()).isEqualTo(0)
+        verify(handler).postDelayed(any(), eq(TimeUnit.HOURS.toMillis(1)))
+
+        persister.flush()
+        assertThat(traits.writes.get()).isEqualTo(1)
+        assertThat(settings.writes.get()).isEqualTo(1)
+
+        persister.flush()
+        assertThat(traits.writes.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun persistsOnExecutorAfterDebounce() {
+        val persister = StatePersister(handler, executor, 10)
+        val state = Counter()
+
+        persister.markDirty(state)
+        persister.markDirty(state)
+        val debounced = argumentCaptor<Runnable>()
+        verify(handler).postDelayed(debounced.capture(), eq(10L))
+
+        debounced.firstValue.run()
+        assertThat(state.writes.get()).isEqualTo(1)
+        assertThat(tasks.get()).isEqualTo(1)
+
+        // A change after the write schedules another one.
+        persister.markDirty(Counter())
+        verify(handler, times(2)).postDelayed(debounced.firstValue, 10L)
+    }
+
+    @Test
+    fun flushAsyncSkipsDebounce() {
+        val persister = StatePersister(handler, executor, TimeUnit.HOURS.toMillis(1))
+        val state = Counter()
+
+        persister.markDirty(state)
+        persister.flushAsync()
+
+        assertThat(state.writes.get()).isEqualTo(1)
+        assertThat(tasks.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun shutdownPersistsPendingChanges() {
+        val persister = StatePersister(handler, executor, TimeUnit.HOURS.toMillis(1))
+        val state = Counter()
+
+        persister.markDirty(state)
+        persister.shutdown()
+
+        assertThat(state.writes.get()).isEqualTo(1)
+        verify(handler).removeCallbacks(any())
+    }
+
+    @Test
+    fun changesAfterShutdownPersistImmediately() {
+        val persister = StatePersister(handler, executor, TimeUnit.HOURS.toMillis(1))
+        val state = Counter()
+        persister.shutdown()
+
+        persister.markDirty(state)
+        persister.flushAsync()
+
+        assertThat(state.writes.get()).isEqualTo(1)
+        assertThat(tasks.get()).isEqualTo(0)
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import android.content.Context
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class StateStoreTest {
+    private lateinit var store: StateStore
+
+    @Before
+    fun setUp() {
+        store = StateStore(RuntimeEnvironment.application, "state-store-test")
+        store.remove("traits")
+        store.remove("settings")
+    }
+
+    @Test
+    fun putAndGet() {
+        assertThat(store.get("traits")).isNull()
+        assertThat(store.contains("traits")).isFalse
+
+        store.put("traits", "{\"name\":\"ünïcödé\"}")
+
+        assertThat(store.contains("traits")).isTrue
+        assertThat(store.get("traits")).isEqualTo("{\"name\":\"ünïcödé\"}")
+        assertThat(StateStore(RuntimeEnvironment.application, "state-store-test").get("traits"))
+            .isEqualTo("{\"name\":\"ünïcödé\"}")
+    }
+
+    @Test
+    fun putReplacesOnlyItsKey() {
+        store.put("traits", "{\"a\":1}")
+        store.put("settings", "{}")
+
+        store.put("traits", "{\"a\":2}")
+
+        assertThat(store.get("traits")).isEqualTo("{\"a\":2}")
+        assertThat(store.get("settings")).isEqualTo("{}")
+        val directory =
+            RuntimeEnvironment.application.getDir(
+                "snapyr-state-state-store-test", Context.MODE_PRIVATE
+            )
+        assertThat(directory.list()).containsExactlyInAnyOrder("traits", "settings")
+    }
+
+    @Test
+    fun remove() {
+        store.put("traits", "{}")
+
+        store.remove("traits")
+
+        assertThat(store.contains("traits")).isFalse
+        assertThat(store.get("traits")).isNull()
+    }
+
+    @Test
+    fun keysAreSanitized() {
+        store.put("traits-a/b", "{}")
+
+        assertThat(store.get("traits-a/b")).isEqualTo("{}")
+        store.remove("traits-a/b")
+    }
+}
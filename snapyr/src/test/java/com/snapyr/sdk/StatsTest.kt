@@ -41,6 +41,7 @@ class StatsTest {
 
     @Before
     fun setUp() {
+        SnapyrScheduler.reset()
         stats = Stats()
     }
 
@@ -61,25 +62,120 @@ class StatsTest {
     fun performIntegrationOperation() {
         stats.performIntegrationOperation(Pair("foo", 43L))
         assertThat(stats.integrationOperationCount).isEqualTo(1)
-        assertThat(stats.integrationOperationDuration).isEqualTo(43L)
-        assertThat(stats.integrationOperationDurationByIntegration)
+        assertThat(stats.integrationOperationDurationMicros).isEqualTo(43L)
+        assertThat(stats.integrationOperationDurationMicrosByIntegration)
             .containsExactly(MapEntry.entry("foo", 43L))
 
         stats.performIntegrationOperation(Pair("bar", 2L))
         assertThat(stats.integrationOperationCount).isEqualTo(2)
-        assertThat(stats.integrationOperationDuration).isEqualTo(45L)
-        assertThat(stats.integrationOperationDurationByIntegration)
+        assertThat(stats.integrationOperationDurationMicros).isEqualTo(45L)
+        assertThat(stats.integrationOperationDurationMicrosByIntegration)
             .hasSize(2)
             .contains(MapEntry.entry("bar", 2L))
 
         stats.performIntegrationOperation(Pair("bar", 19L))
         assertThat(stats.integrationOperationCount).isEqualTo(3)
-        assertThat(stats.integrationOperationDuration).isEqualTo(64L)
-        assertThat(stats.integrationOperationDurationByIntegration)
+        assertThat(stats.integrationOperationDurationMicros).isEqualTo(64L)
+        assertThat(stats.integrationOperationDurationMicrosByIntegration)
             .hasSize(2)
             .contains(MapEntry.entry("bar", 21L))
     }
 
+    @Test
+    fun subMillisecondOperationsAddUp() {
+        for (i in 0 until 4) {
+            stats.performIntegrationOperation(Pair("fast", 400L))
+        }
+
+        val snapshot = stats.createSnapshot()
+        assertThat(snapshot.integrationOperationDuration).isEqualTo(1L)
+        assertThat(snapshot.integrationOperationDurationByIntegration)
+            .containsExactly(MapEntry.entry("fast", 1L))
+    }
+
+    @Test
+    fun performMiddlewareError() {
+        stats.performMiddlewareError()
+        stats.performMiddlewareError()
+
+        assertThat(stats.middlewareErrorCount).isEqualTo(2)
+        assertThat(stats.createSnapshot().middlewareErrorCount).isEqualTo(2)
+    }
+
+    @Test
+    fun publicConstructorLeavesNewerStatsAtZero() {
+        val snapshot = StatsSnapshot(1, 2, 3, 4, 8, emptyMap())
+
+        assertThat(snapshot.flushEventCount).isEqualTo(3)
+        assertThat(snapshot.integrationOperationAverageDuration).isEqualTo(2f)
+        assertThat(snapshot.sharedContextBatchCount).isZero
+        assertThat(snapshot.sharedContextBytesSaved).isZero
+        assertThat(snapshot.sharedContextAverageBytesSaved).isZero
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun performSharedContextBatch() {
+        stats.performSharedContextBatch(100)
+        stats.performSharedContextBatch(50)
+
+        val snapshot = stats.createSnapshot()
+        assertThat(snapshot.sharedContextBatchCount).isEqualTo(2)
+        assertThat(snapshot.sharedContextBytesSaved).isEqualTo(150)
+        assertThat(snapshot.sharedContextAverageBytesSaved).isEqualTo(75f)
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun performCoalescedEvent() {
+        stats.performCoalescedEvent()
+        stats.performCoalescedEvent()
+
+        assertThat(stats.createSnapshot().coalescedEventCount).isEqualTo(2)
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun performTrackingPlanDrop() {
+        stats.performTrackingPlanDrop(true, 30)
+        stats.performTrackingPlanDrop(false, 12)
+
+        val snapshot = stats.createSnapshot()
+        assertThat(snapshot.trackingPlanBlockedEventCount).isEqualTo(1)
+        assertThat(snapshot.trackingPlanDroppedBytes).isEqualTo(42)
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun performActionHandlerCallback() {
+        // In microseconds, added up before converting to milliseconds.
+        stats.performActionHandlerCallback(10_400, 0)
+        stats.performActionHandlerCallback(19_600, 6_000)
+        stats.performActionHandlerDrop()
+
+        val snapshot = stats.createSnapshot()
+        assertThat(snapshot.actionHandlerCallbackCount).isEqualTo(2)
+        assertThat(snapshot.actionHandlerCallbackDuration).isEqualTo(30)
+        assertThat(snapshot.actionHandlerCallbackAverageDuration).isEqualTo(15f)
+        assertThat(snapshot.actionHandlerCallbackDelay).isEqualTo(6)
+        assertThat(snapshot.actionHandlerDroppedCount).isEqualTo(1)
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun performEdgeFunctions() {
+        // In microseconds, added up before converting to milliseconds.
+        stats.performEdgeFunctions(600, false)
+        stats.performEdgeFunctions(1_400, true)
+        stats.performEdgeFunctions(1_000, false)
+
+        val snapshot = stats.createSnapshot()
+        assertThat(snapshot.edgeFunctionEventCount).isEqualTo(3)
+        assertThat(snapshot.edgeFunctionDuration).isEqualTo(3)
+        assertThat(snapshot.edgeFunctionAverageDuration).isEqualTo(1f)
+        assertThat(snapshot.edgeFunctionOverBudgetCount).isEqualTo(1)
+    }
+
     @Test
     @Throws(IOException::class)
     fun createSnapshot() {
@@ -92,17 +188,17 @@ class StatsTest {
         stats.performFlush(13)
         stats.performFlush(21)
 
-        stats.performIntegrationOperation(Pair("foo", 1L))
-        stats.performIntegrationOperation(Pair("foo", 1L))
-        stats.performIntegrationOperation(Pair("foo", 1L))
-        stats.performIntegrationOperation(Pair("foo", 1L))
-        stats.performIntegrationOperation(Pair("foo", 1L))
-        stats.performIntegrationOperation(Pair("foo", 1L))
+        stats.performIntegrationOperation(Pair("foo", 1000L))
+        stats.performIntegrationOperation(Pair("foo", 1000L))
+        stats.performIntegrationOperation(Pair("foo", 1000L))
+        stats.performIntegrationOperation(Pair("foo", 1000L))
+        stats.performIntegrationOperation(Pair("foo", 1000L))
+        stats.performIntegrationOperation(Pair("foo", 1000L))
 
-        stats.performIntegrationOperation(Pair("bar", 2L))
-        stats.performIntegrationOperation(Pair("bar", 2L))
-        stats.performIntegrationOperation(Pair("bar", 2L))
-        stats.performIntegrationOperation(Pair("bar", 2L))
+        stats.performIntegrationOperation(Pair("bar", 2000L))
+        stats.performIntegrationOperation(Pair("bar", 2000L))
+        stats.performIntegrationOperation(Pair("bar", 2000L))
+        stats.performIntegrationOperation(Pair("bar", 2000L))
 
         val snapshot = stats.createSnapshot()
         assertThat(snapshot.flushCount).isEqualTo(8)
@@ -134,5 +230,17 @@ class StatsTest {
         assertThat(snapshot.integrationOperationDuration).isZero
         assertThat(snapshot.integrationOperationAverageDuration).isZero
         assertThat(snapshot.integrationOperationDurationByIntegration).isEmpty()
+        assertThat(snapshot.sharedContextBatchCount).isZero
+        assertThat(snapshot.sharedContextBytesSaved).isZero
+        assertThat(snapshot.coalescedEventCount).isZero
+        assertThat(snapshot.trackingPlanBlockedEventCount).isZero
+        assertThat(snapshot.trackingPlanDroppedBytes).isZero
+        assertThat(snapshot.actionHandlerCallbackCount).isZero
+        assertThat(snapshot.actionHandlerCallbackAverageDuration).isZero
+        assertThat(snapshot.actionHandlerDroppedCount).isZero
+        assertThat(snapshot.edgeFunctionEventCount).isZero
+        assertThat(snapshot.edgeFunctionAverageDuration).isZero
+        assertThat(snapshot.edgeFunctionOverBudgetCount).isZero
+        assertThat(snapshot.middlewareErrorCount).isZero
     }
 }
@@ -0,0 +1,102 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class TrackingPlanTest {
+
+    private fun compile(json: String): TrackingPlan {
+        return TrackingPlan.compile(ProjectSettings.create(Cartographer.INSTANCE.fromJson(json)))
+    }
+
+    @Test
+    fun withoutPlanEverythingIsAllowed() {
+        assertThat(TrackingPlan.compile(null).ruleFor("foo")).isSameAs(TrackingPlan.Rule.ALLOW)
+        assertThat(compile("{}").ruleFor("foo")).isSameAs(TrackingPlan.Rule.ALLOW)
+        assertThat(compile("""{"plan":{}}""").ruleFor("foo")).isSameAs(TrackingPlan.Rule.ALLOW)
+    }
+
+    @Test
+    fun rules() {
+        val plan = compile(
+            """
+            |{"plan":{"track":{
+            |  "blocked":{"enabled":false},
+            |  "enabled":{"enabled":true},
+            |  "listed":{"properties":["a","b"]},
+            |  "blockedListed":{"enabled":false,"properties":["a"]}
+            |}}}
+            """.trimMargin()
+        )
+
+        assertThat(plan.ruleFor("blocked").enabled).isFalse()
+        assertThat(plan.ruleFor("blockedListed").enabled).isFalse()
+        assertThat(plan.ruleFor("enabled")).isSameAs(TrackingPlan.Rule.ALLOW)
+        assertThat(plan.ruleFor("unlisted")).isSameAs(TrackingPlan.Rule.ALLOW)
+        assertThat(plan.ruleFor("listed").enabled).isTrue()
+        assertThat(plan.ruleFor("listed").allowedProperties).containsOnly("a", "b")
+    }
+
+    @Test
+    fun defaultRule() {
+        val plan = compile(
+            """{"plan":{"track":{"__default":{"enabled":false},"allowed":{"enabled":true}}}}"""
+        )
+
+        assertThat(plan.ruleFor("unlisted").enabled).isFalse()
+        assertThat(plan.ruleFor("allowed").enabled).isTrue()
+    }
+
+    @Test
+    fun strip() {
+        val rule = compile("""{"plan":{"track":{"foo":{"properties":["a"]}}}}""").ruleFor("foo")
+
+        val allowed = Properties().putValue("a", 1)
+        assertThat(rule.strip(allowed)).isSameAs(allowed)
+        val mixed = Properties().putValue("a", 1).putValue("b", 2)
+        assertThat(rule.strip(mixed)).containsOnlyKeys("a").containsEntry("a", 1)
+        assertThat(mixed).containsOnlyKeys("a", "b")
+        val properties = Properties().putValue("b", 2)
+        assertThat(TrackingPlan.Rule.ALLOW.strip(properties)).isSameAs(properties)
+    }
+
+    @Test
+    fun estimateSize() {
+        val properties = Properties()
+            .putValue("s", "abc")
+            .putValue("n", 12)
+            .putValue("l", listOf(true, null))
+            .putValue("m", mapOf("k" to 1.5))
+        // {"s":"abc","n":12,"l":[true,null],"m":{"k":1.5}}, counting a comma after the last
+        // member of each object and the last element of the array too.
+        assertThat(TrackingPlan.estimateSize(properties)).isEqualTo(48 + 3)
+    }
+}
@@ -107,6 +107,15 @@ class TraitsTest {
         }
     }
 
+    @Test
+    fun copyIsNotAffectedByLaterChanges() {
+        val copy = traits.unmodifiableCopy()
+        traits.putName("Jane Doe")
+
+        assertThat(copy).doesNotContainKey("name")
+        assertThat(traits.unmodifiableCopy()).containsEntry("name", "Jane Doe")
+    }
+
     @Test
     fun copyIsImmutable() {
         val copy = traits.unmodifiableCopy()
@@ -0,0 +1,205 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk
+
+import com.snapyr.sdk.integrations.TrackPayload
+import com.snapyr.sdk.internal.NanoDate
+import com.snapyr.sdk.internal.PayloadTimestamp
+import java.util.Date
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.fail
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class Utf8JsonWriterTest {
+
+    private val writer = Utf8JsonWriter()
+
+    private fun assertMatchesJsonWriter(map: Map<String, Any?>) {
+        writer.reset()
+        Cartographer.INSTANCE.toJson(map, writer)
+        val expected = Cartographer.INSTANCE.toJson(map).toByteArray(Charsets.UTF_8)
+        assertThat(writer.toByteArray()).isEqualTo(expected)
+    }
+
+    @Test
+    fun payload() {
+        val context = linkedMapOf<String, Any?>(
+            "app" to mapOf("name" to "Snapyr", "version" to "1.0", "build" to 42),
+            "device" to mapOf("id" to "abc", "adTrackingEnabled" to true),
+            "screen" to mapOf("density" to 2.75, "width" to 1080, "height" to 2340),
+            "timezone" to "Europe/London"
+        )
+        val payload = TrackPayload.Builder()
+            .messageId("a2e5d1c5-8b2f-4d36-a4a1-5b9b1c1ba6a7")
+            .timestamp(Date(1633046400000L))
+            .context(context)
+            .anonymousId("anonymous")
+            .userId("user")
+            .event("Order Completed")
+            .properties(Properties().putRevenue(12.5).putCurrency("USD"))
+            .build()
+        assertMatchesJsonWriter(payload)
+    }
+
+    @Test
+    fun timestamps() {
+        val millis = PayloadTimestamp(Date(1633046400123L), false)
+        assertThat(write(mapOf("timestamp" to millis)))
+            .isEqualTo("{\"timestamp\":\"2021-10-01T00:00:00.123Z\"}")
+
+        val nanos = PayloadTimestamp(NanoDate(1633046400123456789L), true)
+        assertThat(write(mapOf("timestamp" to nanos)))
+            .isEqualTo("{\"timestamp\":\"2021-10-01T00:00:00.123456789Z\"}")
+            .isEqualTo(Cartographer.INSTANCE.toJson(mapOf("timestamp" to nanos)))
+    }
+
+    @Test
+    fun reusesSerializedContextSnapshot() {
+        val location = SnapyrContext.Location().putLatitude(1.0)
+        val context = Utils.createContext(Traits().putUserId("user"))
+        context.putLocation(location)
+
+        val snapshot = context.snapshot()
+        val first = write(mapOf("context" to snapshot))
+        assertThat(first).isEqualTo(Cartographer.INSTANCE.toJson(mapOf("context" to snapshot)))
+
+        assertThat(write(mapOf("context" to snapshot))).isEqualTo(first)
+
+        // Changes to nested values bump the version, so they aren't served stale.
+        location.putSpeed(88.0)
+        val second = context.snapshot()
+        assertThat(write(mapOf("context" to second)))
+            .isEqualTo(Cartographer.INSTANCE.toJson(mapOf("context" to second)))
+            .contains("\"speed\":88.0")
+
+        context.setTraits(Traits().putUserId("other"))
+        assertThat(write(mapOf("context" to context.snapshot()))).contains("\"other\"")
+    }
+
+    @Test
+    fun writesContextWithUntrackedValuesFromScratch() {
+        val device = linkedMapOf<String, Any>("id" to "abc")
+        val context = Utils.createContext(Traits().putUserId("user"))
+        context["device"] = device
+        val snapshot = context.snapshot()
+        write(mapOf("context" to snapshot))
+
+        device["token"] = "token"
+        assertThat(write(mapOf("context" to snapshot))).contains("\"token\":\"token\"")
+    }
+
+    @Test
+    fun writesOverlaidContextFromScratch() {
+        val context = Utils.createContext(Traits().putUserId("user"))
+        write(mapOf("context" to context.snapshot()))
+
+        val overlaid = context.snapshot(mapOf("campaign" to "spring"))
+        assertThat(write(mapOf("context" to overlaid)))
+            .isEqualTo(Cartographer.INSTANCE.toJson(mapOf("context" to overlaid)))
+            .contains("\"campaign\":\"spring\"")
+    }
+
+    private fun write(map: Map<String, Any?>): String {
+        writer.reset()
+        Cartographer.INSTANCE.toJson(map, writer)
+        return String(writer.toByteArray(), Charsets.UTF_8)
+    }
+
+    @Test
+    fun values() {
+        assertMatchesJsonWriter(
+            linkedMapOf(
+                "null" to null,
+                "true" to true,
+                "false" to false,
+                "byte" to 32.toByte(),
+                "short" to (-100).toShort(),
+                "int" to Int.MIN_VALUE,
+                "long" to Long.MIN_VALUE,
+                "maxLong" to Long.MAX_VALUE,
+                "zero" to 0L,
+                "float" to 23.1f,
+                "double" to Math.PI,
+                "exponent" to 1.0e-20,
+                "nan" to Double.NaN,
+                "infinity" to Double.NEGATIVE_INFINITY,
+                "char" to 'c',
+                "list" to listOf(1, "two", null, listOf<Any>(), mapOf<String, Any>()),
+                "ints" to intArrayOf(1, 2, 3),
+                "strings" to arrayOf("a", "b"),
+                "object" to Date(0),
+                "nested" to mapOf("a" to mapOf("b" to mapOf("c" to "d")))
+            )
+        )
+    }
+
+    @Test
+    fun strings() {
+        val map = linkedMapOf<String, Any?>()
+        for (c in 0 until 0x80) {
+            map["ascii $c"] = "<" + c.toChar() + ">"
+        }
+        map["escapes"] = "quote \" backslash \\ slash / tab \t newline \n \b \r \u000c"
+        map["separators"] = "\u2028 \u2029 \u0085"
+        map["two bytes"] = "\u00e9\u00df\u07ff"
+        map["three bytes"] = "\u20ac\u4e2d\uffff"
+        map["surrogate pair"] = "\ud83d\ude00"
+        map["unpaired"] = "\ud83d x \ude00 \ud83d"
+        map["key \"\n\u2028"] = "value"
+        assertMatchesJsonWriter(map)
+    }
+
+    @Test
+    fun prettyPrint() {
+        val cartographer = Cartographer.Builder().prettyPrint(true).build()
+        val map = mapOf("a" to mapOf("b" to listOf(1, 2)), "c" to "\u20ac")
+        cartographer.toJson(map, writer)
+        assertThat(writer.toByteArray()).isEqualTo(cartographer.toJson(map).toByteArray())
+    }
+
+    @Test
+    fun strictRejectsNonFiniteNumbers() {
+        val cartographer = Cartographer.Builder().lenient(false).build()
+        try {
+            cartographer.toJson(mapOf("nan" to Double.NaN), writer)
+            fail("NaN should throw IllegalArgumentException")
+        } catch (expected: IllegalArgumentException) {
+            assertThat(expected).hasMessage("Numeric values must be finite, but was NaN")
+        }
+    }
+
+    @Test
+    fun resetReusesBuffer() {
+        writer.writeMap(mapOf("a" to "b".repeat(5000)))
+        writer.reset()
+        assertThat(writer.size()).isZero
+        writer.writeMap(mapOf("c" to 1))
+        assertThat(String(writer.toByteArray())).isEqualTo("""{"c":1}""")
+    }
+}
@@ -23,6 +23,10 @@
  */
 package com.snapyr.sdk
 
+import com.nhaarman.mockitokotlin2.mock
+import com.snapyr.sdk.internal.Utils
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
 import org.assertj.core.api.Assertions.assertThat
 import org.junit.Before
 import org.junit.Test
@@ -77,4 +81,133 @@ class ValueMapCacheTest {
             )
         assertThat(traitsCacheDuplicate.isSet).isTrue
     }
+
+    @Test
+    @Throws(Exception::class)
+    fun deferredWritesAreReadFromMemory() {
+        val persister = StatePersister(mock(), Executor { it.run() }, TimeUnit.HOURS.toMillis(1))
+        traitsCache.persistWith(persister)
+        val traits = Traits().putValue("foo", "bar")
+        traitsCache.set(traits)
+
+        assertThat(traitsCache.isSet).isTrue
+        assertThat(traitsCache.get()).isEqualTo(traits)
+        val traitsCacheDuplicate =
+            ValueMap.Cache<Traits>(
+                RuntimeEnvironment.application,
+                cartographer,
+                "traits-cache-test",
+                "tag",
+                Traits::class.java
+            )
+        assertThat(traitsCacheDuplicate.isSet).isFalse
+
+        persister.flush()
+        assertThat(
+                ValueMap.Cache<Traits>(
+                        RuntimeEnvironment.application,
+                        cartographer,
+                        "traits-cache-test",
+                        "tag",
+                        Traits::class.java
+                    )
+                    .get()
+            )
+            .isEqualTo(traits)
+
+        traitsCache.delete()
+        assertThat(traitsCache.get()).isNull()
+        persister.flush()
+        assertThat(
+                ValueMap.Cache<Traits>(
+                        RuntimeEnvironment.application,
+                        cartographer,
+                        "traits-cache-test",
+                        "tag",
+                        Traits::class.java
+                    )
+                    .isSet
+            )
+            .isFalse
+    }
+
+    @Test
+    @Throws(Exception::class)
+    fun missIsNotReadAgain() {
+        val cache =
+            ValueMap.Cache<Traits>(
+                RuntimeEnvironment.application,
+                cartographer,
+                "traits-cache-test",
+                "tag",
+                Traits::class.java
+            )
+        assertThat(cache.isSet).isFalse
+        StateStore(RuntimeEnvironment.application, "tag").put("traits-cache-test", "{}")
+
+        // Only a new instance reads what another instance wrote.
+        assertThat(cache.isSet).isFalse
+        traitsCache.delete()
+    }
+
+    @Test
+    @Throws(Exception::class)
+    fun migratesFromSharedPreferences() {
+        val preferences = Utils.getSnapyrSharedPreferences(RuntimeEnvironment.application, "tag")
+        preferences.edit().putString("traits-cache-test", "{\"foo\":\"bar\"}").commit()
+
+        val migrated =
+            ValueMap.Cache<Traits>(
+                RuntimeEnvironment.application,
+                cartographer,
+                "traits-cache-test",
+                "tag",
+                Traits::class.java
+            )
+
+        assertThat(migrated.get()).isEqualTo(Traits().putValue("foo", "bar"))
+        assertThat(preferences.contains("traits-cache-test")).isFalse
+        assertThat(
+                ValueMap.Cache<Traits>(
+                        RuntimeEnvironment.application,
+                        cartographer,
+                        "traits-cache-test",
+                        "tag",
+                        Traits::class.java
+                    )
+                    .get()
+            )
+            .isEqualTo(Traits().putValue("foo", "bar"))
+    }
+
+    @Test
+    @Throws(Exception::class)
+    fun sharedPreferencesAreOnlyCheckedOnce() {
+        val cache =
+            ValueMap.Cache<Traits>(
+                RuntimeEnvironment.application,
+                cartographer,
+                "traits-cache-test",
+                "tag",
+                Traits::class.java
+            )
+        assertThat(cache.isSet).isFalse
+        val store = StateStore(RuntimeEnvironment.application, "tag")
+        assertThat(store.contains("traits-cache-test-migrated")).isTrue
+
+        // Nothing is left to migrate, so a value that shows up there later is ignored.
+        val preferences = Utils.getSnapyrSharedPreferences(RuntimeEnvironment.application, "tag")
+        preferences.edit().putString("traits-cache-test", "{\"foo\":\"bar\"}").commit()
+        assertThat(
+                ValueMap.Cache<Traits>(
+                        RuntimeEnvironment.application,
+                        cartographer,
+                        "traits-cache-test",
+                        "tag",
+                        Traits::class.java
+                    )
+                    .isSet
+            )
+            .isFalse
+    }
 }
@@ -27,6 +27,8 @@ import com.google.common.collect.ImmutableMap
 import com.nhaarman.mockitokotlin2.spy
 import com.nhaarman.mockitokotlin2.verify
 import com.snapyr.sdk.TestUtils.PROJECT_SETTINGS_JSON_SAMPLE
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
 import org.assertj.core.api.Assertions.assertThat
 import org.assertj.core.api.Assertions.fail
 import org.assertj.core.data.MapEntry
@@ -215,7 +217,7 @@ class ValueMapTest {
             .contains(MapEntry.entry("apiKey", "8DY3D6S7CCWH54RBJ9ZM"))
             .contains(MapEntry.entry("captureUncaughtExceptions", false))
             .contains(MapEntry.entry("useHttps", true))
-            .contains(MapEntry.entry("sessionContinueSeconds", 10.0))
+            .contains(MapEntry.entry("sessionContinueSeconds", 10L))
     }
 
     @Test
@@ -249,6 +251,17 @@ class ValueMapTest {
         assertThat(jsonObject.get("foo")).isEqualTo(JSONObject.NULL)
     }
 
+    @Test
+    @Throws(Exception::class)
+    fun toJsonObjectWithLazyNumbers() {
+        valueMap["id"] = LazyNumber("9007199254740993")
+        valueMap["price"] = LazyNumber("2.50")
+
+        val jsonObject = valueMap.toJsonObject()
+        assertThat(jsonObject.get("id")).isEqualTo(9007199254740993L)
+        assertThat(jsonObject.get("price")).isEqualTo(2.5)
+    }
+
     @Test
     fun getInt() {
         assertThat(valueMap.getInt("a missing key", 1)).isEqualTo(1)
@@ -346,6 +359,83 @@ class ValueMapTest {
         assertThat(valueMap.getList("foo", Traits::class.java)).isNull()
     }
 
+    @Test
+    fun getValueMapWrapsMapOnce() {
+        val concurrent = ValueMap(ConcurrentHashMap())
+        concurrent["traits"] = mapOf("name" to "Jane")
+        val traits = concurrent.getValueMap("traits", Traits::class.java)
+
+        assertThat(traits).isInstanceOf(Traits::class.java).containsEntry("name", "Jane")
+        assertThat(concurrent.getValueMap("traits", Traits::class.java)).isSameAs(traits)
+        assertThat(concurrent["traits"]).isSameAs(traits)
+        assertThat(cartographer.toJson(concurrent)).isEqualTo("{\"traits\":{\"name\":\"Jane\"}}")
+    }
+
+    @Test
+    fun getValueMapDoesNotWriteToMapsThatArentConcurrent() {
+        val nested = mapOf("name" to "Jane")
+        valueMap["traits"] = nested
+
+        assertThat(valueMap.getValueMap("traits", Traits::class.java)).isEqualTo(nested)
+        assertThat(valueMap["traits"]).isSameAs(nested)
+    }
+
+    @Test
+    fun getValueMapLeavesUnmodifiableMapsAlone() {
+        val nested = mapOf("name" to "Jane")
+        val unmodifiable = ValueMap(Collections.unmodifiableMap(mapOf("traits" to nested)))
+
+        val traits = unmodifiable.getValueMap("traits", Traits::class.java)
+        assertThat(traits).isEqualTo(nested)
+        assertThat(unmodifiable["traits"]).isSameAs(nested)
+    }
+
+    @Test
+    fun createValueMapUsesRegisteredFactory() {
+        val created = ArrayList<Map<String, Any>>()
+        ValueMap.registerFactory(
+            RegisteredSettings::class.java,
+            ValueMap.Factory { map ->
+                created.add(map)
+                RegisteredSettings(map)
+            }
+        )
+        val map = mapOf<String, Any>("token" to "x")
+
+        assertThat(ValueMap.createValueMap(map, RegisteredSettings::class.java)).isEqualTo(map)
+        assertThat(created).containsExactly(map)
+    }
+
+    @Test
+    fun createValueMapFallsBackToReflection() {
+        val map = mapOf<String, Any>("token" to "x")
+
+        assertThat(ValueMap.createValueMap(map, UnregisteredSettings::class.java))
+            .isInstanceOf(UnregisteredSettings::class.java)
+            .isEqualTo(map)
+    }
+
+    @Test
+    fun createValueMapHasFactoriesForLibraryTypes() {
+        val map = mapOf<String, Any>("key" to "value")
+        for (type in
+            listOf(
+                Traits::class.java,
+                Traits.Address::class.java,
+                Properties::class.java,
+                Properties.Product::class.java,
+                SnapyrContext::class.java,
+                SnapyrContext.Campaign::class.java,
+                SnapyrContext.Device::class.java,
+                SnapyrContext.Location::class.java,
+                SnapyrContext.Referrer::class.java,
+                SnapyrAction::class.java,
+                ProjectSettings::class.java
+            )) {
+            assertThat(ValueMap.createValueMap(map, type)).isInstanceOf(type).isEqualTo(map)
+        }
+    }
+
     @Test
     fun toStringMap() {
         assertThat(valueMap.toStringMap()).isEmpty()
@@ -374,6 +464,10 @@ class ValueMapTest {
 
     class MixpanelSettings(delegate: Map<String, Any>) : ValueMap(delegate)
 
+    class RegisteredSettings(delegate: Map<String, Any>) : ValueMap(delegate)
+
+    class UnregisteredSettings private constructor(delegate: Map<String, Any>) : ValueMap(delegate)
+
     class AmplitudeSettings : ValueMap() {
         init {
             throw AssertionError("string constructors must not be called when deserializing")
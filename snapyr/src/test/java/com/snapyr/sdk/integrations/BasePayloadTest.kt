@@ -80,6 +80,26 @@ class BasePayloadTest {
         }
     }
 
+    @Test
+    fun messageIdIsGenerated() {
+        for (builder in builders) {
+            val payload = builder.userId("user_id").build()
+            Assertions.assertThat(payload.messageId()).hasSize(36)
+        }
+        for (builder in builders) {
+            val payload = builder.messageIdGenerator(
+                object : MessageIdGenerator {
+                    override fun generate() = "generated"
+                }
+            ).build()
+            Assertions.assertThat(payload.messageId()).isEqualTo("generated")
+        }
+        for (builder in builders) {
+            val payload = builder.messageId("explicit").build()
+            Assertions.assertThat(payload.messageId()).isEqualTo("explicit")
+        }
+    }
+
     @Test
     fun type() {
         for (builder in builders) {
@@ -0,0 +1,97 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Segment.io, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.snapyr.sdk.integrations
+
+import java.util.Arrays
+import java.util.UUID
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.fail
+import org.junit.Test
+
+class TimeOrderedMessageIdGeneratorTest {
+
+    private val generator = TimeOrderedMessageIdGenerator()
+
+    @Test
+    fun isVersion7Uuid() {
+        val id = generator.generate(1_600_000_000_000L)
+        assertThat(id).hasSize(TimeOrderedMessageIdGenerator.LENGTH)
+        // 1_600_000_000_000 is 0x174876e8000.
+        assertThat(id).startsWith("0174876e-8000-7")
+
+        val uuid = UUID.fromString(id)
+        assertThat(uuid.toString()).isEqualTo(id)
+        assertThat(uuid.version()).isEqualTo(7)
+        assertThat(uuid.variant()).isEqualTo(2)
+        assertThat(uuid.mostSignificantBits ushr 16).isEqualTo(1_600_000_000_000L)
+    }
+
+    @Test
+    fun sortsByCreationTime() {
+        var previous = generator.generate(0)
+        for (millis in longArrayOf(1, 255, 256, 1_600_000_000_000L, 1_600_000_000_001L)) {
+            val id = generator.generate(millis)
+            assertThat(id).isGreaterThan(previous)
+            previous = id
+        }
+    }
+
+    @Test
+    fun noCollisionsAcrossThreads() {
+        val threads = 4
+        val perThread = 2_500_000
+        val executor = Executors.newFixedThreadPool(threads)
+        val tasks = (0 until threads).map {
+            Callable {
+                // Keep only the random low half; a single timestamp makes a collision likelier.
+                LongArray(perThread) { lowBits(generator.generate(0)) }
+            }
+        }
+        val ids = LongArray(threads * perThread)
+        executor.invokeAll(tasks).forEachIndexed { i, future ->
+            System.arraycopy(future.get(), 0, ids, i * perThread, perThread)
+        }
+        executor.shutdown()
+
+        Arrays.sort(ids)
+        for (i in 1 until ids.size) {
+            if (ids[i] == ids[i - 1]) {
+                fail("Duplicate low bits " + java.lang.Long.toHexString(ids[i]))
+            }
+        }
+    }
+
+    /** The low 64 bits of [id], read straight from its hex digits. */
+    private fun lowBits(id: String): Long {
+        var bits = 0L
+        for (i in 19 until id.length) {
+            if (id[i] != '-') {
+                bits = (bits shl 4) or Character.digit(id[i], 16).toLong()
+            }
+        }
+        return bits
+    }
+}
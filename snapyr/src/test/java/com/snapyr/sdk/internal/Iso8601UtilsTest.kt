@@ -27,6 +27,7 @@ import java.text.ParseException
 import java.util.Calendar
 import java.util.Date
 import java.util.GregorianCalendar
+import java.util.Random
 import java.util.TimeZone
 import java.util.concurrent.TimeUnit
 import org.assertj.core.api.Assertions.assertThat
@@ -208,6 +209,78 @@ class Iso8601UtilsTest {
         }
     }
 
+    @Test
+    fun formatNanosPadsLeadingZeros() {
+        val early = Date(date.time - 789 + 5)
+        assertThat(Iso8601Utils.format(early)).isEqualTo("2007-08-13T19:51:23.005Z")
+        assertThat(Iso8601Utils.formatNanos(early)).isEqualTo("2007-08-13T19:51:23.005000000Z")
+        assertThat(Iso8601Utils.formatNanos(NanoDate(1187207505000000042L)))
+            .isEqualTo("2007-08-15T19:51:45.000000042Z")
+    }
+
+    @Test
+    fun encoderMatchesCalendar() {
+        val random = Random(42)
+        val millis = mutableListOf(
+            0L, -1L, 951782400000L, // 2000-02-29
+            -12212553600000L, -12212553600001L, // first millisecond of 1583 and the one before
+            253402300799999L, 253402300800000L // last millisecond of 9999 and the one after
+        )
+        repeat(10_000) { millis.add(random.nextLong() % 253402300800000L) }
+        for (time in millis) {
+            val date = Date(time)
+            assertThat(Iso8601Utils.format(date)).isEqualTo(Iso8601Utils.formatCalendar(date))
+            assertThat(Iso8601Utils.formatNanos(date))
+                .isEqualTo(Iso8601Utils.formatNanosCalendar(date))
+        }
+    }
+
+    @Test
+    fun encodeWritesIntoBuffer() {
+        val buffer = CharArray(Utils.ISO8601_MAX_LENGTH + 2)
+        buffer[0] = '"'
+        val length = Utils.writeISO8601String(date, buffer, 1)
+        assertThat(length).isEqualTo(24)
+        assertThat(String(buffer, 0, length + 1)).isEqualTo("\"2007-08-13T19:51:23.789Z")
+
+        // Later calls within the same second only rewrite the fraction.
+        Utils.writeISO8601String(Date(date.time + 100), buffer, 1)
+        assertThat(String(buffer, 1, length)).isEqualTo("2007-08-13T19:51:23.889Z")
+        Utils.writeISO8601String(Date(date.time + 211), buffer, 1)
+        assertThat(String(buffer, 1, length)).isEqualTo("2007-08-13T19:51:24.000Z")
+    }
+
+    @Test
+    fun parseFastPathMatchesCalendar() {
+        val random = Random(42)
+        repeat(10_000) {
+            val nanos = (random.nextLong() ushr 1) / 1_000 * 1_000 + random.nextInt(1_000)
+            val formatted = Iso8601Utils.formatNanos(NanoDate(nanos))
+            assertThat(Iso8601Encoder.parseSecond(formatted))
+                .isNotEqualTo(Iso8601Encoder.UNSUPPORTED)
+            assertThat(Iso8601Utils.parseWithNanos(formatted).nanos()).isEqualTo(nanos)
+            assertThat(Iso8601Utils.parse(formatted).time).isEqualTo(nanos / 1_000_000)
+        }
+    }
+
+    @Test
+    fun parseFastPathLeavesOddInputToCalendar() {
+        assertThat(Iso8601Encoder.parseSecond("1990-12-31T23:59:60Z"))
+            .isEqualTo(Iso8601Encoder.UNSUPPORTED)
+        assertThat(Iso8601Utils.parse("1990-12-31T23:59:60Z"))
+            .isEqualTo(newDate(1990, 12, 31, 23, 59, 59, 0, 0))
+        assertThat(Iso8601Encoder.parseSecond("2007-08-13T21:51:23.789+02:00"))
+            .isEqualTo(Iso8601Encoder.UNSUPPORTED)
+        assertThat(Iso8601Encoder.parseSecond("2007-02-29T00:00:00Z"))
+            .isEqualTo(Iso8601Encoder.UNSUPPORTED)
+        try {
+            Iso8601Utils.parseWithNanos("2007-02-29T00:00:00Z")
+            fail()
+        } catch (e: RuntimeException) {
+            assertThat(e).hasMessage("Not an RFC 3339 date: 2007-02-29T00:00:00Z")
+        }
+    }
+
     private fun newDate(
         year: Int,
         month: Int,